@@ -0,0 +1,149 @@
+package cenc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading CPIX documents of 10 to 10,000 keys with the {@link CpixDocumentReader}. Every key has
+ * a Widevine and a PlayReady DRM system and a usage rule with a video filter, like the documents
+ * of key rotation. The baseline {@code domRead} parses the document into a DOM first and joins the
+ * same key material from it. Run with {@code -prof gc} to see the allocation per document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CpixDocumentReaderBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int keys;
+
+    private static final String CPIX = "urn:dashif:org:cpix";
+    private static final String PSKC = "urn:ietf:params:xml:ns:keyprov:pskc";
+
+    private byte[] document;
+    private DocumentBuilderFactory documentBuilderFactory;
+
+    @Setup
+    public void setup() throws ParserConfigurationException {
+        document = document(keys).getBytes(StandardCharsets.UTF_8);
+        documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        documentBuilderFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+    }
+
+    @Benchmark
+    public List<KeyMaterial> read() throws IOException {
+        return CpixDocumentReader.read(new ByteArrayInputStream(document));
+    }
+
+    /** Baseline: the whole document as DOM, then the key material of its elements */
+    @Benchmark
+    public List<KeyMaterial> domRead() throws IOException, ParserConfigurationException, SAXException {
+        Document dom = documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(document));
+        Base64.Decoder base64 = Base64.getMimeDecoder();
+        Map<UUID, KeyMaterial.Builder> keys = new LinkedHashMap<>();
+
+        for (Element contentKey : elements(dom.getElementsByTagNameNS(CPIX, "ContentKey"))) {
+            String plainValue = contentKey.getElementsByTagNameNS(PSKC, "PlainValue").item(0).getTextContent();
+            builder(keys, contentKey).contentKey(base64.decode(plainValue.trim()),
+                    base64.decode(contentKey.getAttribute("explicitIV")), null);
+        }
+        for (Element drmSystem : elements(dom.getElementsByTagNameNS(CPIX, "DRMSystem"))) {
+            String pssh = drmSystem.getElementsByTagNameNS(CPIX, "PSSH").item(0).getTextContent();
+            builder(keys, drmSystem).drmSystem(new KeyMaterial.DrmSystemData(
+                    UUID.fromString(drmSystem.getAttribute("systemId")), base64.decode(pssh.trim()), null, null));
+        }
+        for (Element usageRule : elements(dom.getElementsByTagNameNS(CPIX, "ContentKeyUsageRule"))) {
+            KeyMaterial.Builder key = builder(keys, usageRule);
+            key.usageRule(usageRule.getAttribute("intendedTrackType"));
+            Element keyPeriod = (Element) usageRule.getElementsByTagNameNS(CPIX, "KeyPeriodFilter").item(0);
+            key.keyPeriod(keyPeriod.getAttribute("periodId"));
+            Element videoFilter = (Element) usageRule.getElementsByTagNameNS(CPIX, "VideoFilter").item(0);
+            key.videoFilter(Long.parseLong(videoFilter.getAttribute("minPixels")), Long.parseLong(videoFilter.getAttribute("maxPixels")));
+        }
+
+        List<KeyMaterial> keyMaterial = new ArrayList<>(keys.size());
+        for (KeyMaterial.Builder builder : keys.values()) {
+            keyMaterial.add(builder.build());
+        }
+        return keyMaterial;
+    }
+
+    /** getLength of the node lists of the JDK walks the document to its end on every call */
+    private static List<Element> elements(NodeList nodes) {
+        int length = nodes.getLength();
+        List<Element> elements = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            elements.add((Element) nodes.item(i));
+        }
+        return elements;
+    }
+
+    private static KeyMaterial.Builder builder(Map<UUID, KeyMaterial.Builder> keys, Element element) {
+        return keys.computeIfAbsent(UUID.fromString(element.getAttribute("kid")), KeyMaterial.Builder::new);
+    }
+
+    private static String document(int keys) {
+        Base64.Encoder base64 = Base64.getEncoder();
+        UUID[] kids = new UUID[keys];
+        for (int i = 0; i < keys; i++) {
+            kids[i] = new UUID(0x5e2f4c1a9b7d4e3fL, i);
+        }
+        byte[] key = new byte[16];
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<cpix:CPIX xmlns:cpix=\"urn:dashif:org:cpix\" xmlns:pskc=\"urn:ietf:params:xml:ns:keyprov:pskc\">\n"
+                + "<cpix:ContentKeyList>\n");
+        for (UUID kid : kids) {
+            xml.append("<cpix:ContentKey kid=\"").append(kid).append("\" explicitIV=\"").append(base64.encodeToString(key))
+                    .append("\"><cpix:Data><pskc:Secret><pskc:PlainValue>").append(base64.encodeToString(key))
+                    .append("</pskc:PlainValue></pskc:Secret></cpix:Data></cpix:ContentKey>\n");
+        }
+        xml.append("</cpix:ContentKeyList>\n<cpix:DRMSystemList>\n");
+        for (UUID kid : kids) {
+            byte[] kidBytes = new byte[16];
+            xml.append("<cpix:DRMSystem kid=\"").append(kid).append("\" systemId=\"").append(PsshBox.WIDEVINE_SYSTEM_ID)
+                    .append("\"><cpix:PSSH>").append(base64.encodeToString(PsshBox.widevine(kidBytes, "benchmark-content", EncryptionScheme.CENC)))
+                    .append("</cpix:PSSH></cpix:DRMSystem>\n");
+            xml.append("<cpix:DRMSystem kid=\"").append(kid).append("\" systemId=\"").append(PsshBox.PLAYREADY_SYSTEM_ID)
+                    .append("\"><cpix:PSSH>").append(base64.encodeToString(PsshBox.playReady(kidBytes, null, EncryptionScheme.CENC)))
+                    .append("</cpix:PSSH></cpix:DRMSystem>\n");
+        }
+        xml.append("</cpix:DRMSystemList>\n<cpix:ContentKeyUsageRuleList>\n");
+        for (int i = 0; i < keys; i++) {
+            xml.append("<cpix:ContentKeyUsageRule kid=\"").append(kids[i]).append("\" intendedTrackType=\"HD\">")
+                    .append("<cpix:KeyPeriodFilter periodId=\"period-").append(i).append("\"/>")
+                    .append("<cpix:VideoFilter minPixels=\"442369\" maxPixels=\"2073600\"/></cpix:ContentKeyUsageRule>\n");
+        }
+        return xml.append("</cpix:ContentKeyUsageRuleList>\n</cpix:CPIX>\n").toString();
+    }
+}
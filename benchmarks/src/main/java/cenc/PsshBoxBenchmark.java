@@ -0,0 +1,124 @@
+package cenc;
+
+import com.pallycon.cpix.dto.CpixDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PsshBox} handling as done for every rendition: taking the base64 pssh box of the CPIX key
+ * info apart for Bitmovin, writing the Widevine and PlayReady boxes, and the round trip of writing
+ * a box into a reused buffer and reading it back.
+ *
+ * <p>The Widevine box of the key info is canned: the box KMS returns for the key id and content
+ * id, built once per trial, so no KMS is needed. Two baselines take the same box apart the way the
+ * pipeline did before: {@code bitmovinPsshV2}, the PallyCon SDK call, and {@code stringPsshData},
+ * its base64 to hex to base64 conversion written out without the SDK.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PsshBoxBenchmark {
+
+    @Param({"CENC", "CBCS"})
+    public EncryptionScheme scheme;
+
+    private byte[] kid;
+    private String encodedWidevineBox;
+    private CpixDTO cpixDTO;
+    private List<byte[]> kids;
+    private ByteBuffer widevineData;
+    private ByteBuffer out;
+
+    @Setup
+    public void setup() {
+        UUID uuid = UUID.fromString("5e2f4c1a-9b7d-4e3f-8a6c-1d2e3f4a5b6c");
+        kid = ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+        encodedWidevineBox = Base64.getEncoder().encodeToString(PsshBox.widevine(kid, "benchmark-content", scheme));
+        cpixDTO = new CpixDTO();
+        if (!widevinePsshData().equals(stringPsshData())) {
+            throw new IllegalStateException("the baseline returns other pssh data than PsshBox");
+        }
+        kids = Collections.singletonList(kid);
+        widevineData = ByteBuffer.allocate(PsshBox.widevineDataSize("benchmark-content", scheme));
+        PsshBox.writeWidevineData(widevineData, kid, "benchmark-content", scheme);
+        widevineData.flip();
+        out = ByteBuffer.allocate(PsshBox.size(1, widevineData.remaining()));
+    }
+
+    /** What the pipeline does with the Widevine pssh of the key info */
+    @Benchmark
+    public String widevinePsshData() {
+        return PsshBox.read(Base64.getDecoder().decode(encodedWidevineBox)).encodeData();
+    }
+
+    /** Baseline: the PallyCon SDK call the pipeline used before, it only reads the given box */
+    @Benchmark
+    public String bitmovinPsshV2() {
+        return cpixDTO.getBitmovinPsshV2(encodedWidevineBox);
+    }
+
+    /** Baseline: the string conversion of getBitmovinPsshV2, the data follows the 32 byte header */
+    @Benchmark
+    public String stringPsshData() {
+        String hex = toHex(Base64.getDecoder().decode(encodedWidevineBox));
+        return Base64.getEncoder().encodeToString(fromHex(hex.substring(64)));
+    }
+
+    @Benchmark
+    public byte[] writeWidevine() {
+        return PsshBox.widevine(kid, "benchmark-content", scheme);
+    }
+
+    @Benchmark
+    public byte[] writePlayReady() {
+        return PsshBox.playReady(kid, "https://license.pallycon.com/ri/licenseManager.do", scheme);
+    }
+
+    /** A version 1 box written into the same buffer and read in place, without allocating the data */
+    @Benchmark
+    public int roundTrip() {
+        out.clear();
+        PsshBox.write(out, PsshBox.WIDEVINE_SYSTEM_ID, kids, widevineData);
+        PsshBox box = PsshBox.read(out, 0);
+        return box.isSystem(PsshBox.WIDEVINE_SYSTEM_ID) ? box.getDataSize() : -1;
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            hex[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4 | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,54 @@
+package common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of the {@link ConfigProvider}: a setting of the command line (the first source), one of
+ * the environment (the third source) and a missing optional setting, which scans all sources.
+ * The info log of every lookup is disabled by the logback.xml of the benchmarks, so only the
+ * level check is part of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigProviderBenchmark {
+
+    private ConfigProvider configProvider;
+    private String environmentKey;
+
+    @Setup
+    public void setup() {
+        configProvider = new ConfigProvider(new String[] {"CONTENT_ID=benchmark", "KEY_PREFETCH_DEPTH=2"});
+        // any variable of the environment the benchmark runs in
+        environmentKey = System.getenv().keySet().iterator().next();
+    }
+
+    @Benchmark
+    public String commandLineLookup() {
+        return configProvider.getContentId();
+    }
+
+    @Benchmark
+    public String environmentLookup() {
+        return configProvider.getParameterByKey(environmentKey);
+    }
+
+    @Benchmark
+    public boolean optionalLookup() {
+        return configProvider.hasParameter("KEY_PREFETCH_DEPTH") && configProvider.hasParameter("BENCHMARK_MISSING_KEY");
+    }
+}
@@ -0,0 +1,45 @@
+package pipeline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** {@link PackagingPipeline#buildAbsolutePath}, called for every output of a title */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildAbsolutePathBenchmark {
+
+    private PackagingJob job;
+
+    @Setup
+    public void setup() {
+        job = PackagingJob.builder()
+                .contentId("benchmark-content")
+                .inputPath("benchmark/input.mp4")
+                .outputBasePath("outputs/benchmark-content/")
+                .build();
+    }
+
+    @Benchmark
+    public String renditionPath() {
+        return PackagingPipeline.buildAbsolutePath(job, "video/3");
+    }
+
+    @Benchmark
+    public String manifestPath() {
+        return PackagingPipeline.buildAbsolutePath(job, LocalManifestWriter.DASH_MANIFEST_NAME);
+    }
+}
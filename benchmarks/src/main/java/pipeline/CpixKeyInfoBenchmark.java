@@ -0,0 +1,91 @@
+package pipeline;
+
+import com.pallycon.cpix.dto.ContentKeyDTO;
+import com.pallycon.cpix.dto.ContentKeyUsageRuleDTO;
+import com.pallycon.cpix.dto.CpixDTO;
+import com.pallycon.cpix.dto.DRMSystemId;
+import com.pallycon.cpix.dto.DrmSystemDTO;
+import com.pallycon.cpix.dto.VideoConfig;
+import com.pallycon.cpix.util.Base64Encoder;
+import com.pallycon.cpix.util.StringUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import pipeline.PackagingJob.DrmType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The key extraction the pipeline does for every rendition of a CBCS title: usage rule and
+ * content key by track, the DRM systems by kid, and the base64 to hex conversion of key and IV for
+ * the Bitmovin DRM configuration. Needs the KMS for the key info, see {@link KeyInfoFixture}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CpixKeyInfoBenchmark {
+
+    private KeyInfoFixture keyInfo;
+    private String kid;
+    private String plainValue;
+
+    @Setup
+    public void setup() throws Exception {
+        keyInfo = new KeyInfoFixture(new int[] {360, 480, 720, 1080, 1440, 2160}, DrmType.CBCS);
+        CpixDTO cpixDTO = keyInfo.drmKeys.getDash();
+        kid = cpixDTO.getContentKeyUsageRuleDTO(keyInfo.videoProfile.get(0).track).getKid();
+        plainValue = cpixDTO.getContentKeyDTO(kid).getData().getSecret().getPlainValue();
+    }
+
+    /** All lookups of the CBCS DRM configurations of the ladder */
+    @Benchmark
+    public void ladderLookups(Blackhole blackhole) {
+        CpixDTO cpixDTO = keyInfo.drmKeys.getDash();
+        CpixDTO fairPlayCpixDTO = keyInfo.drmKeys.getHls();
+        for (VideoConfig videoConfig : keyInfo.videoProfile) {
+            String kid = cpixDTO.getContentKeyUsageRuleDTO(videoConfig.track).getKid();
+            blackhole.consume(fairPlayCpixDTO.getContentKeyUsageRuleDTO(videoConfig.track).getKid());
+            blackhole.consume(cpixDTO.getContentKeyDTO(kid));
+            blackhole.consume(cpixDTO.getDrmSystemDTO(DRMSystemId.WIDEVINE, kid));
+            blackhole.consume(cpixDTO.getDrmSystemDTO(DRMSystemId.PLAYREADY, kid));
+            blackhole.consume(fairPlayCpixDTO.getDrmSystemDTO(DRMSystemId.FAIRPLAY, kid));
+        }
+    }
+
+    @Benchmark
+    public ContentKeyUsageRuleDTO contentKeyUsageRule() {
+        return keyInfo.drmKeys.getDash().getContentKeyUsageRuleDTO(keyInfo.videoProfile.get(0).track);
+    }
+
+    @Benchmark
+    public DrmSystemDTO drmSystem() {
+        return keyInfo.drmKeys.getDash().getDrmSystemDTO(DRMSystemId.WIDEVINE, kid);
+    }
+
+    @Benchmark
+    public ContentKeyDTO contentKey() {
+        return keyInfo.drmKeys.getDash().getContentKeyDTO(kid);
+    }
+
+    /** ContentKey > Secret > PlainValue, base64 decoded and hex encoded as Bitmovin expects it */
+    @Benchmark
+    public String keyToHex() {
+        return StringUtil.byteArrayToHex(Base64Encoder.decode(plainValue));
+    }
+
+    @Benchmark
+    public String kidWithoutDashes() {
+        return kid.replaceAll("\\-", "");
+    }
+}
@@ -0,0 +1,82 @@
+package pipeline;
+
+import com.bitmovin.api.sdk.model.Encoding;
+import com.bitmovin.api.sdk.model.HttpInput;
+import com.bitmovin.api.sdk.model.S3Output;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pipeline.PackagingJob.DrmType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ladder loop of {@link PackagingPipeline#createDrmConfig}: codec configuration, stream,
+ * muxing and DRM configuration of every rendition, against the {@link StubBitmovinApi}. Needs the
+ * KMS for the key info, see {@link KeyInfoFixture}. The apiCalls counter reports the requests
+ * per ladder, with and without ingest input streams.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CreateDrmConfigBenchmark {
+
+    @Param({"DASH", "HLS", "CBCS"})
+    public DrmType drmType;
+
+    @Param({"false", "true"})
+    public boolean ingestInputStreams;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ApiCalls {
+        public long apiCalls;
+    }
+
+    private StubBitmovinApi api;
+    private PackagingPipeline pipeline;
+    private KeyInfoFixture keyInfo;
+    private Encoding encoding;
+    private HttpInput input;
+    private S3Output output;
+
+    @Setup
+    public void setup() throws Exception {
+        keyInfo = new KeyInfoFixture(new int[] {360, 480, 720, 1080}, drmType, ingestInputStreams);
+        api = new StubBitmovinApi();
+        pipeline = PackagingPipeline.builder(api.client(), null).build();
+        encoding = new Encoding();
+        encoding.setId("benchmark-encoding");
+        input = new HttpInput();
+        input.setId("benchmark-input");
+        output = new S3Output();
+        output.setId("benchmark-output");
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.getKmsClient().shutdown();
+        api.close();
+    }
+
+    @Benchmark
+    public void createDrmConfig(ApiCalls apiCalls) throws Exception {
+        long requests = api.requests();
+        pipeline.createDrmConfig(
+                keyInfo.job, encoding, input, output, keyInfo.videoProfile, keyInfo.audioProfile, keyInfo.drmKeys);
+        apiCalls.apiCalls += api.requests() - requests;
+    }
+}
@@ -0,0 +1,59 @@
+package pipeline;
+
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.VideoConfig;
+import common.ConfigProvider;
+import pipeline.PackagingJob.DrmType;
+import pipeline.PackagingPipeline.DrmKeys;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The CPIX key info of the benchmarks. The PallyCon SDK only builds its CpixDTO from a KMS
+ * response, so the key info is requested once per trial for PALLYCON_ENC_TOKEN and CONTENT_ID of
+ * the example configuration; the measured code runs without the KMS. Exclude the benchmarks which
+ * need it with {@code -e "CpixKeyInfo|CreateDrmConfig"} when no KMS is available.
+ */
+class KeyInfoFixture {
+
+    final PackagingJob job;
+    final List<VideoConfig> videoProfile;
+    final List<AudioConfig> audioProfile;
+    final DrmKeys drmKeys;
+
+    /**
+     * @param heights The ladder, lowest first
+     * @param drmType The key info to request, CBCS for both DASH and HLS
+     */
+    KeyInfoFixture(int[] heights, DrmType drmType) throws Exception {
+        this(heights, drmType, false);
+    }
+
+    KeyInfoFixture(int[] heights, DrmType drmType, boolean ingestInputStreams) throws Exception {
+        ConfigProvider configProvider = new ConfigProvider(new String[0]);
+        List<VideoConfig> ladder = new ArrayList<>();
+        for (int height : heights) {
+            ladder.add(new VideoConfig(height));
+        }
+        job = PackagingJob.builder()
+                .contentId(configProvider.getContentId())
+                .pallyconEncToken(configProvider.getPallyconEncKey())
+                .inputPath("benchmark/input.mp4")
+                .outputBasePath("benchmark/output/")
+                .videoProfile(ladder)
+                .audioProfile(Collections.singletonList(new AudioConfig()))
+                .drmType(drmType)
+                .ingestInputStreams(ingestInputStreams)
+                .build();
+        videoProfile = PackagingPipeline.copyOf(job.getVideoProfile());
+        audioProfile = job.getAudioProfile();
+        KmsClient kmsClient = new KmsClient();
+        try {
+            drmKeys = PackagingPipeline.fetchKeys(kmsClient, job, videoProfile, audioProfile);
+        } finally {
+            kmsClient.shutdown();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package pipeline;
+
+import com.bitmovin.api.sdk.BitmovinApi;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import feign.Logger.Level;
+import feign.slf4j.Slf4jLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP server standing in for the Bitmovin API: every request is answered at once with a
+ * successful response carrying a new resource id, so benchmarks measure the client side of the API
+ * calls (serialization, HTTP on the loopback interface, deserialization) without the service.
+ */
+class StubBitmovinApi implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final AtomicLong ids = new AtomicLong();
+
+    StubBitmovinApi() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::respond);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /** @return the number of requests answered so far */
+    long requests() {
+        return ids.get();
+    }
+
+    /** @return a client of the stub */
+    BitmovinApi client() {
+        return BitmovinApi.builder()
+                .withApiKey("benchmark")
+                .withBaseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/v1")
+                .withLogger(new Slf4jLogger(), Level.NONE)
+                .build();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            while (body.read(buffer) >= 0) {
+                // drain the request
+            }
+        }
+        byte[] response = ("{\"requestId\":\"benchmark\",\"status\":\"SUCCESS\",\"data\":{\"result\":{\"id\":\""
+                + ids.incrementAndGet() + "\"}}}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
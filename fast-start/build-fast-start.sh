@@ -0,0 +1,46 @@
+#!/bin/bash
+# Builds the fast-start launcher from the jar-with-dependencies assembly (mvn -Pfast-start package):
+#   runtime/     - runtime image with only the JDK modules the examples use (jlink)
+#   app.jar      - the assembly
+#   app.jsa      - class data archive (AppCDS) of the classes a packaging run loads, trained with
+#                  daemon.FastStartTraining: a title run by the daemon against a local API stub
+#   run-example.sh - launcher using both, called like ../run-example.sh
+# Needs JDK 13 or later for jlink and dynamic class data archives.
+set -e
+
+jar=$1
+out=$2
+if [ -z "$jar" ] || [ -z "$out" ]; then
+    echo "usage: build-fast-start.sh <jar-with-dependencies> <output folder>" >&2
+    exit 1
+fi
+
+java_home=${JAVA_HOME:-$(dirname "$(dirname "$(readlink -f "$(which java)")")")}
+version=$("$java_home/bin/java" -XshowSettings:properties -version 2>&1 | sed -n 's/^ *java.specification.version = //p')
+major=${version%%.*}
+if [ "$major" = "1" ] || [ "$major" -lt 13 ]; then
+    echo "the fast-start profile needs JDK 13 or later, found $version" >&2
+    exit 1
+fi
+
+rm -rf "$out"
+mkdir -p "$out"
+out=$(cd "$out" && pwd)
+cp "$jar" "$out/app.jar"
+
+# the modules the classes of the assembly need, plus the elliptic curves of TLS for the API
+modules=$("$java_home/bin/jdeps" --ignore-missing-deps --print-module-deps --multi-release "$major" "$out/app.jar" 2>/dev/null \
+    || echo "java.base,java.logging,java.management,java.naming,java.net.http,java.sql,java.xml,jdk.httpserver,jdk.unsupported")
+"$java_home/bin/jlink" \
+    --add-modules "$modules,jdk.crypto.ec" \
+    --strip-debug --no-header-files --no-man-pages \
+    --output "$out/runtime"
+# the default archive of the JDK classes, which the archive of the application builds on
+"$out/runtime/bin/java" -Xshare:dump > /dev/null
+
+# training run: the archive holds the classes the daemon and the pipeline loaded for a title
+"$out/runtime/bin/java" -XX:ArchiveClassesAtExit="$out/app.jsa" -cp "$out/app.jar" daemon.FastStartTraining
+
+cp "$(dirname "$0")/run-example.sh" "$out/run-example.sh"
+chmod +x "$out/run-example.sh"
+echo "fast-start launcher written to $out ($(du -sh "$out/runtime" | cut -f1) runtime image)"
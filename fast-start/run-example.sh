@@ -0,0 +1,9 @@
+#!/bin/bash
+# Fast-start launcher, copied next to the runtime image and class data archive by
+# build-fast-start.sh. The archive is only used with the runtime and jar it was trained with,
+# otherwise the JVM starts without it.
+dir=$(cd "$(dirname "$0")" && pwd)
+file_name=$1
+shift
+
+"$dir/runtime/bin/java" -XX:SharedArchiveFile="$dir/app.jsa" -Xshare:auto -cp "$dir/app.jar" $file_name "$@"
@@ -0,0 +1,79 @@
+import cenc.ConformanceChecker;
+import cenc.ConformanceReport;
+import cenc.RenditionKeys;
+import com.pallycon.cpix.CPixCommonModule;
+import common.ConfigProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pipeline.PackagingJob.DrmType;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This example verifies the encrypted output of {@link CencDrmContentProtectionByPallyConV2}
+ * against the PallyCon keys of its CONTENT_ID with the {@link ConformanceChecker}: the init
+ * segments have to carry the key ids, IVs and pssh data of the key info, the media segments have
+ * to decrypt with the keys. The output has to be available locally, e.g. synced from the S3
+ * output bucket.
+ *
+ * <p>The following configuration parameters are expected:
+ *
+ * <ul>
+ *   <li>PALLYCON_ENC_TOKEN - PallyCon KMS token
+ *   <li>CONTENT_ID - The content id the output was packaged for
+ *   <li>CONFORMANCE_OUTPUT_DIR - The local copy of the output. Example: ./output/1a2b3c
+ *   <li>CONFORMANCE_LADDER - (optional) Comma separated heights of the video renditions.
+ *       Default: 480,720,1080
+ *   <li>CONFORMANCE_DECRYPT_EVERY - (optional) Trial decrypt every n-th media segment, 0 for none.
+ *       Default: 1
+ *   <li>DRM_PACKAGER_TYPE - (optional) DASH, HLS or CBCS, as used for packaging. Default: HLS
+ *   <li>CPIX_DOCUMENT - (optional) CPIX document with the keys, read instead of requesting them
+ *       from PallyCon KMS, see {@link RenditionKeys#fromDocument}
+ * </ul>
+ *
+ * <p>Configuration parameters will be retrieved from these sources in the listed order:
+ *
+ * <ol>
+ *   <li>command line arguments (eg CONTENT_ID=xyz)
+ *   <li>properties file located in the root folder of the JAVA examples at ./examples.properties
+ *       (see examples.properties.template as reference)
+ *   <li>environment variables
+ *   <li>properties file located in the home folder at ~/.bitmovin/examples.properties (see
+ *       examples.properties.template as reference)
+ * </ol>
+ */
+public class DrmConformanceCheck {
+    private static final Logger logger = LoggerFactory.getLogger(DrmConformanceCheck.class);
+
+    public static void main(String[] args) throws Exception {
+        ConfigProvider configProvider = new ConfigProvider(args);
+        Path outputDir = Paths.get(configProvider.getParameterByKey("CONFORMANCE_OUTPUT_DIR"));
+        DrmType drmType = configProvider.hasParameter("DRM_PACKAGER_TYPE")
+                ? DrmType.valueOf(configProvider.getParameterByKey("DRM_PACKAGER_TYPE"))
+                : DrmType.HLS;
+        int decryptEvery = configProvider.hasParameter("CONFORMANCE_DECRYPT_EVERY")
+                ? Integer.parseInt(configProvider.getParameterByKey("CONFORMANCE_DECRYPT_EVERY"))
+                : 1;
+
+        List<Integer> ladder = RenditionKeys.parseLadder(
+                configProvider.hasParameter("CONFORMANCE_LADDER") ? configProvider.getParameterByKey("CONFORMANCE_LADDER") : "480,720,1080");
+        RenditionKeys renditionKeys = configProvider.hasParameter("CPIX_DOCUMENT")
+                ? RenditionKeys.fromDocument(Paths.get(configProvider.getParameterByKey("CPIX_DOCUMENT")), ladder)
+                : RenditionKeys.fetch(
+                        new CPixCommonModule(), configProvider.getPallyconEncKey(), configProvider.getContentId(), ladder,
+                        drmType != DrmType.HLS, drmType != DrmType.DASH);
+
+        ConformanceReport report = new ConformanceChecker(renditionKeys.getScheme(), ForkJoinPool.commonPool(), decryptEvery)
+                .check(outputDir, renditionKeys.getKeys());
+        for (ConformanceReport.Finding finding : report.getFindings()) {
+            logger.error("{}", finding);
+        }
+        logger.info("{}", report);
+        if (!report.isConformant()) {
+            System.exit(1);
+        }
+    }
+}
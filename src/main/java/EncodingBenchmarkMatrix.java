@@ -0,0 +1,470 @@
+import com.bitmovin.api.sdk.BitmovinApi;
+import com.bitmovin.api.sdk.common.BitmovinException;
+import com.bitmovin.api.sdk.encoding.encodings.EncodingListQueryParams;
+import com.bitmovin.api.sdk.model.*;
+import common.ConfigProvider;
+import common.EncodingProgressBus;
+import common.EncodingStatusPoller;
+import feign.Logger.Level;
+import feign.slf4j.Slf4jLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a matrix of clear (unencrypted) fMP4 encodings of the same source over a set of segment
+ * lengths, codec presets and ladder shapes, and writes a comparison report. The results are meant
+ * to tune the segment length used by {@link CencDrmContentProtectionByPallyConV2} (SEGMENT_LENGTH)
+ * for CDN cache efficiency against encoder throughput.
+ *
+ * <p>The encodings of the matrix are set up at once, but only as many are started at the same time
+ * as the account has free encoding slots: ENCODING_SLOTS minus the encodings which are already
+ * queued or running on the account when the benchmark starts. So no run waits in the Bitmovin
+ * queue behind another run of the matrix. All of them are tracked by a single {@link
+ * EncodingStatusPoller}. For every combination the report contains:
+ *
+ * <ul>
+ *   <li>queue time - wall time from start until the encoding was seen RUNNING
+ *   <li>encode time - wall time from RUNNING until the encoding finished, both seen by the status
+ *       poller, so precise to its poll interval
+ *   <li>output size and billable minutes - taken from the encoding statistics
+ *   <li>segments - number of media segments the muxings wrote (all renditions, without init
+ *       segments), as reported by the muxings
+ *   <li>requests per playback minute - segment requests a single viewer issues for one minute of
+ *       playback (the lowest video rendition and the audio rendition), from the written segments
+ *   <li>error - why the run failed, the other runs of the matrix are reported anyway
+ * </ul>
+ *
+ * <p>The following configuration parameters are expected:
+ *
+ * <ul>
+ *   <li>BITMOVIN_API_KEY - Your API key for the Bitmovin API
+ *   <li>HTTP_INPUT_HOST - The Hostname or IP address of the HTTP server hosting your input files,
+ *       e.g.: my-storage.biz
+ *   <li>HTTP_INPUT_FILE_PATH - The path to your input file on the provided HTTP server Example:
+ *       videos/1080p_Sintel.mp4
+ *   <li>S3_OUTPUT_BUCKET_NAME - The name of your S3 output bucket. Example: my-bucket-name
+ *   <li>S3_OUTPUT_ACCESS_KEY - The access key of your S3 output bucket
+ *   <li>S3_OUTPUT_SECRET_KEY - The secret key of your S3 output bucket
+ *   <li>S3_OUTPUT_BASE_PATH - The base path on your S3 output bucket where content will be written.
+ *       Example: /outputs
+ *   <li>BENCHMARK_SOURCE_DURATION - Duration of the source in seconds. Example: 888
+ *   <li>BENCHMARK_SEGMENT_LENGTHS - (optional) Comma separated segment lengths in seconds.
+ *       Default: 2,4,6
+ *   <li>BENCHMARK_PRESETS - (optional) Comma separated H.264 preset configurations. Default:
+ *       VOD_STANDARD,VOD_SPEED
+ *   <li>BENCHMARK_LADDERS - (optional) Ladder shapes separated by ';', each a comma separated list
+ *       of heights. Default: 480,720,1080;480,720,1080,2160
+ *   <li>BENCHMARK_REPORT_PATH - (optional) Path of the CSV report. Default: benchmark-report.csv
+ *   <li>ENCODING_SLOTS - (optional) Number of encodings the account may run at the same time.
+ *       Default: 1
+ * </ul>
+ *
+ * <p>Configuration parameters will be retrieved from these sources in the listed order:
+ *
+ * <ol>
+ *   <li>command line arguments (eg BITMOVIN_API_KEY=xyz)
+ *   <li>properties file located in the root folder of the JAVA examples at ./examples.properties
+ *       (see examples.properties.template as reference)
+ *   <li>environment variables
+ *   <li>properties file located in the home folder at ~/.bitmovin/examples.properties (see
+ *       examples.properties.template as reference)
+ * </ol>
+ */
+public class EncodingBenchmarkMatrix {
+    private static final Logger logger = LoggerFactory.getLogger(EncodingBenchmarkMatrix.class);
+
+    private static BitmovinApi bitmovinApi;
+    private static ConfigProvider configProvider;
+
+    public static void main(String[] args) throws Exception {
+        configProvider = new ConfigProvider(args);
+        bitmovinApi =
+                BitmovinApi.builder()
+                        .withApiKey(configProvider.getBitmovinApiKey())
+                        .withLogger(
+                                new Slf4jLogger(), Level.BASIC) // set the logger and log level for the API client
+                        .build();
+        EncodingStatusPoller statusPoller = new EncodingStatusPoller(bitmovinApi, EncodingProgressBus.getDefault());
+
+        double sourceDuration = Double.parseDouble(configProvider.getParameterByKey("BENCHMARK_SOURCE_DURATION"));
+        List<Double> segmentLengths =
+                parseList(getOrDefault("BENCHMARK_SEGMENT_LENGTHS", "2,4,6"), ",").stream()
+                        .map(Double::parseDouble)
+                        .collect(Collectors.toList());
+        List<PresetConfiguration> presets =
+                parseList(getOrDefault("BENCHMARK_PRESETS", "VOD_STANDARD,VOD_SPEED"), ",").stream()
+                        .map(PresetConfiguration::valueOf)
+                        .collect(Collectors.toList());
+        List<List<Integer>> ladders =
+                parseList(getOrDefault("BENCHMARK_LADDERS", "480,720,1080;480,720,1080,2160"), ";").stream()
+                        .map(ladder -> parseList(ladder, ",").stream().map(Integer::parseInt).collect(Collectors.toList()))
+                        .collect(Collectors.toList());
+
+        HttpInput input = createHttpInput(configProvider.getHttpInputHost());
+        Output output =
+                createS3Output(
+                        configProvider.getS3OutputBucketName(),
+                        configProvider.getS3OutputAccessKey(),
+                        configProvider.getS3OutputSecretKey());
+
+        List<BenchmarkRun> runs = new ArrayList<>();
+        for (List<Integer> ladder : ladders) {
+            for (PresetConfiguration preset : presets) {
+                for (double segmentLength : segmentLengths) {
+                    runs.add(setupRun(input, output, ladder, preset, segmentLength));
+                }
+            }
+        }
+
+        // the time an encoding was first seen RUNNING, by encoding id
+        Map<String, Long> runningSince = new ConcurrentHashMap<>();
+        EncodingProgressBus.getDefault().addListener(event -> {
+            if (event.getStatus() == Status.RUNNING) {
+                runningSince.putIfAbsent(event.getJobId(), event.getTimestamp());
+            }
+        });
+
+        int slots = Integer.parseInt(getOrDefault("ENCODING_SLOTS", "1"));
+        int freeSlots = Math.max(1, slots - countActiveEncodings());
+        logger.info("running {} benchmark encodings, {} at a time", runs.size(), freeSlots);
+        ExecutorService executor = Executors.newFixedThreadPool(freeSlots);
+        try {
+            for (BenchmarkRun run : runs) {
+                executor.execute(() -> execute(run, statusPoller, runningSince));
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+            statusPoller.shutdown();
+        }
+
+        writeReport(runs, sourceDuration, getOrDefault("BENCHMARK_REPORT_PATH", "benchmark-report.csv"));
+    }
+
+    /**
+     * Starts the encoding of a run, waits until it finished and collects its statistics and
+     * segment counts. A failure is recorded in the run, it doesn't stop the benchmark.
+     */
+    private static void execute(BenchmarkRun run, EncodingStatusPoller statusPoller, Map<String, Long> runningSince) {
+        String encodingId = run.encoding.getId();
+        try {
+            bitmovinApi.encoding.encodings.start(encodingId, new StartEncodingRequest());
+            run.startedAt = System.currentTimeMillis();
+            Task task = statusPoller.trackEncoding(encodingId).join();
+            run.finishedAt = System.currentTimeMillis();
+            // an encoding which finished between two polls was never seen RUNNING
+            run.runningAt = runningSince.getOrDefault(encodingId, run.startedAt);
+            run.status = task.getStatus();
+            if (task.getStatus() != Status.FINISHED) {
+                run.error = "encoding " + encodingId + " ended with status " + task.getStatus();
+                return;
+            }
+            run.stats = bitmovinApi.encoding.statistics.encodings.get(encodingId);
+            for (String muxingId : run.videoMuxingIds) {
+                run.videoSegments.add(segmentsMuxed(encodingId, muxingId));
+            }
+            run.audioSegments = segmentsMuxed(encodingId, run.audioMuxingId);
+        } catch (Exception e) {
+            logger.error("benchmark run {} failed", run.label, e);
+            run.status = run.status == null ? Status.ERROR : run.status;
+            run.error = String.valueOf(e.getMessage());
+        }
+    }
+
+    /** @return the number of media segments the muxing wrote */
+    private static int segmentsMuxed(String encodingId, String muxingId) throws BitmovinException {
+        Integer segments = bitmovinApi.encoding.encodings.muxings.fmp4.get(encodingId, muxingId).getSegmentsMuxed();
+        return segments == null ? 0 : segments;
+    }
+
+    /** @return the number of encodings which are queued or running on the account */
+    private static int countActiveEncodings() throws BitmovinException {
+        int active = 0;
+        for (Status status : new Status[] {Status.QUEUED, Status.RUNNING}) {
+            EncodingListQueryParams queryParams = new EncodingListQueryParams();
+            queryParams.setStatus(status.toString());
+            queryParams.setLimit(1);
+            Long totalCount = bitmovinApi.encoding.encodings.list(queryParams).getTotalCount();
+            active += totalCount == null ? 0 : totalCount.intValue();
+        }
+        return active;
+    }
+
+    private static BenchmarkRun setupRun(
+            Input input, Output output, List<Integer> ladder, PresetConfiguration preset, double segmentLength)
+            throws BitmovinException {
+        String label = String.format("%s_%s_%.1fs", ladderLabel(ladder), preset, segmentLength);
+        Encoding encoding = createEncoding("benchmark " + label, "Encoding benchmark matrix run");
+
+        BenchmarkRun run = new BenchmarkRun(label, encoding, ladder, preset, segmentLength);
+        int i = 1;
+        for (int height : ladder) {
+            H264VideoConfiguration h264Config = createH264VideoConfig(height, i * 800_000L, preset);
+            Stream videoStream = createStream(encoding, input, configProvider.getHttpInputFilePath(), h264Config);
+            run.videoMuxingIds.add(
+                    createFmp4Muxing(encoding, videoStream, segmentLength, output, label + "/video/" + i).getId());
+            i++;
+        }
+        Stream audioStream =
+                createStream(encoding, input, configProvider.getHttpInputFilePath(), createAacAudioConfig());
+        run.audioMuxingId = createFmp4Muxing(encoding, audioStream, segmentLength, output, label + "/audio").getId();
+
+        return run;
+    }
+
+    private static void writeReport(List<BenchmarkRun> runs, double sourceDuration, String reportPath)
+            throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("label,ladder,preset,segment_length,status,queue_time_s,encode_time_s,output_bytes,billable_minutes,segments,requests_per_playback_minute,error");
+        for (BenchmarkRun run : runs) {
+            String row = String.format("%s,%s,%s,%.1f,%s",
+                    run.label, ladderLabel(run.ladder), run.preset, run.segmentLength, run.status);
+            if (run.error != null) {
+                lines.add(row + ",,,,,,," + run.error.replaceAll("[,\\r\\n]", " "));
+                continue;
+            }
+            int segments = run.audioSegments + run.videoSegments.stream().mapToInt(Integer::intValue).sum();
+            int playbackSegments = run.audioSegments + (run.videoSegments.isEmpty() ? 0 : run.videoSegments.get(0));
+            lines.add(row + String.format(",%.1f,%.1f,%d,%.2f,%d,%.1f,",
+                    (run.runningAt - run.startedAt) / 1000.0,
+                    (run.finishedAt - run.runningAt) / 1000.0,
+                    run.stats.getBytesEncoded(),
+                    run.stats.getBillableMinutes(),
+                    segments,
+                    playbackSegments * 60 / sourceDuration));
+        }
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(reportPath), StandardCharsets.UTF_8))) {
+            lines.forEach(writer::println);
+        }
+        lines.forEach(logger::info);
+        logger.info("benchmark report written to {}", reportPath);
+    }
+
+    private static String getOrDefault(String key, String defaultValue) {
+        return configProvider.hasParameter(key) ? configProvider.getParameterByKey(key) : defaultValue;
+    }
+
+    private static List<String> parseList(String value, String separator) {
+        return Arrays.stream(value.split(separator))
+                .map(String::trim)
+                .filter(item -> !item.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private static String ladderLabel(List<Integer> ladder) {
+        return ladder.stream().map(String::valueOf).collect(Collectors.joining("-"));
+    }
+
+    private static class BenchmarkRun {
+        private final String label;
+        private final Encoding encoding;
+        private final List<Integer> ladder;
+        private final PresetConfiguration preset;
+        private final double segmentLength;
+        private final List<String> videoMuxingIds = new ArrayList<>();
+        private String audioMuxingId;
+        // written by the thread executing the run, read after all runs finished
+        private long startedAt;
+        private long runningAt;
+        private long finishedAt;
+        private Status status;
+        private String error;
+        private EncodingStats stats;
+        private final List<Integer> videoSegments = new ArrayList<>();
+        private int audioSegments;
+
+        BenchmarkRun(String label, Encoding encoding, List<Integer> ladder, PresetConfiguration preset, double segmentLength) {
+            this.label = label;
+            this.encoding = encoding;
+            this.ladder = ladder;
+            this.preset = preset;
+            this.segmentLength = segmentLength;
+        }
+    }
+
+    /**
+     * Creates an Encoding object. This is the base object to configure your encoding.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/PostEncodingEncodings
+     *
+     * @param name A name that will help you identify the encoding in our dashboard (required)
+     * @param description A description of the encoding (optional)
+     */
+    private static Encoding createEncoding(String name, String description) throws BitmovinException {
+        Encoding encoding = new Encoding();
+        encoding.setName(name);
+        encoding.setDescription(description);
+        encoding.setEncoderVersion("2.39.0");
+
+        return bitmovinApi.encoding.encodings.create(encoding);
+    }
+
+    /**
+     * Adds a video or audio stream to an encoding
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/PostEncodingEncodingsStreamsByEncodingId
+     *
+     * @param encoding The encoding to which the stream will be added
+     * @param input The input resource providing the input file
+     * @param inputPath The path to the input file
+     * @param codecConfiguration The codec configuration to be applied to the stream
+     */
+    private static Stream createStream(
+            Encoding encoding, Input input, String inputPath, CodecConfiguration codecConfiguration)
+            throws BitmovinException {
+        StreamInput streamInput = new StreamInput();
+        streamInput.setInputId(input.getId());
+        streamInput.setInputPath(inputPath);
+        streamInput.setSelectionMode(StreamSelectionMode.AUTO);
+
+        Stream stream = new Stream();
+        stream.addInputStreamsItem(streamInput);
+        stream.setCodecConfigId(codecConfiguration.getId());
+        stream.setMode(StreamMode.STANDARD);
+
+        return bitmovinApi.encoding.encodings.streams.create(encoding.getId(), stream);
+    }
+
+    /**
+     * Creates a resource representing an AWS S3 cloud storage bucket to which generated content will
+     * be transferred.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/outputs#/Encoding/PostEncodingOutputsS3
+     *
+     * @param bucketName The name of the S3 bucket
+     * @param accessKey The access key of your S3 account
+     * @param secretKey The secret key of your S3 account
+     */
+    private static S3Output createS3Output(String bucketName, String accessKey, String secretKey)
+            throws BitmovinException {
+        S3Output s3Output = new S3Output();
+        s3Output.setBucketName(bucketName);
+        s3Output.setAccessKey(accessKey);
+        s3Output.setSecretKey(secretKey);
+
+        return bitmovinApi.encoding.outputs.s3.create(s3Output);
+    }
+
+    /**
+     * Creates a resource representing an HTTP server providing the input files.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/inputs#/Encoding/PostEncodingInputsHttp
+     *
+     * @param host The hostname or IP address of the HTTP server e.g.: my-storage.biz
+     */
+    private static HttpInput createHttpInput(String host) throws BitmovinException {
+        HttpInput input = new HttpInput();
+        input.setHost(host);
+
+        return bitmovinApi.encoding.inputs.http.create(input);
+    }
+
+    /**
+     * Creates a fragmented MP4 muxing with the given segment length which writes its segments
+     * unencrypted to the given output.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/all#/Encoding/PostEncodingEncodingsMuxingsFmp4ByEncodingId
+     *
+     * @param encoding The encoding to which the muxing will be added
+     * @param stream The stream to be muxed
+     * @param segmentLength The segment length in seconds
+     * @param output The output resource to which the segments will be written to
+     * @param outputPath The output path where the segments will be written to
+     */
+    private static Fmp4Muxing createFmp4Muxing(
+            Encoding encoding, Stream stream, double segmentLength, Output output, String outputPath)
+            throws BitmovinException {
+        Fmp4Muxing muxing = new Fmp4Muxing();
+        muxing.setSegmentLength(segmentLength);
+        muxing.addOutputsItem(buildEncodingOutput(output, outputPath));
+
+        MuxingStream muxingStream = new MuxingStream();
+        muxingStream.setStreamId(stream.getId());
+        muxing.addStreamsItem(muxingStream);
+
+        return bitmovinApi.encoding.encodings.muxings.fmp4.create(encoding.getId(), muxing);
+    }
+
+    /**
+     * Builds an EncodingOutput object which defines where the output content (e.g. of a muxing) will
+     * be written to.
+     *
+     * @param output The output resource to be used by the EncodingOutput
+     * @param outputPath The path where the content will be written to
+     */
+    private static EncodingOutput buildEncodingOutput(Output output, String outputPath) {
+        AclEntry aclEntry = new AclEntry();
+        aclEntry.setPermission(AclPermission.PUBLIC_READ);
+
+        EncodingOutput encodingOutput = new EncodingOutput();
+        encodingOutput.setOutputPath(buildAbsolutePath(outputPath));
+        encodingOutput.setOutputId(output.getId());
+        encodingOutput.addAclItem(aclEntry);
+        return encodingOutput;
+    }
+
+    /**
+     * Builds an absolute path by concatenating the S3_OUTPUT_BASE_PATH configuration parameter, the
+     * name of this example class and the given relative path
+     *
+     * @param relativePath The relative path that is concatenated
+     * @return The absolute path
+     */
+    public static String buildAbsolutePath(String relativePath) {
+        String className = EncodingBenchmarkMatrix.class.getSimpleName();
+        return (Paths.get(configProvider.getS3OutputBasePath(), className, relativePath).toString()).replaceAll("\\\\", "/"); // fix window server
+    }
+
+    /**
+     * Creates a configuration for the H.264 video codec with the given preset.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/configurations#/Encoding/PostEncodingConfigurationsVideoH264
+     */
+    private static H264VideoConfiguration createH264VideoConfig(int height, long bitrate, PresetConfiguration preset)
+            throws BitmovinException {
+        H264VideoConfiguration config = new H264VideoConfiguration();
+        config.setName(String.format("H.264 %dp %s", height, preset));
+        config.setPresetConfiguration(preset);
+        config.setBitrate(bitrate);
+        config.setHeight(height);
+
+        return bitmovinApi.encoding.configurations.video.h264.create(config);
+    }
+
+    /**
+     * Creates a configuration for the AAC audio codec to be applied to audio streams.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/configurations#/Encoding/PostEncodingConfigurationsAudioAac
+     */
+    private static AacAudioConfiguration createAacAudioConfig() throws BitmovinException {
+        AacAudioConfiguration config = new AacAudioConfiguration();
+        config.setName("AAC 128 kbit/s");
+        config.setBitrate(128_000L);
+
+        return bitmovinApi.encoding.configurations.audio.aac.create(config);
+    }
+}
@@ -0,0 +1,88 @@
+import cenc.ContentKey;
+import cenc.RenditionKeys;
+import cenc.SegmentEncryptor;
+import com.pallycon.cpix.CPixCommonModule;
+import common.ConfigProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pipeline.PackagingJob.DrmType;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This example encrypts clear fMP4 output of an earlier encoding locally with new PallyCon keys,
+ * without encoding the content again. The keys are requested from PallyCon KMS for CONTENT_ID like
+ * in {@link CencDrmContentProtectionByPallyConV2}, the segments are encrypted by the {@link
+ * SegmentEncryptor}.
+ *
+ * <p>The input folder is expected to have the layout written by the {@link
+ * pipeline.PackagingPipeline}: one folder per video rendition (video/1, video/2, ... from the lowest
+ * to the highest resolution) and an audio folder, each with an init segment and its media
+ * segments. The same layout is written to the output folder. The key ids change with the new keys,
+ * so the manifests have to be created again for the output.
+ *
+ * <p>The following configuration parameters are expected:
+ *
+ * <ul>
+ *   <li>PALLYCON_ENC_TOKEN - PallyCon KMS token
+ *   <li>CONTENT_ID - The content id the new keys are requested for
+ *   <li>REKEY_INPUT_DIR - Folder with the clear renditions. Example: ./clear
+ *   <li>REKEY_OUTPUT_DIR - Folder the encrypted renditions are written to. Example: ./encrypted
+ *   <li>REKEY_LADDER - (optional) Comma separated heights of the video renditions, used to select
+ *       the key track of every rendition. Default: 480,720,1080
+ *   <li>REKEY_THREADS - (optional) Number of segments encrypted in parallel. Default: number of
+ *       processors
+ *   <li>DRM_PACKAGER_TYPE - (optional) DASH (CENC for Widevine and PlayReady), HLS (CBCS for
+ *       FairPlay) or CBCS (CBCS for Widevine, PlayReady and FairPlay). Default: HLS
+ *   <li>CPIX_DOCUMENT - (optional) CPIX document with the keys, read instead of requesting them
+ *       from PallyCon KMS, see {@link RenditionKeys#fromDocument}
+ * </ul>
+ *
+ * <p>Configuration parameters will be retrieved from these sources in the listed order:
+ *
+ * <ol>
+ *   <li>command line arguments (eg CONTENT_ID=xyz)
+ *   <li>properties file located in the root folder of the JAVA examples at ./examples.properties
+ *       (see examples.properties.template as reference)
+ *   <li>environment variables
+ *   <li>properties file located in the home folder at ~/.bitmovin/examples.properties (see
+ *       examples.properties.template as reference)
+ * </ol>
+ */
+public class LocalReKeying {
+    private static final Logger logger = LoggerFactory.getLogger(LocalReKeying.class);
+
+    public static void main(String[] args) throws Exception {
+        ConfigProvider configProvider = new ConfigProvider(args);
+        Path inputDir = Paths.get(configProvider.getParameterByKey("REKEY_INPUT_DIR"));
+        Path outputDir = Paths.get(configProvider.getParameterByKey("REKEY_OUTPUT_DIR"));
+        DrmType drmType = configProvider.hasParameter("DRM_PACKAGER_TYPE")
+                ? DrmType.valueOf(configProvider.getParameterByKey("DRM_PACKAGER_TYPE"))
+                : DrmType.HLS;
+        int threads = configProvider.hasParameter("REKEY_THREADS")
+                ? Integer.parseInt(configProvider.getParameterByKey("REKEY_THREADS"))
+                : Runtime.getRuntime().availableProcessors();
+
+        List<Integer> ladder = RenditionKeys.parseLadder(
+                configProvider.hasParameter("REKEY_LADDER") ? configProvider.getParameterByKey("REKEY_LADDER") : "480,720,1080");
+        RenditionKeys renditionKeys = configProvider.hasParameter("CPIX_DOCUMENT")
+                ? RenditionKeys.fromDocument(Paths.get(configProvider.getParameterByKey("CPIX_DOCUMENT")), ladder)
+                : RenditionKeys.fetch(
+                        new CPixCommonModule(), configProvider.getPallyconEncKey(), configProvider.getContentId(), ladder,
+                        drmType != DrmType.HLS, drmType != DrmType.DASH);
+
+        SegmentEncryptor segmentEncryptor = new SegmentEncryptor(renditionKeys.getScheme(), threads);
+        try {
+            for (Map.Entry<String, ContentKey> rendition : renditionKeys.getKeys().entrySet()) {
+                segmentEncryptor.encryptRendition(
+                        inputDir.resolve(rendition.getKey()), outputDir.resolve(rendition.getKey()), rendition.getValue());
+            }
+        } finally {
+            segmentEncryptor.shutdown();
+        }
+        logger.info("re-keying of {} to {} finished, create the manifests for the new keys", inputDir, outputDir);
+    }
+}
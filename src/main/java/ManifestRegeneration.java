@@ -0,0 +1,141 @@
+import com.bitmovin.api.sdk.BitmovinApi;
+import common.ConfigProvider;
+import common.EncodingProgressBus;
+import common.EncodingStatusPoller;
+import feign.Logger.Level;
+import feign.slf4j.Slf4jLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pipeline.ManifestSettings;
+import pipeline.PackagingJob;
+import pipeline.PackagingPipeline;
+import pipeline.PackagingResult;
+import pipeline.ResourceCache;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This example creates the DASH and HLS default manifests of finished encodings again, without
+ * encoding anything, e.g. to change the name, version or path of the manifests of a whole
+ * catalogue. Only the manifest resources are created, started and polled by the {@link
+ * PackagingPipeline}, for many encodings in parallel.
+ *
+ * <p>The encodings are listed in a file, one per line: the encoding id, the content id and
+ * optionally the output path relative to S3_OUTPUT_BASE_PATH (default: the content id, the layout
+ * of the {@link daemon.PackagingDaemon}), separated by commas. Empty lines and lines starting with
+ * # are skipped. Encodings whose manifests were written by the {@link
+ * pipeline.LocalManifestWriter}, e.g. the ones of a split ladder, are not covered by default
+ * manifests.
+ *
+ * <p>The following configuration parameters are expected:
+ *
+ * <ul>
+ *   <li>BITMOVIN_API_KEY - Your API key for the Bitmovin API
+ *   <li>S3_OUTPUT_BUCKET_NAME - The name of your S3 output bucket. Example: my-bucket-name
+ *   <li>S3_OUTPUT_ACCESS_KEY - The access key of your S3 output bucket
+ *   <li>S3_OUTPUT_SECRET_KEY - The secret key of your S3 output bucket
+ *   <li>S3_OUTPUT_BASE_PATH - The base path the outputs of the encodings are below. Example: /outputs
+ *   <li>REGENERATE_ENCODINGS_FILE - The file listing the encodings. Example: ./encodings.csv
+ *   <li>REGENERATE_THREADS - (optional) Number of encodings whose manifests are created in
+ *       parallel. Default: 8
+ *   <li>DRM_PACKAGER_TYPE - (optional) DASH, HLS or CBCS, selects the manifests like for the
+ *       encoding. Default: HLS
+ *   <li>DASH_MANIFEST_NAME - (optional) Name of the DASH manifest. Default: stream.mpd
+ *   <li>DASH_MANIFEST_VERSION - (optional) Version of the DASH default manifest. Default: V1
+ *   <li>HLS_MANIFEST_NAME - (optional) Name of the HLS manifest. Default: master.m3u8
+ *   <li>HLS_MANIFEST_VERSION - (optional) Version of the HLS default manifest. Default: V1
+ *   <li>MANIFEST_OUTPUT_PATH - (optional) Path of the manifests relative to the output path of
+ *       the encoding. Default: /
+ * </ul>
+ *
+ * <p>Configuration parameters will be retrieved from these sources in the listed order:
+ *
+ * <ol>
+ *   <li>command line arguments (eg BITMOVIN_API_KEY=xyz)
+ *   <li>properties file located in the root folder of the JAVA examples at ./examples.properties
+ *       (see examples.properties.template as reference)
+ *   <li>environment variables
+ *   <li>properties file located in the home folder at ~/.bitmovin/examples.properties (see
+ *       examples.properties.template as reference)
+ * </ol>
+ */
+public class ManifestRegeneration {
+    private static final Logger logger = LoggerFactory.getLogger(ManifestRegeneration.class);
+
+    public static void main(String[] args) throws Exception {
+        ConfigProvider configProvider = new ConfigProvider(args);
+        BitmovinApi bitmovinApi =
+                BitmovinApi.builder()
+                        .withApiKey(configProvider.getBitmovinApiKey())
+                        .withLogger(new Slf4jLogger(), Level.BASIC)
+                        .build();
+        EncodingStatusPoller statusPoller = new EncodingStatusPoller(bitmovinApi, EncodingProgressBus.getDefault());
+        PackagingPipeline pipeline = PackagingPipeline.builder(bitmovinApi, statusPoller).resourceCache(new ResourceCache()).build();
+        ManifestSettings settings = ManifestSettings.fromConfig(configProvider);
+        int threads = configProvider.hasParameter("REGENERATE_THREADS")
+                ? Integer.parseInt(configProvider.getParameterByKey("REGENERATE_THREADS"))
+                : 8;
+
+        Map<String, PackagingJob> jobs = readEncodings(configProvider);
+        logger.info("creating the manifests of {} encodings with {}", jobs.size(), settings);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        int failed = 0;
+        try {
+            List<Future<PackagingResult>> futures = new ArrayList<>();
+            for (Map.Entry<String, PackagingJob> encoding : jobs.entrySet()) {
+                futures.add(executor.submit(() -> pipeline.regenerateManifests(encoding.getValue(), encoding.getKey(), settings)));
+            }
+            int i = 0;
+            for (String encodingId : jobs.keySet()) {
+                try {
+                    logger.info("manifests written: {}", futures.get(i++).get());
+                } catch (ExecutionException e) {
+                    failed++;
+                    logger.error("creating the manifests of encoding {} failed", encodingId, e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            statusPoller.shutdown();
+        }
+        logger.info("manifests of {} encodings created, {} failed", jobs.size() - failed, failed);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /** @return the jobs of the listed encodings, by encoding id */
+    private static Map<String, PackagingJob> readEncodings(ConfigProvider configProvider) throws Exception {
+        Map<String, PackagingJob> jobs = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(
+                Paths.get(configProvider.getParameterByKey("REGENERATE_ENCODINGS_FILE")), StandardCharsets.UTF_8);
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s*,\\s*");
+            if (fields.length < 2) {
+                throw new IllegalArgumentException("expected encoding id, content id and optional output path: " + line);
+            }
+            String outputPath = fields.length > 2 ? fields[2] : fields[1];
+            jobs.put(fields[0], PackagingJob.defaults(configProvider)
+                    .contentId(fields[1])
+                    .inputPath("") // the input isn't read when only the manifests are created
+                    .outputBasePath(Paths.get(configProvider.getS3OutputBasePath(), outputPath).toString().replaceAll("\\\\", "/"))
+                    .build());
+        }
+        return jobs;
+    }
+}
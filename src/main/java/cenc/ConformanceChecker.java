@@ -0,0 +1,486 @@
+package cenc;
+
+import cenc.Mp4Boxes.Box;
+import com.pallycon.cpix.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+/**
+ * Verifies the DRM protection of a packaged output tree against the keys it was packaged with,
+ * e.g. after a {@link pipeline.PackagingPipeline} run, with the output synced from S3 to a local
+ * folder or opened through an NIO file system provider for S3 compatible storage.
+ *
+ * <p>For every rendition folder (a folder with an init segment) the init segment is checked:
+ *
+ * <ul>
+ *   <li>the sample entry is protected with the expected scheme (schm)
+ *   <li>the tenc key id is the key id of the rendition's key, the IV size fits the scheme and a
+ *       CBCS constant IV is the explicit IV of the key info
+ *   <li>a pssh box with the same data exists for every expected Widevine and PlayReady pssh box
+ * </ul>
+ *
+ * <p>Every media segment is checked for sample encryption information (senc, saiz, saio) matching
+ * its samples, every n-th segment is trial decrypted with the key. A decrypted video sample has to
+ * consist of NAL units without start code emulation (00 00 00, 00 00 01, 00 00 02) and with a non
+ * zero last byte. Correctly decrypted data never breaks these rules, data decrypted with a wrong key
+ * or IV breaks them about once per 5 MB of encrypted bytes. The check is meant for whole renditions
+ * therefore, and with the CBCS 1:9 pattern only every tenth block counts. Decrypted audio samples
+ * can't be checked this way.
+ *
+ * <p>Renditions are checked in parallel on a fork-join pool, the segments of a rendition are split
+ * into tasks of a few segments each. Segments are read through memory mapped files.
+ */
+public class ConformanceChecker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConformanceChecker.class);
+
+    private static final int SEGMENTS_PER_TASK = 8;
+    private static final int AES_BLOCK = 16;
+    private static final String INIT_SEGMENT_GLOB = "init*.mp4";
+    private static final String MEDIA_SEGMENT_GLOB = "*.m4s";
+
+    private final EncryptionScheme scheme;
+    private final ForkJoinPool pool;
+    private final int decryptEvery;
+
+    /**
+     * @param scheme The expected encryption scheme
+     * @param pool The pool the checks run on, e.g. {@link ForkJoinPool#commonPool()}
+     * @param decryptEvery Trial decrypt every n-th media segment of a rendition, 0 for none
+     */
+    public ConformanceChecker(EncryptionScheme scheme, ForkJoinPool pool, int decryptEvery) {
+        if (decryptEvery < 0) {
+            throw new IllegalArgumentException("decryptEvery must not be negative");
+        }
+        this.scheme = scheme;
+        this.pool = pool;
+        this.decryptEvery = decryptEvery;
+    }
+
+    /**
+     * @param root The output tree
+     * @param renditionKeys The expected key of every rendition folder, relative to root (see
+     *     {@link RenditionKeys#getKeys()})
+     */
+    public ConformanceReport check(Path root, Map<String, ContentKey> renditionKeys) throws IOException {
+        long start = System.currentTimeMillis();
+        ConformanceReport report = new ConformanceReport();
+        Map<String, Path> renditions = findRenditions(root);
+
+        List<RenditionCheck> checks = new ArrayList<>();
+        for (Map.Entry<String, ContentKey> expected : renditionKeys.entrySet()) {
+            Path folder = renditions.remove(expected.getKey());
+            if (folder == null) {
+                report.addFinding(expected.getKey(), "rendition missing in the output");
+            } else {
+                checks.add(new RenditionCheck(root, folder, expected.getValue(), report));
+            }
+        }
+        for (String rendition : renditions.keySet()) {
+            report.addFinding(rendition, "no key expected for this rendition");
+        }
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(checks);
+            }
+        });
+
+        logger.info("checked {} in {} ms: {}", root, System.currentTimeMillis() - start, report);
+        return report;
+    }
+
+    private static Map<String, Path> findRenditions(Path root) throws IOException {
+        Map<String, Path> renditions = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(file -> file.getFileName() != null
+                            && file.getFileSystem().getPathMatcher("glob:" + INIT_SEGMENT_GLOB).matches(file.getFileName()))
+                    .map(Path::getParent)
+                    .forEach(folder -> renditions.put(relativePath(root, folder), folder));
+        }
+        return renditions;
+    }
+
+    private static String relativePath(Path root, Path file) {
+        return root.relativize(file).toString().replace('\\', '/');
+    }
+
+    /** What the media segments need from a checked init segment */
+    private static class Protection {
+        private final TrackInfo trackInfo;
+        private final int perSampleIvSize;
+        private final byte[] constantIv;
+        private final int cryptBlocks;
+        private final int skipBlocks;
+
+        private Protection(TrackInfo trackInfo, int perSampleIvSize, byte[] constantIv, int cryptBlocks, int skipBlocks) {
+            this.trackInfo = trackInfo;
+            this.perSampleIvSize = perSampleIvSize;
+            this.constantIv = constantIv;
+            this.cryptBlocks = cryptBlocks;
+            this.skipBlocks = skipBlocks;
+        }
+    }
+
+    private class RenditionCheck extends RecursiveAction {
+        private final Path root;
+        private final Path folder;
+        private final ContentKey key;
+        private final ConformanceReport report;
+
+        private RenditionCheck(Path root, Path folder, ContentKey key, ConformanceReport report) {
+            this.root = root;
+            this.folder = folder;
+            this.key = key;
+            this.report = report;
+        }
+
+        @Override
+        protected void compute() {
+            List<Path> segments = new ArrayList<>();
+            Protection protection;
+            try {
+                Path initSegment;
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, INIT_SEGMENT_GLOB)) {
+                    initSegment = files.iterator().next();
+                }
+                protection = checkInitSegment(initSegment);
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, MEDIA_SEGMENT_GLOB)) {
+                    files.forEach(segments::add);
+                }
+            } catch (IOException | RuntimeException e) {
+                report.addFinding(relativePath(root, folder), "init segment not readable: " + e);
+                return;
+            }
+            if (protection == null) {
+                return;
+            }
+
+            Collections.sort(segments);
+            new SegmentsCheck(this, protection, segments, 0, segments.size()).invoke();
+            report.renditionChecked();
+        }
+
+        /** @return the protection of the init segment, or null if it isn't usable for the segments */
+        private Protection checkInitSegment(Path file) throws IOException {
+            String path = relativePath(root, file);
+            ByteBuffer buffer = SegmentFiles.read(file);
+            InitSegment init = InitSegment.parse(buffer);
+            if (init.sampleEntry.type != Mp4Boxes.ENCV && init.sampleEntry.type != Mp4Boxes.ENCA) {
+                report.addFinding(path, "sample entry " + Mp4Boxes.name(init.sampleEntry.type) + " is not protected");
+                return null;
+            }
+
+            Box sinf = null;
+            for (Box child : Mp4Boxes.children(buffer, init.sampleEntryChildrenOffset(), init.sampleEntry.end())) {
+                if (child.type == Mp4Boxes.SINF) {
+                    sinf = child;
+                }
+            }
+            if (sinf == null) {
+                report.addFinding(path, "protected sample entry without sinf box");
+                return null;
+            }
+            Box schm = Mp4Boxes.require(buffer, sinf, Mp4Boxes.SCHM);
+            int schemeType = buffer.getInt(schm.contentOffset() + 4);
+            if (schemeType != Mp4Boxes.fourcc(scheme.getFourcc())) {
+                report.addFinding(path, "scheme " + Mp4Boxes.name(schemeType) + ", expected " + scheme.getFourcc());
+            }
+
+            // tenc: full box header, reserved, pattern (version 1), isProtected, IV size, KID, constant IV
+            Box tenc = Mp4Boxes.require(buffer, Mp4Boxes.require(buffer, sinf, Mp4Boxes.SCHI), Mp4Boxes.TENC);
+            int version = buffer.get(tenc.contentOffset()) & 0xFF;
+            int position = tenc.contentOffset() + 5;
+            int pattern = version == 0 ? 0 : buffer.get(position) & 0xFF;
+            position++;
+            boolean isProtected = buffer.get(position++) != 0;
+            int perSampleIvSize = buffer.get(position++) & 0xFF;
+            byte[] kid = bytes(buffer, position, 16);
+            position += 16;
+            byte[] constantIv = null;
+            if (isProtected && perSampleIvSize == 0) {
+                int constantIvSize = buffer.get(position++) & 0xFF;
+                constantIv = bytes(buffer, position, constantIvSize);
+            }
+
+            if (!isProtected) {
+                report.addFinding(path, "tenc marks the track as not protected");
+            }
+            if (!Arrays.equals(kid, key.getKid())) {
+                report.addFinding(path, String.format("tenc KID %s, expected %s",
+                        StringUtil.byteArrayToHex(kid), StringUtil.byteArrayToHex(key.getKid())));
+            }
+            if (scheme == EncryptionScheme.CENC && perSampleIvSize != 8 && perSampleIvSize != 16) {
+                report.addFinding(path, "tenc per sample IV size " + perSampleIvSize + ", expected 8 or 16");
+            }
+            if (scheme == EncryptionScheme.CBCS) {
+                if (constantIv == null) {
+                    report.addFinding(path, "tenc without constant IV");
+                    return null;
+                } else if (key.getConstantIv() != null && !Arrays.equals(constantIv, key.getConstantIv())) {
+                    report.addFinding(path, String.format("tenc constant IV %s, expected %s",
+                            StringUtil.byteArrayToHex(constantIv), StringUtil.byteArrayToHex(key.getConstantIv())));
+                }
+            }
+            checkPssh(path, buffer, init.moov);
+
+            return new Protection(init.trackInfo, perSampleIvSize, constantIv, pattern >> 4, pattern & 0x0F);
+        }
+
+        /** Box versions may differ, so the pssh data is compared per DRM system */
+        private void checkPssh(String path, ByteBuffer buffer, Box moov) {
+            Map<UUID, PsshBox> psshBoxes = new HashMap<>();
+            for (Box box : Mp4Boxes.children(buffer, moov)) {
+                if (box.type == Mp4Boxes.PSSH) {
+                    PsshBox pssh = PsshBox.read(buffer, box);
+                    psshBoxes.put(pssh.getSystemId(), pssh);
+                }
+            }
+            for (byte[] expected : key.getPsshBoxes()) {
+                PsshBox expectedPssh = PsshBox.read(expected);
+                UUID systemId = expectedPssh.getSystemId();
+                PsshBox actual = psshBoxes.get(systemId);
+                if (actual == null) {
+                    report.addFinding(path, "no pssh box for system " + systemId);
+                } else if (!actual.hasSameData(expectedPssh)) {
+                    report.addFinding(path, "pssh data of system " + systemId + " differs from the key info");
+                }
+            }
+        }
+    }
+
+    private class SegmentsCheck extends RecursiveAction {
+        private final RenditionCheck rendition;
+        private final Protection protection;
+        private final List<Path> segments;
+        private final int from;
+        private final int to;
+
+        private SegmentsCheck(RenditionCheck rendition, Protection protection, List<Path> segments, int from, int to) {
+            this.rendition = rendition;
+            this.protection = protection;
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SEGMENTS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new SegmentsCheck(rendition, protection, segments, from, middle),
+                        new SegmentsCheck(rendition, protection, segments, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                Path segment = segments.get(i);
+                String path = relativePath(rendition.root, segment);
+                boolean decrypt = decryptEvery > 0 && i % decryptEvery == 0;
+                try {
+                    int samples = checkSegment(path, SegmentFiles.read(segment), decrypt);
+                    rendition.report.segmentChecked(decrypt, samples);
+                } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                    rendition.report.addFinding(path, "not readable: " + e);
+                }
+            }
+        }
+
+        /** @return the number of samples in the segment */
+        private int checkSegment(String path, ByteBuffer buffer, boolean decrypt) throws GeneralSecurityException {
+            TrackInfo track = protection.trackInfo;
+            SampleDecryptor decryptor = decrypt ? new SampleDecryptor(rendition.key, protection) : null;
+            int samples = 0;
+            int invalidSamples = 0;
+
+            for (Box moof : Mp4Boxes.children(buffer, 0, buffer.limit())) {
+                if (moof.type != Mp4Boxes.MOOF) {
+                    continue;
+                }
+                TrackFragment fragment = TrackFragment.parse(buffer, moof);
+                samples += fragment.sampleCount();
+                Box senc = Mp4Boxes.find(buffer, fragment.traf, Mp4Boxes.SENC);
+                Box saiz = Mp4Boxes.find(buffer, fragment.traf, Mp4Boxes.SAIZ);
+                Box saio = Mp4Boxes.find(buffer, fragment.traf, Mp4Boxes.SAIO);
+                if (senc == null || saiz == null || saio == null) {
+                    rendition.report.addFinding(path, "sample encryption boxes missing in " + moof);
+                    return samples;
+                }
+
+                int sencFlags = buffer.getInt(senc.contentOffset()) & 0xFFFFFF;
+                int sampleCount = buffer.getInt(senc.contentOffset() + 4);
+                if (sampleCount != fragment.sampleCount()
+                        || buffer.getInt(saiz.contentOffset() + 5) != fragment.sampleCount()) {
+                    rendition.report.addFinding(path, String.format("%d samples, senc has %d, saiz %d",
+                            fragment.sampleCount(), sampleCount, buffer.getInt(saiz.contentOffset() + 5)));
+                    return samples;
+                }
+                // saio: full box header (flags 0), entry count, first offset relative to the moof
+                int saioOffset = buffer.getInt(saio.contentOffset() + 8);
+                if (moof.offset + saioOffset != senc.contentOffset() + 8) {
+                    rendition.report.addFinding(path, "saio doesn't point to the senc sample information in " + moof);
+                }
+
+                int position = senc.contentOffset() + 8;
+                for (int i = 0; i < sampleCount; i++) {
+                    byte[] iv = bytes(buffer, position, protection.perSampleIvSize);
+                    position += protection.perSampleIvSize;
+                    int[] clearBytes = new int[0];
+                    int[] protectedBytes = new int[0];
+                    if ((sencFlags & MediaSegmentEncryptor.SENC_USE_SUBSAMPLE_ENCRYPTION) != 0) {
+                        int subsamples = buffer.getShort(position) & 0xFFFF;
+                        position += 2;
+                        clearBytes = new int[subsamples];
+                        protectedBytes = new int[subsamples];
+                        long total = 0;
+                        for (int j = 0; j < subsamples; j++) {
+                            clearBytes[j] = buffer.getShort(position) & 0xFFFF;
+                            protectedBytes[j] = buffer.getInt(position + 2);
+                            total += clearBytes[j] + (protectedBytes[j] & 0xFFFFFFFFL);
+                            position += 6;
+                        }
+                        if (total != fragment.sampleSizes.get(i)) {
+                            rendition.report.addFinding(path, String.format(
+                                    "subsamples of sample %d cover %d bytes, the sample has %d", i, total, fragment.sampleSizes.get(i)));
+                            return samples;
+                        }
+                    }
+
+                    if (decryptor != null) {
+                        byte[] sample = bytes(buffer, fragment.sampleOffsets.get(i), fragment.sampleSizes.get(i));
+                        decryptor.decrypt(sample, iv, clearBytes, protectedBytes);
+                        if (track.isVideo() && !isValidNalSequence(sample, track)) {
+                            invalidSamples++;
+                        }
+                    }
+                }
+            }
+
+            if (invalidSamples > 0) {
+                rendition.report.addFinding(path, String.format(
+                        "%d of %d samples don't decrypt to valid NAL units with key %s",
+                        invalidSamples, samples, StringUtil.byteArrayToHex(rendition.key.getKid())));
+            }
+            return samples;
+        }
+    }
+
+    private class SampleDecryptor {
+        private final SecretKeySpec secretKey;
+        private final Cipher cipher;
+        private final Protection protection;
+
+        private SampleDecryptor(ContentKey key, Protection protection) throws GeneralSecurityException {
+            this.secretKey = new SecretKeySpec(key.getKey(), "AES");
+            this.cipher = Cipher.getInstance(scheme == EncryptionScheme.CENC ? "AES/CTR/NoPadding" : "AES/CBC/NoPadding");
+            this.protection = protection;
+        }
+
+        private void decrypt(byte[] sample, byte[] iv, int[] clearBytes, int[] protectedBytes)
+                throws GeneralSecurityException {
+            if (scheme == EncryptionScheme.CENC) {
+                cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(Arrays.copyOf(iv, AES_BLOCK)));
+                if (clearBytes.length == 0) {
+                    cipher.update(sample, 0, sample.length, sample, 0);
+                    return;
+                }
+                int position = 0;
+                for (int i = 0; i < clearBytes.length; i++) {
+                    position += clearBytes[i];
+                    if (protectedBytes[i] > 0) {
+                        cipher.update(sample, position, protectedBytes[i], sample, position);
+                    }
+                    position += protectedBytes[i];
+                }
+                return;
+            }
+
+            if (clearBytes.length == 0) {
+                decryptPattern(sample, 0, sample.length);
+                return;
+            }
+            int position = 0;
+            for (int i = 0; i < clearBytes.length; i++) {
+                position += clearBytes[i];
+                if (protectedBytes[i] > 0) {
+                    decryptPattern(sample, position, protectedBytes[i]);
+                }
+                position += protectedBytes[i];
+            }
+        }
+
+        private void decryptPattern(byte[] sample, int offset, int length) throws GeneralSecurityException {
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(protection.constantIv));
+            int blocks = length / AES_BLOCK;
+            int crypt = protection.cryptBlocks == 0 ? blocks : protection.cryptBlocks;
+            for (int block = 0; block < blocks; block += crypt + protection.skipBlocks) {
+                int decrypted = Math.min(crypt, blocks - block);
+                int position = offset + block * AES_BLOCK;
+                cipher.update(sample, position, decrypted * AES_BLOCK, sample, position);
+            }
+        }
+    }
+
+    /**
+     * @return false if the sample isn't a sequence of length prefixed NAL units or a VCL NAL unit
+     *     contains a start code emulation or ends with a zero byte
+     */
+    static boolean isValidNalSequence(byte[] sample, TrackInfo track) {
+        int nalLengthSize = track.getNalLengthSize();
+        ByteBuffer buffer = ByteBuffer.wrap(sample);
+        int position = 0;
+        while (position < sample.length) {
+            if (position + nalLengthSize > sample.length) {
+                return false;
+            }
+            int nalSize = MediaSegmentEncryptor.readNalLength(buffer, position, nalLengthSize);
+            int start = position + nalLengthSize;
+            int end = start + nalSize;
+            if (nalSize == 0 || end > sample.length || (sample[start] & 0x80) != 0) {
+                return false;
+            }
+            if (MediaSegmentEncryptor.isVcl(sample[start], track.getCodec())) {
+                if (sample[end - 1] == 0) {
+                    return false;
+                }
+                for (int i = start; i + 2 < end; i++) {
+                    if (sample[i] == 0 && sample[i + 1] == 0 && (sample[i + 2] & 0xFF) <= 2) {
+                        return false;
+                    }
+                }
+            }
+            position = end;
+        }
+        return true;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,98 @@
+package cenc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Result of a {@link ConformanceChecker} run. Filled concurrently by the checking tasks, read once
+ * the run is over.
+ */
+public class ConformanceReport {
+
+    public static class Finding {
+        private final String path;
+        private final String message;
+
+        Finding(String path, String message) {
+            this.path = path;
+            this.message = message;
+        }
+
+        /** @return the file (or rendition folder) relative to the checked output tree */
+        public String getPath() {
+            return path;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return path + ": " + message;
+        }
+    }
+
+    private final Queue<Finding> findings = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger renditions = new AtomicInteger();
+    private final AtomicInteger segments = new AtomicInteger();
+    private final AtomicInteger decryptedSegments = new AtomicInteger();
+    private final AtomicLong decryptedSamples = new AtomicLong();
+
+    void addFinding(String path, String message) {
+        findings.add(new Finding(path, message));
+    }
+
+    void renditionChecked() {
+        renditions.incrementAndGet();
+    }
+
+    void segmentChecked(boolean decrypted, int samples) {
+        segments.incrementAndGet();
+        if (decrypted) {
+            decryptedSegments.incrementAndGet();
+            decryptedSamples.addAndGet(samples);
+        }
+    }
+
+    /** @return true if no rendition had a finding */
+    public boolean isConformant() {
+        return findings.isEmpty();
+    }
+
+    public List<Finding> getFindings() {
+        return new ArrayList<>(findings);
+    }
+
+    public int getRenditions() {
+        return renditions.get();
+    }
+
+    public int getSegments() {
+        return segments.get();
+    }
+
+    public int getDecryptedSegments() {
+        return decryptedSegments.get();
+    }
+
+    public long getDecryptedSamples() {
+        return decryptedSamples.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ConformanceReport{" +
+                "conformant=" + isConformant() +
+                ", findings=" + findings.size() +
+                ", renditions=" + renditions +
+                ", segments=" + segments +
+                ", decryptedSegments=" + decryptedSegments +
+                ", decryptedSamples=" + decryptedSamples +
+                '}';
+    }
+}
@@ -0,0 +1,121 @@
+package cenc;
+
+import com.pallycon.cpix.dto.ContentKeyDTO;
+import com.pallycon.cpix.dto.CpixDTO;
+import com.pallycon.cpix.dto.DRMSystemId;
+import com.pallycon.cpix.dto.DrmSystemDTO;
+import com.pallycon.cpix.util.Base64Encoder;
+import com.pallycon.cpix.util.StringUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Content key of one track as delivered by PallyCon KMS: key id, key, the constant IV used by
+ * CBCS and the PSSH boxes to be written to the init segment.
+ */
+public class ContentKey {
+
+    private final byte[] kid;
+    private final byte[] key;
+    private final byte[] constantIv;
+    private final List<byte[]> psshBoxes;
+
+    public ContentKey(byte[] kid, byte[] key, byte[] constantIv, List<byte[]> psshBoxes) {
+        if (kid.length != 16 || key.length != 16) {
+            throw new IllegalArgumentException("key id and key have to be 16 bytes");
+        }
+        if (constantIv != null && constantIv.length != 16) {
+            throw new IllegalArgumentException("the constant IV has to be 16 bytes");
+        }
+        this.kid = kid.clone();
+        this.key = key.clone();
+        this.constantIv = constantIv == null ? null : constantIv.clone();
+        this.psshBoxes = Collections.unmodifiableList(new ArrayList<>(psshBoxes));
+    }
+
+    /**
+     * Key of a track from the DASH key info, with the Widevine and PlayReady PSSH boxes. Usable for
+     * {@link EncryptionScheme#CENC}.
+     *
+     * @param cpixDTO The DASH key info
+     * @param track The track type, e.g. HD or AUDIO
+     */
+    public static ContentKey fromCpix(CpixDTO cpixDTO, String track) {
+        String kid = cpixDTO.getContentKeyUsageRuleDTO(track).getKid();
+        ContentKeyDTO contentKeyDTO = cpixDTO.getContentKeyDTO(kid);
+        return new ContentKey(
+                StringUtil.hexToByteArray(kid.replaceAll("-", "")),
+                Base64Encoder.decode(contentKeyDTO.getData().getSecret().getPlainValue()),
+                decodeIv(contentKeyDTO),
+                psshBoxes(cpixDTO, kid));
+    }
+
+    /**
+     * Key of a track for {@link EncryptionScheme#CBCS}: key and PSSH boxes from the DASH key info,
+     * the constant IV from the FairPlay key of the HLS key info, so the output can be played with
+     * all three DRM systems. Both key infos have to use the same key for the track.
+     *
+     * @param cpixDTO The DASH key info, or null for FairPlay only
+     * @param fairPlayCpixDTO The HLS key info
+     * @param track The track type, e.g. HD or AUDIO
+     */
+    public static ContentKey fromCpix(CpixDTO cpixDTO, CpixDTO fairPlayCpixDTO, String track) {
+        String fairPlayKid = fairPlayCpixDTO.getContentKeyUsageRuleDTO(track).getKid();
+        ContentKeyDTO fairPlayContentKeyDTO = fairPlayCpixDTO.getContentKeyDTO(fairPlayKid);
+        byte[] constantIv = decodeIv(fairPlayContentKeyDTO);
+        if (constantIv == null) {
+            throw new IllegalStateException("no explicit IV for track " + track + " in the HLS key info");
+        }
+
+        List<byte[]> psshBoxes = Collections.emptyList();
+        if (cpixDTO != null) {
+            String kid = cpixDTO.getContentKeyUsageRuleDTO(track).getKid();
+            if (!kid.equals(fairPlayKid)) {
+                throw new IllegalStateException(
+                        String.format("CBCS needs the same key for all DRM systems, track %s has kid %s (DASH) and %s (HLS)", track, kid, fairPlayKid));
+            }
+            psshBoxes = psshBoxes(cpixDTO, kid);
+        }
+        return new ContentKey(
+                StringUtil.hexToByteArray(fairPlayKid.replaceAll("-", "")),
+                Base64Encoder.decode(fairPlayContentKeyDTO.getData().getSecret().getPlainValue()),
+                constantIv,
+                psshBoxes);
+    }
+
+    private static byte[] decodeIv(ContentKeyDTO contentKeyDTO) {
+        // <ContentKey explicitIV= >   base64 decode
+        return contentKeyDTO.getExplicitIV() == null ? null : Base64Encoder.decode(contentKeyDTO.getExplicitIV());
+    }
+
+    private static List<byte[]> psshBoxes(CpixDTO cpixDTO, String kid) {
+        List<byte[]> psshBoxes = new ArrayList<>();
+        for (DRMSystemId drmSystemId : new DRMSystemId[] {DRMSystemId.WIDEVINE, DRMSystemId.PLAYREADY}) {
+            DrmSystemDTO drmSystemDTO = cpixDTO.getDrmSystemDTO(drmSystemId, kid);
+            // DRMSystemList > DRMSystem > PSSH  => base64 decode, a complete pssh box
+            if (drmSystemDTO != null && drmSystemDTO.getPssh() != null) {
+                psshBoxes.add(Base64Encoder.decode(drmSystemDTO.getPssh()));
+            }
+        }
+        return psshBoxes;
+    }
+
+    public byte[] getKid() {
+        return kid.clone();
+    }
+
+    public byte[] getKey() {
+        return key.clone();
+    }
+
+    /** @return the constant IV for CBCS, or null if the key info has none */
+    public byte[] getConstantIv() {
+        return constantIv == null ? null : constantIv.clone();
+    }
+
+    public List<byte[]> getPsshBoxes() {
+        return psshBoxes;
+    }
+}
@@ -0,0 +1,184 @@
+package cenc;
+
+import cenc.KeyMaterial.DrmSystemData;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reads the key material of a CPIX document (urn:dashif:org:cpix) with a streaming StAX reader,
+ * without building a DOM or {@code CpixDTO}s. Only the ContentKey, DRMSystem and
+ * ContentKeyUsageRule elements are read, everything else is skipped, so the memory needed is the
+ * decoded key material plus one element, independent of the size of the document. Meant for large
+ * documents with many keys, e.g. key rotation or bulk exports kept next to the content.
+ *
+ * <p>Keys, DRM systems and usage rules are joined by their kid, in the order the keys appear in
+ * the document. Encrypted keys (EncryptedValue) are not decrypted, their key is null. Documents
+ * with a DOCTYPE are rejected, entities are never resolved.
+ */
+public final class CpixDocumentReader {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    private CpixDocumentReader() {
+    }
+
+    public static List<KeyMaterial> read(Path document) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(document))) {
+            return read(in);
+        }
+    }
+
+    public static List<KeyMaterial> read(InputStream document) throws IOException {
+        Map<UUID, KeyMaterial.Builder> keys = new LinkedHashMap<>();
+        try {
+            XMLStreamReader xml = XML_INPUT_FACTORY.createXMLStreamReader(document);
+            try {
+                KeyMaterial.Builder usageRule = null;
+                while (xml.hasNext()) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.DTD) {
+                        throw new IllegalArgumentException("a CPIX document has no DOCTYPE");
+                    }
+                    if (event != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    switch (xml.getLocalName()) {
+                        case "ContentKey":
+                            readContentKey(xml, builder(keys, xml));
+                            break;
+                        case "DRMSystem":
+                            readDrmSystem(xml, builder(keys, xml));
+                            break;
+                        case "ContentKeyUsageRule":
+                            usageRule = builder(keys, xml);
+                            usageRule.usageRule(xml.getAttributeValue(null, "intendedTrackType"));
+                            break;
+                        case "VideoFilter":
+                            if (usageRule != null) {
+                                usageRule.videoFilter(
+                                        longAttribute(xml, "minPixels", 0), longAttribute(xml, "maxPixels", -1));
+                            }
+                            break;
+                        case "AudioFilter":
+                            if (usageRule != null) {
+                                usageRule.audioFilter();
+                            }
+                            break;
+                        case "KeyPeriodFilter":
+                            if (usageRule != null) {
+                                usageRule.keyPeriod(xml.getAttributeValue(null, "periodId"));
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException | IllegalArgumentException e) {
+            throw new IOException("invalid CPIX document: " + e.getMessage(), e);
+        }
+
+        List<KeyMaterial> keyMaterial = new ArrayList<>(keys.size());
+        for (KeyMaterial.Builder builder : keys.values()) {
+            keyMaterial.add(builder.build());
+        }
+        return keyMaterial;
+    }
+
+    /** ContentKey > Data > Secret > PlainValue */
+    private static void readContentKey(XMLStreamReader xml, KeyMaterial.Builder key) throws XMLStreamException {
+        byte[] explicitIv = decode(xml.getAttributeValue(null, "explicitIV"));
+        String commonEncryptionScheme = xml.getAttributeValue(null, "commonEncryptionScheme");
+        byte[] plainValue = null;
+        for (int depth = 1; depth > 0; ) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if ("PlainValue".equals(xml.getLocalName())) {
+                    plainValue = decode(xml.getElementText());
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        key.contentKey(plainValue, explicitIv, commonEncryptionScheme);
+    }
+
+    /** DRMSystem > PSSH, ContentProtectionData, URIExtXKey */
+    private static void readDrmSystem(XMLStreamReader xml, KeyMaterial.Builder key) throws XMLStreamException {
+        UUID systemId = UUID.fromString(requireAttribute(xml, "systemId"));
+        byte[] pssh = null;
+        byte[] contentProtectionData = null;
+        byte[] uriExtXKey = null;
+        for (int depth = 1; depth > 0; ) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (xml.getLocalName()) {
+                    case "PSSH":
+                        pssh = decode(xml.getElementText());
+                        break;
+                    case "ContentProtectionData":
+                        contentProtectionData = decode(xml.getElementText());
+                        break;
+                    case "URIExtXKey":
+                        uriExtXKey = decode(xml.getElementText());
+                        break;
+                    default:
+                        depth++;
+                        break;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        key.drmSystem(new DrmSystemData(systemId, pssh, contentProtectionData, uriExtXKey));
+    }
+
+    private static KeyMaterial.Builder builder(Map<UUID, KeyMaterial.Builder> keys, XMLStreamReader xml) {
+        UUID kid = UUID.fromString(requireAttribute(xml, "kid"));
+        return keys.computeIfAbsent(kid, KeyMaterial.Builder::new);
+    }
+
+    private static String requireAttribute(XMLStreamReader xml, String name) {
+        String value = xml.getAttributeValue(null, name);
+        if (value == null) {
+            throw new IllegalArgumentException("no " + name + " attribute on " + xml.getLocalName() + " at line " + xml.getLocation().getLineNumber());
+        }
+        return value;
+    }
+
+    private static long longAttribute(XMLStreamReader xml, String name, long defaultValue) {
+        String value = xml.getAttributeValue(null, name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    private static byte[] decode(String base64) {
+        // the MIME decoder skips the line breaks of pretty printed documents
+        return base64 == null ? null : Base64.getMimeDecoder().decode(base64.trim());
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
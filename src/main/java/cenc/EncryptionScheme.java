@@ -0,0 +1,19 @@
+package cenc;
+
+/** Common encryption schemes of ISO/IEC 23001-7 supported by the {@link SegmentEncryptor} */
+public enum EncryptionScheme {
+    /** AES-CTR with 8 byte per sample IVs, Widevine and PlayReady */
+    CENC("cenc"),
+    /** AES-CBC with a constant IV and 1:9 pattern for video, FairPlay, Widevine and PlayReady */
+    CBCS("cbcs");
+
+    private final String fourcc;
+
+    EncryptionScheme(String fourcc) {
+        this.fourcc = fourcc;
+    }
+
+    public String getFourcc() {
+        return fourcc;
+    }
+}
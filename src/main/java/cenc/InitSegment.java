@@ -0,0 +1,104 @@
+package cenc;
+
+import cenc.Mp4Boxes.Box;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The boxes of a single track init segment down to its (first) sample entry, and the track
+ * information read from them. Works for clear and protected init segments.
+ */
+final class InitSegment {
+
+    private static final int TKHD = Mp4Boxes.fourcc("tkhd");
+
+    final Box moov;
+    final Box trak;
+    final Box mdia;
+    final Box minf;
+    final Box stbl;
+    final Box stsd;
+    final Box sampleEntry;
+    final TrackInfo trackInfo;
+
+    private InitSegment(Box moov, Box trak, Box mdia, Box minf, Box stbl, Box stsd, Box sampleEntry, TrackInfo trackInfo) {
+        this.moov = moov;
+        this.trak = trak;
+        this.mdia = mdia;
+        this.minf = minf;
+        this.stbl = stbl;
+        this.stsd = stsd;
+        this.sampleEntry = sampleEntry;
+        this.trackInfo = trackInfo;
+    }
+
+    static InitSegment parse(ByteBuffer input) {
+        Box moov = null;
+        for (Box box : Mp4Boxes.children(input, 0, input.limit())) {
+            if (box.type == Mp4Boxes.MOOV) {
+                moov = box;
+            }
+        }
+        if (moov == null) {
+            throw new Mp4FormatException("no moov box in the init segment");
+        }
+
+        Box trak = null;
+        for (Box box : Mp4Boxes.children(input, moov)) {
+            if (box.type == Mp4Boxes.TRAK) {
+                if (trak != null) {
+                    throw new Mp4FormatException("init segments with more than one track are not supported");
+                }
+                trak = box;
+            }
+        }
+        if (trak == null) {
+            throw new Mp4FormatException("no trak box in the init segment");
+        }
+        Box tkhd = Mp4Boxes.require(input, trak, TKHD);
+        Box mdia = Mp4Boxes.require(input, trak, Mp4Boxes.MDIA);
+        Box hdlr = Mp4Boxes.require(input, mdia, Mp4Boxes.HDLR);
+        Box minf = Mp4Boxes.require(input, mdia, Mp4Boxes.MINF);
+        Box stbl = Mp4Boxes.require(input, minf, Mp4Boxes.STBL);
+        Box stsd = Mp4Boxes.require(input, stbl, Mp4Boxes.STSD);
+        // stsd: full box header, entry count, then the sample entries
+        Box sampleEntry = Mp4Boxes.readBox(input, stsd.contentOffset() + 8, stsd.end());
+
+        int handlerType = input.getInt(hdlr.contentOffset() + 8);
+        TrackInfo trackInfo = trackInfo(input, tkhd, handlerType, sampleEntry);
+        return new InitSegment(moov, trak, mdia, minf, stbl, stsd, sampleEntry, trackInfo);
+    }
+
+    /** @return the position of the first child box of the sample entry */
+    int sampleEntryChildrenOffset() {
+        return sampleEntry.contentOffset()
+                + (trackInfo.isVideo() ? Mp4Boxes.VISUAL_SAMPLE_ENTRY_FIELDS : Mp4Boxes.AUDIO_SAMPLE_ENTRY_FIELDS);
+    }
+
+    private static TrackInfo trackInfo(ByteBuffer input, Box tkhd, int handlerType, Box sampleEntry) {
+        int version = input.get(tkhd.contentOffset()) & 0xFF;
+        // tkhd: full box header, creation and modification time (32 or 64 bit), then the track id
+        int trackId = input.getInt(tkhd.contentOffset() + 4 + (version == 1 ? 16 : 8));
+
+        if (handlerType == Mp4Boxes.SOUN) {
+            return new TrackInfo(trackId, TrackInfo.Codec.OTHER_AUDIO, 0);
+        }
+        if (handlerType != Mp4Boxes.VIDE) {
+            throw new Mp4FormatException("unsupported handler " + Mp4Boxes.name(handlerType));
+        }
+
+        int childrenOffset = sampleEntry.contentOffset() + Mp4Boxes.VISUAL_SAMPLE_ENTRY_FIELDS;
+        for (Box child : Mp4Boxes.children(input, childrenOffset, sampleEntry.end())) {
+            if (child.type == Mp4Boxes.AVCC) {
+                // avcC: version, profile, compatibility, level, then lengthSizeMinusOne in the low 2 bits
+                int nalLengthSize = (input.get(child.contentOffset() + 4) & 0x03) + 1;
+                return new TrackInfo(trackId, TrackInfo.Codec.AVC, nalLengthSize);
+            }
+            if (child.type == Mp4Boxes.HVCC) {
+                int nalLengthSize = (input.get(child.contentOffset() + 21) & 0x03) + 1;
+                return new TrackInfo(trackId, TrackInfo.Codec.HEVC, nalLengthSize);
+            }
+        }
+        throw new Mp4FormatException("unsupported video sample entry " + Mp4Boxes.name(sampleEntry.type));
+    }
+}
@@ -0,0 +1,102 @@
+package cenc;
+
+import cenc.Mp4Boxes.Box;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns a clear init segment into a protected one: the sample entry becomes encv/enca with a sinf
+ * box (frma, schm, tenc) and the PSSH boxes of the content key are added to the moov box.
+ */
+class InitSegmentEncryptor {
+
+    private final EncryptionScheme scheme;
+
+    InitSegmentEncryptor(EncryptionScheme scheme) {
+        this.scheme = scheme;
+    }
+
+    /**
+     * @param input The clear init segment
+     * @param key The content key of the track
+     * @return The protected init segment and the track information for its media segments
+     */
+    Result encrypt(ByteBuffer input, ContentKey key) {
+        int limit = input.limit();
+        InitSegment init = InitSegment.parse(input);
+        Box moov = init.moov;
+        Box sampleEntry = init.sampleEntry;
+        TrackInfo trackInfo = init.trackInfo;
+
+        byte[] sinf = sinf(sampleEntry.type, trackInfo, key);
+        int psshSize = 0;
+        for (byte[] pssh : key.getPsshBoxes()) {
+            psshSize += pssh.length;
+        }
+
+        ByteBuffer output = ByteBuffer.allocate(limit + sinf.length + psshSize);
+        Mp4Boxes.copy(input, 0, sampleEntry.end(), output);
+        output.put(sinf);
+        Mp4Boxes.copy(input, sampleEntry.end(), moov.end(), output);
+        for (byte[] pssh : key.getPsshBoxes()) {
+            output.put(pssh);
+        }
+        Mp4Boxes.copy(input, moov.end(), limit, output);
+
+        // all parents of the sample entry start before the insertion, their offsets didn't change
+        for (Box parent : new Box[] {moov, init.trak, init.mdia, init.minf, init.stbl, init.stsd, sampleEntry}) {
+            Mp4Boxes.growBox(output, parent.offset, sinf.length);
+        }
+        Mp4Boxes.growBox(output, moov.offset, psshSize);
+        output.putInt(sampleEntry.offset + 4, trackInfo.isVideo() ? Mp4Boxes.ENCV : Mp4Boxes.ENCA);
+
+        output.flip();
+        return new Result(output, trackInfo);
+    }
+
+    private byte[] sinf(int originalFormat, TrackInfo trackInfo, ContentKey key) {
+        ByteBuffer tenc;
+        if (scheme == EncryptionScheme.CENC) {
+            tenc = Mp4Boxes.fullBox(Mp4Boxes.TENC, 0, 4 + 16);
+            tenc.put((byte) 0).put((byte) 0);
+            tenc.put((byte) 1).put((byte) MediaSegmentEncryptor.CENC_IV_SIZE);
+            tenc.put(key.getKid());
+        } else {
+            byte[] constantIv = key.getConstantIv();
+            if (constantIv == null) {
+                throw new IllegalArgumentException("CBCS needs a constant IV");
+            }
+            tenc = Mp4Boxes.fullBox(Mp4Boxes.TENC, 1, 4 + 16 + 1 + constantIv.length);
+            tenc.put((byte) 0);
+            int pattern = trackInfo.isVideo()
+                    ? MediaSegmentEncryptor.CBCS_CRYPT_BLOCKS << 4 | MediaSegmentEncryptor.CBCS_SKIP_BLOCKS
+                    : 0;
+            tenc.put((byte) pattern);
+            // protected, no per sample IV, constant IV follows the key id
+            tenc.put((byte) 1).put((byte) 0);
+            tenc.put(key.getKid());
+            tenc.put((byte) constantIv.length).put(constantIv);
+        }
+
+        ByteBuffer frma = Mp4Boxes.box(Mp4Boxes.FRMA, 4).putInt(originalFormat);
+        ByteBuffer schm = Mp4Boxes.fullBox(Mp4Boxes.SCHM, 0, 8)
+                .putInt(Mp4Boxes.fourcc(scheme.getFourcc()))
+                .putInt(0x00010000);
+        ByteBuffer schi = Mp4Boxes.box(Mp4Boxes.SCHI, tenc.capacity()).put(tenc.array());
+        return Mp4Boxes.box(Mp4Boxes.SINF, frma.capacity() + schm.capacity() + schi.capacity())
+                .put(frma.array())
+                .put(schm.array())
+                .put(schi.array())
+                .array();
+    }
+
+    static class Result {
+        final ByteBuffer segment;
+        final TrackInfo trackInfo;
+
+        Result(ByteBuffer segment, TrackInfo trackInfo) {
+            this.segment = segment;
+            this.trackInfo = trackInfo;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package cenc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The key material of one content key of a CPIX document: the key, its IV and scheme, the data of
+ * every DRM system and the usage rule, decoded from base64 and without the rest of the document.
+ * Read by {@link CpixDocumentReader}.
+ */
+public final class KeyMaterial {
+
+    /** The DRMSystem data of one DRM system for the key */
+    public static final class DrmSystemData {
+        private final UUID systemId;
+        private final byte[] pssh;
+        private final byte[] contentProtectionData;
+        private final byte[] uriExtXKey;
+
+        DrmSystemData(UUID systemId, byte[] pssh, byte[] contentProtectionData, byte[] uriExtXKey) {
+            this.systemId = systemId;
+            this.pssh = pssh;
+            this.contentProtectionData = contentProtectionData;
+            this.uriExtXKey = uriExtXKey;
+        }
+
+        public UUID getSystemId() {
+            return systemId;
+        }
+
+        /** @return the complete pssh box, or null */
+        public byte[] getPssh() {
+            return pssh;
+        }
+
+        /** @return the decoded ContentProtectionData, or null */
+        public byte[] getContentProtectionData() {
+            return contentProtectionData;
+        }
+
+        /** @return the decoded URIExtXKey, e.g. the skd:// URI of FairPlay, or null */
+        public byte[] getUriExtXKey() {
+            return uriExtXKey;
+        }
+    }
+
+    private final UUID kid;
+    private final byte[] key;
+    private final byte[] explicitIv;
+    private final String commonEncryptionScheme;
+    private final String intendedTrackType;
+    private final String periodId;
+    private final boolean audio;
+    private final long minPixels;
+    private final long maxPixels;
+    private final List<DrmSystemData> drmSystems;
+
+    private KeyMaterial(Builder builder) {
+        this.kid = builder.kid;
+        this.key = builder.key;
+        this.explicitIv = builder.explicitIv;
+        this.commonEncryptionScheme = builder.commonEncryptionScheme;
+        this.intendedTrackType = builder.intendedTrackType;
+        this.periodId = builder.periodId;
+        this.audio = builder.audio;
+        this.minPixels = builder.minPixels;
+        this.maxPixels = builder.maxPixels;
+        this.drmSystems = Collections.unmodifiableList(builder.drmSystems);
+    }
+
+    public UUID getKid() {
+        return kid;
+    }
+
+    /** @return the plain key, or null if the document carries it encrypted */
+    public byte[] getKey() {
+        return key;
+    }
+
+    /** @return the explicit IV, or null */
+    public byte[] getExplicitIv() {
+        return explicitIv;
+    }
+
+    /** @return cenc, cbcs, ... if the document names the scheme, otherwise null */
+    public String getCommonEncryptionScheme() {
+        return commonEncryptionScheme;
+    }
+
+    /** @return the intended track type of the usage rule, e.g. HD or AUDIO, or null */
+    public String getIntendedTrackType() {
+        return intendedTrackType;
+    }
+
+    /** @return the key period of a rotating key, or null */
+    public String getPeriodId() {
+        return periodId;
+    }
+
+    /** @return true if the usage rule has an audio filter or the track type is AUDIO */
+    public boolean isAudio() {
+        return audio || "AUDIO".equalsIgnoreCase(intendedTrackType);
+    }
+
+    /** @return true if a video filter of the usage rule admits the given number of pixels */
+    public boolean matchesVideo(long pixels) {
+        return !isAudio() && minPixels >= 0 && pixels >= minPixels && (maxPixels < 0 || pixels <= maxPixels);
+    }
+
+    public List<DrmSystemData> getDrmSystems() {
+        return drmSystems;
+    }
+
+    /** @return the data of the DRM system, or null */
+    public DrmSystemData getDrmSystem(UUID systemId) {
+        for (DrmSystemData drmSystem : drmSystems) {
+            if (drmSystem.systemId.equals(systemId)) {
+                return drmSystem;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param scheme The scheme the key is used with. For CBCS the explicit IV is the constant IV
+     * @return the key with the Widevine and PlayReady pssh boxes, for the {@link SegmentEncryptor}
+     */
+    public ContentKey toContentKey(EncryptionScheme scheme) {
+        if (key == null) {
+            throw new IllegalStateException("no plain key for kid " + kid);
+        }
+        List<byte[]> psshBoxes = new ArrayList<>();
+        for (UUID systemId : new UUID[] {PsshBox.WIDEVINE_SYSTEM_ID, PsshBox.PLAYREADY_SYSTEM_ID}) {
+            DrmSystemData drmSystem = getDrmSystem(systemId);
+            if (drmSystem != null && drmSystem.pssh != null) {
+                psshBoxes.add(drmSystem.pssh);
+            }
+        }
+        byte[] kidBytes = ByteBuffer.allocate(16)
+                .putLong(kid.getMostSignificantBits())
+                .putLong(kid.getLeastSignificantBits())
+                .array();
+        return new ContentKey(kidBytes, key, scheme == EncryptionScheme.CBCS ? explicitIv : null, psshBoxes);
+    }
+
+    @Override
+    public String toString() {
+        return "KeyMaterial{kid=" + kid + ", track=" + intendedTrackType + ", drmSystems=" + drmSystems.size() + "}";
+    }
+
+    static final class Builder {
+        private final UUID kid;
+        private byte[] key;
+        private byte[] explicitIv;
+        private String commonEncryptionScheme;
+        private String intendedTrackType;
+        private String periodId;
+        private boolean audio;
+        private long minPixels = -1;
+        private long maxPixels = -1;
+        private final List<DrmSystemData> drmSystems = new ArrayList<>(3);
+
+        Builder(UUID kid) {
+            this.kid = kid;
+        }
+
+        void contentKey(byte[] key, byte[] explicitIv, String commonEncryptionScheme) {
+            this.key = key;
+            this.explicitIv = explicitIv;
+            this.commonEncryptionScheme = commonEncryptionScheme;
+        }
+
+        void drmSystem(DrmSystemData drmSystem) {
+            drmSystems.add(drmSystem);
+        }
+
+        void usageRule(String intendedTrackType) {
+            this.intendedTrackType = intendedTrackType;
+        }
+
+        void keyPeriod(String periodId) {
+            this.periodId = periodId;
+        }
+
+        void audioFilter() {
+            audio = true;
+        }
+
+        /**
+         * Widens the admitted pixel range, a usage rule may have several video filters
+         *
+         * @param maxPixels The upper bound, -1 for none
+         */
+        void videoFilter(long minPixels, long maxPixels) {
+            if (this.minPixels < 0) {
+                this.minPixels = minPixels;
+                this.maxPixels = maxPixels;
+                return;
+            }
+            this.minPixels = Math.min(this.minPixels, minPixels);
+            this.maxPixels = this.maxPixels < 0 || maxPixels < 0 ? -1 : Math.max(this.maxPixels, maxPixels);
+        }
+
+        KeyMaterial build() {
+            return new KeyMaterial(this);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package cenc;
+
+import cenc.Mp4Boxes.Box;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encrypts the samples of a clear fMP4 media segment in place and adds the sample encryption
+ * information (senc, saiz, saio) to every track fragment. The boxes are appended to the traf box,
+ * the data offsets of the track runs and a leading sidx box are corrected for the inserted bytes.
+ *
+ * <p>Video samples are encrypted per NAL unit with subsamples: length prefix and NAL header stay
+ * clear, non VCL NAL units stay clear entirely. For CENC the protected part of a NAL unit is cut
+ * to whole AES blocks. For CBCS the first 32 bytes of a VCL NAL unit stay clear (enough for the
+ * slice header, as for Apple's sample encryption) and NAL units of up to 48 bytes aren't
+ * encrypted. Audio samples are encrypted as a whole.
+ *
+ * <p>Supported are the movie fragments {@link TrackFragment} can read, as written by the Bitmovin
+ * fMP4 muxing.
+ */
+class MediaSegmentEncryptor {
+
+    static final int CENC_IV_SIZE = 8;
+    static final int CBCS_CRYPT_BLOCKS = 1;
+    static final int CBCS_SKIP_BLOCKS = 9;
+    private static final int CBCS_CLEAR_LEADER = 32;
+    private static final int CBCS_MIN_PROTECTED_NAL_SIZE = 48;
+    private static final int AES_BLOCK = 16;
+    private static final int MAX_CLEAR_BYTES = 0xFFFF;
+    private static final int MAX_SAMPLE_INFO_SIZE = 0xFF;
+
+    static final int SENC_USE_SUBSAMPLE_ENCRYPTION = 0x000002;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final EncryptionScheme scheme;
+
+    MediaSegmentEncryptor(EncryptionScheme scheme) {
+        this.scheme = scheme;
+    }
+
+    /**
+     * @param input The clear media segment
+     * @param track The track information from the init segment
+     * @param key The content key of the track
+     * @return The encrypted media segment
+     */
+    ByteBuffer encrypt(ByteBuffer input, TrackInfo track, ContentKey key) throws GeneralSecurityException {
+        int limit = input.limit();
+        Box sidx = null;
+        List<Fragment> fragments = new ArrayList<>();
+        for (Box box : Mp4Boxes.children(input, 0, limit)) {
+            if (box.type == Mp4Boxes.SIDX && fragments.isEmpty()) {
+                sidx = box;
+            } else if (box.type == Mp4Boxes.MOOF) {
+                fragments.add(plan(input, box, track));
+            }
+        }
+
+        int growth = 0;
+        for (Fragment fragment : fragments) {
+            growth += fragment.insertion.length;
+        }
+
+        ByteBuffer output = ByteBuffer.allocate(limit + growth);
+        int cursor = 0;
+        int shift = 0;
+        for (Fragment fragment : fragments) {
+            Mp4Boxes.copy(input, cursor, fragment.traf.end(), output);
+            output.put(fragment.insertion);
+            cursor = fragment.traf.end();
+
+            int inserted = fragment.insertion.length;
+            Mp4Boxes.growBox(output, fragment.moof.offset + shift, inserted);
+            Mp4Boxes.growBox(output, fragment.traf.offset + shift, inserted);
+            for (int dataOffsetPosition : fragment.dataOffsetPositions) {
+                int position = dataOffsetPosition + shift;
+                output.putInt(position, output.getInt(position) + inserted);
+            }
+            shift += inserted;
+            fragment.sampleShift = shift;
+        }
+        Mp4Boxes.copy(input, cursor, limit, output);
+
+        if (sidx != null) {
+            correctSegmentIndex(output, sidx, fragments);
+        }
+
+        SampleCipher cipher = new SampleCipher(key);
+        byte[] data = output.array();
+        for (Fragment fragment : fragments) {
+            for (Sample sample : fragment.samples) {
+                cipher.encrypt(data, sample.offset + fragment.sampleShift, sample);
+            }
+        }
+
+        output.flip();
+        return output;
+    }
+
+    private Fragment plan(ByteBuffer input, Box moof, TrackInfo track) {
+        TrackFragment trackFragment = TrackFragment.parse(input, moof);
+        if (trackFragment.trackId != track.getTrackId()) {
+            throw new Mp4FormatException("fragment of track " + trackFragment.trackId + ", the init segment has track " + track.getTrackId());
+        }
+        if (Mp4Boxes.find(input, trackFragment.traf, Mp4Boxes.SENC) != null) {
+            throw new Mp4FormatException("the segment is already encrypted");
+        }
+
+        Fragment fragment = new Fragment(trackFragment);
+        for (int i = 0; i < trackFragment.sampleCount(); i++) {
+            fragment.samples.add(sample(input, trackFragment.sampleOffsets.get(i), trackFragment.sampleSizes.get(i), track));
+        }
+        fragment.insertion = sampleEncryptionBoxes(fragment, track);
+        return fragment;
+    }
+
+    private Sample sample(ByteBuffer input, int offset, int size, TrackInfo track) {
+        Sample sample = new Sample(offset, size);
+        if (!track.isVideo()) {
+            return sample;
+        }
+
+        int nalLengthSize = track.getNalLengthSize();
+        int nalHeaderSize = track.getCodec() == TrackInfo.Codec.AVC ? 1 : 2;
+        int clear = 0;
+        int position = offset;
+        int end = offset + size;
+        while (position < end) {
+            int nalSize = readNalLength(input, position, nalLengthSize);
+            if (position + nalLengthSize + nalSize > end) {
+                throw new Mp4FormatException("NAL unit exceeds its sample at " + position);
+            }
+            int protectedBytes = 0;
+            if (isVcl(input.get(position + nalLengthSize), track.getCodec())) {
+                if (scheme == EncryptionScheme.CENC) {
+                    int payload = nalSize - nalHeaderSize;
+                    protectedBytes = payload - payload % AES_BLOCK;
+                } else if (nalSize > CBCS_MIN_PROTECTED_NAL_SIZE) {
+                    protectedBytes = nalSize - CBCS_CLEAR_LEADER;
+                }
+            }
+            clear += nalLengthSize + nalSize - protectedBytes;
+            if (protectedBytes > 0) {
+                clear = addSubsample(sample, clear, protectedBytes);
+            }
+            position += nalLengthSize + nalSize;
+        }
+        if (clear > 0 || sample.clearBytes.isEmpty()) {
+            addSubsample(sample, clear, 0);
+        }
+        return sample;
+    }
+
+    private static int addSubsample(Sample sample, int clear, int protectedBytes) {
+        while (clear > MAX_CLEAR_BYTES) {
+            sample.clearBytes.add(MAX_CLEAR_BYTES);
+            sample.protectedBytes.add(0);
+            clear -= MAX_CLEAR_BYTES;
+        }
+        sample.clearBytes.add(clear);
+        sample.protectedBytes.add(protectedBytes);
+        return 0;
+    }
+
+    static int readNalLength(ByteBuffer input, int position, int nalLengthSize) {
+        int length = 0;
+        for (int i = 0; i < nalLengthSize; i++) {
+            length = length << 8 | (input.get(position + i) & 0xFF);
+        }
+        return length;
+    }
+
+    static boolean isVcl(byte nalHeader, TrackInfo.Codec codec) {
+        if (codec == TrackInfo.Codec.AVC) {
+            int nalType = nalHeader & 0x1F;
+            return nalType >= 1 && nalType <= 5;
+        }
+        int nalType = (nalHeader >> 1) & 0x3F;
+        return nalType < 32;
+    }
+
+    /** Builds saiz, saio and senc for the fragment, in this order, to be appended to its traf box */
+    private byte[] sampleEncryptionBoxes(Fragment fragment, TrackInfo track) {
+        int ivSize = scheme == EncryptionScheme.CENC ? CENC_IV_SIZE : 0;
+        byte[] iv = new byte[8];
+        random.nextBytes(iv);
+        long nextIv = ByteBuffer.wrap(iv).getLong();
+
+        int sampleCount = fragment.samples.size();
+        int[] infoSizes = new int[sampleCount];
+        int sencContentSize = 4;
+        boolean uniform = true;
+        for (int i = 0; i < sampleCount; i++) {
+            Sample sample = fragment.samples.get(i);
+            if (ivSize > 0) {
+                sample.iv = ByteBuffer.allocate(8).putLong(nextIv++).array();
+            }
+            infoSizes[i] = ivSize + (track.isVideo() ? 2 + 6 * sample.clearBytes.size() : 0);
+            if (infoSizes[i] > MAX_SAMPLE_INFO_SIZE) {
+                throw new Mp4FormatException("too many NAL units in a sample: " + sample.clearBytes.size());
+            }
+            uniform &= infoSizes[i] == infoSizes[0];
+            sencContentSize += infoSizes[i];
+        }
+
+        // a default size of 0 announces the table, so empty information (CBCS audio) needs it too
+        uniform &= sampleCount > 0 && infoSizes[0] > 0;
+        ByteBuffer saiz = Mp4Boxes.fullBox(Mp4Boxes.SAIZ, 0, 1 + 4 + (uniform ? 0 : sampleCount));
+        saiz.put((byte) (uniform ? infoSizes[0] : 0)).putInt(sampleCount);
+        if (!uniform) {
+            for (int infoSize : infoSizes) {
+                saiz.put((byte) infoSize);
+            }
+        }
+
+        ByteBuffer senc = Mp4Boxes.fullBox(Mp4Boxes.SENC, 0, sencContentSize);
+        if (track.isVideo()) {
+            senc.putInt(8, SENC_USE_SUBSAMPLE_ENCRYPTION);
+        }
+        senc.putInt(sampleCount);
+        for (Sample sample : fragment.samples) {
+            if (sample.iv != null) {
+                senc.put(sample.iv);
+            }
+            if (track.isVideo()) {
+                senc.putShort((short) sample.clearBytes.size());
+                for (int i = 0; i < sample.clearBytes.size(); i++) {
+                    senc.putShort((short) (int) sample.clearBytes.get(i));
+                    senc.putInt(sample.protectedBytes.get(i));
+                }
+            }
+        }
+
+        // saio points to the first sample's information in senc, relative to the moof box
+        ByteBuffer saio = Mp4Boxes.fullBox(Mp4Boxes.SAIO, 0, 4 + 4);
+        int sencOffset = fragment.traf.end() - fragment.moof.offset + saiz.capacity() + saio.capacity();
+        saio.putInt(1).putInt(sencOffset + 16);
+
+        return ByteBuffer.allocate(saiz.capacity() + saio.capacity() + senc.capacity())
+                .put(saiz.array())
+                .put(saio.array())
+                .put(senc.array())
+                .array();
+    }
+
+    /** Adds the bytes inserted into each movie fragment to the size of its sidx reference */
+    private static void correctSegmentIndex(ByteBuffer output, Box sidx, List<Fragment> fragments) {
+        int version = output.get(sidx.contentOffset()) & 0xFF;
+        // full box header, reference id, timescale, earliest presentation time and first offset, reserved
+        int position = sidx.contentOffset() + 4 + 4 + 4 + (version == 0 ? 8 : 16) + 2;
+        int referenceCount = output.getShort(position) & 0xFFFF;
+        if (referenceCount != fragments.size()) {
+            throw new Mp4FormatException("sidx with " + referenceCount + " references for " + fragments.size() + " fragments");
+        }
+        position += 2;
+        for (Fragment fragment : fragments) {
+            int reference = output.getInt(position);
+            int size = reference & 0x7FFFFFFF;
+            output.putInt(position, (reference & 0x80000000) | (size + fragment.insertion.length));
+            position += 12;
+        }
+    }
+
+    private class SampleCipher {
+        private final SecretKeySpec secretKey;
+        private final Cipher cipher;
+        private final byte[] constantIv;
+
+        private SampleCipher(ContentKey key) throws GeneralSecurityException {
+            this.secretKey = new SecretKeySpec(key.getKey(), "AES");
+            this.cipher = Cipher.getInstance(scheme == EncryptionScheme.CENC ? "AES/CTR/NoPadding" : "AES/CBC/NoPadding");
+            this.constantIv = key.getConstantIv();
+        }
+
+        private void encrypt(byte[] data, int offset, Sample sample) throws GeneralSecurityException {
+            if (scheme == EncryptionScheme.CENC) {
+                // the protected parts of a sample form one AES-CTR stream, starting at IV || 0
+                byte[] counter = new byte[AES_BLOCK];
+                System.arraycopy(sample.iv, 0, counter, 0, CENC_IV_SIZE);
+                cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(counter));
+                if (sample.clearBytes.isEmpty()) {
+                    cipher.update(data, offset, sample.size, data, offset);
+                    return;
+                }
+                int position = offset;
+                for (int i = 0; i < sample.clearBytes.size(); i++) {
+                    position += sample.clearBytes.get(i);
+                    int protectedBytes = sample.protectedBytes.get(i);
+                    if (protectedBytes > 0) {
+                        cipher.update(data, position, protectedBytes, data, position);
+                    }
+                    position += protectedBytes;
+                }
+                return;
+            }
+
+            // CBCS: every subsample starts a new CBC chain with the constant IV
+            if (sample.clearBytes.isEmpty()) {
+                encryptPattern(data, offset, sample.size, 0, 0);
+                return;
+            }
+            int position = offset;
+            for (int i = 0; i < sample.clearBytes.size(); i++) {
+                position += sample.clearBytes.get(i);
+                int protectedBytes = sample.protectedBytes.get(i);
+                if (protectedBytes > 0) {
+                    encryptPattern(data, position, protectedBytes, CBCS_CRYPT_BLOCKS, CBCS_SKIP_BLOCKS);
+                }
+                position += protectedBytes;
+            }
+        }
+
+        /** Encrypts crypt blocks, skips skip blocks and so on, a trailing partial block stays clear */
+        private void encryptPattern(byte[] data, int offset, int length, int crypt, int skip)
+                throws GeneralSecurityException {
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(constantIv));
+            int blocks = length / AES_BLOCK;
+            if (crypt == 0) {
+                if (blocks > 0) {
+                    cipher.update(data, offset, blocks * AES_BLOCK, data, offset);
+                }
+                return;
+            }
+            for (int block = 0; block < blocks; block += crypt + skip) {
+                int encrypted = Math.min(crypt, blocks - block);
+                int position = offset + block * AES_BLOCK;
+                cipher.update(data, position, encrypted * AES_BLOCK, data, position);
+            }
+        }
+    }
+
+    private static class Fragment {
+        private final Box moof;
+        private final Box traf;
+        private final List<Integer> dataOffsetPositions;
+        private final List<Sample> samples = new ArrayList<>();
+        private byte[] insertion;
+        private int sampleShift;
+
+        private Fragment(TrackFragment trackFragment) {
+            this.moof = trackFragment.moof;
+            this.traf = trackFragment.traf;
+            this.dataOffsetPositions = trackFragment.dataOffsetPositions;
+        }
+    }
+
+    private static class Sample {
+        private final int offset;
+        private final int size;
+        private final List<Integer> clearBytes = new ArrayList<>();
+        private final List<Integer> protectedBytes = new ArrayList<>();
+        private byte[] iv;
+
+        private Sample(int offset, int size) {
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package cenc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal ISO BMFF box access on a {@link ByteBuffer}. Boxes are addressed by absolute positions,
+ * the position and limit of the buffer are never changed, so one buffer can be read from several
+ * places at once.
+ */
+final class Mp4Boxes {
+
+    static final int FTYP = fourcc("ftyp");
+    static final int STYP = fourcc("styp");
+    static final int MOOV = fourcc("moov");
+    static final int TRAK = fourcc("trak");
+    static final int MDIA = fourcc("mdia");
+    static final int HDLR = fourcc("hdlr");
+    static final int MINF = fourcc("minf");
+    static final int STBL = fourcc("stbl");
+    static final int STSD = fourcc("stsd");
+    static final int SIDX = fourcc("sidx");
+    static final int MOOF = fourcc("moof");
+    static final int TRAF = fourcc("traf");
+    static final int TFHD = fourcc("tfhd");
+    static final int TRUN = fourcc("trun");
+    static final int MDAT = fourcc("mdat");
+    static final int PSSH = fourcc("pssh");
+    static final int SINF = fourcc("sinf");
+    static final int FRMA = fourcc("frma");
+    static final int SCHM = fourcc("schm");
+    static final int SCHI = fourcc("schi");
+    static final int TENC = fourcc("tenc");
+    static final int SENC = fourcc("senc");
+    static final int SAIZ = fourcc("saiz");
+    static final int SAIO = fourcc("saio");
+    static final int AVCC = fourcc("avcC");
+    static final int HVCC = fourcc("hvcC");
+    static final int ENCV = fourcc("encv");
+    static final int ENCA = fourcc("enca");
+    static final int VIDE = fourcc("vide");
+    static final int SOUN = fourcc("soun");
+
+    /** Size of a sample entry's fields in front of its child boxes, see ISO/IEC 14496-12 12.1.3 */
+    static final int VISUAL_SAMPLE_ENTRY_FIELDS = 78;
+    static final int AUDIO_SAMPLE_ENTRY_FIELDS = 28;
+
+    private Mp4Boxes() {
+    }
+
+    static final class Box {
+        final int type;
+        final int offset;
+        final int headerSize;
+        final int size;
+
+        private Box(int type, int offset, int headerSize, int size) {
+            this.type = type;
+            this.offset = offset;
+            this.headerSize = headerSize;
+            this.size = size;
+        }
+
+        int contentOffset() {
+            return offset + headerSize;
+        }
+
+        int end() {
+            return offset + size;
+        }
+
+        @Override
+        public String toString() {
+            return name(type) + "@" + offset + "[" + size + "]";
+        }
+    }
+
+    static Box readBox(ByteBuffer buffer, int offset, int limit) {
+        if (limit - offset < 8) {
+            throw new Mp4FormatException("truncated box header at " + offset);
+        }
+        long size = buffer.getInt(offset) & 0xFFFFFFFFL;
+        int type = buffer.getInt(offset + 4);
+        int headerSize = 8;
+        if (size == 1) {
+            size = buffer.getLong(offset + 8);
+            headerSize = 16;
+        } else if (size == 0) {
+            size = limit - offset;
+        }
+        if (size < headerSize || offset + size > limit) {
+            throw new Mp4FormatException("invalid size " + size + " of box " + name(type) + " at " + offset);
+        }
+        return new Box(type, offset, headerSize, (int) size);
+    }
+
+    static List<Box> children(ByteBuffer buffer, int start, int end) {
+        List<Box> boxes = new ArrayList<>();
+        int offset = start;
+        while (offset < end) {
+            Box box = readBox(buffer, offset, end);
+            boxes.add(box);
+            offset = box.end();
+        }
+        return boxes;
+    }
+
+    static List<Box> children(ByteBuffer buffer, Box parent) {
+        return children(buffer, parent.contentOffset(), parent.end());
+    }
+
+    /** @return the first child of the given type, or null */
+    static Box find(ByteBuffer buffer, Box parent, int type) {
+        for (Box child : children(buffer, parent)) {
+            if (child.type == type) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    static Box require(ByteBuffer buffer, Box parent, int type) {
+        Box box = find(buffer, parent, type);
+        if (box == null) {
+            throw new Mp4FormatException("no " + name(type) + " box in " + parent);
+        }
+        return box;
+    }
+
+    /** Adds delta to the 32 bit size field of a box */
+    static void growBox(ByteBuffer buffer, int boxOffset, int delta) {
+        if (buffer.getInt(boxOffset) == 1) {
+            buffer.putLong(boxOffset + 8, buffer.getLong(boxOffset + 8) + delta);
+        } else {
+            buffer.putInt(boxOffset, buffer.getInt(boxOffset) + delta);
+        }
+    }
+
+    /** @return a buffer for a box with the header written, positioned at its content */
+    static ByteBuffer box(int type, int contentSize) {
+        return ByteBuffer.allocate(8 + contentSize).putInt(8 + contentSize).putInt(type);
+    }
+
+    /** @return a buffer for a full box with header, version and zero flags written */
+    static ByteBuffer fullBox(int type, int version, int contentSize) {
+        return box(type, 4 + contentSize).putInt(version << 24);
+    }
+
+    /** Copies the bytes from (inclusive) to (exclusive) of input to the position of output */
+    static void copy(ByteBuffer input, int from, int to, ByteBuffer output) {
+        ByteBuffer slice = input.duplicate();
+        slice.limit(to).position(from);
+        output.put(slice);
+    }
+
+    static int fourcc(String type) {
+        byte[] bytes = type.getBytes(StandardCharsets.US_ASCII);
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    static String name(int type) {
+        return new String(
+                new byte[] {(byte) (type >>> 24), (byte) (type >>> 16), (byte) (type >>> 8), (byte) type},
+                StandardCharsets.US_ASCII);
+    }
+}
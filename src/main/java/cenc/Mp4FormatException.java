@@ -0,0 +1,9 @@
+package cenc;
+
+/** Thrown for fMP4 input which is malformed or uses features the encryptor doesn't support */
+public class Mp4FormatException extends RuntimeException {
+
+    public Mp4FormatException(String message) {
+        super(message);
+    }
+}
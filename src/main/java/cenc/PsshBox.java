@@ -0,0 +1,268 @@
+package cenc;
+
+import cenc.Mp4Boxes.Box;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A pssh box (ISO/IEC 23001-7, version 0 or 1) read in place from a {@link ByteBuffer}, and
+ * writers for pssh boxes into caller provided buffers. Like {@link Mp4Boxes}, reading uses absolute
+ * positions and never changes the buffer, the data is returned as a view instead of a copy.
+ *
+ * <p>Besides taking the boxes of the CPIX key info apart, the Widevine and PlayReady boxes can be
+ * written from the key id and content id alone, without a KMS request. The Widevine data is a
+ * WidevinePsshData message with key id, content id and, for CBCS, the protection scheme. The
+ * PlayReady data is a PlayReady object with a WRMHEADER 4.0 (CENC) or 4.3 (CBCS).
+ */
+public final class PsshBox {
+
+    public static final UUID WIDEVINE_SYSTEM_ID = UUID.fromString("edef8ba9-79d6-4ace-a3c8-27dcd51d21ed");
+    public static final UUID PLAYREADY_SYSTEM_ID = UUID.fromString("9a04f079-9840-4286-ab92-e65be0885f95");
+
+    // WidevinePsshData fields: key_id = 2, content_id = 4 (bytes), protection_scheme = 9 (uint32)
+    private static final int WIDEVINE_KEY_ID_TAG = 2 << 3 | 2;
+    private static final int WIDEVINE_CONTENT_ID_TAG = 4 << 3 | 2;
+    private static final int WIDEVINE_PROTECTION_SCHEME_TAG = 9 << 3;
+    private static final int PLAYREADY_RIGHTS_MANAGEMENT_HEADER = 1;
+
+    private final ByteBuffer buffer;
+    private final Box box;
+    private final int version;
+    private final int kidCount;
+    private final int dataOffset;
+    private final int dataSize;
+
+    private PsshBox(ByteBuffer buffer, Box box, int version, int kidCount, int dataOffset, int dataSize) {
+        this.buffer = buffer;
+        this.box = box;
+        this.version = version;
+        this.kidCount = kidCount;
+        this.dataOffset = dataOffset;
+        this.dataSize = dataSize;
+    }
+
+    /** Reads the pssh box at the offset of the buffer */
+    public static PsshBox read(ByteBuffer buffer, int offset) {
+        return read(buffer, Mp4Boxes.readBox(buffer, offset, buffer.limit()));
+    }
+
+    static PsshBox read(ByteBuffer buffer, Box box) {
+        if (box.type != Mp4Boxes.PSSH) {
+            throw new Mp4FormatException("expected a pssh box, found " + box);
+        }
+        int version = buffer.get(box.contentOffset()) & 0xFF;
+        if (version > 1) {
+            throw new Mp4FormatException("unsupported pssh box version " + version);
+        }
+        // full box header, system id, then for version 1 the key ids
+        int position = box.contentOffset() + 4 + 16;
+        int kidCount = 0;
+        if (version == 1) {
+            kidCount = buffer.getInt(position);
+            position += 4 + 16 * kidCount;
+        }
+        if (kidCount < 0 || position + 4 > box.end()) {
+            throw new Mp4FormatException("invalid key id count " + kidCount + " in " + box);
+        }
+        int dataSize = buffer.getInt(position);
+        if (dataSize < 0 || position + 4 + dataSize > box.end()) {
+            throw new Mp4FormatException("invalid data size " + dataSize + " in " + box);
+        }
+        return new PsshBox(buffer, box, version, kidCount, position + 4, dataSize);
+    }
+
+    /** Reads a complete pssh box, e.g. as delivered base64 encoded by the CPIX key info */
+    public static PsshBox read(byte[] box) {
+        return read(ByteBuffer.wrap(box), 0);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /** @return the size of the whole box */
+    public int getSize() {
+        return box.size;
+    }
+
+    public UUID getSystemId() {
+        int position = box.contentOffset() + 4;
+        return new UUID(buffer.getLong(position), buffer.getLong(position + 8));
+    }
+
+    /** @return true if the box is for the given DRM system, without creating a UUID */
+    public boolean isSystem(UUID systemId) {
+        int position = box.contentOffset() + 4;
+        return buffer.getLong(position) == systemId.getMostSignificantBits()
+                && buffer.getLong(position + 8) == systemId.getLeastSignificantBits();
+    }
+
+    /** @return the number of key ids in the box header, always 0 for version 0 */
+    public int getKidCount() {
+        return kidCount;
+    }
+
+    /** Copies key id i of the box header into kid, which has to have 16 bytes */
+    public void getKid(int i, byte[] kid) {
+        if (i < 0 || i >= kidCount) {
+            throw new IndexOutOfBoundsException("key id " + i + " of " + kidCount);
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(box.contentOffset() + 4 + 16 + 4 + 16 * i);
+        slice.get(kid, 0, 16);
+    }
+
+    /** @return a read only view of the DRM system specific data */
+    public ByteBuffer getData() {
+        ByteBuffer data = buffer.asReadOnlyBuffer();
+        data.limit(dataOffset + dataSize).position(dataOffset);
+        return data.slice();
+    }
+
+    public int getDataSize() {
+        return dataSize;
+    }
+
+    /** @return true if both boxes carry the same data, regardless of version and key id list */
+    public boolean hasSameData(PsshBox other) {
+        return getData().equals(other.getData());
+    }
+
+    /** @return the data base64 encoded, as Bitmovin expects the Widevine pssh of a CENC DRM */
+    public String encodeData() {
+        ByteBuffer encoded = Base64.getEncoder().encode(getData());
+        return new String(encoded.array(), encoded.arrayOffset(), encoded.remaining(), StandardCharsets.US_ASCII);
+    }
+
+    /** @return the size of a pssh box with the given number of key ids (0 for version 0) and data */
+    public static int size(int kidCount, int dataSize) {
+        return 8 + 4 + 16 + (kidCount > 0 ? 4 + 16 * kidCount : 0) + 4 + dataSize;
+    }
+
+    /**
+     * Writes a pssh box at the position of out. Without key ids a version 0 box is written,
+     * otherwise version 1.
+     *
+     * @param out The buffer to write to, needs {@link #size(int, int)} bytes remaining
+     * @param systemId The DRM system
+     * @param kids The 16 byte key ids for the box header, may be empty
+     * @param data The DRM system specific data, from its position to its limit; not consumed
+     */
+    public static void write(ByteBuffer out, UUID systemId, List<byte[]> kids, ByteBuffer data) {
+        out.putInt(size(kids.size(), data.remaining()))
+                .putInt(Mp4Boxes.PSSH)
+                .putInt(kids.isEmpty() ? 0 : 1 << 24)
+                .putLong(systemId.getMostSignificantBits())
+                .putLong(systemId.getLeastSignificantBits());
+        if (!kids.isEmpty()) {
+            out.putInt(kids.size());
+            for (byte[] kid : kids) {
+                if (kid.length != 16) {
+                    throw new IllegalArgumentException("key ids have to be 16 bytes");
+                }
+                out.put(kid);
+            }
+        }
+        out.putInt(data.remaining()).put(data.duplicate());
+    }
+
+    /** @return the size of the Widevine data {@link #writeWidevineData} writes */
+    public static int widevineDataSize(String contentId, EncryptionScheme scheme) {
+        int contentIdSize = contentId.getBytes(StandardCharsets.UTF_8).length;
+        return 2 + 16
+                + 1 + varintSize(contentIdSize) + contentIdSize
+                + (scheme == EncryptionScheme.CBCS ? 1 + varintSize(Mp4Boxes.fourcc("cbcs")) : 0);
+    }
+
+    /** Writes a WidevinePsshData message with key id, content id and protection scheme */
+    public static void writeWidevineData(ByteBuffer out, byte[] kid, String contentId, EncryptionScheme scheme) {
+        byte[] contentIdBytes = contentId.getBytes(StandardCharsets.UTF_8);
+        out.put((byte) WIDEVINE_KEY_ID_TAG).put((byte) 16).put(kid);
+        out.put((byte) WIDEVINE_CONTENT_ID_TAG);
+        putVarint(out, contentIdBytes.length);
+        out.put(contentIdBytes);
+        if (scheme == EncryptionScheme.CBCS) {
+            out.put((byte) WIDEVINE_PROTECTION_SCHEME_TAG);
+            putVarint(out, Mp4Boxes.fourcc("cbcs"));
+        }
+    }
+
+    /** @return a version 0 Widevine pssh box for the key id and content id */
+    public static byte[] widevine(byte[] kid, String contentId, EncryptionScheme scheme) {
+        ByteBuffer data = ByteBuffer.allocate(widevineDataSize(contentId, scheme));
+        writeWidevineData(data, kid, contentId, scheme);
+        data.flip();
+        ByteBuffer box = ByteBuffer.allocate(size(0, data.remaining()));
+        write(box, WIDEVINE_SYSTEM_ID, Collections.<byte[]>emptyList(), data);
+        return box.array();
+    }
+
+    /**
+     * @return a version 0 PlayReady pssh box whose PlayReady object holds a rights management
+     *     header for the key id and license server
+     * @param licenseUrl The license acquisition URL, or null to leave it to the player
+     */
+    public static byte[] playReady(byte[] kid, String licenseUrl, EncryptionScheme scheme) {
+        byte[] header = playReadyHeader(kid, licenseUrl, scheme).getBytes(StandardCharsets.UTF_16LE);
+        // PlayReady object: size, record count, then type, size and value of every record, little endian
+        ByteBuffer data = ByteBuffer.allocate(4 + 2 + 2 + 2 + header.length).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(data.capacity())
+                .putShort((short) 1)
+                .putShort((short) PLAYREADY_RIGHTS_MANAGEMENT_HEADER)
+                .putShort((short) header.length)
+                .put(header)
+                .flip();
+        ByteBuffer box = ByteBuffer.allocate(size(0, data.remaining()));
+        write(box, PLAYREADY_SYSTEM_ID, Collections.<byte[]>emptyList(), data);
+        return box.array();
+    }
+
+    private static String playReadyHeader(byte[] kid, String licenseUrl, EncryptionScheme scheme) {
+        // PlayReady key ids are GUIDs: the first three fields are little endian
+        byte[] guid = {
+                kid[3], kid[2], kid[1], kid[0], kid[5], kid[4], kid[7], kid[6],
+                kid[8], kid[9], kid[10], kid[11], kid[12], kid[13], kid[14], kid[15]};
+        String encodedKid = Base64.getEncoder().encodeToString(guid);
+        String licenseAcquisition = licenseUrl == null ? "" : "<LA_URL>" + escape(licenseUrl) + "</LA_URL>";
+        if (scheme == EncryptionScheme.CBCS) {
+            // AES-CBC needs version 4.3 of the header
+            return "<WRMHEADER xmlns=\"http://schemas.microsoft.com/DRM/2007/03/PlayReadyHeader\" version=\"4.3.0.0\"><DATA>"
+                    + "<PROTECTINFO><KIDS><KID ALGID=\"AESCBC\" VALUE=\"" + encodedKid + "\"></KID></KIDS></PROTECTINFO>"
+                    + licenseAcquisition + "</DATA></WRMHEADER>";
+        }
+        return "<WRMHEADER xmlns=\"http://schemas.microsoft.com/DRM/2007/03/PlayReadyHeader\" version=\"4.0.0.0\"><DATA>"
+                + "<PROTECTINFO><KEYLEN>16</KEYLEN><ALGID>AESCTR</ALGID></PROTECTINFO><KID>" + encodedKid + "</KID>"
+                + licenseAcquisition + "</DATA></WRMHEADER>";
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    @Override
+    public String toString() {
+        return "pssh v" + version + " " + getSystemId() + " [" + dataSize + " bytes data]";
+    }
+}
@@ -0,0 +1,154 @@
+package cenc;
+
+import com.pallycon.cpix.CpixModule;
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.CpixDTO;
+import com.pallycon.cpix.dto.PallyConConfig;
+import com.pallycon.cpix.dto.VideoConfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * The content keys of all renditions of a title, keyed by the rendition folder the {@link
+ * pipeline.PackagingPipeline} writes them to: video/1, video/2, ... from the lowest to the highest
+ * resolution, and audio.
+ */
+public class RenditionKeys {
+
+    public static final String AUDIO_RENDITION = "audio";
+
+    private static final UUID FAIRPLAY_SYSTEM_ID = UUID.fromString("94ce86fb-07ff-4f43-adb8-93d2fa968ca2");
+
+    private final EncryptionScheme scheme;
+    private final Map<String, ContentKey> keys;
+
+    private RenditionKeys(EncryptionScheme scheme, Map<String, ContentKey> keys) {
+        this.scheme = scheme;
+        this.keys = Collections.unmodifiableMap(keys);
+    }
+
+    /**
+     * Requests the keys from PallyCon KMS. With the HLS key info the renditions are CBCS
+     * protected, otherwise CENC.
+     *
+     * @param cpixModule The CPIX client
+     * @param token The PallyCon KMS token
+     * @param contentId The content id
+     * @param ladder The heights of the video renditions, in any order
+     * @param dash true to request the DASH key info (Widevine and PlayReady)
+     * @param hls true to request the HLS key info (FairPlay)
+     */
+    public static RenditionKeys fetch(
+            CpixModule cpixModule, String token, String contentId, List<Integer> ladder, boolean dash, boolean hls)
+            throws Exception {
+        if (!dash && !hls) {
+            throw new IllegalArgumentException("no key info requested");
+        }
+        List<VideoConfig> videoProfile = new ArrayList<>();
+        for (int height : ladder) {
+            videoProfile.add(new VideoConfig(height));
+        }
+        Collections.sort(videoProfile);
+        AudioConfig audioConfig = new AudioConfig();
+
+        // the key info fills in the track of every video and audio config
+        PallyConConfig pallyConConfig = new PallyConConfig();
+        pallyConConfig.setVideoConfigList(videoProfile);
+        pallyConConfig.setAudioConfigList(Collections.singletonList(audioConfig));
+        CpixDTO dashCpixDTO = dash ? cpixModule.getDashKeyInfo(token, contentId, pallyConConfig) : null;
+        CpixDTO hlsCpixDTO = hls ? cpixModule.getHlsKeyInfo(token, contentId, pallyConConfig) : null;
+
+        Map<String, ContentKey> keys = new LinkedHashMap<>();
+        int i = 1;
+        for (VideoConfig videoConfig : videoProfile) {
+            keys.put("video/" + i++, contentKey(dashCpixDTO, hlsCpixDTO, videoConfig.track));
+        }
+        keys.put(AUDIO_RENDITION, contentKey(dashCpixDTO, hlsCpixDTO, audioConfig.track));
+        return new RenditionKeys(hlsCpixDTO == null ? EncryptionScheme.CENC : EncryptionScheme.CBCS, keys);
+    }
+
+    /**
+     * Takes the keys from a CPIX document instead of requesting them, e.g. one exported from the
+     * KMS or saved next to the content. Every rendition gets the key whose video filter admits its
+     * resolution (16:9), or the only video key of the document; the audio rendition gets the audio
+     * key. If a key names the cbcs scheme or has FairPlay data, the renditions are CBCS protected,
+     * otherwise CENC.
+     *
+     * @param document The CPIX document, read with the {@link CpixDocumentReader}
+     * @param ladder The heights of the video renditions, in any order
+     */
+    public static RenditionKeys fromDocument(Path document, List<Integer> ladder) throws IOException {
+        List<KeyMaterial> keyMaterial = CpixDocumentReader.read(document);
+        EncryptionScheme scheme = EncryptionScheme.CENC;
+        List<KeyMaterial> videoKeys = new ArrayList<>();
+        KeyMaterial audioKey = null;
+        for (KeyMaterial key : keyMaterial) {
+            if ("cbcs".equals(key.getCommonEncryptionScheme()) || key.getDrmSystem(FAIRPLAY_SYSTEM_ID) != null) {
+                scheme = EncryptionScheme.CBCS;
+            }
+            if (key.isAudio()) {
+                audioKey = audioKey == null ? key : audioKey;
+            } else {
+                videoKeys.add(key);
+            }
+        }
+        if (videoKeys.isEmpty() || audioKey == null) {
+            throw new IOException("CPIX document " + document + " needs a video and an audio key, found " + keyMaterial);
+        }
+
+        List<Integer> heights = new ArrayList<>(ladder);
+        Collections.sort(heights);
+        Map<String, ContentKey> keys = new LinkedHashMap<>();
+        int i = 1;
+        for (int height : heights) {
+            keys.put("video/" + i++, videoKey(videoKeys, height).toContentKey(scheme));
+        }
+        keys.put(AUDIO_RENDITION, audioKey.toContentKey(scheme));
+        return new RenditionKeys(scheme, keys);
+    }
+
+    private static KeyMaterial videoKey(List<KeyMaterial> videoKeys, int height) throws IOException {
+        long pixels = (long) height * (height * 16 / 9);
+        for (KeyMaterial key : videoKeys) {
+            if (key.matchesVideo(pixels)) {
+                return key;
+            }
+        }
+        if (videoKeys.size() == 1) {
+            return videoKeys.get(0);
+        }
+        throw new IOException("no key of the CPIX document admits " + height + "p");
+    }
+
+    /** @return the heights of a comma separated ladder, e.g. 480,720,1080 */
+    public static List<Integer> parseLadder(String heights) {
+        return Arrays.stream(heights.split(","))
+                .map(String::trim)
+                .map(Integer::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    private static ContentKey contentKey(CpixDTO dashCpixDTO, CpixDTO hlsCpixDTO, String track) {
+        return hlsCpixDTO == null
+                ? ContentKey.fromCpix(dashCpixDTO, track)
+                : ContentKey.fromCpix(dashCpixDTO, hlsCpixDTO, track);
+    }
+
+    public EncryptionScheme getScheme() {
+        return scheme;
+    }
+
+    /** @return the content key of every rendition folder, videos first */
+    public Map<String, ContentKey> getKeys() {
+        return keys;
+    }
+}
@@ -0,0 +1,114 @@
+package cenc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encrypts clear fMP4 renditions (an init segment and its media segments) locally with CENC or
+ * CBCS, e.g. to re-key content that was already encoded without encoding it again. The media
+ * segments of a rendition are independent of each other and encrypted in parallel, each one read
+ * through a memory mapped file and written with a single channel write.
+ *
+ * <p>Only the segments are written: the key ids change, so DASH and HLS manifests have to be
+ * created again for the new keys.
+ */
+public class SegmentEncryptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentEncryptor.class);
+
+    private static final String INIT_SEGMENT_PREFIX = "init";
+    private static final String INIT_SEGMENT_SUFFIX = ".mp4";
+    private static final String MEDIA_SEGMENT_GLOB = "*.m4s";
+
+    private final InitSegmentEncryptor initSegmentEncryptor;
+    private final MediaSegmentEncryptor mediaSegmentEncryptor;
+    private final ExecutorService executor;
+
+    /**
+     * @param scheme The encryption scheme of the output
+     * @param threads Number of media segments encrypted at the same time
+     */
+    public SegmentEncryptor(EncryptionScheme scheme, int threads) {
+        this.initSegmentEncryptor = new InitSegmentEncryptor(scheme);
+        this.mediaSegmentEncryptor = new MediaSegmentEncryptor(scheme);
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Encrypts the init segment (init*.mp4) and all media segments (*.m4s) of a rendition folder.
+     *
+     * @param inputDir The folder with the clear segments of one rendition
+     * @param outputDir The folder to write the encrypted segments to, with the same file names
+     * @param key The content key of the rendition's track
+     * @return The number of media segments written
+     */
+    public int encryptRendition(Path inputDir, Path outputDir, ContentKey key)
+            throws IOException, InterruptedException {
+        Path initSegment = findInitSegment(inputDir);
+        Files.createDirectories(outputDir);
+
+        InitSegmentEncryptor.Result init = initSegmentEncryptor.encrypt(SegmentFiles.read(initSegment), key);
+        SegmentFiles.write(outputDir.resolve(initSegment.getFileName()), init.segment);
+        TrackInfo trackInfo = init.trackInfo;
+
+        List<Future<Void>> futures = new ArrayList<>();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(inputDir, MEDIA_SEGMENT_GLOB)) {
+            for (Path segment : segments) {
+                Path target = outputDir.resolve(segment.getFileName());
+                futures.add(executor.submit(() -> {
+                    SegmentFiles.write(target, mediaSegmentEncryptor.encrypt(SegmentFiles.read(segment), trackInfo, key));
+                    return null;
+                }));
+            }
+        }
+
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof GeneralSecurityException) {
+                throw new IllegalStateException("AES encryption failed", cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+
+        logger.info("Encrypted {} with {} media segments to {}", inputDir, futures.size(), outputDir);
+        return futures.size();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static Path findInitSegment(Path inputDir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inputDir, INIT_SEGMENT_PREFIX + "*" + INIT_SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                return file;
+            }
+        }
+        throw new IOException("no init segment in " + inputDir);
+    }
+}
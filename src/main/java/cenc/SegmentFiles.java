@@ -0,0 +1,36 @@
+package cenc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Reads and writes whole segment files */
+final class SegmentFiles {
+
+    private SegmentFiles() {
+    }
+
+    /**
+     * Maps the file into memory. Files of a file system without memory mapping (e.g. a provider
+     * for S3 compatible storage) are read into a heap buffer.
+     */
+    static ByteBuffer read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (UnsupportedOperationException e) {
+            return ByteBuffer.wrap(Files.readAllBytes(file));
+        }
+    }
+
+    static void write(Path file, ByteBuffer segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (segment.hasRemaining()) {
+                channel.write(segment);
+            }
+        }
+    }
+}
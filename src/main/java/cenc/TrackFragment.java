@@ -0,0 +1,106 @@
+package cenc;
+
+import cenc.Mp4Boxes.Box;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The track fragment of a movie fragment with the position and size of its samples, read from
+ * tfhd and the trun boxes. Supported are movie fragments with a single track fragment whose sample
+ * data offsets are relative to the moof box (default-base-is-moof, no explicit base data offset).
+ */
+final class TrackFragment {
+
+    private static final int TFHD_BASE_DATA_OFFSET = 0x000001;
+    private static final int TFHD_SAMPLE_DESCRIPTION_INDEX = 0x000002;
+    private static final int TFHD_DEFAULT_SAMPLE_DURATION = 0x000008;
+    private static final int TFHD_DEFAULT_SAMPLE_SIZE = 0x000010;
+    private static final int TRUN_DATA_OFFSET = 0x000001;
+    private static final int TRUN_FIRST_SAMPLE_FLAGS = 0x000004;
+    private static final int TRUN_SAMPLE_DURATION = 0x000100;
+    private static final int TRUN_SAMPLE_SIZE = 0x000200;
+    private static final int TRUN_SAMPLE_FLAGS = 0x000400;
+    private static final int TRUN_SAMPLE_COMPOSITION_TIME_OFFSET = 0x000800;
+
+    final Box moof;
+    final Box traf;
+    final int trackId;
+    /** Positions of the trun data_offset fields */
+    final List<Integer> dataOffsetPositions = new ArrayList<>();
+    final List<Integer> sampleOffsets = new ArrayList<>();
+    final List<Integer> sampleSizes = new ArrayList<>();
+
+    private TrackFragment(Box moof, Box traf, int trackId) {
+        this.moof = moof;
+        this.traf = traf;
+        this.trackId = trackId;
+    }
+
+    static TrackFragment parse(ByteBuffer input, Box moof) {
+        Box traf = null;
+        for (Box child : Mp4Boxes.children(input, moof)) {
+            if (child.type == Mp4Boxes.TRAF) {
+                if (traf != null) {
+                    throw new Mp4FormatException("movie fragments with more than one track fragment are not supported");
+                }
+                traf = child;
+            }
+        }
+        if (traf == null) {
+            throw new Mp4FormatException("no traf box in " + moof);
+        }
+
+        Box tfhd = Mp4Boxes.require(input, traf, Mp4Boxes.TFHD);
+        int tfhdFlags = input.getInt(tfhd.contentOffset()) & 0xFFFFFF;
+        if ((tfhdFlags & TFHD_BASE_DATA_OFFSET) != 0) {
+            throw new Mp4FormatException("explicit base data offsets are not supported");
+        }
+        int position = tfhd.contentOffset() + 4;
+        TrackFragment fragment = new TrackFragment(moof, traf, input.getInt(position));
+        position += 4;
+        position += (tfhdFlags & TFHD_SAMPLE_DESCRIPTION_INDEX) != 0 ? 4 : 0;
+        position += (tfhdFlags & TFHD_DEFAULT_SAMPLE_DURATION) != 0 ? 4 : 0;
+        int defaultSampleSize = (tfhdFlags & TFHD_DEFAULT_SAMPLE_SIZE) != 0 ? input.getInt(position) : 0;
+
+        for (Box trun : Mp4Boxes.children(input, traf)) {
+            if (trun.type != Mp4Boxes.TRUN) {
+                continue;
+            }
+            int trunFlags = input.getInt(trun.contentOffset()) & 0xFFFFFF;
+            int sampleCount = input.getInt(trun.contentOffset() + 4);
+            position = trun.contentOffset() + 8;
+            if ((trunFlags & TRUN_DATA_OFFSET) == 0) {
+                throw new Mp4FormatException("track runs without data offset are not supported");
+            }
+            fragment.dataOffsetPositions.add(position);
+            int sampleOffset = moof.offset + input.getInt(position);
+            position += 4;
+            position += (trunFlags & TRUN_FIRST_SAMPLE_FLAGS) != 0 ? 4 : 0;
+
+            for (int i = 0; i < sampleCount; i++) {
+                position += (trunFlags & TRUN_SAMPLE_DURATION) != 0 ? 4 : 0;
+                int sampleSize = defaultSampleSize;
+                if ((trunFlags & TRUN_SAMPLE_SIZE) != 0) {
+                    sampleSize = input.getInt(position);
+                    position += 4;
+                }
+                position += (trunFlags & TRUN_SAMPLE_FLAGS) != 0 ? 4 : 0;
+                position += (trunFlags & TRUN_SAMPLE_COMPOSITION_TIME_OFFSET) != 0 ? 4 : 0;
+
+                if (sampleOffset + sampleSize > input.limit()) {
+                    throw new Mp4FormatException("sample data beyond the end of the segment");
+                }
+                fragment.sampleOffsets.add(sampleOffset);
+                fragment.sampleSizes.add(sampleSize);
+                sampleOffset += sampleSize;
+            }
+        }
+        return fragment;
+    }
+
+    int sampleCount() {
+        return sampleSizes.size();
+    }
+}
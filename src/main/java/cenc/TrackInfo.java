@@ -0,0 +1,42 @@
+package cenc;
+
+/**
+ * What the media segment encryption needs to know about the track of a rendition, read from its
+ * init segment.
+ */
+public class TrackInfo {
+
+    public enum Codec {
+        AVC,
+        HEVC,
+        /** Samples are encrypted as a whole, without subsamples (e.g. AAC) */
+        OTHER_AUDIO
+    }
+
+    private final int trackId;
+    private final Codec codec;
+    private final int nalLengthSize;
+
+    TrackInfo(int trackId, Codec codec, int nalLengthSize) {
+        this.trackId = trackId;
+        this.codec = codec;
+        this.nalLengthSize = nalLengthSize;
+    }
+
+    public int getTrackId() {
+        return trackId;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public boolean isVideo() {
+        return codec != Codec.OTHER_AUDIO;
+    }
+
+    /** @return the size of the NAL unit length prefixes in video samples */
+    public int getNalLengthSize() {
+        return nalLengthSize;
+    }
+}
@@ -177,6 +177,18 @@ public class ConfigProvider {
                 "CONTENT_ID", "content id");
     }
 
+    public int getProgressServerPort() {
+        return Integer.parseInt(
+                getOrThrowException(
+                        "PROGRESS_SERVER_PORT",
+                        "Port of the local encoding progress endpoint (SSE). Example: 8090"));
+    }
+
+    /* Checks whether an optional config setting is present in any of the config sources */
+    public boolean hasParameter(String keyName) {
+        return configuration.values().stream().anyMatch(subConfiguration -> subConfiguration.containsKey(keyName));
+    }
+
     /* This generic method will enable addition and use of new config settings in a simple way */
     public String getParameterByKey(String keyName) {
         return getOrThrowException(
@@ -0,0 +1,89 @@
+package common;
+
+import com.bitmovin.api.sdk.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fan-out of encoding and manifest progress to any number of in-process listeners (dashboards,
+ * the {@link EncodingProgressServer}, metrics, ...), so that consumers don't have to poll Bitmovin
+ * themselves.
+ *
+ * <p>{@link #publish} never blocks the polling thread: events are handed to a single dispatcher
+ * thread. Events are coalesced per job: if listeners can't keep up, a job which published again
+ * before its previous event was dispatched is dispatched once, with its latest event. Every event
+ * is a full status snapshot of its job, so only intermediate updates are skipped, the final event
+ * of a job is always delivered. The pending events are bounded by the number of jobs.
+ *
+ * <p>The latest event of every in-flight job is kept so that late subscribers can be given the
+ * current state right away. Jobs are removed from that snapshot once they reach a final state.
+ */
+public class EncodingProgressBus {
+    private static final Logger logger = LoggerFactory.getLogger(EncodingProgressBus.class);
+
+    private static final EncodingProgressBus DEFAULT = new EncodingProgressBus();
+
+    private final List<EncodingProgressListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, EncodingProgressEvent> inFlight = new ConcurrentHashMap<>();
+    // latest event of every job which is waiting for the dispatcher
+    private final Map<String, EncodingProgressEvent> pending = new ConcurrentHashMap<>();
+    private final ExecutorService dispatcher =
+            Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "encoding-progress-bus");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /** @return the JVM-wide bus used by the examples */
+    public static EncodingProgressBus getDefault() {
+        return DEFAULT;
+    }
+
+    public void addListener(EncodingProgressListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(EncodingProgressListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void publish(String jobId, EncodingProgressEvent.JobType jobType, Task task) {
+        publish(EncodingProgressEvent.of(jobId, jobType, task));
+    }
+
+    public void publish(EncodingProgressEvent event) {
+        if (event.isFinal()) {
+            inFlight.remove(event.getJobId());
+        } else {
+            inFlight.put(event.getJobId(), event);
+        }
+        // a job which is already waiting is dispatched with the event replacing its previous one
+        if (pending.put(event.getJobId(), event) == null) {
+            dispatcher.execute(() -> dispatch(pending.remove(event.getJobId())));
+        }
+    }
+
+    /** @return the latest known event of every job that has not reached a final state yet */
+    public Collection<EncodingProgressEvent> getInFlight() {
+        return new ArrayList<>(inFlight.values());
+    }
+
+    private void dispatch(EncodingProgressEvent event) {
+        for (EncodingProgressListener listener : listeners) {
+            try {
+                listener.onProgress(event);
+            } catch (RuntimeException e) {
+                logger.warn("progress listener failed for {}: {}", event.getJobId(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package common;
+
+import com.bitmovin.api.sdk.model.Status;
+import com.bitmovin.api.sdk.model.Task;
+
+/**
+ * Immutable snapshot of the status of a single Bitmovin job (encoding or manifest) as published
+ * on the {@link EncodingProgressBus}.
+ */
+public class EncodingProgressEvent {
+
+    public enum JobType {
+        ENCODING,
+        DASH_MANIFEST,
+        HLS_MANIFEST
+    }
+
+    private final String jobId;
+    private final JobType jobType;
+    private final Status status;
+    private final Integer progress;
+    private final long timestamp;
+
+    public EncodingProgressEvent(String jobId, JobType jobType, Status status, Integer progress) {
+        this.jobId = jobId;
+        this.jobType = jobType;
+        this.status = status;
+        this.progress = progress;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public static EncodingProgressEvent of(String jobId, JobType jobType, Task task) {
+        return new EncodingProgressEvent(jobId, jobType, task.getStatus(), task.getProgress());
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public JobType getJobType() {
+        return jobType;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Integer getProgress() {
+        return progress;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /** @return true if the job reached FINISHED, ERROR or CANCELED and will not publish further events */
+    public boolean isFinal() {
+        return status == Status.FINISHED || status == Status.ERROR || status == Status.CANCELED;
+    }
+
+    public String toJson() {
+        return String.format(
+                "{\"jobId\":\"%s\",\"jobType\":\"%s\",\"status\":\"%s\",\"progress\":%s,\"timestamp\":%d}",
+                jobId, jobType, status, progress == null ? "null" : progress, timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return jobType + " " + jobId + " " + status + " (progress: " + progress + " %)";
+    }
+}
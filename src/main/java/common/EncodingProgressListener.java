@@ -0,0 +1,11 @@
+package common;
+
+/**
+ * In-process consumer of {@link EncodingProgressEvent}s. Listeners are invoked from the
+ * dispatcher thread of the {@link EncodingProgressBus}, never from the thread that polls Bitmovin.
+ */
+@FunctionalInterface
+public interface EncodingProgressListener {
+
+    void onProgress(EncodingProgressEvent event);
+}
@@ -0,0 +1,120 @@
+package common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Lightweight HTTP endpoint exposing the {@link EncodingProgressBus} to dashboards.
+ *
+ * <ul>
+ *   <li>GET /progress - JSON array with the latest state of every in-flight job
+ *   <li>GET /progress/events - Server-Sent Events stream, one "progress" event per status update
+ * </ul>
+ *
+ * <p>Each SSE client gets its own queue, coalesced per job like the bus: a client that falls
+ * behind gets the latest state of every job instead of every update, without slowing down the bus
+ * or other clients, and still sees every job complete.
+ */
+public class EncodingProgressServer {
+    private static final Logger logger = LoggerFactory.getLogger(EncodingProgressServer.class);
+
+    private static final long KEEP_ALIVE_SECONDS = 15;
+
+    private final EncodingProgressBus bus;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "encoding-progress-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public EncodingProgressServer(EncodingProgressBus bus, int port) throws IOException {
+        this.bus = bus;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/progress/events", this::handleEvents);
+        this.server.createContext("/progress", this::handleSnapshot);
+        this.server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        logger.info("encoding progress server listening on port {}", server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleSnapshot(HttpExchange exchange) throws IOException {
+        String body =
+                bus.getInFlight().stream()
+                        .map(EncodingProgressEvent::toJson)
+                        .collect(Collectors.joining(",", "[", "]"));
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        // ids of the jobs with an event the client hasn't been sent yet, and their latest event
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        Map<String, EncodingProgressEvent> latest = new ConcurrentHashMap<>();
+        EncodingProgressListener listener = event -> {
+            if (latest.put(event.getJobId(), event) == null) {
+                queue.add(event.getJobId());
+            }
+        };
+
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+
+        bus.addListener(listener);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (EncodingProgressEvent event : bus.getInFlight()) {
+                writeEvent(out, event);
+            }
+            while (!Thread.currentThread().isInterrupted()) {
+                String jobId = queue.poll(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+                EncodingProgressEvent event = jobId == null ? null : latest.remove(jobId);
+                if (event == null) {
+                    out.write(": keep-alive\n\n".getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                } else {
+                    writeEvent(out, event);
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("progress client disconnected: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            bus.removeListener(listener);
+        }
+    }
+
+    private static void writeEvent(OutputStream out, EncodingProgressEvent event) throws IOException {
+        String frame = "event: progress\nid: " + event.getJobId() + "\ndata: " + event.toJson() + "\n\n";
+        out.write(frame.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
@@ -0,0 +1,298 @@
+package common;
+
+import com.bitmovin.api.sdk.BitmovinApi;
+import com.bitmovin.api.sdk.common.BitmovinException;
+import com.bitmovin.api.sdk.encoding.encodings.EncodingListQueryParams;
+import com.bitmovin.api.sdk.model.Encoding;
+import com.bitmovin.api.sdk.model.Status;
+import com.bitmovin.api.sdk.model.Task;
+import common.EncodingProgressEvent.JobType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the status of any number of encodings and manifests on a single scheduler thread instead
+ * of one sleeping thread per job.
+ *
+ * <p>Encodings are polled individually, at an interval adapted to the observed progress rate (a
+ * job that is about to finish is polled more often than one that just started).
+ *
+ * <p>With at least {@link #MIN_BULK_ENCODINGS} tracked encodings they are also checked in bulk:
+ * every 10 s the list endpoint is queried for the encodings of the account that are still QUEUED
+ * or RUNNING. Tracked encodings that were seen in that list and dropped out of it get an
+ * individual status call right away, which yields their final {@link Task}. As the list catches
+ * their end, listed encodings are only polled every 2 minutes for their progress. With fewer
+ * encodings the two list calls per check would cost more than the polls they save. Encodings which
+ * didn't show up in the list yet are polled on their own schedule. A failing list call only delays
+ * the bulk check, manifests and the individual polls go on.
+ *
+ * <p>Manifests don't have a bulk status endpoint and are polled individually, starting at a short
+ * interval which backs off while the manifest is still in progress.
+ *
+ * <p>Every status retrieved is published on the {@link EncodingProgressBus}.
+ */
+public class EncodingStatusPoller {
+    private static final Logger logger = LoggerFactory.getLogger(EncodingStatusPoller.class);
+
+    private static final long TICK_MILLIS = 1_000;
+    private static final long BULK_INTERVAL_MILLIS = 10_000;
+    private static final long MIN_PROGRESS_INTERVAL_MILLIS = 10_000;
+    private static final long MAX_PROGRESS_INTERVAL_MILLIS = 120_000;
+    private static final long MIN_MANIFEST_INTERVAL_MILLIS = 1_000;
+    private static final long MAX_MANIFEST_INTERVAL_MILLIS = 10_000;
+    private static final int BULK_PAGE_SIZE = 100;
+    /** Fewest tracked encodings for which the bulk check lists the active encodings */
+    static final int MIN_BULK_ENCODINGS = 32;
+    private static final int MAX_CONSECUTIVE_FAILURES = 10;
+    private static final String[] ACTIVE_STATUSES = {Status.QUEUED.toString(), Status.RUNNING.toString()};
+
+    private final BitmovinApi bitmovinApi;
+    private final EncodingProgressBus progressBus;
+    private final Map<String, TrackedJob> jobs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "encoding-status-poller");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private long nextBulkCheck;
+    private boolean listing;
+    private final AtomicLong statusCalls = new AtomicLong();
+    private final AtomicLong listCalls = new AtomicLong();
+
+    public EncodingStatusPoller(BitmovinApi bitmovinApi, EncodingProgressBus progressBus) {
+        this(bitmovinApi, progressBus, true);
+    }
+
+    /** @param scheduled false to leave the ticks to the caller, e.g. a test with its own clock */
+    EncodingStatusPoller(BitmovinApi bitmovinApi, EncodingProgressBus progressBus, boolean scheduled) {
+        this.bitmovinApi = bitmovinApi;
+        this.progressBus = progressBus;
+        if (scheduled) {
+            scheduler.scheduleWithFixedDelay(
+                    () -> tick(System.currentTimeMillis()), TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Starts tracking an encoding that has already been started
+     *
+     * @param encodingId The id of the encoding
+     * @return A future completed with the final task (FINISHED, ERROR or CANCELED)
+     */
+    public CompletableFuture<Task> trackEncoding(String encodingId) {
+        return track(encodingId, JobType.ENCODING);
+    }
+
+    public CompletableFuture<Task> trackDashManifest(String manifestId) {
+        return track(manifestId, JobType.DASH_MANIFEST);
+    }
+
+    public CompletableFuture<Task> trackHlsManifest(String manifestId) {
+        return track(manifestId, JobType.HLS_MANIFEST);
+    }
+
+    /** @return number of jobs which have not reached a final state yet */
+    public int getTrackedJobCount() {
+        return jobs.size();
+    }
+
+    /** @return the individual status calls since the start */
+    long getStatusCalls() {
+        return statusCalls.get();
+    }
+
+    /** @return the encoding list calls since the start */
+    long getListCalls() {
+        return listCalls.get();
+    }
+
+    public void shutdown() {
+        logger.info("status poller used {} status and {} list calls", statusCalls.get(), listCalls.get());
+        scheduler.shutdownNow();
+    }
+
+    private CompletableFuture<Task> track(String id, JobType jobType) {
+        return track(id, jobType, System.currentTimeMillis());
+    }
+
+    CompletableFuture<Task> track(String id, JobType jobType, long now) {
+        TrackedJob job = new TrackedJob(id, jobType, now);
+        TrackedJob existing = jobs.putIfAbsent(id, job);
+        return existing != null ? existing.future : job.future;
+    }
+
+    void tick(long now) {
+        try {
+            Set<String> active = null;
+            boolean wasListing = listing;
+            listing = countJobsOfType(JobType.ENCODING) >= MIN_BULK_ENCODINGS;
+            if (now >= nextBulkCheck && listing) {
+                nextBulkCheck = now + BULK_INTERVAL_MILLIS;
+                try {
+                    active = fetchActiveEncodingIds();
+                } catch (Exception e) {
+                    // the encodings are polled on their own schedule until the next bulk check
+                    logger.warn("listing the active encodings failed: {}", e.getMessage());
+                }
+            }
+
+            for (TrackedJob job : jobs.values()) {
+                boolean leftActiveList = false;
+                if (wasListing && !listing && job.seenActive) {
+                    // no list catches the end of the encoding any more, back to its own schedule
+                    job.seenActive = false;
+                    job.nextPoll = Math.min(job.nextPoll, now + MIN_PROGRESS_INTERVAL_MILLIS);
+                }
+                if (active != null && job.jobType == JobType.ENCODING) {
+                    if (active.contains(job.id)) {
+                        job.seenActive = true;
+                    } else {
+                        // a just started encoding may not be listed yet, it hasn't left the list
+                        leftActiveList = job.seenActive;
+                    }
+                }
+                if (leftActiveList || now >= job.nextPoll) {
+                    poll(job, now);
+                }
+            }
+        } catch (Exception e) {
+            // never let an exception cancel the periodic task
+            logger.warn("status poller tick failed: {}", e.getMessage());
+        }
+    }
+
+    private long countJobsOfType(JobType jobType) {
+        return jobs.values().stream().filter(job -> job.jobType == jobType).count();
+    }
+
+    /**
+     * Lists all encodings of the account which are QUEUED or RUNNING, page by page
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/GetEncodingEncodings
+     */
+    private Set<String> fetchActiveEncodingIds() throws BitmovinException {
+        Set<String> ids = new HashSet<>();
+        for (String status : ACTIVE_STATUSES) {
+            int offset = 0;
+            List<Encoding> page;
+            do {
+                EncodingListQueryParams queryParams = new EncodingListQueryParams();
+                queryParams.setStatus(status);
+                queryParams.setOffset(offset);
+                queryParams.setLimit(BULK_PAGE_SIZE);
+                listCalls.incrementAndGet();
+                page = listEncodings(queryParams);
+                page.forEach(encoding -> ids.add(encoding.getId()));
+                offset += BULK_PAGE_SIZE;
+            } while (page.size() == BULK_PAGE_SIZE);
+        }
+        return ids;
+    }
+
+    private void poll(TrackedJob job, long now) {
+        Task task;
+        try {
+            statusCalls.incrementAndGet();
+            task = fetchStatus(job.jobType, job.id);
+            job.failures = 0;
+        } catch (BitmovinException e) {
+            job.nextPoll = now + MIN_PROGRESS_INTERVAL_MILLIS;
+            if (++job.failures >= MAX_CONSECUTIVE_FAILURES) {
+                jobs.remove(job.id);
+                job.future.completeExceptionally(e);
+            }
+            logger.warn("status call for {} {} failed: {}", job.jobType, job.id, e.getMessage());
+            return;
+        }
+
+        progressBus.publish(job.id, job.jobType, task);
+        logger.info("{} {} status is {} (progress: {} %)", job.jobType, job.id, task.getStatus(), task.getProgress());
+
+        Status status = task.getStatus();
+        if (status == Status.FINISHED || status == Status.ERROR || status == Status.CANCELED) {
+            jobs.remove(job.id);
+            job.future.complete(task);
+            return;
+        }
+        job.nextPoll = now + nextInterval(job, task, now);
+    }
+
+    /** @return one page of the encoding list, tests override it to answer without the API */
+    List<Encoding> listEncodings(EncodingListQueryParams queryParams) throws BitmovinException {
+        return bitmovinApi.encoding.encodings.list(queryParams).getItems();
+    }
+
+    /** @return the status of an encoding or manifest, tests override it to answer without the API */
+    Task fetchStatus(JobType jobType, String id) throws BitmovinException {
+        switch (jobType) {
+            case DASH_MANIFEST:
+                return bitmovinApi.encoding.manifests.dash.status(id);
+            case HLS_MANIFEST:
+                return bitmovinApi.encoding.manifests.hls.status(id);
+            default:
+                return bitmovinApi.encoding.encodings.status(id);
+        }
+    }
+
+    /**
+     * Manifests back off exponentially. For encodings, the remaining time is estimated from the
+     * progress rate since the previous poll and the job is polled again after a quarter of it, so
+     * the last progress updates arrive with a finer granularity.
+     */
+    private long nextInterval(TrackedJob job, Task task, long now) {
+        if (job.jobType != JobType.ENCODING) {
+            job.interval = Math.min(Math.max(job.interval * 2, MIN_MANIFEST_INTERVAL_MILLIS), MAX_MANIFEST_INTERVAL_MILLIS);
+            return job.interval;
+        }
+
+        int progress = task.getProgress() == null ? 0 : task.getProgress();
+        long interval = MIN_PROGRESS_INTERVAL_MILLIS;
+        if (job.lastProgress >= 0 && progress > job.lastProgress) {
+            double percentPerMilli = (progress - job.lastProgress) / (double) (now - job.lastPollTime);
+            long remaining = (long) ((100 - progress) / percentPerMilli);
+            interval = remaining / 4;
+        } else if (job.lastProgress >= 0) {
+            // no progress since the last poll (queued or analysing), back off
+            interval = job.interval * 2;
+        }
+        job.lastProgress = progress;
+        job.lastPollTime = now;
+        // the end of a listed encoding is seen in the list, its polls only refresh the progress
+        long minInterval = listing && job.seenActive ? MAX_PROGRESS_INTERVAL_MILLIS : MIN_PROGRESS_INTERVAL_MILLIS;
+        job.interval = Math.min(Math.max(interval, minInterval), MAX_PROGRESS_INTERVAL_MILLIS);
+        return job.interval;
+    }
+
+    private static class TrackedJob {
+        private final String id;
+        private final JobType jobType;
+        private final CompletableFuture<Task> future = new CompletableFuture<>();
+        private long nextPoll;
+        private long interval;
+        private long lastPollTime;
+        private int lastProgress = -1;
+        private int failures;
+        private boolean seenActive;
+
+        TrackedJob(String id, JobType jobType, long now) {
+            this.id = id;
+            this.jobType = jobType;
+            this.lastPollTime = now;
+            this.nextPoll = jobType == JobType.ENCODING ? now + MIN_PROGRESS_INTERVAL_MILLIS : now + MIN_MANIFEST_INTERVAL_MILLIS;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package daemon;
+
+import com.bitmovin.api.sdk.BitmovinApi;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import common.ConfigProvider;
+import common.EncodingProgressBus;
+import common.EncodingStatusPoller;
+import feign.Logger.Level;
+import feign.slf4j.Slf4jLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pipeline.LocalManifestWriter;
+import pipeline.OutputIndex;
+import pipeline.PackagingCheckpoint;
+import pipeline.PackagingJob;
+import pipeline.PackagingPipeline;
+import pipeline.PackagingResult;
+import pipeline.ResourceCache;
+import pipeline.StallWatchdog;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Worker node of a packaging cluster. Any number of workers on any number of hosts take jobs from
+ * a shared {@link JobStore}: a job is claimed with a time bound lease, which is renewed while the
+ * job runs. If a worker dies, its lease expires and another worker takes the job over. Encoding and
+ * manifests the job already produced are recorded in the store, so the new owner waits for the
+ * running encoding instead of starting a new one.
+ *
+ * <p>A worker which can't renew its lease in time stops working on the job, the job is left to
+ * whoever takes it over.
+ *
+ * <p>Jobs are submitted by writing a JSON job request (see {@link JobRequestParser}) to
+ * CLUSTER_STORE_DIR/queue/&lt;id&gt;.json, preferably by writing a temporary file and renaming it,
+ * or through {@link JobStore#enqueue(byte[])}.
+ *
+ * <p>The following configuration parameters are expected in addition to the ones of the {@link
+ * PackagingDaemon}:
+ *
+ * <ul>
+ *   <li>CLUSTER_STORE_DIR - Directory shared by all workers of the cluster
+ *   <li>CLUSTER_WORKER_ID - (optional) Unique id of this worker. Default: the process name
+ *       (pid@hostname)
+ *   <li>CLUSTER_LEASE_SECONDS - (optional) Duration of a lease. Default: 60
+ *   <li>CLUSTER_CONCURRENCY - (optional) Number of jobs this worker runs at the same time.
+ *       Default: 2
+ * </ul>
+ */
+public class ClusterWorker {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterWorker.class);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final long IDLE_POLL_MILLIS = 5000;
+
+    private final JobStore store;
+    private final PackagingPipeline pipeline;
+    private final JobRequestParser parser;
+    private final String workerId;
+    private final long leaseMillis;
+    private final int concurrency;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService renewals =
+            Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "lease-renewal"));
+    private volatile boolean running = true;
+
+    public ClusterWorker(
+            JobStore store,
+            PackagingPipeline pipeline,
+            JobRequestParser parser,
+            String workerId,
+            long leaseMillis,
+            int concurrency) {
+        this.store = store;
+        this.pipeline = pipeline;
+        this.parser = parser;
+        this.workerId = workerId;
+        this.leaseMillis = leaseMillis;
+        this.concurrency = concurrency;
+        this.workers = Executors.newFixedThreadPool(concurrency, runnable -> new Thread(runnable, "cluster-worker"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        ConfigProvider configProvider = new ConfigProvider(args);
+        BitmovinApi bitmovinApi =
+                BitmovinApi.builder()
+                        .withApiKey(configProvider.getBitmovinApiKey())
+                        .withLogger(
+                                new Slf4jLogger(), Level.BASIC) // set the logger and log level for the API client
+                        .build();
+        EncodingStatusPoller statusPoller = new EncodingStatusPoller(bitmovinApi, EncodingProgressBus.getDefault());
+        PackagingPipeline pipeline =
+                PackagingPipeline.builder(bitmovinApi, statusPoller)
+                        .resourceCache(new ResourceCache())
+                        .slotScheduler(PackagingDaemon.createSlotScheduler(configProvider))
+                        .outputIndex(OutputIndex.fromConfig(configProvider))
+                        .manifestWriter(LocalManifestWriter.fromConfig(configProvider))
+                        .stallWatchdog(StallWatchdog.fromConfig(configProvider, bitmovinApi, EncodingProgressBus.getDefault()))
+                        .build();
+
+        ClusterWorker worker =
+                new ClusterWorker(
+                        new DirectoryJobStore(Paths.get(configProvider.getParameterByKey("CLUSTER_STORE_DIR"))),
+                        pipeline,
+                        PackagingDaemon.createRequestParser(configProvider),
+                        PackagingDaemon.getOrDefault(
+                                configProvider, "CLUSTER_WORKER_ID", ManagementFactory.getRuntimeMXBean().getName()),
+                        TimeUnit.SECONDS.toMillis(
+                                Long.parseLong(PackagingDaemon.getOrDefault(configProvider, "CLUSTER_LEASE_SECONDS", "60"))),
+                        Integer.parseInt(PackagingDaemon.getOrDefault(configProvider, "CLUSTER_CONCURRENCY", "2")));
+        worker.start();
+    }
+
+    public void start() {
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(this::workLoop);
+        }
+        logger.info("cluster worker {} started", workerId);
+    }
+
+    public void stop() {
+        running = false;
+        workers.shutdown();
+        renewals.shutdown();
+    }
+
+    private void workLoop() {
+        while (running) {
+            try {
+                JobLease lease = store.claim(workerId, leaseMillis);
+                if (lease == null) {
+                    Thread.sleep(IDLE_POLL_MILLIS);
+                } else {
+                    process(lease);
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+            } catch (Exception e) {
+                logger.error("claiming a job failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void process(JobLease lease) throws IOException {
+        Thread jobThread = Thread.currentThread();
+        AtomicBoolean leaseLost = new AtomicBoolean();
+        long renewalInterval = leaseMillis / 3;
+        ScheduledFuture<?> renewal =
+                renewals.scheduleAtFixedRate(
+                        () -> renew(lease, leaseLost, jobThread), renewalInterval, renewalInterval, TimeUnit.MILLISECONDS);
+
+        try {
+            PackagingJob job = parser.parse(new ByteArrayInputStream(lease.getRequest()));
+            PackagingResult result = pipeline.run(job, new StoreCheckpoint(lease));
+            renewal.cancel(false);
+            store.complete(lease, toJson(result));
+            logger.info("job {} finished: {}", lease.getJobId(), result);
+        } catch (Exception e) {
+            renewal.cancel(false);
+            if (leaseLost.get()) {
+                logger.warn("stopped job {}, its lease was lost", lease.getJobId());
+            } else {
+                logger.error("job {} failed: {}", lease.getJobId(), e.getMessage());
+                store.fail(lease, objectMapper.writeValueAsBytes(Collections.singletonMap("error", String.valueOf(e.getMessage()))));
+            }
+        } finally {
+            // a renewal may have interrupted the thread after the job was done
+            Thread.interrupted();
+        }
+    }
+
+    private void renew(JobLease lease, AtomicBoolean leaseLost, Thread jobThread) {
+        boolean held;
+        try {
+            held = store.renew(lease, leaseMillis);
+        } catch (IOException e) {
+            logger.warn("renewing the lease of job {} failed: {}", lease.getJobId(), e.getMessage());
+            held = System.currentTimeMillis() < lease.getExpiresAt();
+        }
+        if (!held && leaseLost.compareAndSet(false, true)) {
+            jobThread.interrupt();
+        }
+    }
+
+    private static byte[] toJson(PackagingResult result) throws IOException {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("contentId", result.getJob().getContentId());
+        map.put("encodingId", result.getEncodingId());
+        map.put("dashManifestPath", result.getDashManifestPath());
+        map.put("hlsManifestPath", result.getHlsManifestPath());
+        map.put("reused", result.isReused());
+        return objectMapper.writeValueAsBytes(map);
+    }
+
+    /** Records the resources of the job in the store, next to its lease */
+    private class StoreCheckpoint implements PackagingCheckpoint {
+        private final JobLease lease;
+        private final Map<String, String> values;
+
+        private StoreCheckpoint(JobLease lease) {
+            this.lease = lease;
+            this.values = new HashMap<>(lease.getCheckpoint());
+        }
+
+        @Override
+        public synchronized String get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public synchronized void record(String key, String value) throws IOException {
+            values.put(key, value);
+            store.saveCheckpoint(lease, values);
+        }
+    }
+}
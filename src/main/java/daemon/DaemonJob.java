@@ -0,0 +1,110 @@
+package daemon;
+
+import pipeline.PackagingJob;
+import pipeline.PackagingResult;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link PackagingJob} submitted to the {@link PackagingDaemon}, together with its lifecycle.
+ * State changes are made by the worker running the job and read by the submission endpoints.
+ */
+public class DaemonJob {
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        FINISHED,
+        FAILED
+    }
+
+    private final String id;
+    private final PackagingJob job;
+    private final long submittedAt = System.currentTimeMillis();
+    private volatile State state = State.QUEUED;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile PackagingResult result;
+    private volatile String error;
+
+    DaemonJob(String id, PackagingJob job) {
+        this.id = id;
+        this.job = job;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public PackagingJob getJob() {
+        return job;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public PackagingResult getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isDone() {
+        return state == State.FINISHED || state == State.FAILED;
+    }
+
+    void started() {
+        startedAt = System.currentTimeMillis();
+        state = State.RUNNING;
+    }
+
+    void finished(PackagingResult result) {
+        this.result = result;
+        finishedAt = System.currentTimeMillis();
+        state = State.FINISHED;
+    }
+
+    void failed(Throwable e) {
+        this.error = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+        finishedAt = System.currentTimeMillis();
+        state = State.FAILED;
+    }
+
+    /** @return a JSON friendly view of the job */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", id);
+        map.put("contentId", job.getContentId());
+        map.put("inputPath", job.getInputPath());
+        map.put("priority", job.getPriority());
+        map.put("deadline", job.getDeadline() == null ? null : job.getDeadline().toString());
+        map.put("state", state);
+        map.put("submittedAt", submittedAt);
+        map.put("startedAt", startedAt == 0 ? null : startedAt);
+        map.put("finishedAt", finishedAt == 0 ? null : finishedAt);
+        if (result != null) {
+            map.put("encodingId", result.getEncodingId());
+            map.put("dashManifestPath", result.getDashManifestPath());
+            map.put("hlsManifestPath", result.getHlsManifestPath());
+            map.put("reused", result.isReused());
+        }
+        map.put("error", error);
+        return map;
+    }
+}
@@ -0,0 +1,310 @@
+package daemon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * {@link JobStore} on a directory shared by all workers (e.g. a network file system). Queued jobs
+ * are claimed with an atomic rename, so only one worker wins a job:
+ *
+ * <pre>
+ * queue/&lt;id&gt;.json              waiting job requests
+ * running/&lt;id&gt;.json            claimed job requests
+ * running/&lt;id&gt;.lease.&lt;n&gt;       owner and expiry of generation n of the lease
+ * running/&lt;id&gt;.checkpoint      resources recorded by the job
+ * done/&lt;id&gt;.json, .result.json    finished jobs
+ * failed/&lt;id&gt;.json, .result.json  failed jobs
+ * </pre>
+ *
+ * <p>The lease of a job is the file of its highest generation. Every change of the lease - the
+ * claim, a renewal, a takeover and the completion - creates the file of the next generation
+ * exclusively (CREATE_NEW), so of the workers racing for a change only one succeeds, e.g. a late
+ * renewal loses against the takeover of the expired lease and the worker stops. Older generations
+ * are deleted once the next one exists. A generation which was created but not written yet counts
+ * as taken, until the lease duration passed since its creation. Lease expiry is compared against
+ * the local clock of each worker, so the clocks of the nodes have to be roughly in sync (well
+ * within the lease duration).
+ */
+public class DirectoryJobStore implements JobStore {
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryJobStore.class);
+
+    private static final String REQUEST = ".json";
+    private static final String RESULT = ".result.json";
+    private static final String LEASE = ".lease";
+    private static final String CHECKPOINT = ".checkpoint";
+
+    private final Path queue;
+    private final Path running;
+    private final Path done;
+    private final Path failed;
+
+    public DirectoryJobStore(Path root) throws IOException {
+        this.queue = Files.createDirectories(root.resolve("queue"));
+        this.running = Files.createDirectories(root.resolve("running"));
+        this.done = Files.createDirectories(root.resolve("done"));
+        this.failed = Files.createDirectories(root.resolve("failed"));
+    }
+
+    @Override
+    public String enqueue(byte[] request) throws IOException {
+        String jobId = UUID.randomUUID().toString();
+        writeAtomically(queue.resolve(jobId + REQUEST), request);
+        return jobId;
+    }
+
+    @Override
+    public JobLease claim(String workerId, long leaseMillis) throws IOException {
+        JobLease lease = claimExpired(workerId, leaseMillis);
+        return lease != null ? lease : claimQueued(workerId, leaseMillis);
+    }
+
+    private JobLease claimQueued(String workerId, long leaseMillis) throws IOException {
+        try (DirectoryStream<Path> requests = Files.newDirectoryStream(queue, "*" + REQUEST)) {
+            for (Path request : requests) {
+                String jobId = jobId(request);
+                Path claimed = running.resolve(jobId + REQUEST);
+                try {
+                    Files.move(request, claimed, StandardCopyOption.ATOMIC_MOVE);
+                } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                    // claimed by another worker in the meantime
+                    continue;
+                }
+                // marks the claim time for jobs whose worker dies before the lease is written
+                Files.setLastModifiedTime(claimed, FileTime.fromMillis(System.currentTimeMillis()));
+                long expiresAt = System.currentTimeMillis() + leaseMillis;
+                if (!createLease(jobId, 1, workerId, expiresAt)) {
+                    // taken over, this worker took longer than the lease duration since the rename
+                    continue;
+                }
+                logger.info("{} claimed job {}", workerId, jobId);
+                return new JobLease(jobId, workerId, Files.readAllBytes(claimed), Collections.emptyMap(), 1, expiresAt);
+            }
+        }
+        return null;
+    }
+
+    private JobLease claimExpired(String workerId, long leaseMillis) throws IOException {
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> requests = Files.newDirectoryStream(running, "*" + REQUEST)) {
+            for (Path request : requests) {
+                String jobId = jobId(request);
+                long generation;
+                try {
+                    long current = currentGeneration(jobId);
+                    if (current == 0) {
+                        // claimed right now, or the claiming worker died before creating the lease
+                        if (Files.getLastModifiedTime(request).toMillis() + leaseMillis > now) {
+                            continue;
+                        }
+                    } else if (expiresAt(leaseFile(jobId, current), leaseMillis) > now) {
+                        continue;
+                    }
+                    generation = current + 1;
+                } catch (NoSuchFileException e) {
+                    // completed or renewed in the meantime
+                    continue;
+                }
+
+                long expiresAt = System.currentTimeMillis() + leaseMillis;
+                if (!createLease(jobId, generation, workerId, expiresAt)) {
+                    // renewed or taken over by another worker in the meantime
+                    continue;
+                }
+                byte[] requestBytes;
+                try {
+                    requestBytes = Files.readAllBytes(request);
+                } catch (NoSuchFileException e) {
+                    // completed in the meantime
+                    Files.deleteIfExists(leaseFile(jobId, generation));
+                    continue;
+                }
+                Map<String, String> checkpoint = toMap(readProperties(running.resolve(jobId + CHECKPOINT)));
+                logger.info("{} took over job {} after its lease expired, checkpoint {}", workerId, jobId, checkpoint);
+                return new JobLease(jobId, workerId, requestBytes, checkpoint, generation, expiresAt);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean renew(JobLease lease, long leaseMillis) throws IOException {
+        long expiresAt = System.currentTimeMillis() + leaseMillis;
+        if (!isHeld(lease) || !createLease(lease.getJobId(), lease.getGeneration() + 1, lease.getWorkerId(), expiresAt)) {
+            return false;
+        }
+        lease.setGeneration(lease.getGeneration() + 1);
+        lease.setExpiresAt(expiresAt);
+        return true;
+    }
+
+    @Override
+    public void saveCheckpoint(JobLease lease, Map<String, String> checkpoint) throws IOException {
+        requireHeld(lease);
+        Properties properties = new Properties();
+        properties.putAll(checkpoint);
+        writeProperties(running.resolve(lease.getJobId() + CHECKPOINT), properties);
+    }
+
+    @Override
+    public void complete(JobLease lease, byte[] result) throws IOException {
+        finish(lease, done, result);
+    }
+
+    @Override
+    public void fail(JobLease lease, byte[] result) throws IOException {
+        finish(lease, failed, result);
+    }
+
+    private void finish(JobLease lease, Path target, byte[] result) throws IOException {
+        // a last generation, so the job can't be taken over while it is moved
+        requireHeld(lease);
+        String jobId = lease.getJobId();
+        if (!createLease(jobId, lease.getGeneration() + 1, lease.getWorkerId(), lease.getExpiresAt())) {
+            throw new IllegalStateException("lease of job " + jobId + " is no longer held by " + lease.getWorkerId());
+        }
+        lease.setGeneration(lease.getGeneration() + 1);
+        writeAtomically(target.resolve(jobId + RESULT), result);
+        Files.move(running.resolve(jobId + REQUEST), target.resolve(jobId + REQUEST), StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(running.resolve(jobId + CHECKPOINT));
+        deleteLeases(jobId, Long.MAX_VALUE);
+    }
+
+    private boolean isHeld(JobLease lease) throws IOException {
+        long generation = currentGeneration(lease.getJobId());
+        if (generation != lease.getGeneration()) {
+            return false;
+        }
+        Properties properties = readProperties(leaseFile(lease.getJobId(), generation));
+        return lease.getWorkerId().equals(properties.getProperty("workerId"));
+    }
+
+    private void requireHeld(JobLease lease) throws IOException {
+        if (!isHeld(lease)) {
+            throw new IllegalStateException("lease of job " + lease.getJobId() + " is no longer held by " + lease.getWorkerId());
+        }
+    }
+
+    /**
+     * Creates a generation of the lease, unless another worker created it first. Fails as well if
+     * a later generation exists, the generation was created and deleted again in the meantime.
+     *
+     * @return true if the generation was created and is the current one
+     */
+    private boolean createLease(String jobId, long generation, String workerId, long expiresAt) throws IOException {
+        Path leaseFile = leaseFile(jobId, generation);
+        Properties properties = new Properties();
+        properties.setProperty("workerId", workerId);
+        properties.setProperty("expiresAt", Long.toString(expiresAt));
+        try (OutputStream out = Files.newOutputStream(leaseFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            properties.store(out, null);
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+        if (currentGeneration(jobId) != generation) {
+            Files.deleteIfExists(leaseFile);
+            return false;
+        }
+        deleteLeases(jobId, generation);
+        return true;
+    }
+
+    /** @return the highest generation of the lease of the job, 0 if it has none */
+    private long currentGeneration(String jobId) throws IOException {
+        long current = 0;
+        try (DirectoryStream<Path> leases = Files.newDirectoryStream(running, jobId + LEASE + ".*")) {
+            for (Path lease : leases) {
+                current = Math.max(current, generation(jobId, lease));
+            }
+        }
+        return current;
+    }
+
+    /** Deletes the generations of the lease before the given one */
+    private void deleteLeases(String jobId, long before) throws IOException {
+        try (DirectoryStream<Path> leases = Files.newDirectoryStream(running, jobId + LEASE + ".*")) {
+            for (Path lease : leases) {
+                long generation = generation(jobId, lease);
+                if (generation > 0 && generation < before) {
+                    Files.deleteIfExists(lease);
+                }
+            }
+        }
+    }
+
+    private Path leaseFile(String jobId, long generation) {
+        return running.resolve(jobId + LEASE + "." + generation);
+    }
+
+    /** @return the generation of the lease file, 0 if it isn't one */
+    private static long generation(String jobId, Path leaseFile) {
+        String suffix = leaseFile.getFileName().toString().substring(jobId.length() + LEASE.length() + 1);
+        try {
+            return Long.parseLong(suffix);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long expiresAt(Path leaseFile, long leaseMillis) throws IOException {
+        try {
+            return Long.parseLong(readProperties(leaseFile).getProperty("expiresAt"));
+        } catch (NumberFormatException e) {
+            // created, but not written completely yet
+            return Files.getLastModifiedTime(leaseFile).toMillis() + leaseMillis;
+        }
+    }
+
+    private static Properties readProperties(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            // no lease or checkpoint written yet
+        }
+        return properties;
+    }
+
+    private static void writeProperties(Path file, Properties properties) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, null);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeAtomically(Path file, byte[] content) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        Files.write(temp, content);
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Map<String, String> toMap(Properties properties) {
+        Map<String, String> map = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            map.put(key, properties.getProperty(key));
+        }
+        return map;
+    }
+
+    private static String jobId(Path request) {
+        String name = request.getFileName().toString();
+        return name.substring(0, name.length() - REQUEST.length());
+    }
+}
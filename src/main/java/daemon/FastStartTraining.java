@@ -0,0 +1,115 @@
+package daemon;
+
+import com.bitmovin.api.sdk.BitmovinApi;
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.CpixDTO;
+import com.pallycon.cpix.dto.VideoConfig;
+import common.EncodingProgressBus;
+import common.EncodingStatusPoller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pipeline.EncodingSlotScheduler;
+import pipeline.KmsClient;
+import pipeline.PackagingCheckpoint;
+import pipeline.PackagingJob;
+import pipeline.PackagingPipeline;
+import pipeline.PackagingResult;
+import pipeline.ResourceCache;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Training run of the fast-start build (see fast-start/build-fast-start.sh): runs a title through
+ * the {@link PackagingDaemon} and the {@link PackagingPipeline}, so that the class data archive
+ * written when the JVM exits holds the classes a packaging run loads. The Bitmovin API is a local
+ * stub and there is no PallyCon KMS, so no configuration is read and nothing is encoded:
+ *
+ * <ul>
+ *   <li>a job request is parsed and run by the daemon, whose pipeline creates the input and output
+ *       of the title and then fails at the key request
+ *   <li>the same job is resumed by the pipeline from a started encoding: it waits for the encoding
+ *       through the status poller and generates the DASH and HLS manifests
+ * </ul>
+ */
+public class FastStartTraining {
+    private static final Logger logger = LoggerFactory.getLogger(FastStartTraining.class);
+
+    private static final String JOB_REQUEST =
+            "{\"contentId\": \"training\", \"inputPath\": \"training/input.mp4\", \"ladder\": [480, 720, 1080], \"drmType\": \"CBCS\"}";
+
+    public static void main(String[] args) throws Exception {
+        try (StubApiServer stubApi = new StubApiServer()) {
+            train(stubApi.client());
+        }
+        // the status poller and the KMS client keep their threads
+        System.exit(0);
+    }
+
+    private static void train(BitmovinApi bitmovinApi) throws Exception {
+        EncodingSlotScheduler slotScheduler = new EncodingSlotScheduler(1);
+        PackagingPipeline pipeline =
+                PackagingPipeline.builder(bitmovinApi, new EncodingStatusPoller(bitmovinApi, EncodingProgressBus.getDefault()))
+                        .resourceCache(new ResourceCache())
+                        .slotScheduler(slotScheduler)
+                        .kmsClient(new NoKmsClient())
+                        .build();
+        JobRequestParser parser = new JobRequestParser(PackagingJob.builder()
+                .pallyconEncToken("training")
+                .httpInputHost("training.invalid")
+                .s3Output("training", "training", "training")
+                .outputBasePath("/training/")
+                .videoProfile(Collections.singletonList(new VideoConfig(480)))
+                .audioProfile(Collections.singletonList(new AudioConfig())));
+        PackagingJob job = parser.parse(new ByteArrayInputStream(JOB_REQUEST.getBytes(StandardCharsets.UTF_8)));
+
+        PackagingDaemon daemon = new PackagingDaemon(pipeline, slotScheduler, 1, 1);
+        DaemonJob daemonJob = daemon.submit(job);
+        while (!daemonJob.isDone()) {
+            Thread.sleep(50);
+        }
+        daemon.shutdown();
+        logger.info("training job run by the daemon: {} {}", daemonJob.getState(), daemonJob.getError());
+
+        // the classes loaded up to a failure are archived all the same
+        try {
+            PackagingResult result = pipeline.run(job, new StartedEncoding("training-encoding"));
+            logger.info("training job resumed by the pipeline: {}", result);
+        } catch (Exception e) {
+            logger.warn("resuming the training job failed: {}", e.toString());
+        }
+    }
+
+    /** A KMS client which fails every request, the training run has no KMS */
+    private static class NoKmsClient extends KmsClient {
+        @Override
+        public CpixDTO getDashKeyInfo(String token, String contentId, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile) {
+            throw new IllegalStateException("no KMS in the training run");
+        }
+
+        @Override
+        public CpixDTO getHlsKeyInfo(String token, String contentId, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile) {
+            throw new IllegalStateException("no KMS in the training run");
+        }
+    }
+
+    /** The checkpoint of a run whose encoding was started, the manifests are still missing */
+    private static class StartedEncoding implements PackagingCheckpoint {
+        private final String encodingId;
+
+        private StartedEncoding(String encodingId) {
+            this.encodingId = encodingId;
+        }
+
+        @Override
+        public String get(String key) {
+            return ENCODING_ID.equals(key) ? encodingId : null;
+        }
+
+        @Override
+        public void record(String key, String value) {
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package daemon;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Time bound claim of a job in a {@link JobStore}. Only the worker holding an unexpired lease may
+ * work on the job; the lease has to be renewed before it expires, otherwise another worker may
+ * take the job over.
+ */
+public class JobLease {
+
+    private final String jobId;
+    private final String workerId;
+    private final byte[] request;
+    private final Map<String, String> checkpoint;
+    private volatile long generation;
+    private volatile long expiresAt;
+
+    JobLease(String jobId, String workerId, byte[] request, Map<String, String> checkpoint, long generation, long expiresAt) {
+        this.jobId = jobId;
+        this.workerId = workerId;
+        this.request = request;
+        this.checkpoint = new HashMap<>(checkpoint);
+        this.generation = generation;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    /** @return the job request as it was enqueued */
+    public byte[] getRequest() {
+        return request;
+    }
+
+    /** @return the resources recorded by earlier attempts, empty for a new job */
+    public Map<String, String> getCheckpoint() {
+        return Collections.unmodifiableMap(checkpoint);
+    }
+
+    /** @return the version of the lease in the store, every renewal increments it */
+    long getGeneration() {
+        return generation;
+    }
+
+    void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /** @return true if the job was taken over from a worker whose lease expired */
+    public boolean isResumed() {
+        return !checkpoint.isEmpty();
+    }
+}
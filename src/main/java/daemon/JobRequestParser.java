@@ -0,0 +1,155 @@
+package daemon;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.VideoConfig;
+import pipeline.PackagingJob;
+import pipeline.PackagingJob.DrmType;
+import pipeline.PackagingJob.MuxingType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Turns a JSON job request into a {@link PackagingJob}. Settings shared by all titles (input host,
+ * output, PallyCon token, defaults for DRM and muxing) come from the template, the request
+ * provides the title specific values:
+ *
+ * <pre>
+ * {
+ *   "contentId": "my-title",               (required)
+ *   "inputPath": "videos/my-title.mp4",    (required)
+ *   "ladder": [480, 720, {"height": 1080, "track": "HD"}],
+ *   "drmType": "CBCS",
+ *   "muxingType": "FMP4",
+ *   "segmentLength": 4,
+ *   "sourceDuration": 5400.5,              (seconds, lets a LocalManifestWriter write the manifests)
+ *   "ingestInputStreams": true,            (one input fetch and analysis for all renditions)
+ *   "splitLadderAt": [1080],               (concurrent encodings for the rungs up to 1080p and above)
+ *   "extendLadder": true,                  (only encode the rungs missing from the earlier output)
+ *   "priority": 10,                        (higher is started first, default: 0)
+ *   "deadline": "2020-01-31T18:00:00Z",
+ *   "outputPath": "my-title"               (relative to the output base path, default: contentId)
+ * }
+ * </pre>
+ *
+ * <p>Without a ladder the default ladder of the template is used.
+ */
+public class JobRequestParser {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final PackagingJob.Builder template;
+
+    public JobRequestParser(PackagingJob.Builder template) {
+        this.template = template;
+    }
+
+    public PackagingJob parse(InputStream json) throws IOException {
+        return parse(objectMapper.readTree(json));
+    }
+
+    public PackagingJob parse(JsonNode request) {
+        String contentId = requireText(request, "contentId");
+        String outputPath = request.hasNonNull("outputPath") ? request.get("outputPath").asText() : contentId;
+
+        PackagingJob.Builder builder = template.copy();
+        PackagingJob defaults = builder.contentId(contentId).inputPath(requireText(request, "inputPath")).build();
+
+        builder.name("PallyCon " + contentId)
+                .outputBasePath(Paths.get(defaults.getOutputBasePath(), outputPath).toString().replaceAll("\\\\", "/"));
+
+        if (request.hasNonNull("ladder")) {
+            builder.videoProfile(parseLadder(request.get("ladder")));
+        }
+        if (defaults.getAudioProfile().isEmpty()) {
+            builder.audioProfile(Collections.singletonList(new AudioConfig()));
+        }
+        if (request.hasNonNull("drmType")) {
+            builder.drmType(DrmType.valueOf(request.get("drmType").asText()));
+        }
+        if (request.hasNonNull("muxingType")) {
+            builder.muxingType(MuxingType.valueOf(request.get("muxingType").asText()));
+        }
+        if (request.hasNonNull("segmentLength")) {
+            builder.segmentLength(request.get("segmentLength").asDouble());
+        }
+        if (request.hasNonNull("cmafChunkDuration")) {
+            builder.cmafChunkDuration(request.get("cmafChunkDuration").asDouble());
+        }
+        if (request.hasNonNull("cmafFrameRate")) {
+            builder.cmafFrameRate(request.get("cmafFrameRate").asDouble());
+        }
+        if (request.hasNonNull("sourceDuration")) {
+            builder.sourceDuration(request.get("sourceDuration").asDouble());
+        }
+        if (request.hasNonNull("ingestInputStreams")) {
+            builder.ingestInputStreams(request.get("ingestInputStreams").asBoolean());
+        }
+        if (request.hasNonNull("splitLadderAt")) {
+            List<Integer> splitLadderAt = new ArrayList<>();
+            for (JsonNode height : request.get("splitLadderAt")) {
+                splitLadderAt.add(height.asInt());
+            }
+            builder.splitLadderAt(splitLadderAt);
+        }
+        if (request.hasNonNull("extendLadder")) {
+            builder.extendLadder(request.get("extendLadder").asBoolean());
+        }
+        if (request.hasNonNull("priority")) {
+            builder.priority(request.get("priority").asInt());
+        }
+        if (request.hasNonNull("deadline")) {
+            builder.deadline(parseDeadline(request.get("deadline").asText()));
+        }
+
+        PackagingJob job = builder.build();
+        if (job.getVideoProfile().isEmpty()) {
+            throw new IllegalArgumentException("no ladder in the request and no default ladder configured");
+        }
+        return job;
+    }
+
+    private static List<VideoConfig> parseLadder(JsonNode ladder) {
+        if (!ladder.isArray()) {
+            throw new IllegalArgumentException("invalid ladder " + ladder + ", expected an array of rungs");
+        }
+        List<VideoConfig> videoProfile = new ArrayList<>();
+        for (int i = 0; i < ladder.size(); i++) {
+            JsonNode rung = ladder.get(i);
+            if (rung.isInt()) {
+                videoProfile.add(new VideoConfig(rung.asInt()));
+            } else if (!rung.isObject() || !rung.path("height").isInt()) {
+                throw new IllegalArgumentException("invalid rung ladder[" + i + "] " + rung
+                        + ", expected a height or an object with an integer height");
+            } else if (rung.hasNonNull("track")) {
+                videoProfile.add(new VideoConfig(rung.get("track").asText(), rung.get("height").asInt()));
+            } else {
+                videoProfile.add(new VideoConfig(rung.get("height").asInt()));
+            }
+        }
+        return videoProfile;
+    }
+
+    private static Instant parseDeadline(String deadline) {
+        try {
+            return Instant.parse(deadline);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid deadline '" + deadline + "', expected e.g. 2020-01-31T18:00:00Z");
+        }
+    }
+
+    private static String requireText(JsonNode request, String field) {
+        if (!request.hasNonNull(field) || request.get(field).asText().isEmpty()) {
+            throw new IllegalArgumentException("missing required field '" + field + "'");
+        }
+        return request.get(field).asText();
+    }
+}
@@ -0,0 +1,41 @@
+package daemon;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Shared job queue of the {@link ClusterWorker}s. Workers claim jobs with a time bound lease,
+ * renew it while the job runs and record the resources the job produced, so that the job of a
+ * crashed worker can be claimed again once its lease expired and resumed from these resources.
+ *
+ * <p>All methods taking a lease fail if the lease is no longer held by its worker.
+ */
+public interface JobStore {
+
+    /**
+     * Adds a job request to the queue
+     *
+     * @param request The JSON job request (see {@link JobRequestParser})
+     * @return The id of the job
+     */
+    String enqueue(byte[] request) throws IOException;
+
+    /**
+     * Claims a queued job or a job whose lease expired
+     *
+     * @param workerId Id of the claiming worker
+     * @param leaseMillis Duration of the lease
+     * @return The lease, or null if there is no job to claim
+     */
+    JobLease claim(String workerId, long leaseMillis) throws IOException;
+
+    /** @return false if the lease was lost, the worker has to stop working on the job */
+    boolean renew(JobLease lease, long leaseMillis) throws IOException;
+
+    /** Stores the resources produced so far, replacing the ones stored before */
+    void saveCheckpoint(JobLease lease, Map<String, String> checkpoint) throws IOException;
+
+    void complete(JobLease lease, byte[] result) throws IOException;
+
+    void fail(JobLease lease, byte[] result) throws IOException;
+}
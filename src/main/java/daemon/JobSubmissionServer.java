@@ -0,0 +1,119 @@
+package daemon;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pipeline.PackagingJob;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Local HTTP/JSON endpoint of the {@link PackagingDaemon}:
+ *
+ * <ul>
+ *   <li>POST /jobs - submits a job request (see {@link JobRequestParser}). Answers 202 with the
+ *       queued job, 400 for an invalid request and 503 if the daemon queue is full
+ *   <li>GET /jobs - lists the known jobs
+ *   <li>GET /jobs/{id} - returns a single job
+ *   <li>GET /metrics - queue depth of the daemon and encoding slot usage and wait times
+ * </ul>
+ */
+public class JobSubmissionServer {
+    private static final Logger logger = LoggerFactory.getLogger(JobSubmissionServer.class);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final PackagingDaemon daemon;
+    private final JobRequestParser parser;
+    private final HttpServer server;
+
+    public JobSubmissionServer(PackagingDaemon daemon, JobRequestParser parser, int port) throws IOException {
+        this.daemon = daemon;
+        this.parser = parser;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/jobs", this::handle);
+        this.server.createContext("/metrics", this::handleMetrics);
+        this.server.setExecutor(Executors.newFixedThreadPool(2));
+    }
+
+    public void start() {
+        server.start();
+        logger.info("job submission endpoint listening on port {}", server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if ("POST".equals(method) && "/jobs".equals(path)) {
+                submit(exchange);
+            } else if ("GET".equals(method) && ("/jobs".equals(path) || "/jobs/".equals(path))) {
+                List<Object> jobs =
+                        daemon.getJobs().stream().map(DaemonJob::toMap).collect(Collectors.toList());
+                respond(exchange, 200, jobs);
+            } else if ("GET".equals(method)) {
+                DaemonJob job = daemon.getJob(path.substring("/jobs/".length()));
+                if (job == null) {
+                    respond(exchange, 404, error("unknown job"));
+                } else {
+                    respond(exchange, 200, job.toMap());
+                }
+            } else {
+                respond(exchange, 405, error("method not allowed"));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            respond(exchange, 200, daemon.getMetrics());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        PackagingJob job;
+        try {
+            job = parser.parse(exchange.getRequestBody());
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            respond(exchange, 400, error(e.getMessage()));
+            return;
+        }
+        try {
+            respond(exchange, 202, daemon.submit(job).toMap());
+        } catch (RejectedExecutionException e) {
+            respond(exchange, 503, error("job queue is full"));
+        }
+    }
+
+    private static Object error(String message) {
+        return Collections.singletonMap("error", message);
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
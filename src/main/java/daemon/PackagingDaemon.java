@@ -0,0 +1,339 @@
+package daemon;
+
+import com.bitmovin.api.sdk.BitmovinApi;
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.VideoConfig;
+import common.ConfigProvider;
+import common.EncodingProgressBus;
+import common.EncodingProgressServer;
+import common.EncodingStatusPoller;
+import feign.Logger.Level;
+import feign.slf4j.Slf4jLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pipeline.EncodingSlotScheduler;
+import pipeline.KeyPrefetcher;
+import pipeline.KmsClient;
+import pipeline.LocalManifestWriter;
+import pipeline.OutputIndex;
+import pipeline.PackagingJob;
+import pipeline.PackagingPipeline;
+import pipeline.ResourceCache;
+import pipeline.StallWatchdog;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Long running packaging process. Instead of starting a new JVM for every title (see
+ * run-example.sh), the daemon keeps a warm Bitmovin API client, PallyCon CPIX module and
+ * input/output resources and runs the titles submitted to it through a {@link PackagingPipeline}.
+ *
+ * <p>Jobs are accepted through a local HTTP/JSON endpoint (see {@link JobSubmissionServer}) and
+ * optionally through a spool directory (see {@link SpoolDirectoryWatcher}). At most
+ * DAEMON_CONCURRENCY jobs run at the same time, up to DAEMON_QUEUE_CAPACITY more are queued;
+ * submissions beyond that are rejected. Queued jobs are started by priority, then deadline, then
+ * in order of submission.
+ *
+ * <p>The following configuration parameters are expected:
+ *
+ * <ul>
+ *   <li>BITMOVIN_API_KEY - Your API key for the Bitmovin API
+ *   <li>HTTP_INPUT_HOST - The Hostname or IP address of the HTTP server hosting your input files,
+ *       e.g.: my-storage.biz
+ *   <li>S3_OUTPUT_BUCKET_NAME - The name of your S3 output bucket. Example: my-bucket-name
+ *   <li>S3_OUTPUT_ACCESS_KEY - The access key of your S3 output bucket
+ *   <li>S3_OUTPUT_SECRET_KEY - The secret key of your S3 output bucket
+ *   <li>S3_OUTPUT_BASE_PATH - The base path on your S3 output bucket where content will be written.
+ *       Every title is written below its content id. Example: /outputs
+ *   <li>PALLYCON_ENC_TOKEN - PallyCon KMS token
+ *   <li>DAEMON_PORT - (optional) Port of the job submission endpoint. Default: 8091
+ *   <li>DAEMON_SPOOL_DIR - (optional) Directory to pick up *.json job requests from
+ *   <li>DAEMON_CONCURRENCY - (optional) Number of jobs running at the same time. Default: 4
+ *   <li>DAEMON_QUEUE_CAPACITY - (optional) Number of jobs waiting for a worker. Default: 100
+ *   <li>ENCODING_SLOTS - (optional) Number of encodings the account may run at the same time.
+ *       When set, encodings are started through an {@link EncodingSlotScheduler}
+ *   <li>OUTPUT_INDEX_DIR - (optional) Directory of the {@link OutputIndex}. When set, titles which
+ *       were already produced with the same source and settings are not encoded again
+ *   <li>DAEMON_DEFAULT_LADDER - (optional) Comma separated heights used for requests without a
+ *       ladder. Default: 480,720,1080
+ *   <li>PROGRESS_SERVER_PORT - (optional) Port of the encoding progress endpoint
+ *   <li>KEY_PREFETCH_DEPTH - (optional) Number of queued titles whose CPIX keys are fetched ahead
+ *       of time, see {@link KeyPrefetcher}
+ *   <li>KEY_PREFETCH_THREADS - (optional) Number of concurrent prefetch requests. Default: 2
+ *   <li>KMS_TIMEOUT_MILLIS - (optional) Deadline of a CPIX key info request. Default: 30000
+ *   <li>KMS_MIN_HEDGE_MILLIS - (optional) Minimum delay before a slow CPIX request is sent a second
+ *       time, see {@link KmsClient}. Default: 1000
+ *   <li>KMS_MAX_CONCURRENCY - (optional) Most CPIX requests sent to KMS at once. Default: 16
+ *   <li>STALL_POLICY - (optional) FLAG, CANCEL or RESUBMIT. When set, running encodings are watched
+ *       by a {@link StallWatchdog}, which flags stalled ones and stops them unless the policy is
+ *       FLAG; RESUBMIT sets them up again
+ *   <li>STALL_TIMEOUT_MINUTES - (optional) Longest time without progress. Default: 60
+ *   <li>STALL_EXPECTED_SPEED - (optional) Seconds of 1080p the encoder is expected to encode per
+ *       second, sets the expected duration of an encoding. Default: 1
+ *   <li>STALL_SLOWDOWN - (optional) Multiple of the expected duration after which an encoding has
+ *       stalled. Default: 4
+ *   <li>STALL_MAX_RESUBMITS - (optional) How often a job sets up a stalled encoding again.
+ *       Default: 1
+ * </ul>
+ *
+ * <p>DRM_PACKAGER_TYPE, MUXING_TYPE, SEGMENT_LENGTH, CMAF_CHUNK_DURATION, CMAF_FRAME_RATE,
+ * INGEST_INPUT_STREAMS, SPLIT_LADDER_AT and EXTEND_LADDER set the defaults for requests which
+ * don't specify them.
+ */
+public class PackagingDaemon {
+    private static final Logger logger = LoggerFactory.getLogger(PackagingDaemon.class);
+
+    private static final int MAX_FINISHED_JOBS = 10_000;
+
+    private static final Comparator<Runnable> QUEUE_ORDER =
+            Comparator.comparing((Runnable task) -> ((QueuedJob) task).daemonJob.getJob(), EncodingSlotScheduler.JOB_ORDER)
+                    .thenComparingLong(task -> ((QueuedJob) task).sequence);
+
+    private final PackagingPipeline pipeline;
+    private final EncodingSlotScheduler slotScheduler;
+    private final KeyPrefetcher keyPrefetcher;
+    private final int queueCapacity;
+    private final ThreadPoolExecutor workers;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, DaemonJob> jobs = new ConcurrentHashMap<>();
+    private final Queue<String> finishedJobIds = new ConcurrentLinkedQueue<>();
+
+    public PackagingDaemon(
+            PackagingPipeline pipeline, EncodingSlotScheduler slotScheduler, int concurrency, int queueCapacity) {
+        this(pipeline, slotScheduler, null, concurrency, queueCapacity);
+    }
+
+    /**
+     * @param keyPrefetcher The prefetcher the pipeline takes its keys from, or null. The daemon
+     *     prefetches the keys of the next queued jobs whenever a job is queued or started.
+     */
+    public PackagingDaemon(
+            PackagingPipeline pipeline,
+            EncodingSlotScheduler slotScheduler,
+            KeyPrefetcher keyPrefetcher,
+            int concurrency,
+            int queueCapacity) {
+        this.pipeline = pipeline;
+        this.slotScheduler = slotScheduler;
+        this.keyPrefetcher = keyPrefetcher;
+        this.queueCapacity = queueCapacity;
+        this.workers =
+                new ThreadPoolExecutor(
+                        concurrency,
+                        concurrency,
+                        0L,
+                        TimeUnit.MILLISECONDS,
+                        new PriorityBlockingQueue<>(queueCapacity, QUEUE_ORDER),
+                        runnable -> new Thread(runnable, "packaging-worker"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        ConfigProvider configProvider = new ConfigProvider(args);
+        BitmovinApi bitmovinApi =
+                BitmovinApi.builder()
+                        .withApiKey(configProvider.getBitmovinApiKey())
+                        .withLogger(
+                                new Slf4jLogger(), Level.BASIC) // set the logger and log level for the API client
+                        .build();
+        EncodingProgressBus progressBus = EncodingProgressBus.getDefault();
+        EncodingStatusPoller statusPoller = new EncodingStatusPoller(bitmovinApi, progressBus);
+        EncodingSlotScheduler slotScheduler = createSlotScheduler(configProvider);
+        KmsClient kmsClient = KmsClient.fromConfig(configProvider);
+        KeyPrefetcher keyPrefetcher = KeyPrefetcher.fromConfig(configProvider, kmsClient);
+        StallWatchdog stallWatchdog = StallWatchdog.fromConfig(configProvider, bitmovinApi, progressBus);
+        PackagingPipeline pipeline =
+                PackagingPipeline.builder(bitmovinApi, statusPoller)
+                        .resourceCache(new ResourceCache())
+                        .slotScheduler(slotScheduler)
+                        .outputIndex(OutputIndex.fromConfig(configProvider))
+                        .manifestWriter(LocalManifestWriter.fromConfig(configProvider))
+                        .keyPrefetcher(keyPrefetcher)
+                        .kmsClient(kmsClient)
+                        .stallWatchdog(stallWatchdog)
+                        .build();
+
+        PackagingDaemon daemon =
+                new PackagingDaemon(
+                        pipeline,
+                        slotScheduler,
+                        keyPrefetcher,
+                        Integer.parseInt(getOrDefault(configProvider, "DAEMON_CONCURRENCY", "4")),
+                        Integer.parseInt(getOrDefault(configProvider, "DAEMON_QUEUE_CAPACITY", "100")));
+
+        JobRequestParser parser = createRequestParser(configProvider);
+
+        new JobSubmissionServer(daemon, parser, Integer.parseInt(getOrDefault(configProvider, "DAEMON_PORT", "8091"))).start();
+        if (configProvider.hasParameter("DAEMON_SPOOL_DIR")) {
+            new SpoolDirectoryWatcher(daemon, parser, Paths.get(configProvider.getParameterByKey("DAEMON_SPOOL_DIR"))).start();
+        }
+        if (configProvider.hasParameter("PROGRESS_SERVER_PORT")) {
+            new EncodingProgressServer(progressBus, configProvider.getProgressServerPort()).start();
+        }
+        logger.info("packaging daemon started");
+    }
+
+    /**
+     * Queues a job for execution
+     *
+     * @param job The job to run
+     * @return The handle of the queued job
+     * @throws RejectedExecutionException if all workers are busy and the queue is full
+     */
+    public synchronized DaemonJob submit(PackagingJob job) {
+        // the priority queue is unbounded, the capacity is enforced here
+        if (!hasCapacity()) {
+            throw new RejectedExecutionException("job queue is full");
+        }
+        DaemonJob daemonJob = new DaemonJob(UUID.randomUUID().toString(), job);
+        jobs.put(daemonJob.getId(), daemonJob);
+        try {
+            workers.execute(new QueuedJob(daemonJob, sequence.getAndIncrement()));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(daemonJob.getId());
+            throw e;
+        }
+        logger.info("job {} queued: {}", daemonJob.getId(), job);
+        prefetchAhead();
+        return daemonJob;
+    }
+
+    /** @return true if another job can be queued without being rejected */
+    public boolean hasCapacity() {
+        return workers.getQueue().size() < queueCapacity;
+    }
+
+    /** @return queue depth of the daemon and, if used, slot usage and wait times of the encodings */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("queuedJobs", workers.getQueue().size());
+        metrics.put("runningJobs", workers.getActiveCount());
+        metrics.put("queueCapacity", queueCapacity);
+        if (slotScheduler != null) {
+            metrics.put("encodingSlots", slotScheduler.getMetrics());
+        }
+        if (keyPrefetcher != null) {
+            metrics.put("prefetchedKeys", keyPrefetcher.size());
+        }
+        metrics.put("kms", pipeline.getKmsClient().getMetrics());
+        if (pipeline.getStallWatchdog() != null) {
+            metrics.put("stallWatchdog", pipeline.getStallWatchdog().getMetrics());
+        }
+        return metrics;
+    }
+
+    public DaemonJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    public Collection<DaemonJob> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+        if (keyPrefetcher != null) {
+            keyPrefetcher.shutdown();
+        }
+    }
+
+    /** Starts fetching the keys of the next queued jobs, in the order the workers will take them */
+    private void prefetchAhead() {
+        if (keyPrefetcher == null) {
+            return;
+        }
+        Runnable[] queued = workers.getQueue().toArray(new Runnable[0]);
+        Arrays.sort(queued, QUEUE_ORDER);
+        List<PackagingJob> next = new ArrayList<>();
+        for (int i = 0; i < Math.min(queued.length, keyPrefetcher.getDepth()); i++) {
+            next.add(((QueuedJob) queued[i]).daemonJob.getJob());
+        }
+        keyPrefetcher.prefetchAll(next);
+    }
+
+    private void runJob(DaemonJob daemonJob) {
+        daemonJob.started();
+        prefetchAhead();
+        try {
+            daemonJob.finished(pipeline.run(daemonJob.getJob()));
+            logger.info("job {} finished: {}", daemonJob.getId(), daemonJob.getResult());
+        } catch (Exception e) {
+            daemonJob.failed(e);
+            logger.error("job {} failed: {}", daemonJob.getId(), e.getMessage());
+        } finally {
+            if (keyPrefetcher != null) {
+                keyPrefetcher.discard(daemonJob.getJob());
+            }
+            forgetOldJobs(daemonJob);
+        }
+    }
+
+    private void forgetOldJobs(DaemonJob daemonJob) {
+        finishedJobIds.add(daemonJob.getId());
+        while (finishedJobIds.size() > MAX_FINISHED_JOBS) {
+            String oldest = finishedJobIds.poll();
+            if (oldest != null) {
+                jobs.remove(oldest);
+            }
+        }
+    }
+
+    private class QueuedJob implements Runnable {
+        private final DaemonJob daemonJob;
+        private final long sequence;
+
+        private QueuedJob(DaemonJob daemonJob, long sequence) {
+            this.daemonJob = daemonJob;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            runJob(daemonJob);
+        }
+    }
+
+    /** @return the scheduler for ENCODING_SLOTS, or null if the setting is missing */
+    static EncodingSlotScheduler createSlotScheduler(ConfigProvider configProvider) {
+        return configProvider.hasParameter("ENCODING_SLOTS")
+                ? new EncodingSlotScheduler(Integer.parseInt(configProvider.getParameterByKey("ENCODING_SLOTS")))
+                : null;
+    }
+
+    /** @return a parser filling in the shared settings and DAEMON_DEFAULT_LADDER */
+    static JobRequestParser createRequestParser(ConfigProvider configProvider) {
+        PackagingJob.Builder template =
+                PackagingJob.defaults(configProvider)
+                        .videoProfile(parseLadder(getOrDefault(configProvider, "DAEMON_DEFAULT_LADDER", "480,720,1080")))
+                        .audioProfile(Collections.singletonList(new AudioConfig()));
+        return new JobRequestParser(template);
+    }
+
+    static String getOrDefault(ConfigProvider configProvider, String key, String defaultValue) {
+        return configProvider.hasParameter(key) ? configProvider.getParameterByKey(key) : defaultValue;
+    }
+
+    private static List<VideoConfig> parseLadder(String heights) {
+        return Arrays.stream(heights.split(","))
+                .map(String::trim)
+                .map(height -> new VideoConfig(Integer.parseInt(height)))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,137 @@
+package daemon;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pipeline.PackagingJob;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks up job requests dropped as *.json files into a spool directory. A file is claimed by
+ * renaming it to *.processing, so several daemons can share one directory. When the job is done
+ * the file is renamed to *.done or *.failed and the job state is written next to it as
+ * *.result.json.
+ *
+ * <p>Files are only claimed while the daemon has room in its queue, everything else stays in the
+ * directory until a worker becomes free.
+ */
+public class SpoolDirectoryWatcher {
+    private static final Logger logger = LoggerFactory.getLogger(SpoolDirectoryWatcher.class);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final long POLL_INTERVAL_MILLIS = 2000;
+
+    private final PackagingDaemon daemon;
+    private final JobRequestParser parser;
+    private final Path directory;
+    private final Map<Path, DaemonJob> claimed = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "spool-watcher"));
+
+    public SpoolDirectoryWatcher(PackagingDaemon daemon, JobRequestParser parser, Path directory) {
+        this.daemon = daemon;
+        this.parser = parser;
+        this.directory = directory;
+    }
+
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        scheduler.scheduleWithFixedDelay(this::poll, 0, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        logger.info("watching spool directory {}", directory);
+    }
+
+    public void stop() {
+        scheduler.shutdown();
+    }
+
+    private void poll() {
+        try {
+            completeFinishedJobs();
+            claimNewRequests();
+        } catch (Exception e) {
+            logger.error("spool directory poll failed: {}", e.getMessage());
+        }
+    }
+
+    private void claimNewRequests() throws IOException {
+        try (DirectoryStream<Path> requests = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path request : requests) {
+                if (!daemon.hasCapacity()) {
+                    return;
+                }
+                if (request.getFileName().toString().endsWith(".result.json")) {
+                    continue;
+                }
+                Path processing = claim(request);
+                if (processing != null) {
+                    submit(processing);
+                }
+            }
+        }
+    }
+
+    private Path claim(Path request) {
+        Path processing = withSuffix(request, ".processing");
+        try {
+            return Files.move(request, processing, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // claimed by another daemon in the meantime
+            return null;
+        }
+    }
+
+    private void submit(Path processing) throws IOException {
+        PackagingJob job;
+        try (InputStream in = Files.newInputStream(processing)) {
+            job = parser.parse(in);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("invalid job request {}: {}", processing, e.getMessage());
+            finish(processing, ".failed", Collections.singletonMap("error", e.getMessage()));
+            return;
+        }
+        try {
+            claimed.put(processing, daemon.submit(job));
+        } catch (RejectedExecutionException e) {
+            // the queue filled up between the capacity check and the submission, try again later
+            Files.move(processing, withSuffix(processing, ".json"), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void completeFinishedJobs() throws IOException {
+        Iterator<Map.Entry<Path, DaemonJob>> iterator = claimed.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, DaemonJob> entry = iterator.next();
+            DaemonJob job = entry.getValue();
+            if (job.isDone()) {
+                String suffix = job.getState() == DaemonJob.State.FINISHED ? ".done" : ".failed";
+                finish(entry.getKey(), suffix, job.toMap());
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void finish(Path processing, String suffix, Object result) throws IOException {
+        objectMapper.writeValue(withSuffix(processing, ".result.json").toFile(), result);
+        Files.move(processing, withSuffix(processing, suffix), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path withSuffix(Path file, String suffix) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return file.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + suffix);
+    }
+}
@@ -0,0 +1,170 @@
+package daemon;
+
+import com.bitmovin.api.sdk.BitmovinApi;
+import com.bitmovin.api.sdk.common.BitmovinException;
+import com.bitmovin.api.sdk.encoding.encodings.EncodingListQueryParams;
+import common.ConfigProvider;
+import feign.Logger.Level;
+import feign.slf4j.Slf4jLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the fixed per title overhead of starting one JVM per title (as run-example.sh does)
+ * with submitting titles to a warm {@link PackagingDaemon}. Both sides do the same work up to the
+ * first Bitmovin API round trip, which is where every title starts:
+ *
+ * <ul>
+ *   <li>cold - starts BENCHMARK_RUNS child JVMs, each building a Bitmovin API client and listing
+ *       one encoding, and measures the time until the child process exited
+ *   <li>warm - builds one client in this JVM and performs the same call BENCHMARK_RUNS times
+ * </ul>
+ *
+ * <p>The difference of the averages is the time the daemon saves for every submitted title, on
+ * top of the input/output resources it doesn't need to create again. With BENCHMARK_FAST_START_DIR
+ * the cold side is also run with the runtime image and class data archive of the fast-start
+ * profile (see fast-start/build-fast-start.sh), to compare the startup of both launchers.
+ *
+ * <p>With BENCHMARK_STUB_API, the API calls go to a local stub which answers at once instead of
+ * the Bitmovin API, so only the startup and the client side of the first call are measured and no
+ * API key is needed.
+ *
+ * <p>The following configuration parameters are expected:
+ *
+ * <ul>
+ *   <li>BITMOVIN_API_KEY - Your API key for the Bitmovin API
+ *   <li>BENCHMARK_RUNS - (optional) Number of runs per side. Default: 5
+ *   <li>BENCHMARK_STUB_API - (optional) true to call a local stub instead of the Bitmovin API
+ *   <li>BENCHMARK_FAST_START_DIR - (optional) Output folder of the fast-start build, e.g.
+ *       target/fast-start
+ *   <li>BITMOVIN_API_BASE_URL - (optional) Base URL of the API, set for the probes of the stub
+ * </ul>
+ */
+public class StartupOverheadBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(StartupOverheadBenchmark.class);
+
+    private static final String PROBE_ARGUMENT = "--probe";
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        boolean probe = arguments.remove(PROBE_ARGUMENT);
+        ConfigProvider configProvider = new ConfigProvider(arguments.toArray(new String[0]));
+
+        StubApiServer stubApi = null;
+        if (!probe && configProvider.hasParameter("BENCHMARK_STUB_API")
+                && Boolean.parseBoolean(configProvider.getParameterByKey("BENCHMARK_STUB_API"))) {
+            stubApi = new StubApiServer();
+            // the probes get the stub's address on their command line
+            setArgument(arguments, "BITMOVIN_API_BASE_URL", stubApi.getBaseUrl());
+            setArgument(arguments, "BITMOVIN_API_KEY", "stub");
+            configProvider = new ConfigProvider(arguments.toArray(new String[0]));
+        }
+
+        if (probe) {
+            firstApiCall(createApi(configProvider));
+            return;
+        }
+
+        int runs =
+                configProvider.hasParameter("BENCHMARK_RUNS")
+                        ? Integer.parseInt(configProvider.getParameterByKey("BENCHMARK_RUNS"))
+                        : 5;
+
+        try {
+            run(configProvider, arguments, runs);
+        } finally {
+            if (stubApi != null) {
+                stubApi.close();
+            }
+        }
+    }
+
+    private static void run(ConfigProvider configProvider, List<String> arguments, int runs) throws Exception {
+        List<String> java = Arrays.asList(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp",
+                System.getProperty("java.class.path"));
+        long coldTotal = 0;
+        for (int i = 0; i < runs; i++) {
+            coldTotal += runProbeProcess(java, arguments);
+        }
+
+        long fastStartTotal = 0;
+        if (configProvider.hasParameter("BENCHMARK_FAST_START_DIR")) {
+            // the launcher of the fast-start build: trimmed runtime image, class data archive
+            File fastStartDir = new File(configProvider.getParameterByKey("BENCHMARK_FAST_START_DIR")).getAbsoluteFile();
+            List<String> fastStartJava = Arrays.asList(
+                    new File(fastStartDir, "runtime" + File.separator + "bin" + File.separator + "java").getPath(),
+                    "-XX:SharedArchiveFile=" + new File(fastStartDir, "app.jsa").getPath(),
+                    "-Xshare:auto",
+                    "-cp",
+                    new File(fastStartDir, "app.jar").getPath());
+            for (int i = 0; i < runs; i++) {
+                fastStartTotal += runProbeProcess(fastStartJava, arguments);
+            }
+        }
+
+        long warmTotal = 0;
+        BitmovinApi bitmovinApi = createApi(configProvider);
+        // the first call pays for the connection setup, just like the first title of the daemon
+        firstApiCall(bitmovinApi);
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            firstApiCall(bitmovinApi);
+            warmTotal += System.nanoTime() - start;
+        }
+
+        long coldAverage = coldTotal / runs / 1_000_000;
+        long warmAverage = warmTotal / runs / 1_000_000;
+        logger.info("one JVM per title: {} ms per title (average of {} runs)", coldAverage, runs);
+        if (fastStartTotal > 0) {
+            logger.info("fast start:        {} ms per title (average of {} runs)", fastStartTotal / runs / 1_000_000, runs);
+        }
+        logger.info("warm daemon:       {} ms per title (average of {} runs)", warmAverage, runs);
+        logger.info("overhead saved:    {} ms per title", coldAverage - warmAverage);
+    }
+
+    /** @param java The java command and class path the probe is started with */
+    private static long runProbeProcess(List<String> java, List<String> arguments) throws Exception {
+        List<String> command = new ArrayList<>(java);
+        command.add(StartupOverheadBenchmark.class.getName());
+        command.add(PROBE_ARGUMENT);
+        command.addAll(arguments);
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        int exitCode = process.waitFor();
+        long elapsed = System.nanoTime() - start;
+        if (exitCode != 0) {
+            throw new IllegalStateException("probe process failed with exit code " + exitCode);
+        }
+        return elapsed;
+    }
+
+    private static BitmovinApi createApi(ConfigProvider configProvider) {
+        BitmovinApi.Builder builder = BitmovinApi.builder()
+                .withApiKey(configProvider.getBitmovinApiKey())
+                .withLogger(new Slf4jLogger(), Level.NONE);
+        if (configProvider.hasParameter("BITMOVIN_API_BASE_URL")) {
+            builder.withBaseUrl(configProvider.getParameterByKey("BITMOVIN_API_BASE_URL"));
+        }
+        return builder.build();
+    }
+
+    /** Replaces the argument, the config provider rejects duplicate command line keys */
+    private static void setArgument(List<String> arguments, String key, String value) {
+        arguments.removeIf(argument -> argument.startsWith(key + "="));
+        arguments.add(key + "=" + value);
+    }
+
+    private static void firstApiCall(BitmovinApi bitmovinApi) throws BitmovinException {
+        EncodingListQueryParams queryParams = new EncodingListQueryParams();
+        queryParams.setLimit(1);
+        bitmovinApi.encoding.encodings.list(queryParams);
+    }
+}
@@ -0,0 +1,98 @@
+package daemon;
+
+import com.bitmovin.api.sdk.BitmovinApi;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import feign.Logger.Level;
+import feign.slf4j.Slf4jLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the Bitmovin API which answers at once, used by the {@link
+ * StartupOverheadBenchmark} and the {@link FastStartTraining}. Every resource which is created is
+ * answered with its body and a new id, encodings and manifests are FINISHED as soon as their status
+ * is requested and lists are empty.
+ */
+final class StubApiServer implements AutoCloseable {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicLong ids = new AtomicLong();
+    private final HttpServer server;
+
+    StubApiServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::respond);
+        server.start();
+    }
+
+    /** @return the base URL of the stub, for BITMOVIN_API_BASE_URL */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+    }
+
+    /** @return a client of the stub */
+    BitmovinApi client() {
+        return BitmovinApi.builder()
+                .withApiKey("stub")
+                .withBaseUrl(getBaseUrl())
+                .withLogger(new Slf4jLogger(), Level.NONE)
+                .build();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        byte[] request;
+        try (InputStream body = exchange.getRequestBody()) {
+            request = readAll(body);
+        }
+        String path = exchange.getRequestURI().getPath().replaceFirst("^/v1", "");
+
+        JsonNode result;
+        if ("POST".equals(exchange.getRequestMethod())) {
+            ObjectNode resource = request.length == 0
+                    ? objectMapper.createObjectNode()
+                    : (ObjectNode) objectMapper.readTree(request);
+            result = resource.put("id", "stub-" + ids.incrementAndGet());
+        } else if (path.endsWith("/status")) {
+            result = objectMapper.createObjectNode().put("status", "FINISHED").put("progress", 100);
+        } else if (exchange.getRequestURI().getQuery() != null) {
+            ObjectNode page = objectMapper.createObjectNode().put("totalCount", 0);
+            page.putArray("items");
+            result = page;
+        } else {
+            result = objectMapper.createObjectNode().put("id", path.substring(path.lastIndexOf('/') + 1));
+        }
+
+        ObjectNode envelope = objectMapper.createObjectNode().put("requestId", "stub").put("status", "SUCCESS");
+        envelope.putObject("data").set("result", result);
+        byte[] response = objectMapper.writeValueAsBytes(envelope);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,163 @@
+package pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admits encodings to the limited number of encoding slots of the account. Encodings submitted
+ * beyond the account limit are queued by Bitmovin, where they can neither be seen nor reordered;
+ * the scheduler keeps them here instead and starts the next one only when a slot frees up.
+ *
+ * <p>Waiting encodings are admitted ordered by {@link #JOB_ORDER}: higher priority first, then
+ * earlier deadline (jobs without deadline last), then in order of arrival. Queue depth and wait
+ * times are available through {@link #getMetrics()}.
+ *
+ * <p>Only encodings started through this scheduler are counted, encodings started by other
+ * processes on the same account are not.
+ */
+public class EncodingSlotScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(EncodingSlotScheduler.class);
+
+    /** Higher priority first, then earlier deadline. Ties are left to the caller, e.g. arrival order */
+    public static final Comparator<PackagingJob> JOB_ORDER =
+            Comparator.comparingInt(PackagingJob::getPriority).reversed()
+                    .thenComparing(job -> job.getDeadline() == null ? Long.MAX_VALUE : job.getDeadline().toEpochMilli());
+
+    private static final int WAIT_TIME_SAMPLES = 1000;
+
+    private final int slots;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Waiter> waiting =
+            new PriorityQueue<>(Comparator.<Waiter, PackagingJob>comparing(waiter -> waiter.job, JOB_ORDER)
+                    .thenComparingLong(waiter -> waiter.sequence));
+    private final AtomicLong sequence = new AtomicLong();
+    private int running;
+
+    private long admitted;
+    private long totalWaitMillis;
+    private long maxWaitMillis;
+    private final long[] recentWaitMillis = new long[WAIT_TIME_SAMPLES];
+
+    public EncodingSlotScheduler(int slots) {
+        if (slots < 1) {
+            throw new IllegalArgumentException("at least one encoding slot is required");
+        }
+        this.slots = slots;
+    }
+
+    /** A taken encoding slot, has to be released once the encoding is no longer running */
+    public interface Slot extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Blocks until an encoding slot is free and the job is the first one in line
+     *
+     * @param job The job which is about to start its encoding
+     * @return The slot, to be closed when the encoding finished or failed
+     */
+    public Slot acquire(PackagingJob job) throws InterruptedException {
+        Waiter waiter = new Waiter(job, sequence.getAndIncrement());
+        long waitMillis;
+        lock.lock();
+        try {
+            waiting.add(waiter);
+            try {
+                while (running >= slots || waiting.peek() != waiter) {
+                    changed.await();
+                }
+            } catch (InterruptedException e) {
+                waiting.remove(waiter);
+                changed.signalAll();
+                throw e;
+            }
+            waiting.poll();
+            running++;
+            waitMillis = System.currentTimeMillis() - waiter.enqueuedAt;
+            recordWait(waitMillis);
+            // the next waiter may be admitted as well if more slots are free
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        logger.info("encoding slot acquired for {} after {} ms (priority {})", job.getContentId(), waitMillis, job.getPriority());
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                release();
+            }
+        };
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            running--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordWait(long waitMillis) {
+        recentWaitMillis[(int) (admitted % WAIT_TIME_SAMPLES)] = waitMillis;
+        admitted++;
+        totalWaitMillis += waitMillis;
+        maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+    }
+
+    /** @return a snapshot of slot usage, queue depth and wait times */
+    public Map<String, Object> getMetrics() {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            long oldestWaitMillis = waiting.stream().mapToLong(waiter -> now - waiter.enqueuedAt).max().orElse(0);
+            long[] samples = Arrays.copyOf(recentWaitMillis, (int) Math.min(admitted, WAIT_TIME_SAMPLES));
+            Arrays.sort(samples);
+
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("slots", slots);
+            metrics.put("running", running);
+            metrics.put("queueDepth", waiting.size());
+            metrics.put("oldestWaitMillis", oldestWaitMillis);
+            metrics.put("admitted", admitted);
+            metrics.put("averageWaitMillis", admitted == 0 ? 0 : totalWaitMillis / admitted);
+            metrics.put("p95WaitMillis", percentile(samples, 0.95));
+            metrics.put("maxWaitMillis", maxWaitMillis);
+            return metrics;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long percentile(long[] sortedSamples, double percentile) {
+        if (sortedSamples.length == 0) {
+            return 0;
+        }
+        return sortedSamples[(int) Math.ceil(percentile * sortedSamples.length) - 1];
+    }
+
+    private static class Waiter {
+        private final PackagingJob job;
+        private final long sequence;
+        private final long enqueuedAt = System.currentTimeMillis();
+
+        private Waiter(PackagingJob job, long sequence) {
+            this.job = job;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package pipeline;
+
+/** Thrown for an encoding which the {@link StallWatchdog} canceled because it stalled */
+public class EncodingStalledException extends RuntimeException {
+
+    private final String encodingId;
+
+    public EncodingStalledException(String encodingId) {
+        super("Encoding " + encodingId + " stalled and was canceled");
+        this.encodingId = encodingId;
+    }
+
+    public String getEncodingId() {
+        return encodingId;
+    }
+}
@@ -0,0 +1,199 @@
+package pipeline;
+
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.VideoConfig;
+import common.ConfigProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pipeline.PackagingPipeline.DrmKeys;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the CPIX keys of titles which are about to run, so the KMS requests overlap with the
+ * setup and encoding of the titles before them instead of delaying every title. The queue owner
+ * (see {@link daemon.PackagingDaemon}) calls {@link #prefetch(PackagingJob)} for the next titles
+ * of its queue, the {@link PackagingPipeline} takes the keys with {@link #take} when it sets up
+ * the DRM configurations of a title.
+ *
+ * <p>At most {@code capacity} titles are buffered, prefetch requests beyond that are skipped, and
+ * an entry is dropped as soon as it is taken. A title which is taken while its keys are still
+ * being fetched waits for that request instead of sending a second one. Titles whose prefetch
+ * failed, or which were never prefetched, are fetched by the pipeline itself.
+ */
+public class KeyPrefetcher {
+    private static final Logger logger = LoggerFactory.getLogger(KeyPrefetcher.class);
+
+    /** Keys of a title, with the ladder and audio configs whose tracks the key info filled in */
+    private static class PrefetchedKeys {
+        private final List<VideoConfig> videoProfile;
+        private final List<AudioConfig> audioProfile;
+        private final DrmKeys drmKeys;
+
+        private PrefetchedKeys(List<VideoConfig> videoProfile, List<AudioConfig> audioProfile, DrmKeys drmKeys) {
+            this.videoProfile = videoProfile;
+            this.audioProfile = audioProfile;
+            this.drmKeys = drmKeys;
+        }
+    }
+
+    private final int depth;
+    private final int capacity;
+    private final ExecutorService executor;
+    private final KmsClient kmsClient;
+    // jobs are compared by identity, the queued job is the one which is run
+    private final Map<PackagingJob, CompletableFuture<PrefetchedKeys>> buffer = new ConcurrentHashMap<>();
+
+    /**
+     * @param depth Number of titles ahead of the running ones whose keys are fetched
+     * @param threads Number of concurrent KMS requests
+     * @param kmsClient The client for the CPIX requests, usually the one of the pipeline
+     */
+    public KeyPrefetcher(int depth, int threads, KmsClient kmsClient) {
+        if (depth < 1 || threads < 1) {
+            throw new IllegalArgumentException("depth and threads have to be positive");
+        }
+        this.depth = depth;
+        this.kmsClient = kmsClient;
+        // titles which were prefetched but not yet taken, plus the next ones
+        this.capacity = 2 * depth;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "key-prefetch-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return a prefetcher for KEY_PREFETCH_DEPTH titles with KEY_PREFETCH_THREADS (default: 2)
+     *     concurrent requests, or null if KEY_PREFETCH_DEPTH is not set
+     */
+    public static KeyPrefetcher fromConfig(ConfigProvider configProvider, KmsClient kmsClient) {
+        if (!configProvider.hasParameter("KEY_PREFETCH_DEPTH")) {
+            return null;
+        }
+        int threads = configProvider.hasParameter("KEY_PREFETCH_THREADS")
+                ? Integer.parseInt(configProvider.getParameterByKey("KEY_PREFETCH_THREADS"))
+                : 2;
+        return new KeyPrefetcher(Integer.parseInt(configProvider.getParameterByKey("KEY_PREFETCH_DEPTH")), threads, kmsClient);
+    }
+
+    /** @return the number of titles the queue owner should prefetch ahead */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Starts fetching the keys of the job unless they are already buffered or being fetched, or
+     * the buffer is full.
+     *
+     * @return true if the keys of the job are buffered or being fetched
+     */
+    public boolean prefetch(PackagingJob job) {
+        if (buffer.containsKey(job)) {
+            return true;
+        }
+        if (buffer.size() >= capacity) {
+            return false;
+        }
+        CompletableFuture<PrefetchedKeys> future = new CompletableFuture<>();
+        if (buffer.putIfAbsent(job, future) != null) {
+            return true;
+        }
+        executor.execute(() -> {
+            try {
+                List<VideoConfig> videoProfile = PackagingPipeline.copyOf(job.getVideoProfile());
+                List<AudioConfig> audioProfile = new ArrayList<>();
+                for (AudioConfig ignored : job.getAudioProfile()) {
+                    audioProfile.add(new AudioConfig());
+                }
+                DrmKeys drmKeys = PackagingPipeline.fetchKeys(kmsClient, job, videoProfile, audioProfile);
+                future.complete(new PrefetchedKeys(videoProfile, audioProfile, drmKeys));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        logger.debug("prefetching the keys of {}", job.getContentId());
+        return true;
+    }
+
+    /**
+     * Prefetches the keys of the jobs in the given order, until the buffer is full. Every job is
+     * its own key info request: PallyCon KMS takes a single content id per CPIX request, so the
+     * titles of a batch, e.g. a catalogue migration, cannot share one. The requests overlap, at
+     * most {@code threads} at a time.
+     *
+     * @return the number of leading jobs whose keys are buffered or being fetched
+     */
+    public int prefetchAll(List<PackagingJob> jobs) {
+        int accepted = 0;
+        for (PackagingJob job : jobs) {
+            if (!prefetch(job)) {
+                break;
+            }
+            accepted++;
+        }
+        return accepted;
+    }
+
+    /**
+     * Removes the keys of the job from the buffer, waiting for them if they are still being
+     * fetched, and fills in the tracks of the ladder and audio configs.
+     *
+     * @param job The job
+     * @param videoProfile The sorted copy of the ladder the pipeline sets up
+     * @param audioProfile The audio configs the pipeline sets up
+     * @return the keys, or null if the job was not prefetched or the prefetch failed
+     */
+    DrmKeys take(PackagingJob job, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile)
+            throws InterruptedException {
+        CompletableFuture<PrefetchedKeys> future = buffer.remove(job);
+        if (future == null) {
+            return null;
+        }
+        PrefetchedKeys keys;
+        try {
+            keys = future.get();
+        } catch (ExecutionException e) {
+            logger.warn("prefetching the keys of {} failed, fetching them again: {}", job.getContentId(), e.getCause().toString());
+            return null;
+        }
+        for (int i = 0; i < videoProfile.size(); i++) {
+            videoProfile.get(i).track = keys.videoProfile.get(i).track;
+        }
+        for (int i = 0; i < audioProfile.size(); i++) {
+            audioProfile.get(i).track = keys.audioProfile.get(i).track;
+        }
+        return keys.drmKeys;
+    }
+
+    /**
+     * Drops the keys of a job which finished without taking them, e.g. because its output already
+     * existed or its setup failed
+     */
+    public void discard(PackagingJob job) {
+        CompletableFuture<PrefetchedKeys> future = buffer.remove(job);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /** @return the number of titles whose keys are buffered or being fetched */
+    public int size() {
+        return buffer.size();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        buffer.clear();
+    }
+}
@@ -0,0 +1,298 @@
+package pipeline;
+
+import com.pallycon.cpix.CPixCommonModule;
+import com.pallycon.cpix.CpixModule;
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.CpixDTO;
+import com.pallycon.cpix.dto.PallyConConfig;
+import com.pallycon.cpix.dto.VideoConfig;
+import common.ConfigProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Requests CPIX key info from PallyCon KMS with a deadline and hedging. A request which hasn't
+ * answered after the hedge delay is sent a second time, the first successful answer is used and
+ * the other request is cancelled, which interrupts its thread. The hedge delay is the 95th percentile of the recent latencies
+ * (at least {@code minHedgeMillis}), so only the slowest 5% of the requests are sent twice. Before
+ * enough latencies are known, {@code minHedgeMillis} is used.
+ *
+ * <p>A key info request which didn't answer within the timeout fails with a {@link
+ * TimeoutException}. Latencies of all requests, including the hedged ones, are recorded in a
+ * histogram available through {@link #getMetrics()}.
+ *
+ * <p>At most {@code maxConcurrency} requests, hedged ones included, run at the same time; further
+ * requests wait for a thread, and the wait counts against their timeout. A request stuck in a
+ * socket read which doesn't give up on the interrupt holds its thread until the read times out.
+ *
+ * <p>The CPIX modules are kept per thread of the client, like the pipeline did before. Every
+ * request works on its own copy of the ladder, the tracks filled in by the answer that is used are
+ * copied back to the caller's configs.
+ */
+public class KmsClient {
+    private static final Logger logger = LoggerFactory.getLogger(KmsClient.class);
+
+    private static final int LATENCY_SAMPLES = 256;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final long[] HISTOGRAM_BOUNDS_MILLIS = {50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000};
+
+    private final long timeoutMillis;
+    private final long minHedgeMillis;
+    private final ThreadLocal<CpixModule> cpixModule;
+    private final ThreadPoolExecutor executor;
+
+    private final long[] recentLatencyMillis = new long[LATENCY_SAMPLES];
+    private long completed;
+    private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BOUNDS_MILLIS.length + 1);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /** A client with a 30 s timeout, hedging after at least 1 s, with up to 16 concurrent requests */
+    public KmsClient() {
+        this(CPixCommonModule::new, 30_000, 1_000, 16);
+    }
+
+    /**
+     * @param cpixModules Creates the CPIX module of every client thread
+     * @param timeoutMillis Deadline of a key info request, including the hedged request
+     * @param minHedgeMillis Lower bound of the hedge delay
+     * @param maxConcurrency Number of client threads, the most requests sent to KMS at once
+     */
+    public KmsClient(Supplier<CpixModule> cpixModules, long timeoutMillis, long minHedgeMillis, int maxConcurrency) {
+        if (timeoutMillis < 1 || minHedgeMillis < 1) {
+            throw new IllegalArgumentException("timeout and hedge delay have to be positive");
+        }
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("at least one concurrent request is needed");
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.minHedgeMillis = minHedgeMillis;
+        this.cpixModule = ThreadLocal.withInitial(cpixModules);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "kms-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Reads the optional KMS_TIMEOUT_MILLIS (default: 30000), KMS_MIN_HEDGE_MILLIS (default: 1000)
+     * and KMS_MAX_CONCURRENCY (default: 16) settings
+     */
+    public static KmsClient fromConfig(ConfigProvider configProvider) {
+        return new KmsClient(
+                CPixCommonModule::new,
+                configProvider.hasParameter("KMS_TIMEOUT_MILLIS") ? Long.parseLong(configProvider.getParameterByKey("KMS_TIMEOUT_MILLIS")) : 30_000,
+                configProvider.hasParameter("KMS_MIN_HEDGE_MILLIS") ? Long.parseLong(configProvider.getParameterByKey("KMS_MIN_HEDGE_MILLIS")) : 1_000,
+                configProvider.hasParameter("KMS_MAX_CONCURRENCY") ? Integer.parseInt(configProvider.getParameterByKey("KMS_MAX_CONCURRENCY")) : 16);
+    }
+
+    /** @return the DASH key info (Widevine and PlayReady), see {@link CpixModule#getDashKeyInfo} */
+    public CpixDTO getDashKeyInfo(String token, String contentId, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile)
+            throws Exception {
+        return request(false, token, contentId, videoProfile, audioProfile);
+    }
+
+    /** @return the HLS key info (FairPlay), see {@link CpixModule#getHlsKeyInfo} */
+    public CpixDTO getHlsKeyInfo(String token, String contentId, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile)
+            throws Exception {
+        return request(true, token, contentId, videoProfile, audioProfile);
+    }
+
+    private static class Attempt {
+        private final List<VideoConfig> videoProfile;
+        private final List<AudioConfig> audioProfile;
+        private final boolean hedge;
+        private final CompletableFuture<Attempt> answer = new CompletableFuture<>();
+        private Future<?> task;
+        private CpixDTO cpixDTO;
+
+        private Attempt(List<VideoConfig> videoProfile, List<AudioConfig> audioProfile, boolean hedge) {
+            this.videoProfile = new ArrayList<>();
+            for (VideoConfig videoConfig : videoProfile) {
+                VideoConfig copy = videoConfig.track == null
+                        ? new VideoConfig(videoConfig.height)
+                        : new VideoConfig(videoConfig.track, videoConfig.height);
+                copy.width = videoConfig.width;
+                copy.bitrate = videoConfig.bitrate;
+                this.videoProfile.add(copy);
+            }
+            this.audioProfile = new ArrayList<>();
+            for (AudioConfig audioConfig : audioProfile) {
+                AudioConfig copy = new AudioConfig();
+                copy.track = audioConfig.track;
+                this.audioProfile.add(copy);
+            }
+            this.hedge = hedge;
+        }
+
+        /** Interrupts the request if it is still running, cancelling the answer alone doesn't */
+        private void cancel() {
+            answer.cancel(false);
+            task.cancel(true);
+        }
+    }
+
+    private CpixDTO request(
+            boolean hls, String token, String contentId, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile)
+            throws Exception {
+        requests.incrementAndGet();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        Attempt first = send(hls, token, contentId, new Attempt(videoProfile, audioProfile, false));
+        Attempt second = null;
+        Attempt answer;
+        try {
+            try {
+                answer = first.answer.get(Math.min(hedgeDelayMillis(), timeoutMillis), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                hedged.incrementAndGet();
+                logger.debug("no key info for {} yet, sending a hedged request", contentId);
+                second = send(hls, token, contentId, new Attempt(videoProfile, audioProfile, true));
+                answer = firstSuccessful(first.answer, second.answer).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            throw new TimeoutException(String.format("no %s key info for %s within %d ms", hls ? "HLS" : "DASH", contentId, timeoutMillis));
+        } catch (ExecutionException e) {
+            failures.incrementAndGet();
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            first.cancel();
+            if (second != null) {
+                second.cancel();
+            }
+        }
+
+        if (answer.hedge) {
+            hedgeWins.incrementAndGet();
+        }
+        for (int i = 0; i < videoProfile.size(); i++) {
+            videoProfile.get(i).track = answer.videoProfile.get(i).track;
+        }
+        for (int i = 0; i < audioProfile.size(); i++) {
+            audioProfile.get(i).track = answer.audioProfile.get(i).track;
+        }
+        return answer.cpixDTO;
+    }
+
+    private Attempt send(boolean hls, String token, String contentId, Attempt attempt) {
+        CompletableFuture<Attempt> future = attempt.answer;
+        attempt.task = executor.submit(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                PallyConConfig pallyConConfig = new PallyConConfig();
+                pallyConConfig.setVideoConfigList(attempt.videoProfile);
+                pallyConConfig.setAudioConfigList(attempt.audioProfile);
+                attempt.cpixDTO = hls
+                        ? cpixModule.get().getHlsKeyInfo(token, contentId, pallyConConfig)
+                        : cpixModule.get().getDashKeyInfo(token, contentId, pallyConConfig);
+                record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                future.complete(attempt);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return attempt;
+    }
+
+    /** @return a future of the first attempt which succeeds, or the failure if both fail */
+    private static CompletableFuture<Attempt> firstSuccessful(CompletableFuture<Attempt> first, CompletableFuture<Attempt> second) {
+        CompletableFuture<Attempt> result = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        for (CompletableFuture<Attempt> attempt : Arrays.asList(first, second)) {
+            attempt.whenComplete((answer, error) -> {
+                if (error == null) {
+                    result.complete(answer);
+                } else if (failed.incrementAndGet() == 2) {
+                    result.completeExceptionally(error);
+                }
+            });
+        }
+        return result;
+    }
+
+    private synchronized void record(long latencyMillis) {
+        recentLatencyMillis[(int) (completed % LATENCY_SAMPLES)] = latencyMillis;
+        completed++;
+        int bucket = 0;
+        while (bucket < HISTOGRAM_BOUNDS_MILLIS.length && latencyMillis > HISTOGRAM_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        histogram.incrementAndGet(bucket);
+    }
+
+    private synchronized long[] sortedLatencies() {
+        long[] samples = Arrays.copyOf(recentLatencyMillis, (int) Math.min(completed, LATENCY_SAMPLES));
+        Arrays.sort(samples);
+        return samples;
+    }
+
+    /** @return the p95 of the recent latencies, at least minHedgeMillis */
+    long hedgeDelayMillis() {
+        long[] samples = sortedLatencies();
+        if (samples.length < MIN_HEDGE_SAMPLES) {
+            return minHedgeMillis;
+        }
+        return Math.max(minHedgeMillis, percentile(samples, 0.95));
+    }
+
+    /** @return request counts, latency percentiles and the latency histogram */
+    public Map<String, Object> getMetrics() {
+        long[] samples = sortedLatencies();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("requests", requests.get());
+        metrics.put("hedged", hedged.get());
+        metrics.put("hedgeWins", hedgeWins.get());
+        metrics.put("timeouts", timeouts.get());
+        metrics.put("failures", failures.get());
+        metrics.put("p50LatencyMillis", percentile(samples, 0.5));
+        metrics.put("p95LatencyMillis", percentile(samples, 0.95));
+        metrics.put("p99LatencyMillis", percentile(samples, 0.99));
+        metrics.put("hedgeDelayMillis", hedgeDelayMillis());
+
+        Map<String, Long> buckets = new LinkedHashMap<>();
+        for (int i = 0; i < HISTOGRAM_BOUNDS_MILLIS.length; i++) {
+            buckets.put("<=" + HISTOGRAM_BOUNDS_MILLIS[i], histogram.get(i));
+        }
+        buckets.put(">" + HISTOGRAM_BOUNDS_MILLIS[HISTOGRAM_BOUNDS_MILLIS.length - 1], histogram.get(HISTOGRAM_BOUNDS_MILLIS.length));
+        metrics.put("latencyHistogramMillis", buckets);
+        return metrics;
+    }
+
+    private static long percentile(long[] sortedSamples, double percentile) {
+        if (sortedSamples.length == 0) {
+            return 0;
+        }
+        return sortedSamples[(int) Math.ceil(percentile * sortedSamples.length) - 1];
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,326 @@
+package pipeline;
+
+import com.pallycon.cpix.dto.ContentKeyDTO;
+import com.pallycon.cpix.dto.CpixDTO;
+import com.pallycon.cpix.dto.DRMSystemId;
+import com.pallycon.cpix.dto.DrmSystemDTO;
+import com.pallycon.cpix.util.Base64Encoder;
+import com.pallycon.cpix.util.StringUtil;
+import common.ConfigProvider;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the DASH (stream.mpd) and HLS (master.m3u8 and one playlist per rendition) manifests of a
+ * title locally and uploads them to the job's output, instead of creating, starting and polling
+ * Bitmovin manifest resources. Everything a manifest needs is known when the encoding is set up:
+ * the ladder, the segment length, the output paths of the renditions, the segment names (set on
+ * the muxings) and the DRM data of the CPIX key info. The duration of the source has to be given
+ * with the job.
+ *
+ * <p>The manifests are streamed (StAX for the MPD) into a buffer which is uploaded with one PUT
+ * request. Differences to the Bitmovin default manifests, accepted on purpose:
+ *
+ * <ul>
+ *   <li>video codecs are always avc1.6400 (High profile, no constraint flags) plus a level guessed
+ *       from the height for 30 fps (h264Level). Bitmovin writes the level of the
+ *       encoded stream, which may be lower, or higher for high frame rates.
+ *   <li>segment durations are derived from the nominal segment length: a SegmentTemplate duration
+ *       in the MPD and EXTINF values of exactly the segment length, with only the last segment
+ *       shorter. Bitmovin writes the measured durations (SegmentTimeline, EXTINF), which differ
+ *       when key frames don't fall exactly on the segment boundaries. The number of segments and
+ *       the total duration are the same.
+ *   <li>Representation ids are the output folders instead of generated ids
+ *   <li>widths are only written when the ladder has them
+ * </ul>
+ */
+public class LocalManifestWriter {
+
+    public static final String DASH_MANIFEST_NAME = "stream.mpd";
+    public static final String HLS_MANIFEST_NAME = "master.m3u8";
+    /** Init segment and segment names set on every muxing, so the manifests can refer to them */
+    static final String INIT_SEGMENT_NAME = "init.mp4";
+    static final String SEGMENT_NAMING = "segment_%number%.m4s";
+
+    private static final String MEDIA_PLAYLIST_NAME = "playlist.m3u8";
+    private static final String MPD_NAMESPACE = "urn:mpeg:dash:schema:mpd:2011";
+    private static final String CENC_NAMESPACE = "urn:mpeg:cenc:2013";
+    private static final String MP4_PROTECTION_SCHEME = "urn:mpeg:dash:mp4protection:2011";
+    private static final String WIDEVINE_SCHEME = "urn:uuid:edef8ba9-79d6-4ace-a3c8-27dcd51d21ed";
+    private static final String PLAYREADY_SCHEME = "urn:uuid:9a04f079-9840-4286-ab92-e65be0885f95";
+    private static final String FAIRPLAY_KEY_FORMAT = "com.apple.streamingkeydelivery";
+    private static final String AUDIO_CODEC = "mp4a.40.2";
+    private static final int AUDIO_SAMPLING_RATE = 48_000;
+    private static final int TIMESCALE = 1000;
+
+    /** A rendition as laid out on the output by the pipeline */
+    public static class Rendition {
+        private final String path;
+        private final boolean video;
+        private final long bitrate;
+        private final int width;
+        private final int height;
+        private final String track;
+
+        public Rendition(String path, boolean video, long bitrate, int width, int height, String track) {
+            this.path = path;
+            this.video = video;
+            this.bitrate = bitrate;
+            this.width = width;
+            this.height = height;
+            this.track = track;
+        }
+
+        private String codecs() {
+            return video ? "avc1.6400" + h264Level(height) : AUDIO_CODEC;
+        }
+
+        private String id() {
+            return path.replace('/', '_');
+        }
+    }
+
+    private final S3ObjectUploader uploader;
+
+    public LocalManifestWriter(S3ObjectUploader uploader) {
+        this.uploader = uploader;
+    }
+
+    /**
+     * @return a writer if LOCAL_MANIFESTS is true, otherwise null. The upload is configured by
+     *     {@link S3ObjectUploader#fromConfig(ConfigProvider)}.
+     */
+    public static LocalManifestWriter fromConfig(ConfigProvider configProvider) {
+        if (!configProvider.hasParameter("LOCAL_MANIFESTS")
+                || !Boolean.parseBoolean(configProvider.getParameterByKey("LOCAL_MANIFESTS"))) {
+            return null;
+        }
+        return new LocalManifestWriter(S3ObjectUploader.fromConfig(configProvider));
+    }
+
+    /**
+     * Writes and uploads stream.mpd to the root of the job's output.
+     *
+     * @param job The job, with the source duration
+     * @param renditions The video renditions from the lowest to the highest bitrate, then audio
+     * @param cpixDTO The DASH key info providing the Widevine and PlayReady data
+     * @return The absolute path of the manifest
+     */
+    public String writeDash(PackagingJob job, List<Rendition> renditions, CpixDTO cpixDTO) throws IOException {
+        String scheme = job.getDrmType() == PackagingJob.DrmType.DASH ? "cenc" : "cbcs";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(bytes, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("MPD");
+            xml.writeDefaultNamespace(MPD_NAMESPACE);
+            xml.writeNamespace("cenc", CENC_NAMESPACE);
+            xml.writeAttribute("profiles", "urn:mpeg:dash:profile:isoff-live:2011");
+            xml.writeAttribute("type", "static");
+            xml.writeAttribute("mediaPresentationDuration", isoDuration(job.getSourceDuration()));
+            xml.writeAttribute("minBufferTime", isoDuration(2 * job.getSegmentLength()));
+
+            xml.writeStartElement("Period");
+            xml.writeAttribute("id", "0");
+            xml.writeAttribute("start", "PT0S");
+            writeAdaptationSet(xml, job, renditions, cpixDTO, scheme, true);
+            writeAdaptationSet(xml, job, renditions, cpixDTO, scheme, false);
+            xml.writeEndElement();
+
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("writing the DASH manifest failed", e);
+        }
+
+        String path = PackagingPipeline.buildAbsolutePath(job, DASH_MANIFEST_NAME);
+        uploader.put(job, path, bytes.toByteArray(), "application/dash+xml");
+        return path;
+    }
+
+    private static void writeAdaptationSet(
+            XMLStreamWriter xml, PackagingJob job, List<Rendition> renditions, CpixDTO cpixDTO, String scheme, boolean video)
+            throws XMLStreamException {
+        xml.writeStartElement("AdaptationSet");
+        xml.writeAttribute("mimeType", video ? "video/mp4" : "audio/mp4");
+        xml.writeAttribute("segmentAlignment", "true");
+        xml.writeAttribute("startWithSAP", "1");
+        for (Rendition rendition : renditions) {
+            if (rendition.video != video) {
+                continue;
+            }
+            xml.writeStartElement("Representation");
+            xml.writeAttribute("id", rendition.id());
+            xml.writeAttribute("bandwidth", Long.toString(rendition.bitrate));
+            xml.writeAttribute("codecs", rendition.codecs());
+            if (video) {
+                if (rendition.width > 0) {
+                    xml.writeAttribute("width", Integer.toString(rendition.width));
+                }
+                xml.writeAttribute("height", Integer.toString(rendition.height));
+            } else {
+                xml.writeAttribute("audioSamplingRate", Integer.toString(AUDIO_SAMPLING_RATE));
+            }
+
+            // renditions of one adaptation set may use different keys (SD, HD, ...)
+            writeContentProtection(xml, cpixDTO, rendition.track, scheme);
+
+            xml.writeEmptyElement("SegmentTemplate");
+            xml.writeAttribute("timescale", Integer.toString(TIMESCALE));
+            xml.writeAttribute("duration", Long.toString(Math.round(job.getSegmentLength() * TIMESCALE)));
+            xml.writeAttribute("startNumber", "0");
+            xml.writeAttribute("initialization", rendition.path + "/" + INIT_SEGMENT_NAME);
+            xml.writeAttribute("media", rendition.path + "/" + SEGMENT_NAMING.replace("%number%", "$Number$"));
+
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+    }
+
+    private static void writeContentProtection(XMLStreamWriter xml, CpixDTO cpixDTO, String track, String scheme)
+            throws XMLStreamException {
+        String kid = cpixDTO.getContentKeyUsageRuleDTO(track).getKid();
+
+        xml.writeEmptyElement("ContentProtection");
+        xml.writeAttribute("schemeIdUri", MP4_PROTECTION_SCHEME);
+        xml.writeAttribute("value", scheme);
+        xml.writeAttribute(CENC_NAMESPACE, "default_KID", kid.toLowerCase(Locale.ROOT));
+
+        for (DRMSystemId drmSystemId : new DRMSystemId[] {DRMSystemId.WIDEVINE, DRMSystemId.PLAYREADY}) {
+            DrmSystemDTO drmSystemDTO = cpixDTO.getDrmSystemDTO(drmSystemId, kid);
+            if (drmSystemDTO == null || drmSystemDTO.getPssh() == null) {
+                continue;
+            }
+            xml.writeStartElement("ContentProtection");
+            xml.writeAttribute("schemeIdUri", drmSystemId == DRMSystemId.WIDEVINE ? WIDEVINE_SCHEME : PLAYREADY_SCHEME);
+            if (drmSystemId == DRMSystemId.PLAYREADY) {
+                xml.writeAttribute("value", "MSPR 2.0");
+            }
+            // DRMSystemList > DRMSystem > PSSH, the base64 encoded pssh box as cenc:pssh expects it
+            xml.writeStartElement(CENC_NAMESPACE, "pssh");
+            xml.writeCharacters(drmSystemDTO.getPssh());
+            xml.writeEndElement();
+            xml.writeEndElement();
+        }
+    }
+
+    /**
+     * Writes and uploads master.m3u8 to the root of the job's output and a media playlist into the
+     * folder of every rendition.
+     *
+     * @param job The job, with the source duration
+     * @param renditions The video renditions from the lowest to the highest bitrate, then audio
+     * @param cpixDTO The DASH key info providing the Widevine data for CBCS, null for FairPlay only
+     * @param fairPlayCpixDTO The HLS key info providing the FairPlay data
+     * @return The absolute path of the master playlist
+     */
+    public String writeHls(PackagingJob job, List<Rendition> renditions, CpixDTO cpixDTO, CpixDTO fairPlayCpixDTO)
+            throws IOException {
+        Rendition audio = null;
+        for (Rendition rendition : renditions) {
+            if (!rendition.video) {
+                audio = rendition;
+            }
+            byte[] playlist = mediaPlaylist(job, rendition, cpixDTO, fairPlayCpixDTO);
+            uploader.put(job, PackagingPipeline.buildAbsolutePath(job, rendition.path + "/" + MEDIA_PLAYLIST_NAME),
+                    playlist, "application/vnd.apple.mpegurl");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer m3u8 = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            m3u8.write("#EXTM3U\n#EXT-X-VERSION:7\n#EXT-X-INDEPENDENT-SEGMENTS\n");
+            if (audio != null) {
+                m3u8.write("#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"audio\",NAME=\"audio\",DEFAULT=YES,AUTOSELECT=YES,URI=\""
+                        + audio.path + "/" + MEDIA_PLAYLIST_NAME + "\"\n");
+            }
+            for (Rendition rendition : renditions) {
+                if (!rendition.video) {
+                    continue;
+                }
+                long bandwidth = rendition.bitrate + (audio == null ? 0 : audio.bitrate);
+                m3u8.write("#EXT-X-STREAM-INF:BANDWIDTH=" + bandwidth);
+                if (rendition.width > 0) {
+                    m3u8.write(",RESOLUTION=" + rendition.width + "x" + rendition.height);
+                }
+                m3u8.write(",CODECS=\"" + rendition.codecs() + (audio == null ? "" : "," + audio.codecs()) + "\"");
+                m3u8.write(audio == null ? "\n" : ",AUDIO=\"audio\"\n");
+                m3u8.write(rendition.path + "/" + MEDIA_PLAYLIST_NAME + "\n");
+            }
+        }
+
+        String path = PackagingPipeline.buildAbsolutePath(job, HLS_MANIFEST_NAME);
+        uploader.put(job, path, bytes.toByteArray(), "application/vnd.apple.mpegurl");
+        return path;
+    }
+
+    private static byte[] mediaPlaylist(PackagingJob job, Rendition rendition, CpixDTO cpixDTO, CpixDTO fairPlayCpixDTO)
+            throws IOException {
+        double segmentLength = job.getSegmentLength();
+        double duration = job.getSourceDuration();
+        int segments = (int) Math.ceil(duration / segmentLength - 1e-9);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer m3u8 = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            m3u8.write("#EXTM3U\n#EXT-X-VERSION:7\n");
+            m3u8.write("#EXT-X-TARGETDURATION:" + (long) Math.ceil(segmentLength) + "\n");
+            m3u8.write("#EXT-X-MEDIA-SEQUENCE:0\n#EXT-X-PLAYLIST-TYPE:VOD\n");
+
+            String kid = fairPlayCpixDTO.getContentKeyUsageRuleDTO(rendition.track).getKid();
+            DrmSystemDTO fairPlay = fairPlayCpixDTO.getDrmSystemDTO(DRMSystemId.FAIRPLAY, kid);
+            ContentKeyDTO contentKeyDTO = fairPlayCpixDTO.getContentKeyDTO(kid);
+            m3u8.write("#EXT-X-KEY:METHOD=SAMPLE-AES,URI=\"" + fairPlay.getFairPlayDrmUri(fairPlay.getHlsSignalingData()) + "\"");
+            if (contentKeyDTO.getExplicitIV() != null) {
+                m3u8.write(",IV=0x" + StringUtil.byteArrayToHex(Base64Encoder.decode(contentKeyDTO.getExplicitIV())));
+            }
+            m3u8.write(",KEYFORMAT=\"" + FAIRPLAY_KEY_FORMAT + "\",KEYFORMATVERSIONS=\"1\"\n");
+            if (cpixDTO != null) {
+                DrmSystemDTO widevine = cpixDTO.getDrmSystemDTO(DRMSystemId.WIDEVINE, kid);
+                if (widevine != null && widevine.getPssh() != null) {
+                    m3u8.write("#EXT-X-KEY:METHOD=SAMPLE-AES,URI=\"data:text/plain;base64," + widevine.getPssh()
+                            + "\",KEYID=0x" + kid.replaceAll("-", "")
+                            + ",KEYFORMAT=\"" + WIDEVINE_SCHEME + "\",KEYFORMATVERSIONS=\"1\"\n");
+                }
+            }
+
+            m3u8.write("#EXT-X-MAP:URI=\"" + INIT_SEGMENT_NAME + "\"\n");
+            for (int i = 0; i < segments; i++) {
+                double segmentDuration = Math.min(segmentLength, duration - i * segmentLength);
+                m3u8.write(String.format(Locale.ROOT, "#EXTINF:%.3f,\n", segmentDuration));
+                m3u8.write(SEGMENT_NAMING.replace("%number%", Integer.toString(i)) + "\n");
+            }
+            m3u8.write("#EXT-X-ENDLIST\n");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** @return the H.264 level_idc in hex for the lowest level covering the height at 30 fps */
+    private static String h264Level(int height) {
+        if (height <= 480) {
+            return "1e";
+        }
+        if (height <= 720) {
+            return "1f";
+        }
+        if (height <= 1080) {
+            return "28";
+        }
+        if (height <= 1440) {
+            return "32";
+        }
+        return height <= 2160 ? "33" : "3c";
+    }
+
+    private static String isoDuration(double seconds) {
+        return String.format(Locale.ROOT, "PT%.3fS", seconds);
+    }
+}
@@ -0,0 +1,91 @@
+package pipeline;
+
+import com.bitmovin.api.sdk.model.DashManifestDefaultVersion;
+import com.bitmovin.api.sdk.model.HlsManifestDefaultVersion;
+import common.ConfigProvider;
+
+/**
+ * Names, versions and output path of the Bitmovin default manifests the {@link PackagingPipeline}
+ * creates. The output path is relative to the output base path of the job.
+ */
+public class ManifestSettings {
+
+    /** The settings of a packaging run: stream.mpd and master.m3u8, both V1, in the output base path */
+    public static final ManifestSettings DEFAULT = new ManifestSettings(
+            LocalManifestWriter.DASH_MANIFEST_NAME,
+            DashManifestDefaultVersion.V1,
+            LocalManifestWriter.HLS_MANIFEST_NAME,
+            HlsManifestDefaultVersion.V1,
+            "/");
+
+    private final String dashManifestName;
+    private final DashManifestDefaultVersion dashManifestVersion;
+    private final String hlsManifestName;
+    private final HlsManifestDefaultVersion hlsManifestVersion;
+    private final String outputPath;
+
+    public ManifestSettings(
+            String dashManifestName,
+            DashManifestDefaultVersion dashManifestVersion,
+            String hlsManifestName,
+            HlsManifestDefaultVersion hlsManifestVersion,
+            String outputPath) {
+        this.dashManifestName = dashManifestName;
+        this.dashManifestVersion = dashManifestVersion;
+        this.hlsManifestName = hlsManifestName;
+        this.hlsManifestVersion = hlsManifestVersion;
+        this.outputPath = outputPath;
+    }
+
+    /**
+     * Reads the optional DASH_MANIFEST_NAME, DASH_MANIFEST_VERSION, HLS_MANIFEST_NAME,
+     * HLS_MANIFEST_VERSION and MANIFEST_OUTPUT_PATH settings, the ones not given are taken from
+     * {@link #DEFAULT}
+     *
+     * @param configProvider The configuration of the example
+     */
+    public static ManifestSettings fromConfig(ConfigProvider configProvider) {
+        return new ManifestSettings(
+                configProvider.hasParameter("DASH_MANIFEST_NAME")
+                        ? configProvider.getParameterByKey("DASH_MANIFEST_NAME")
+                        : DEFAULT.dashManifestName,
+                configProvider.hasParameter("DASH_MANIFEST_VERSION")
+                        ? DashManifestDefaultVersion.valueOf(configProvider.getParameterByKey("DASH_MANIFEST_VERSION"))
+                        : DEFAULT.dashManifestVersion,
+                configProvider.hasParameter("HLS_MANIFEST_NAME")
+                        ? configProvider.getParameterByKey("HLS_MANIFEST_NAME")
+                        : DEFAULT.hlsManifestName,
+                configProvider.hasParameter("HLS_MANIFEST_VERSION")
+                        ? HlsManifestDefaultVersion.valueOf(configProvider.getParameterByKey("HLS_MANIFEST_VERSION"))
+                        : DEFAULT.hlsManifestVersion,
+                configProvider.hasParameter("MANIFEST_OUTPUT_PATH")
+                        ? configProvider.getParameterByKey("MANIFEST_OUTPUT_PATH")
+                        : DEFAULT.outputPath);
+    }
+
+    public String getDashManifestName() {
+        return dashManifestName;
+    }
+
+    public DashManifestDefaultVersion getDashManifestVersion() {
+        return dashManifestVersion;
+    }
+
+    public String getHlsManifestName() {
+        return hlsManifestName;
+    }
+
+    public HlsManifestDefaultVersion getHlsManifestVersion() {
+        return hlsManifestVersion;
+    }
+
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    @Override
+    public String toString() {
+        return "ManifestSettings{dash=" + dashManifestName + " " + dashManifestVersion + ", hls=" + hlsManifestName
+                + " " + hlsManifestVersion + ", outputPath=" + outputPath + "}";
+    }
+}
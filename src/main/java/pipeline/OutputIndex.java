@@ -0,0 +1,268 @@
+package pipeline;
+
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.VideoConfig;
+import common.ConfigProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Index of the outputs which were already produced, so that a job which is submitted again with
+ * the same source and the same packaging settings (e.g. after a metadata only change) returns the
+ * existing manifests instead of being encoded again.
+ *
+ * <p>Entries are keyed by the {@link SourceFingerprint} of the input file and a hash over
+ * everything that determines the output: content id (the DRM keys depend on it), ladder and audio
+ * tracks, DRM and muxing type, segment and chunk settings, and the output bucket. Every entry is
+ * stored as a file in the index directory, which may be shared by several processes.
+ *
+ * <p>Entries are not validated against the output bucket. Delete the entry file to force a title to
+ * be encoded again.
+ *
+ * <p>Besides the entries, the index keeps the ladder of every output location: the rungs in the
+ * order of their video/&lt;n&gt; folders and the audio renditions in the audio folder. A job which
+ * {@link PackagingJob#isExtendLadder() extends the ladder} reads it to encode only the rungs which
+ * are missing, its manifests list the recorded audio.
+ */
+public class OutputIndex {
+    private static final Logger logger = LoggerFactory.getLogger(OutputIndex.class);
+
+    private final Path directory;
+    private final boolean hashSourceContent;
+
+    /**
+     * @param directory The directory the entries are stored in
+     * @param hashSourceContent true to fingerprint sources by hashing their content
+     */
+    public OutputIndex(Path directory, boolean hashSourceContent) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.hashSourceContent = hashSourceContent;
+    }
+
+    /**
+     * Creates the index configured by OUTPUT_INDEX_DIR and OUTPUT_INDEX_HASH_SOURCE
+     *
+     * @param configProvider The configuration of the example
+     * @return The index, or null if OUTPUT_INDEX_DIR isn't set
+     */
+    public static OutputIndex fromConfig(ConfigProvider configProvider) throws IOException {
+        if (!configProvider.hasParameter("OUTPUT_INDEX_DIR")) {
+            return null;
+        }
+        boolean hashSourceContent =
+                configProvider.hasParameter("OUTPUT_INDEX_HASH_SOURCE")
+                        && Boolean.parseBoolean(configProvider.getParameterByKey("OUTPUT_INDEX_HASH_SOURCE"));
+        return new OutputIndex(Paths.get(configProvider.getParameterByKey("OUTPUT_INDEX_DIR")), hashSourceContent);
+    }
+
+    /** @return the index key of the job, or null if its source can't be fingerprinted */
+    public String key(PackagingJob job) throws IOException {
+        String fingerprint = SourceFingerprint.of(job, hashSourceContent);
+        if (fingerprint == null) {
+            logger.warn("no fingerprint for {}, the output index is skipped", job.getInputPath());
+            return null;
+        }
+        String canonical = fingerprint + "\n" + canonicalSettings(job);
+        return SourceFingerprint.toHex(SourceFingerprint.sha256().digest(canonical.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** @return the result stored for the key, or null if the output wasn't produced yet */
+    public PackagingResult lookup(String key, PackagingJob job) throws IOException {
+        Properties entry = new Properties();
+        try (InputStream in = Files.newInputStream(entryFile(key))) {
+            entry.load(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return new PackagingResult(
+                job,
+                entry.getProperty("encodingId"),
+                entry.getProperty("outputId"),
+                entry.getProperty("dashManifestPath"),
+                entry.getProperty("hlsManifestPath"),
+                true);
+    }
+
+    public void store(String key, PackagingResult result) throws IOException {
+        Properties entry = new Properties();
+        entry.setProperty("contentId", result.getJob().getContentId());
+        entry.setProperty("inputPath", result.getJob().getInputPath());
+        entry.setProperty("encodingId", result.getEncodingId());
+        entry.setProperty("outputId", result.getOutputId());
+        if (result.getDashManifestPath() != null) {
+            entry.setProperty("dashManifestPath", result.getDashManifestPath());
+        }
+        if (result.getHlsManifestPath() != null) {
+            entry.setProperty("hlsManifestPath", result.getHlsManifestPath());
+        }
+
+        Path file = entryFile(key);
+        Path temp = directory.resolve(key + "." + UUID.randomUUID() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            entry.store(out, null);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path entryFile(String key) {
+        return directory.resolve(key + ".properties");
+    }
+
+    /** The rungs and audio written to an output location and the encoding which wrote the last rungs */
+    public static class EncodedLadder {
+        private final List<VideoConfig> rungs;
+        private final List<AudioConfig> audio;
+        private final String encodingId;
+
+        EncodedLadder(List<VideoConfig> rungs, List<AudioConfig> audio, String encodingId) {
+            this.rungs = rungs;
+            this.audio = audio;
+            this.encodingId = encodingId;
+        }
+
+        /** @return the rungs in the order of their folders, the first one in video/1 */
+        public List<VideoConfig> getRungs() {
+            return rungs;
+        }
+
+        /** @return the audio renditions with their tracks, written by the first encoding of the output */
+        public List<AudioConfig> getAudio() {
+            return audio;
+        }
+
+        public String getEncodingId() {
+            return encodingId;
+        }
+    }
+
+    /**
+     * @return the ladder written to the output location of the job, or null if nothing was written
+     *     there yet or the output was produced with other settings than the job's
+     */
+    public EncodedLadder lookupLadder(PackagingJob job) throws IOException {
+        Properties ladder = new Properties();
+        try (InputStream in = Files.newInputStream(ladderFile(job))) {
+            ladder.load(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (!ladderSettings(job).equals(ladder.getProperty("settings"))) {
+            logger.warn("the output of {} was produced with other settings, its ladder isn't extended", job.getContentId());
+            return null;
+        }
+        if (ladder.getProperty("audio.count") == null) {
+            logger.warn("the ladder of {} was recorded without its audio, it isn't extended", job.getContentId());
+            return null;
+        }
+        int count = Integer.parseInt(ladder.getProperty("video.count"));
+        List<VideoConfig> rungs = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            String[] rung = ladder.getProperty("video." + i).split("/");
+            VideoConfig videoConfig = "null".equals(rung[2])
+                    ? new VideoConfig(Integer.parseInt(rung[0]))
+                    : new VideoConfig(rung[2], Integer.parseInt(rung[0]));
+            videoConfig.bitrate = Long.parseLong(rung[1]);
+            rungs.add(videoConfig);
+        }
+        int audioCount = Integer.parseInt(ladder.getProperty("audio.count"));
+        List<AudioConfig> audio = new ArrayList<>(audioCount);
+        for (int i = 1; i <= audioCount; i++) {
+            String track = ladder.getProperty("audio." + i);
+            AudioConfig audioConfig = new AudioConfig();
+            audioConfig.track = "null".equals(track) ? null : track;
+            audio.add(audioConfig);
+        }
+        return new EncodedLadder(rungs, audio, ladder.getProperty("encodingId"));
+    }
+
+    /**
+     * Records the ladder written to the output location of the job
+     *
+     * @param job The job which wrote the output
+     * @param rungs The rungs in the order of their folders, the first one in video/1
+     * @param audio The audio renditions of the output
+     * @param encodingId The encoding which wrote the last of the rungs
+     */
+    public void storeLadder(PackagingJob job, List<VideoConfig> rungs, List<AudioConfig> audio, String encodingId)
+            throws IOException {
+        Properties ladder = new Properties();
+        ladder.setProperty("contentId", job.getContentId());
+        ladder.setProperty("settings", ladderSettings(job));
+        ladder.setProperty("encodingId", encodingId);
+        ladder.setProperty("video.count", String.valueOf(rungs.size()));
+        int i = 1;
+        for (VideoConfig videoConfig : rungs) {
+            ladder.setProperty("video." + i++, videoConfig.height + "/" + videoConfig.bitrate + "/" + videoConfig.track);
+        }
+        ladder.setProperty("audio.count", String.valueOf(audio.size()));
+        i = 1;
+        for (AudioConfig audioConfig : audio) {
+            ladder.setProperty("audio." + i++, String.valueOf(audioConfig.track));
+        }
+
+        Path file = ladderFile(job);
+        Path temp = directory.resolve(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            ladder.store(out, null);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** The ladder file of the output location, which the bucket and output path identify */
+    private Path ladderFile(PackagingJob job) {
+        String location = job.getS3OutputBucketName() + "\n" + PackagingPipeline.buildAbsolutePath(job, "");
+        return directory.resolve("ladder-" + SourceFingerprint.toHex(
+                SourceFingerprint.sha256().digest(location.getBytes(StandardCharsets.UTF_8))) + ".properties");
+    }
+
+    /** The settings of the job except the ladder, they have to match for the ladder to be extended */
+    private static String ladderSettings(PackagingJob job) {
+        return canonicalSettings(job.toBuilder().videoProfile(Collections.<VideoConfig>emptyList()).build());
+    }
+
+    /**
+     * Settings which change the produced output, in a stable order. The ladder is sorted, the
+     * order it was configured in doesn't matter.
+     */
+    static String canonicalSettings(PackagingJob job) {
+        List<String> rungs = new ArrayList<>();
+        for (VideoConfig videoConfig : job.getVideoProfile()) {
+            rungs.add(videoConfig.height + "/" + videoConfig.track);
+        }
+        Collections.sort(rungs);
+        List<String> audioTracks = new ArrayList<>();
+        for (AudioConfig audioConfig : job.getAudioProfile()) {
+            audioTracks.add(String.valueOf(audioConfig.track));
+        }
+        Collections.sort(audioTracks);
+
+        StringBuilder settings = new StringBuilder()
+                .append("contentId=").append(job.getContentId())
+                .append(";bucket=").append(job.getS3OutputBucketName())
+                .append(";video=").append(rungs)
+                .append(";audio=").append(audioTracks)
+                .append(";drm=").append(job.getDrmType())
+                .append(";muxing=").append(job.getMuxingType())
+                .append(";segmentLength=").append(job.getSegmentLength());
+        if (job.getMuxingType() == PackagingJob.MuxingType.CMAF) {
+            settings.append(";chunkDuration=").append(job.getCmafChunkDuration())
+                    .append(";frameRate=").append(job.getCmafFrameRate());
+        }
+        return settings.toString();
+    }
+}
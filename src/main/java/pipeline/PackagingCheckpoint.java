@@ -0,0 +1,38 @@
+package pipeline;
+
+import java.io.IOException;
+
+/**
+ * Records the Bitmovin resources a {@link PackagingPipeline} run has produced, so that a run which
+ * was interrupted (e.g. because its worker crashed) can be resumed from there by another process
+ * instead of starting a new encoding.
+ */
+public interface PackagingCheckpoint {
+
+    /** Id of the encoding, recorded as soon as it was started */
+    String ENCODING_ID = "encodingId";
+    /** Comma separated ids of the encodings of a split ladder, recorded before they are started */
+    String SPLIT_ENCODING_IDS = "splitEncodingIds";
+    /** Path of the DASH manifest, recorded once it was written */
+    String DASH_MANIFEST_PATH = "dashManifestPath";
+    /** Path of the HLS manifest, recorded once it was written */
+    String HLS_MANIFEST_PATH = "hlsManifestPath";
+
+    /** Checkpoint for runs which are not resumable */
+    PackagingCheckpoint NONE =
+            new PackagingCheckpoint() {
+                @Override
+                public String get(String key) {
+                    return null;
+                }
+
+                @Override
+                public void record(String key, String value) {
+                }
+            };
+
+    /** @return the recorded value, or null if the step wasn't reached yet */
+    String get(String key);
+
+    void record(String key, String value) throws IOException;
+}
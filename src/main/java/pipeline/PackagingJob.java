@@ -0,0 +1,473 @@
+package pipeline;
+
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.VideoConfig;
+import common.ConfigProvider;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable description of a single packaging job: which source to encode, which ladder to
+ * produce, how to encrypt it and where to write it. A job carries everything the {@link
+ * PackagingPipeline} needs, so any number of jobs can be run in parallel by the same pipeline.
+ *
+ * <p>The video and audio profiles are copied when the job is built. The pipeline works on its own
+ * copies of the {@link VideoConfig}s for every run, so jobs may share profile instances.
+ */
+public class PackagingJob {
+
+    public enum DrmType {
+        /** CENC (CTR) for Widevine and PlayReady, DASH manifest */
+        DASH,
+        /** FairPlay, HLS manifest */
+        HLS,
+        /** CBCS for Widevine, PlayReady and FairPlay, DASH and HLS manifests over one output */
+        CBCS
+    }
+
+    public enum MuxingType {
+        FMP4,
+        CMAF
+    }
+
+    private final String name;
+    private final String description;
+    private final String contentId;
+    private final String pallyconEncToken;
+    private final String httpInputHost;
+    private final String inputPath;
+    private final String s3OutputBucketName;
+    private final String s3OutputAccessKey;
+    private final String s3OutputSecretKey;
+    private final String outputBasePath;
+    private final List<VideoConfig> videoProfile;
+    private final List<AudioConfig> audioProfile;
+    private final DrmType drmType;
+    private final MuxingType muxingType;
+    private final double segmentLength;
+    private final double cmafChunkDuration;
+    private final double cmafFrameRate;
+    private final int priority;
+    private final Instant deadline;
+    private final double sourceDuration;
+    private final boolean ingestInputStreams;
+    private final List<Integer> splitLadderAt;
+    private final boolean extendLadder;
+
+    private PackagingJob(Builder builder) {
+        this.name = builder.name;
+        this.description = builder.description;
+        this.contentId = builder.contentId;
+        this.pallyconEncToken = builder.pallyconEncToken;
+        this.httpInputHost = builder.httpInputHost;
+        this.inputPath = builder.inputPath;
+        this.s3OutputBucketName = builder.s3OutputBucketName;
+        this.s3OutputAccessKey = builder.s3OutputAccessKey;
+        this.s3OutputSecretKey = builder.s3OutputSecretKey;
+        this.outputBasePath = builder.outputBasePath;
+        this.videoProfile = Collections.unmodifiableList(new ArrayList<>(builder.videoProfile));
+        this.audioProfile = Collections.unmodifiableList(new ArrayList<>(builder.audioProfile));
+        this.drmType = builder.drmType;
+        this.muxingType = builder.muxingType;
+        this.segmentLength = builder.segmentLength;
+        this.cmafChunkDuration = builder.cmafChunkDuration;
+        this.cmafFrameRate = builder.cmafFrameRate;
+        this.priority = builder.priority;
+        this.deadline = builder.deadline;
+        this.sourceDuration = builder.sourceDuration;
+        this.ingestInputStreams = builder.ingestInputStreams;
+        this.splitLadderAt = Collections.unmodifiableList(new ArrayList<>(builder.splitLadderAt));
+        this.extendLadder = builder.extendLadder;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a builder pre-filled from the example configuration: CONTENT_ID,
+     * HTTP_INPUT_FILE_PATH and the optional SOURCE_DURATION plus everything {@link
+     * #defaults(ConfigProvider)} reads. The ladder has to be set by the caller.
+     *
+     * @param configProvider The configuration of the example
+     */
+    public static Builder builder(ConfigProvider configProvider) {
+        Builder builder = defaults(configProvider)
+                .contentId(configProvider.getContentId())
+                .inputPath(configProvider.getHttpInputFilePath());
+        if (configProvider.hasParameter("SOURCE_DURATION")) {
+            builder.sourceDuration(Double.parseDouble(configProvider.getParameterByKey("SOURCE_DURATION")));
+        }
+        return builder;
+    }
+
+    /**
+     * Creates a builder pre-filled with the settings which are shared by all titles: input host,
+     * output and PallyCon token, and the optional DRM_PACKAGER_TYPE, MUXING_TYPE, SEGMENT_LENGTH,
+     * CMAF_CHUNK_DURATION, CMAF_FRAME_RATE, INGEST_INPUT_STREAMS, SPLIT_LADDER_AT and EXTEND_LADDER
+     * settings. Content id, input path and ladder have to be set by the caller.
+     *
+     * @param configProvider The configuration of the example
+     */
+    public static Builder defaults(ConfigProvider configProvider) {
+        Builder builder = new Builder()
+                .pallyconEncToken(configProvider.getPallyconEncKey())
+                .httpInputHost(configProvider.getHttpInputHost())
+                .s3Output(
+                        configProvider.getS3OutputBucketName(),
+                        configProvider.getS3OutputAccessKey(),
+                        configProvider.getS3OutputSecretKey())
+                .outputBasePath(configProvider.getS3OutputBasePath());
+
+        if (configProvider.hasParameter("DRM_PACKAGER_TYPE")) {
+            builder.drmType(DrmType.valueOf(configProvider.getParameterByKey("DRM_PACKAGER_TYPE")));
+        }
+        if (configProvider.hasParameter("MUXING_TYPE")) {
+            builder.muxingType(MuxingType.valueOf(configProvider.getParameterByKey("MUXING_TYPE")));
+        }
+        if (configProvider.hasParameter("SEGMENT_LENGTH")) {
+            builder.segmentLength(Double.parseDouble(configProvider.getParameterByKey("SEGMENT_LENGTH")));
+        }
+        if (configProvider.hasParameter("CMAF_CHUNK_DURATION")) {
+            builder.cmafChunkDuration(Double.parseDouble(configProvider.getParameterByKey("CMAF_CHUNK_DURATION")));
+        }
+        if (configProvider.hasParameter("CMAF_FRAME_RATE")) {
+            builder.cmafFrameRate(Double.parseDouble(configProvider.getParameterByKey("CMAF_FRAME_RATE")));
+        }
+        if (configProvider.hasParameter("INGEST_INPUT_STREAMS")) {
+            builder.ingestInputStreams(Boolean.parseBoolean(configProvider.getParameterByKey("INGEST_INPUT_STREAMS")));
+        }
+        if (configProvider.hasParameter("SPLIT_LADDER_AT")) {
+            builder.splitLadderAt(Arrays.stream(configProvider.getParameterByKey("SPLIT_LADDER_AT").split(","))
+                    .map(String::trim)
+                    .map(Integer::valueOf)
+                    .collect(Collectors.toList()));
+        }
+        if (configProvider.hasParameter("EXTEND_LADDER")) {
+            builder.extendLadder(Boolean.parseBoolean(configProvider.getParameterByKey("EXTEND_LADDER")));
+        }
+        return builder;
+    }
+
+    /** @return a builder initialised with all values of this job */
+    public Builder toBuilder() {
+        return new Builder()
+                .name(name)
+                .description(description)
+                .contentId(contentId)
+                .pallyconEncToken(pallyconEncToken)
+                .httpInputHost(httpInputHost)
+                .inputPath(inputPath)
+                .s3Output(s3OutputBucketName, s3OutputAccessKey, s3OutputSecretKey)
+                .outputBasePath(outputBasePath)
+                .videoProfile(videoProfile)
+                .audioProfile(audioProfile)
+                .drmType(drmType)
+                .muxingType(muxingType)
+                .segmentLength(segmentLength)
+                .cmafChunkDuration(cmafChunkDuration)
+                .cmafFrameRate(cmafFrameRate)
+                .priority(priority)
+                .deadline(deadline)
+                .sourceDuration(sourceDuration)
+                .ingestInputStreams(ingestInputStreams)
+                .splitLadderAt(splitLadderAt)
+                .extendLadder(extendLadder);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getContentId() {
+        return contentId;
+    }
+
+    public String getPallyconEncToken() {
+        return pallyconEncToken;
+    }
+
+    public String getHttpInputHost() {
+        return httpInputHost;
+    }
+
+    public String getInputPath() {
+        return inputPath;
+    }
+
+    public String getS3OutputBucketName() {
+        return s3OutputBucketName;
+    }
+
+    public String getS3OutputAccessKey() {
+        return s3OutputAccessKey;
+    }
+
+    public String getS3OutputSecretKey() {
+        return s3OutputSecretKey;
+    }
+
+    /** @return the path on the output all content of this job is written below */
+    public String getOutputBasePath() {
+        return outputBasePath;
+    }
+
+    public List<VideoConfig> getVideoProfile() {
+        return videoProfile;
+    }
+
+    public List<AudioConfig> getAudioProfile() {
+        return audioProfile;
+    }
+
+    public DrmType getDrmType() {
+        return drmType;
+    }
+
+    public MuxingType getMuxingType() {
+        return muxingType;
+    }
+
+    public double getSegmentLength() {
+        return segmentLength;
+    }
+
+    public double getCmafChunkDuration() {
+        return cmafChunkDuration;
+    }
+
+    public double getCmafFrameRate() {
+        return cmafFrameRate;
+    }
+
+    /** @return the scheduling priority, higher values are started first. Default: 0 */
+    public int getPriority() {
+        return priority;
+    }
+
+    /** @return the time by which the title should be done, or null if there is none */
+    public Instant getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return the duration of the source in seconds, or 0 if it is unknown. Needed to write the
+     *     manifests locally, see {@link LocalManifestWriter}
+     */
+    public double getSourceDuration() {
+        return sourceDuration;
+    }
+
+    /**
+     * @return true if all renditions read the source through one ingest input stream per source
+     *     track, so the encoder fetches and analyses the input once, see {@link PackagingPipeline}
+     */
+    public boolean isIngestInputStreams() {
+        return ingestInputStreams;
+    }
+
+    /**
+     * @return the heights at which the ladder is split into concurrent encodings: the rungs up to
+     *     the first height (with the audio), up to the next height, ..., and the rungs above the
+     *     last one. Empty for a single encoding, see {@link PackagingPipeline}
+     */
+    public List<Integer> getSplitLadderAt() {
+        return splitLadderAt;
+    }
+
+    /**
+     * @return true if only the rungs missing from the earlier output of the content id are encoded
+     *     and the manifests are written over the old and the new renditions, see {@link
+     *     PackagingPipeline}
+     */
+    public boolean isExtendLadder() {
+        return extendLadder;
+    }
+
+    @Override
+    public String toString() {
+        return "PackagingJob{contentId=" + contentId + ", inputPath=" + inputPath + ", drmType=" + drmType
+                + ", muxingType=" + muxingType + ", rungs=" + videoProfile.size() + ", priority=" + priority + "}";
+    }
+
+    public static class Builder {
+        private String name = "fMP4 muxing with CENC DRM";
+        private String description = "Example with CENC DRM content protection";
+        private String contentId;
+        private String pallyconEncToken;
+        private String httpInputHost;
+        private String inputPath;
+        private String s3OutputBucketName;
+        private String s3OutputAccessKey;
+        private String s3OutputSecretKey;
+        private String outputBasePath = "";
+        private List<VideoConfig> videoProfile = Collections.emptyList();
+        private List<AudioConfig> audioProfile = Collections.emptyList();
+        private DrmType drmType = DrmType.HLS;
+        private MuxingType muxingType = MuxingType.FMP4;
+        private double segmentLength = 4.0;
+        private double cmafChunkDuration = 0.5;
+        private double cmafFrameRate = 30;
+        private int priority;
+        private Instant deadline;
+        private double sourceDuration;
+        private boolean ingestInputStreams;
+        private List<Integer> splitLadderAt = Collections.emptyList();
+        private boolean extendLadder;
+
+        private Builder() {
+        }
+
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder description(String description) {
+            this.description = description;
+            return this;
+        }
+
+        public Builder contentId(String contentId) {
+            this.contentId = contentId;
+            return this;
+        }
+
+        public Builder pallyconEncToken(String pallyconEncToken) {
+            this.pallyconEncToken = pallyconEncToken;
+            return this;
+        }
+
+        public Builder httpInputHost(String httpInputHost) {
+            this.httpInputHost = httpInputHost;
+            return this;
+        }
+
+        public Builder inputPath(String inputPath) {
+            this.inputPath = inputPath;
+            return this;
+        }
+
+        public Builder s3Output(String bucketName, String accessKey, String secretKey) {
+            this.s3OutputBucketName = bucketName;
+            this.s3OutputAccessKey = accessKey;
+            this.s3OutputSecretKey = secretKey;
+            return this;
+        }
+
+        public Builder outputBasePath(String outputBasePath) {
+            this.outputBasePath = outputBasePath;
+            return this;
+        }
+
+        public Builder videoProfile(List<VideoConfig> videoProfile) {
+            this.videoProfile = videoProfile;
+            return this;
+        }
+
+        public Builder audioProfile(List<AudioConfig> audioProfile) {
+            this.audioProfile = audioProfile;
+            return this;
+        }
+
+        public Builder drmType(DrmType drmType) {
+            this.drmType = drmType;
+            return this;
+        }
+
+        public Builder muxingType(MuxingType muxingType) {
+            this.muxingType = muxingType;
+            return this;
+        }
+
+        public Builder segmentLength(double segmentLength) {
+            this.segmentLength = segmentLength;
+            return this;
+        }
+
+        public Builder cmafChunkDuration(double cmafChunkDuration) {
+            this.cmafChunkDuration = cmafChunkDuration;
+            return this;
+        }
+
+        public Builder cmafFrameRate(double cmafFrameRate) {
+            this.cmafFrameRate = cmafFrameRate;
+            return this;
+        }
+
+        public Builder priority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        public Builder deadline(Instant deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        public Builder sourceDuration(double sourceDuration) {
+            this.sourceDuration = sourceDuration;
+            return this;
+        }
+
+        public Builder ingestInputStreams(boolean ingestInputStreams) {
+            this.ingestInputStreams = ingestInputStreams;
+            return this;
+        }
+
+        public Builder splitLadderAt(List<Integer> splitLadderAt) {
+            this.splitLadderAt = splitLadderAt;
+            return this;
+        }
+
+        public Builder extendLadder(boolean extendLadder) {
+            this.extendLadder = extendLadder;
+            return this;
+        }
+
+        /** @return an independent builder with the same values, e.g. to derive jobs from a template */
+        public Builder copy() {
+            Builder copy = new Builder();
+            copy.name = name;
+            copy.description = description;
+            copy.contentId = contentId;
+            copy.pallyconEncToken = pallyconEncToken;
+            copy.httpInputHost = httpInputHost;
+            copy.inputPath = inputPath;
+            copy.s3OutputBucketName = s3OutputBucketName;
+            copy.s3OutputAccessKey = s3OutputAccessKey;
+            copy.s3OutputSecretKey = s3OutputSecretKey;
+            copy.outputBasePath = outputBasePath;
+            copy.videoProfile = videoProfile;
+            copy.audioProfile = audioProfile;
+            copy.drmType = drmType;
+            copy.muxingType = muxingType;
+            copy.segmentLength = segmentLength;
+            copy.cmafChunkDuration = cmafChunkDuration;
+            copy.cmafFrameRate = cmafFrameRate;
+            copy.priority = priority;
+            copy.deadline = deadline;
+            copy.sourceDuration = sourceDuration;
+            copy.ingestInputStreams = ingestInputStreams;
+            copy.splitLadderAt = splitLadderAt;
+            copy.extendLadder = extendLadder;
+            return copy;
+        }
+
+        public PackagingJob build() {
+            if (contentId == null || inputPath == null) {
+                throw new IllegalStateException("contentId and inputPath are required");
+            }
+            return new PackagingJob(this);
+        }
+    }
+}
@@ -0,0 +1,1446 @@
+package pipeline;
+
+import cenc.PsshBox;
+import com.bitmovin.api.sdk.BitmovinApi;
+import com.bitmovin.api.sdk.common.BitmovinException;
+import com.bitmovin.api.sdk.model.*;
+import com.pallycon.cpix.dto.*;
+import com.pallycon.cpix.util.Base64Encoder;
+import com.pallycon.cpix.util.StringUtil;
+import common.EncodingStatusPoller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pipeline.PackagingJob.DrmType;
+import pipeline.PackagingJob.MuxingType;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encodes and packages a title with PallyCon Multi-DRM: fetches the CPIX keys, sets up the
+ * encoding for the ladder of the {@link PackagingJob}, encrypts every muxing for the requested DRM
+ * type, runs the encoding and generates the manifests.
+ *
+ * <p>The pipeline holds no per-job state. Everything a run needs is passed in with the job or
+ * created during the run (the ladder is copied and sorted per run, bitrates are not written back
+ * to the job's profile), so one pipeline instance can run any number of jobs in parallel.
+ * Encodings and manifests are awaited through the shared {@link EncodingStatusPoller}.
+ *
+ * <p>Without a {@link ResourceCache}, new input and output resources are created for every run.
+ * Long running processes should pass a cache, so they are created only once. The CPIX key info
+ * is requested through a {@link KmsClient}, which bounds and hedges the KMS requests and keeps the
+ * PallyCon CPIX module per thread, so its setup isn't repeated for every title either.
+ *
+ * <p>With an {@link EncodingSlotScheduler}, encodings are only started when one of the account's
+ * encoding slots is free, in order of the job's priority and deadline. With an {@link
+ * OutputIndex}, a job whose source and settings match an earlier job returns the earlier output
+ * without encoding. With a {@link LocalManifestWriter}, the manifests of jobs with a known source
+ * duration are written locally instead of being generated by Bitmovin. With a {@link
+ * KeyPrefetcher}, the keys of titles which were prefetched by the queue owner are used instead of
+ * fetching them while setting up the encoding. Jobs with {@link PackagingJob#isIngestInputStreams()}
+ * create one ingest input stream per source track which all renditions read from.
+ *
+ * <p>Jobs with {@link PackagingJob#getSplitLadderAt()} spread their ladder across concurrent
+ * encodings, e.g. the UHD rungs apart from the SD/HD rungs and the audio, so the slowest part
+ * instead of the whole ladder sets the turnaround of an urgent title. All encodings use the same
+ * keys and write to the same rendition folders, the combined manifests are written by the {@link
+ * LocalManifestWriter}.
+ *
+ * <p>Jobs which {@link PackagingJob#isExtendLadder() extend the ladder} look up the rungs already
+ * written for the content id in the {@link OutputIndex}, encode only the missing ones into the
+ * folders after them with the track keys KMS returns for the content id, and write the manifests
+ * over the old and the new renditions. The audio of the earlier output is kept.
+ *
+ * <p>With a {@link StallWatchdog}, encodings which stop making progress are flagged, or stopped
+ * and failed with an {@link EncodingStalledException}, or stopped and set up again with the same
+ * input, output and keys. The parts of a split ladder are not set up again.
+ */
+public class PackagingPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(PackagingPipeline.class);
+
+    // AAC frames carry 1024 samples, the AAC configuration uses the default sample rate of 48 kHz
+    private static final double AAC_FRAME_RATE = 48_000 / 1024.0;
+    private static final long AAC_BITRATE = 128_000L;
+
+    private final BitmovinApi bitmovinApi;
+    private final EncodingStatusPoller statusPoller;
+    private final ResourceCache resourceCache;
+    private final EncodingSlotScheduler slotScheduler;
+    private final OutputIndex outputIndex;
+    private final LocalManifestWriter manifestWriter;
+    private final KeyPrefetcher keyPrefetcher;
+    private final KmsClient kmsClient;
+    private final StallWatchdog stallWatchdog;
+
+    private PackagingPipeline(Builder builder) {
+        this.bitmovinApi = builder.bitmovinApi;
+        this.statusPoller = builder.statusPoller;
+        this.resourceCache = builder.resourceCache;
+        this.slotScheduler = builder.slotScheduler;
+        this.outputIndex = builder.outputIndex;
+        this.manifestWriter = builder.manifestWriter;
+        this.keyPrefetcher = builder.keyPrefetcher;
+        this.kmsClient = builder.kmsClient == null ? new KmsClient() : builder.kmsClient;
+        this.stallWatchdog = builder.stallWatchdog;
+    }
+
+    /**
+     * Creates a builder of a pipeline without the optional parts, which the builder adds
+     *
+     * @param bitmovinApi The client of the Bitmovin API
+     * @param statusPoller Awaits the encodings and manifests
+     */
+    public static Builder builder(BitmovinApi bitmovinApi, EncodingStatusPoller statusPoller) {
+        return new Builder(bitmovinApi, statusPoller);
+    }
+
+    public static class Builder {
+        private final BitmovinApi bitmovinApi;
+        private final EncodingStatusPoller statusPoller;
+        private ResourceCache resourceCache;
+        private EncodingSlotScheduler slotScheduler;
+        private OutputIndex outputIndex;
+        private LocalManifestWriter manifestWriter;
+        private KeyPrefetcher keyPrefetcher;
+        private KmsClient kmsClient;
+        private StallWatchdog stallWatchdog;
+
+        private Builder(BitmovinApi bitmovinApi, EncodingStatusPoller statusPoller) {
+            this.bitmovinApi = bitmovinApi;
+            this.statusPoller = statusPoller;
+        }
+
+        public Builder resourceCache(ResourceCache resourceCache) {
+            this.resourceCache = resourceCache;
+            return this;
+        }
+
+        public Builder slotScheduler(EncodingSlotScheduler slotScheduler) {
+            this.slotScheduler = slotScheduler;
+            return this;
+        }
+
+        public Builder outputIndex(OutputIndex outputIndex) {
+            this.outputIndex = outputIndex;
+            return this;
+        }
+
+        public Builder manifestWriter(LocalManifestWriter manifestWriter) {
+            this.manifestWriter = manifestWriter;
+            return this;
+        }
+
+        public Builder keyPrefetcher(KeyPrefetcher keyPrefetcher) {
+            this.keyPrefetcher = keyPrefetcher;
+            return this;
+        }
+
+        /** @param kmsClient The client for the CPIX requests, or null for one with the default settings */
+        public Builder kmsClient(KmsClient kmsClient) {
+            this.kmsClient = kmsClient;
+            return this;
+        }
+
+        /** @param stallWatchdog Watches the running encodings, or null to wait for them without a bound */
+        public Builder stallWatchdog(StallWatchdog stallWatchdog) {
+            this.stallWatchdog = stallWatchdog;
+            return this;
+        }
+
+        public PackagingPipeline build() {
+            return new PackagingPipeline(this);
+        }
+    }
+
+    /** @return the client of the CPIX requests, e.g. for its metrics */
+    public KmsClient getKmsClient() {
+        return kmsClient;
+    }
+
+    /** @return the watchdog of the running encodings, or null */
+    public StallWatchdog getStallWatchdog() {
+        return stallWatchdog;
+    }
+
+    /**
+     * Runs the job to completion
+     *
+     * @param job The job to run
+     * @return The encoding and the manifests which were produced
+     */
+    public PackagingResult run(PackagingJob job) throws Exception {
+        return run(job, PackagingCheckpoint.NONE);
+    }
+
+    /**
+     * Runs the job to completion, skipping the steps which were already recorded in the
+     * checkpoint. A recorded encoding is awaited instead of being set up again, recorded manifests
+     * are not generated again.
+     *
+     * @param job The job to run
+     * @param checkpoint Records the produced resources and provides the ones of an earlier attempt
+     * @return The encoding and the manifests which were produced
+     */
+    public PackagingResult run(PackagingJob job, PackagingCheckpoint checkpoint) throws Exception {
+        String indexKey = null;
+        if (outputIndex != null && checkpoint.get(PackagingCheckpoint.ENCODING_ID) == null
+                && checkpoint.get(PackagingCheckpoint.SPLIT_ENCODING_IDS) == null) {
+            indexKey = indexKey(job);
+            PackagingResult existing = indexKey == null ? null : outputIndex.lookup(indexKey, job);
+            if (existing != null) {
+                logger.info("{} was already produced by encoding {}, skipping it", job.getContentId(), existing.getEncodingId());
+                return existing;
+            }
+        }
+
+        Output output = getS3Output(job);
+        List<VideoConfig> videoProfile = copyOf(job.getVideoProfile());
+        List<AudioConfig> audioProfile = job.getAudioProfile();
+
+        // an extension encodes the missing rungs only, into the folders after the existing ones, and
+        // keeps the audio of the output
+        List<VideoConfig> renditionLadder = videoProfile;
+        List<VideoConfig> encodedLadder = videoProfile;
+        List<AudioConfig> renditionAudio = audioProfile;
+        List<AudioConfig> encodedAudio = audioProfile;
+        OutputIndex.EncodedLadder existingLadder = job.isExtendLadder() ? lookupLadder(job) : null;
+        if (existingLadder != null) {
+            encodedLadder = missingRungs(existingLadder.getRungs(), videoProfile);
+            renditionLadder = new ArrayList<>(existingLadder.getRungs());
+            renditionLadder.addAll(encodedLadder);
+            renditionAudio = existingLadder.getAudio();
+            encodedAudio = Collections.emptyList();
+            logger.info("extending the ladder of {} by {} rungs", job.getContentId(), encodedLadder.size());
+        }
+        int firstRendition = renditionLadder.size() - encodedLadder.size() + 1;
+
+        String encodingId;
+        DrmKeys drmKeys = null;
+        String startedEncodingId = checkpoint.get(PackagingCheckpoint.ENCODING_ID);
+        String splitEncodingIds = checkpoint.get(PackagingCheckpoint.SPLIT_ENCODING_IDS);
+        if (splitEncodingIds != null) {
+            logger.info("resuming split encodings {} of {}", splitEncodingIds, job.getContentId());
+            List<Encoding> encodings = new ArrayList<>();
+            for (String splitEncodingId : splitEncodingIds.split(",")) {
+                encodings.add(bitmovinApi.encoding.encodings.get(splitEncodingId));
+            }
+            executeSplitEncodings(job, encodings, splitLadder(job, encodedLadder));
+            encodingId = encodings.get(0).getId();
+        } else if (startedEncodingId != null) {
+            logger.info("resuming encoding {} of {}", startedEncodingId, job.getContentId());
+            try {
+                executeEncoding(job, bitmovinApi.encoding.encodings.get(startedEncodingId), encodedLadder, checkpoint, false);
+                encodingId = startedEncodingId;
+            } catch (EncodingStalledException e) {
+                if (stallWatchdog == null || stallWatchdog.getMaxResubmits() == 0) {
+                    throw e;
+                }
+                logger.warn("setting up the stalled encoding {} of {} again", startedEncodingId, job.getContentId());
+                drmKeys = fetchKeys(job, renditionLadder, renditionAudio);
+                encodingId = encodeWithResubmits(
+                        job, getHttpInput(job), output, encodedLadder, firstRendition, encodedAudio, drmKeys, checkpoint, 1);
+            }
+        } else if (existingLadder != null && encodedLadder.isEmpty()) {
+            logger.info("all rungs of {} were already encoded, only the manifests are written", job.getContentId());
+            encodingId = existingLadder.getEncodingId();
+        } else {
+            HttpInput input = getHttpInput(job);
+
+            if (keyPrefetcher != null && existingLadder == null) {
+                drmKeys = keyPrefetcher.take(job, videoProfile, audioProfile);
+            }
+            if (drmKeys == null) {
+                drmKeys = fetchKeys(job, renditionLadder, renditionAudio);
+            }
+
+            List<List<VideoConfig>> parts = splitLadder(job, encodedLadder);
+            if (parts.size() > 1) {
+                List<Encoding> encodings = createSplitEncodings(job, input, output, parts, firstRendition, encodedAudio, drmKeys);
+                StringBuilder encodingIds = new StringBuilder();
+                for (Encoding part : encodings) {
+                    encodingIds.append(encodingIds.length() == 0 ? "" : ",").append(part.getId());
+                }
+                checkpoint.record(PackagingCheckpoint.SPLIT_ENCODING_IDS, encodingIds.toString());
+                executeSplitEncodings(job, encodings, parts);
+                encodingId = encodings.get(0).getId();
+            } else {
+                encodingId = encodeWithResubmits(
+                        job, input, output, encodedLadder, firstRendition, encodedAudio, drmKeys, checkpoint, 0);
+            }
+        }
+
+        boolean dash = job.getDrmType() == DrmType.DASH || job.getDrmType() == DrmType.CBCS;
+        boolean hls = job.getDrmType() == DrmType.HLS || job.getDrmType() == DrmType.CBCS;
+        String dashManifestPath = checkpoint.get(PackagingCheckpoint.DASH_MANIFEST_PATH);
+        String hlsManifestPath = checkpoint.get(PackagingCheckpoint.HLS_MANIFEST_PATH);
+        boolean writeLocally = manifestWriter != null && job.getSourceDuration() > 0
+                && ((dash && dashManifestPath == null) || (hls && hlsManifestPath == null));
+        List<LocalManifestWriter.Rendition> renditions = null;
+        if (writeLocally) {
+            if (drmKeys == null) {
+                // the keys of a resumed encoding were fetched by the earlier attempt, KMS returns the same ones
+                drmKeys = fetchKeys(job, renditionLadder, renditionAudio);
+            }
+            renditions = renditions(renditionLadder, renditionAudio);
+        }
+        if (dashManifestPath == null && dash) {
+            dashManifestPath = writeLocally
+                    ? manifestWriter.writeDash(job, renditions, drmKeys.getDash())
+                    : generateDashManifest(job, encodingId, output, ManifestSettings.DEFAULT);
+            checkpoint.record(PackagingCheckpoint.DASH_MANIFEST_PATH, dashManifestPath);
+        }
+        if (hlsManifestPath == null && hls) {
+            hlsManifestPath = writeLocally
+                    ? manifestWriter.writeHls(job, renditions, drmKeys.getDash(), drmKeys.getHls())
+                    : generateHlsManifest(job, encodingId, output, ManifestSettings.DEFAULT);
+            checkpoint.record(PackagingCheckpoint.HLS_MANIFEST_PATH, hlsManifestPath);
+        }
+
+        PackagingResult result = new PackagingResult(job, encodingId, output.getId(), dashManifestPath, hlsManifestPath);
+        if (indexKey != null) {
+            outputIndex.store(indexKey, result);
+        }
+        if (outputIndex != null) {
+            outputIndex.storeLadder(job, renditionLadder, renditionAudio, encodingId);
+        }
+        return result;
+    }
+
+    /**
+     * Creates the Bitmovin default manifests of a finished encoding again, e.g. with another name or
+     * version, without encoding anything. The DRM type of the job selects the manifests, the output
+     * of the job receives them.
+     *
+     * @param job The job the encoding was run for, its input isn't read
+     * @param encodingId The finished encoding
+     * @param settings The names, versions and path of the manifests
+     * @return The encoding and the manifests which were written
+     */
+    public PackagingResult regenerateManifests(PackagingJob job, String encodingId, ManifestSettings settings)
+            throws Exception {
+        Output output = getS3Output(job);
+        String dashManifestPath = null;
+        String hlsManifestPath = null;
+        if (job.getDrmType() == DrmType.DASH || job.getDrmType() == DrmType.CBCS) {
+            dashManifestPath = generateDashManifest(job, encodingId, output, settings);
+        }
+        if (job.getDrmType() == DrmType.HLS || job.getDrmType() == DrmType.CBCS) {
+            hlsManifestPath = generateHlsManifest(job, encodingId, output, settings);
+        }
+        return new PackagingResult(job, encodingId, output.getId(), dashManifestPath, hlsManifestPath);
+    }
+
+    /**
+     * @return the ladder the job extends, or null to encode the whole ladder because there is no
+     *     earlier output to extend or its manifests can't be written over old and new renditions
+     */
+    private OutputIndex.EncodedLadder lookupLadder(PackagingJob job) throws IOException {
+        if (outputIndex == null || manifestWriter == null || job.getSourceDuration() <= 0) {
+            logger.warn("the ladder of {} is encoded in full, extending it needs the output index, local manifests and the source duration",
+                    job.getContentId());
+            return null;
+        }
+        OutputIndex.EncodedLadder existingLadder = outputIndex.lookupLadder(job);
+        if (existingLadder == null) {
+            logger.info("no earlier output of {}, the ladder is encoded in full", job.getContentId());
+        }
+        return existingLadder;
+    }
+
+    /** @return the rungs of the ladder whose height isn't encoded yet, lowest first */
+    private static List<VideoConfig> missingRungs(List<VideoConfig> encodedRungs, List<VideoConfig> videoProfile) {
+        Set<Integer> encodedHeights = new HashSet<>();
+        for (VideoConfig videoConfig : encodedRungs) {
+            encodedHeights.add(videoConfig.height);
+        }
+        List<VideoConfig> missing = new ArrayList<>();
+        for (VideoConfig videoConfig : videoProfile) {
+            if (!encodedHeights.contains(videoConfig.height)) {
+                missing.add(videoConfig);
+            }
+        }
+        return missing;
+    }
+
+    private String indexKey(PackagingJob job) {
+        try {
+            return outputIndex.key(job);
+        } catch (IOException e) {
+            logger.warn("fingerprinting {} failed, the output index is skipped: {}", job.getInputPath(), e.getMessage());
+            return null;
+        }
+    }
+
+    private HttpInput getHttpInput(PackagingJob job) throws BitmovinException {
+        if (resourceCache == null) {
+            return createHttpInput(job.getHttpInputHost());
+        }
+        return resourceCache.getHttpInput(job.getHttpInputHost(), () -> createHttpInput(job.getHttpInputHost()));
+    }
+
+    private Output getS3Output(PackagingJob job) throws BitmovinException {
+        if (resourceCache == null) {
+            return createS3Output(job.getS3OutputBucketName(), job.getS3OutputAccessKey(), job.getS3OutputSecretKey());
+        }
+        return resourceCache.getS3Output(
+                job.getS3OutputBucketName(),
+                job.getS3OutputAccessKey(),
+                () -> createS3Output(job.getS3OutputBucketName(), job.getS3OutputAccessKey(), job.getS3OutputSecretKey()));
+    }
+
+    /**
+     * Copies the ladder, so sorting it and writing the bitrates doesn't touch the profile of the
+     * job, which may be shared with other jobs. The rungs get 800 kbit/s per position, from the
+     * lowest to the highest resolution.
+     */
+    static List<VideoConfig> copyOf(List<VideoConfig> videoProfile) {
+        List<VideoConfig> copy = new ArrayList<>(videoProfile.size());
+        for (VideoConfig videoConfig : videoProfile) {
+            copy.add(videoConfig.track == null
+                    ? new VideoConfig(videoConfig.height)
+                    : new VideoConfig(videoConfig.track, videoConfig.height));
+        }
+        Collections.sort(copy);
+        int i = 1;
+        for (VideoConfig videoConfig : copy) {
+            videoConfig.bitrate = i++ * 800_000L;
+        }
+        return copy;
+    }
+
+    /**
+     * Splits the sorted ladder at the split heights of the job. Bitmovin generates the manifests of
+     * a single encoding only, so the ladder is only split if the manifests are written locally.
+     *
+     * @return the consecutive parts of the ladder, lowest first; the whole ladder if it isn't split
+     */
+    private List<List<VideoConfig>> splitLadder(PackagingJob job, List<VideoConfig> videoProfile) {
+        if (job.getSplitLadderAt().isEmpty()) {
+            return Collections.singletonList(videoProfile);
+        }
+        if (manifestWriter == null || job.getSourceDuration() <= 0) {
+            logger.warn("the ladder of {} is encoded at once, a split ladder needs local manifests and the source duration",
+                    job.getContentId());
+            return Collections.singletonList(videoProfile);
+        }
+        List<Integer> heights = new ArrayList<>(job.getSplitLadderAt());
+        Collections.sort(heights);
+        List<List<VideoConfig>> parts = new ArrayList<>();
+        int from = 0;
+        for (int height : heights) {
+            int to = from;
+            while (to < videoProfile.size() && videoProfile.get(to).height <= height) {
+                to++;
+            }
+            if (to > from) {
+                parts.add(videoProfile.subList(from, to));
+                from = to;
+            }
+        }
+        if (from < videoProfile.size()) {
+            parts.add(videoProfile.subList(from, videoProfile.size()));
+        }
+        return parts;
+    }
+
+    /**
+     * Sets up one encoding per part of the ladder, the first one also encodes the audio. The video
+     * renditions keep the folders of the whole ladder, so the manifests don't depend on the split.
+     */
+    private List<Encoding> createSplitEncodings(
+            PackagingJob job, HttpInput input, Output output, List<List<VideoConfig>> parts, int firstRendition,
+            List<AudioConfig> audioProfile, DrmKeys drmKeys
+    ) throws Exception {
+        List<Encoding> encodings = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            Encoding encoding = createEncoding(job.getName() + " (" + (i + 1) + "/" + parts.size() + ")", job.getDescription());
+            createDrmConfig(job, encoding, input, output, parts.get(i), firstRendition,
+                    i == 0 ? audioProfile : Collections.<AudioConfig>emptyList(), drmKeys);
+            firstRendition += parts.get(i).size();
+            encodings.add(encoding);
+        }
+        return encodings;
+    }
+
+    /** @return the renditions in the output folders {@link #createDrmConfig} writes them to */
+    private static List<LocalManifestWriter.Rendition> renditions(List<VideoConfig> videoProfile, List<AudioConfig> audioProfile) {
+        List<LocalManifestWriter.Rendition> renditions = new ArrayList<>();
+        int i = 1;
+        for (VideoConfig videoConfig : videoProfile) {
+            renditions.add(new LocalManifestWriter.Rendition(
+                    "video/" + i++, true, videoConfig.bitrate, videoConfig.width, videoConfig.height, videoConfig.track));
+        }
+        for (AudioConfig audioConfig : audioProfile) {
+            renditions.add(new LocalManifestWriter.Rendition("audio", false, AAC_BITRATE, 0, 0, audioConfig.track));
+        }
+        return renditions;
+    }
+
+    /**
+     * Requests the keys for the DRM type of the job from PallyCon KMS. The DASH key info provides
+     * the Widevine and PlayReady data, the HLS key info the FairPlay data. CBCS needs both.
+     *
+     * @param job
+     * @param videoProfile
+     * @param audioProfile
+     * @return
+     * @throws Exception
+     */
+    private DrmKeys fetchKeys(PackagingJob job, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile)
+            throws Exception {
+        return fetchKeys(kmsClient, job, videoProfile, audioProfile);
+    }
+
+    /** Requests the keys with the given client, see {@link KeyPrefetcher} */
+    static DrmKeys fetchKeys(KmsClient kmsClient, PackagingJob job, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile)
+            throws Exception {
+        CpixDTO dashCpixDTO = null;
+        CpixDTO hlsCpixDTO = null;
+        if (job.getDrmType() == DrmType.DASH || job.getDrmType() == DrmType.CBCS) {
+            dashCpixDTO = kmsClient.getDashKeyInfo(job.getPallyconEncToken(), job.getContentId(), videoProfile, audioProfile);
+        }
+        if (job.getDrmType() == DrmType.HLS || job.getDrmType() == DrmType.CBCS) {
+            hlsCpixDTO = kmsClient.getHlsKeyInfo(job.getPallyconEncToken(), job.getContentId(), videoProfile, audioProfile);
+        }
+        return new DrmKeys(dashCpixDTO, hlsCpixDTO);
+    }
+
+
+    /**
+     * Configure encoding by video and audio track type for the DRM type of the job
+     *
+     * @param job
+     * @param encoding
+     * @param input
+     * @param output
+     * @param videoProfile sorted copy of the job's video profile
+     * @param audioProfile
+     * @param drmKeys
+     * @throws Exception
+     */
+    void createDrmConfig(
+            PackagingJob job, Encoding encoding, HttpInput input, Output output, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile, DrmKeys drmKeys
+    ) throws Exception {
+        createDrmConfig(job, encoding, input, output, videoProfile, 1, audioProfile, drmKeys);
+    }
+
+    /** @param firstRendition Number of the output folder of the first rung, video/&lt;firstRendition&gt; */
+    private void createDrmConfig(
+            PackagingJob job, Encoding encoding, HttpInput input, Output output, List<VideoConfig> videoProfile, int firstRendition,
+            List<AudioConfig> audioProfile, DrmKeys drmKeys
+    ) throws Exception {
+
+        // with ingest input streams, all renditions of a source track read the same input stream
+        String videoInputStreamId = null;
+        String audioInputStreamId = null;
+        if (job.isIngestInputStreams()) {
+            if (!videoProfile.isEmpty()) {
+                videoInputStreamId = createIngestInputStream(encoding, input, job.getInputPath(), StreamSelectionMode.VIDEO_RELATIVE).getId();
+            }
+            if (!audioProfile.isEmpty()) {
+                audioInputStreamId = createIngestInputStream(encoding, input, job.getInputPath(), StreamSelectionMode.AUDIO_RELATIVE).getId();
+            }
+        }
+
+        int i = firstRendition;
+        for (VideoConfig videoConfig : videoProfile) {
+
+            H264VideoConfiguration h264Config = createH264VideoConfig(videoConfig.height, videoConfig.width, videoConfig.bitrate);
+
+            Stream videoStream = createStream(encoding, input, job.getInputPath(), videoInputStreamId, h264Config);
+            Muxing videoMuxing = createMuxing(job, encoding, videoStream, job.getCmafFrameRate());
+
+            attachDrm(job, videoConfig.track, drmKeys, encoding, videoMuxing, output, "video/" + i);
+
+            i++;
+        }
+
+
+        for (AudioConfig audioConfig : audioProfile) {
+            AacAudioConfiguration aacConfig = createAacAudioConfig();
+
+            Stream audioStream = createStream(encoding, input, job.getInputPath(), audioInputStreamId, aacConfig);
+            Muxing audioMuxing = createMuxing(job, encoding, audioStream, AAC_FRAME_RATE);
+
+            attachDrm(job, audioConfig.track, drmKeys, encoding, audioMuxing, output, "audio");
+        }
+
+    }
+
+    private Drm attachDrm(PackagingJob job, String track, DrmKeys drmKeys, Encoding encoding, Muxing muxing, Output output, String outputPath)
+            throws BitmovinException {
+        switch (job.getDrmType()) {
+            case DASH:
+                return encodingDrmConfigCencDash(job, track, drmKeys.getDash(), encoding, muxing, output, outputPath);
+            case HLS:
+                return encodingDrmConfigHls(job, track, drmKeys.getHls(), encoding, muxing, output, outputPath);
+            default:
+                return encodingDrmConfigCbcs(job, track, drmKeys.getDash(), drmKeys.getHls(), encoding, muxing, output, outputPath);
+        }
+    }
+
+    /**
+     * The CPIX key info carries complete pssh boxes, Bitmovin expects the Widevine data only. The
+     * box is read in place, the data is base64 encoded without intermediate hex strings.
+     */
+    private static String widevinePsshData(DrmSystemDTO drmSystemDTO) {
+        return PsshBox.read(Base64.getDecoder().decode(drmSystemDTO.getPssh())).encodeData();
+    }
+
+
+
+    /**
+     * Adds an MPEG-CENC DRM configuration to the muxing to encrypt its output. Widevine and PlayRead
+     * specific fields will be included into DASH manifests to enable key retrieval using
+     * either DRM method.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/PostEncodingEncodingsMuxingsFmp4DrmCencByEncodingIdAndMuxingId
+     *
+     * @param job
+     * @param track
+     * @param cpixDTO
+     * @param encoding The encoding to which the muxing belongs to
+     * @param muxing The muxing to apply the encryption to
+     * @param output The output resource to which the encrypted segments will be written to
+     * @param outputPath The output path where the encrypted segments will be written to
+     */
+    private CencDrm encodingDrmConfigCencDash(PackagingJob job, String track, CpixDTO cpixDTO, Encoding encoding, Muxing muxing, Output output, String outputPath) throws BitmovinException {
+        CencDrm cencDrm = new CencDrm();
+        CencWidevine widevineDrm = new CencWidevine();
+        CencPlayReady playReadyDrm = new CencPlayReady();
+        try{
+
+            ContentKeyUsageRuleDTO contentKeyUsageRuleDTO =  cpixDTO.getContentKeyUsageRuleDTO(track);
+
+
+            String kid = contentKeyUsageRuleDTO.getKid();
+            DrmSystemDTO drmSystemDTOWidevine = cpixDTO.getDrmSystemDTO(DRMSystemId.WIDEVINE , kid);
+            DrmSystemDTO drmSystemDTOPlayready = cpixDTO.getDrmSystemDTO(DRMSystemId.PLAYREADY , kid);
+
+            if ( drmSystemDTOWidevine == null && drmSystemDTOPlayready == null ) {
+                return null;
+            }
+
+            ContentKeyDTO contentKeyDTO = cpixDTO.getContentKeyDTO(kid);
+
+
+            // DRMSystemList > DRMSystem kid
+            String cencDrmKid = contentKeyDTO.getKid().replaceAll("\\-","");;
+
+            // ContentKeyList > ContentKey > Secret > PlainValue => base64 decode > hex
+            String cencDrmKey =  StringUtil.byteArrayToHex(Base64Encoder.decode(contentKeyDTO.getData().getSecret().getPlainValue()));
+
+            // DRMSystemList > DRMSystem > pssh  => the data of the pssh box
+            String cencDrmWidevinePssh = widevinePsshData(drmSystemDTOWidevine);
+
+            // DRMSystemList > DRMSystem > ContentProtectionData
+            String cencDrmPlayReadyPssh = drmSystemDTOPlayready.getContentProtectionData();
+
+
+
+            cencDrm.addOutputsItem(buildEncodingOutput(job, output, outputPath));
+
+            cencDrm.setKid(cencDrmKid);
+            cencDrm.setKey(cencDrmKey);
+
+            widevineDrm.setPssh(cencDrmWidevinePssh);
+            cencDrm.setWidevine(widevineDrm);
+
+
+            playReadyDrm.setPssh(cencDrmPlayReadyPssh);
+            cencDrm.setPlayReady(playReadyDrm);
+
+
+        }catch (Exception e){
+            throw new BitmovinException(e.getMessage());
+        }
+        return createCencDrm(encoding, muxing, cencDrm);
+    }
+
+
+
+    /**
+     * HLS encryption for the muxing type of the job. fMP4 muxings use a FairPlayDrm, CMAF muxings
+     * don't support it and are encrypted with a CBCS CencDrm carrying the FairPlay fields instead.
+     *
+     * @param job
+     * @param track
+     * @param cpixDTO
+     * @param encoding The encoding to which the muxing belongs to
+     * @param muxing The muxing to apply the encryption to
+     * @param output The output resource to which the encrypted segments will be written to
+     * @param outputPath The output path where the encrypted segments will be written to
+     */
+    private Drm encodingDrmConfigHls(PackagingJob job, String track, CpixDTO cpixDTO, Encoding encoding, Muxing muxing, Output output, String outputPath) throws BitmovinException {
+        if (muxing instanceof CmafMuxing) {
+            return encodingDrmConfigCencFairPlay(job, track, cpixDTO, encoding, muxing, output, outputPath);
+        }
+        return encodingDrmConfigFairPlay(job, track, cpixDTO, encoding, muxing, output, outputPath);
+    }
+
+
+
+    /**
+     * Adds an MPEG-CENC DRM configuration in CBCS mode (AES-CBC pattern encryption) with FairPlay
+     * specific fields to the muxing, so the encrypted segments can be referenced by HLS manifests.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/PostEncodingEncodingsMuxingsCmafDrmCencByEncodingIdAndMuxingId
+     *
+     * @param job
+     * @param track
+     * @param cpixDTO
+     * @param encoding The encoding to which the muxing belongs to
+     * @param muxing The muxing to apply the encryption to
+     * @param output The output resource to which the encrypted segments will be written to
+     * @param outputPath The output path where the encrypted segments will be written to
+     */
+    private CencDrm encodingDrmConfigCencFairPlay(PackagingJob job, String track, CpixDTO cpixDTO, Encoding encoding, Muxing muxing, Output output, String outputPath) throws BitmovinException {
+        CencDrm cencDrm = new CencDrm();
+        CencFairPlay cencFairPlay = new CencFairPlay();
+        try{
+
+            ContentKeyUsageRuleDTO contentKeyUsageRuleDTO = cpixDTO.getContentKeyUsageRuleDTO(track);
+
+            String kid = contentKeyUsageRuleDTO.getKid();
+            DrmSystemDTO drmSystemDTO = cpixDTO.getDrmSystemDTO(DRMSystemId.FAIRPLAY , kid);
+
+            if ( drmSystemDTO == null ) {
+                return null;
+            }
+
+            ContentKeyDTO contentKeyDTO = cpixDTO.getContentKeyDTO(kid);
+
+
+            cencDrm.addOutputsItem(buildEncodingOutput(job, output, outputPath));
+
+            cencDrm.setEncryptionMode(EncryptionMode.CBC);
+            cencDrm.setKid(contentKeyDTO.getKid().replaceAll("\\-",""));
+            cencDrm.setKey(StringUtil.byteArrayToHex(Base64Encoder.decode(contentKeyDTO.getData().getSecret().getPlainValue())));
+
+            cencFairPlay.setIv(StringUtil.byteArrayToHex(Base64Encoder.decode(contentKeyDTO.getExplicitIV())));
+            cencFairPlay.setUri(drmSystemDTO.getFairPlayDrmUri(drmSystemDTO.getHlsSignalingData()));
+            cencDrm.setFairPlay(cencFairPlay);
+
+
+        }catch (Exception e){
+            throw new BitmovinException(e.getMessage());
+        }
+        return createCencDrm(encoding, muxing, cencDrm);
+    }
+
+
+
+    /**
+     * Adds an MPEG-CENC DRM configuration in CBCS mode (AES-CBC pattern encryption) to the muxing,
+     * carrying Widevine, PlayReady and FairPlay specific fields. The segments are encrypted once and
+     * can be referenced by both DASH and HLS manifests.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/PostEncodingEncodingsMuxingsFmp4DrmCencByEncodingIdAndMuxingId
+     *
+     * @param job
+     * @param track
+     * @param cpixDTO DASH key info providing the Widevine and PlayReady data
+     * @param fairPlayCpixDTO HLS key info providing the FairPlay data
+     * @param encoding The encoding to which the muxing belongs to
+     * @param muxing The muxing to apply the encryption to
+     * @param output The output resource to which the encrypted segments will be written to
+     * @param outputPath The output path where the encrypted segments will be written to
+     */
+    private CencDrm encodingDrmConfigCbcs(PackagingJob job, String track, CpixDTO cpixDTO, CpixDTO fairPlayCpixDTO, Encoding encoding, Muxing muxing, Output output, String outputPath) throws BitmovinException {
+        CencDrm cencDrm = new CencDrm();
+        CencWidevine widevineDrm = new CencWidevine();
+        CencPlayReady playReadyDrm = new CencPlayReady();
+        CencFairPlay cencFairPlay = new CencFairPlay();
+        try{
+
+            String kid = cpixDTO.getContentKeyUsageRuleDTO(track).getKid();
+            String fairPlayKid = fairPlayCpixDTO.getContentKeyUsageRuleDTO(track).getKid();
+
+            // one encryption for all DRM systems requires one content key
+            if ( !kid.equals(fairPlayKid) ) {
+                throw new IllegalStateException(
+                        String.format("CBCS needs the same key for all DRM systems, track %s has kid %s (DASH) and %s (HLS)", track, kid, fairPlayKid));
+            }
+
+            DrmSystemDTO drmSystemDTOWidevine = cpixDTO.getDrmSystemDTO(DRMSystemId.WIDEVINE , kid);
+            DrmSystemDTO drmSystemDTOPlayready = cpixDTO.getDrmSystemDTO(DRMSystemId.PLAYREADY , kid);
+            DrmSystemDTO drmSystemDTOFairPlay = fairPlayCpixDTO.getDrmSystemDTO(DRMSystemId.FAIRPLAY , kid);
+
+            if ( drmSystemDTOWidevine == null && drmSystemDTOPlayready == null && drmSystemDTOFairPlay == null ) {
+                return null;
+            }
+
+            ContentKeyDTO contentKeyDTO = cpixDTO.getContentKeyDTO(kid);
+            ContentKeyDTO fairPlayContentKeyDTO = fairPlayCpixDTO.getContentKeyDTO(kid);
+
+
+            cencDrm.addOutputsItem(buildEncodingOutput(job, output, outputPath));
+
+            cencDrm.setEncryptionMode(EncryptionMode.CBC);
+            cencDrm.setKid(contentKeyDTO.getKid().replaceAll("\\-",""));
+            cencDrm.setKey(StringUtil.byteArrayToHex(Base64Encoder.decode(contentKeyDTO.getData().getSecret().getPlainValue())));
+
+            if ( drmSystemDTOWidevine != null ) {
+                widevineDrm.setPssh(widevinePsshData(drmSystemDTOWidevine));
+                cencDrm.setWidevine(widevineDrm);
+            }
+
+            if ( drmSystemDTOPlayready != null ) {
+                playReadyDrm.setPssh(drmSystemDTOPlayready.getContentProtectionData());
+                cencDrm.setPlayReady(playReadyDrm);
+            }
+
+            if ( drmSystemDTOFairPlay != null ) {
+                // <ContentKey explicitIV= >   base64 decode > hex
+                cencFairPlay.setIv(StringUtil.byteArrayToHex(Base64Encoder.decode(fairPlayContentKeyDTO.getExplicitIV())));
+                cencFairPlay.setUri(drmSystemDTOFairPlay.getFairPlayDrmUri(drmSystemDTOFairPlay.getHlsSignalingData()));
+                cencDrm.setFairPlay(cencFairPlay);
+            }
+
+
+        }catch (Exception e){
+            throw new BitmovinException(e.getMessage());
+        }
+        return createCencDrm(encoding, muxing, cencDrm);
+    }
+
+
+
+    /**
+     * Creates the CENC DRM resource on the endpoint matching the muxing type
+     *
+     * <p>API endpoints:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/PostEncodingEncodingsMuxingsFmp4DrmCencByEncodingIdAndMuxingId
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/PostEncodingEncodingsMuxingsCmafDrmCencByEncodingIdAndMuxingId
+     */
+    private CencDrm createCencDrm(Encoding encoding, Muxing muxing, CencDrm cencDrm) throws BitmovinException {
+        if (muxing instanceof CmafMuxing) {
+            return bitmovinApi.encoding.encodings.muxings.cmaf.drm.cenc.create(
+                    encoding.getId(), muxing.getId(), cencDrm);
+        }
+        return bitmovinApi.encoding.encodings.muxings.fmp4.drm.cenc.create(
+                encoding.getId(), muxing.getId(), cencDrm);
+    }
+
+
+
+    /**
+     * Adds an HLS DRM configuration to the muxing to encrypt its output. FairPlay
+     * specific fields will be included into HLS manifests to enable key retrieval using
+     * either DRM method.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/PostEncodingEncodingsMuxingsFmp4DrmCencByEncodingIdAndMuxingId
+     *
+     * @param job
+     * @param track
+     * @param cpixDTO
+     * @param encoding The encoding to which the muxing belongs to
+     * @param muxing The muxing to apply the encryption to
+     * @param output The output resource to which the encrypted segments will be written to
+     * @param outputPath The output path where the encrypted segments will be written to
+     */
+    private FairPlayDrm encodingDrmConfigFairPlay(PackagingJob job, String track, CpixDTO cpixDTO, Encoding encoding, Muxing muxing, Output output, String outputPath) throws BitmovinException {
+        FairPlayDrm fairPlayDrm = new FairPlayDrm();
+        try{
+
+            ContentKeyUsageRuleDTO contentKeyUsageRuleDTO = cpixDTO.getContentKeyUsageRuleDTO(track);
+
+            String kid = contentKeyUsageRuleDTO.getKid();
+            DrmSystemDTO drmSystemDTO = cpixDTO.getDrmSystemDTO(DRMSystemId.FAIRPLAY , kid);
+
+            if ( drmSystemDTO == null ) {
+                return null;
+            }
+
+            ContentKeyDTO contentKeyDTO = cpixDTO.getContentKeyDTO(kid);
+
+
+            // <ContentKey explicitIV= >   base64 decode > hex
+            String fairPlayDrmIv = StringUtil.byteArrayToHex(Base64Encoder.decode(contentKeyDTO.getExplicitIV()));
+
+            // ContentKeyList > ContentKey > Secret > PlainValue => base64 decode > hex
+            String fairPlayDrmKey = StringUtil.byteArrayToHex(Base64Encoder.decode(contentKeyDTO.getData().getSecret().getPlainValue()));
+
+            // HLSSignalingData => base64 decode  => URI value
+            String fairPlayDrmUri = drmSystemDTO.getFairPlayDrmUri(drmSystemDTO.getHlsSignalingData());
+
+
+            fairPlayDrm.addOutputsItem(buildEncodingOutput(job, output, outputPath));
+
+            fairPlayDrm.setIv(fairPlayDrmIv);
+            fairPlayDrm.setKey(fairPlayDrmKey);
+            fairPlayDrm.setUri(fairPlayDrmUri);
+
+
+        }catch (Exception e){
+            throw new BitmovinException(e.getMessage());
+        }
+        return bitmovinApi.encoding.encodings.muxings.fmp4.drm.fairplay.create(
+                encoding.getId(), muxing.getId(), fairPlayDrm);
+    }
+
+
+
+    /**
+     * Creates an Encoding object. This is the base object to configure your encoding.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/PostEncodingEncodings
+     *
+     * @param name A name that will help you identify the encoding in our dashboard (required)
+     * @param description A description of the encoding (optional)
+     */
+    private Encoding createEncoding(String name, String description) throws BitmovinException {
+        Encoding encoding = new Encoding();
+        encoding.setName(name);
+        encoding.setDescription(description);
+        encoding.setEncoderVersion("2.39.0");
+
+        return bitmovinApi.encoding.encodings.create(encoding);
+    }
+
+    /**
+     * Adds a video or audio stream to an encoding
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/PostEncodingEncodingsStreamsByEncodingId
+     *
+     * @param encoding The encoding to which the stream will be added
+     * @param input The input resource providing the input file
+     * @param inputPath The path to the input file
+     * @param inputStreamId The ingest input stream to read, or null to select the input file with
+     *     {@link StreamSelectionMode#AUTO}
+     * @param codecConfiguration The codec configuration to be applied to the stream
+     */
+    private Stream createStream(
+            Encoding encoding, Input input, String inputPath, String inputStreamId, CodecConfiguration codecConfiguration)
+            throws BitmovinException {
+        StreamInput streamInput = new StreamInput();
+        if (inputStreamId != null) {
+            streamInput.setInputStreamId(inputStreamId);
+        } else {
+            streamInput.setInputId(input.getId());
+            streamInput.setInputPath(inputPath);
+            streamInput.setSelectionMode(StreamSelectionMode.AUTO);
+        }
+
+        Stream stream = new Stream();
+        stream.addInputStreamsItem(streamInput);
+        stream.setCodecConfigId(codecConfiguration.getId());
+        stream.setMode(StreamMode.STANDARD);
+
+        return bitmovinApi.encoding.encodings.streams.create(encoding.getId(), stream);
+    }
+
+    /**
+     * Creates an ingest input stream, the first track of the given kind of the input file. Streams
+     * which reference it instead of the file share one fetch and analysis of the input by the
+     * encoder, instead of resolving the input again for every rendition.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/PostEncodingEncodingsInputStreamsIngestByEncodingId
+     *
+     * @param encoding The encoding the input stream belongs to
+     * @param input The input resource providing the input file
+     * @param inputPath The path to the input file
+     * @param selectionMode VIDEO_RELATIVE or AUDIO_RELATIVE
+     */
+    private IngestInputStream createIngestInputStream(
+            Encoding encoding, Input input, String inputPath, StreamSelectionMode selectionMode)
+            throws BitmovinException {
+        IngestInputStream ingestInputStream = new IngestInputStream();
+        ingestInputStream.setInputId(input.getId());
+        ingestInputStream.setInputPath(inputPath);
+        ingestInputStream.setSelectionMode(selectionMode);
+        ingestInputStream.setPosition(0);
+
+        return bitmovinApi.encoding.encodings.inputStreams.ingest.create(encoding.getId(), ingestInputStream);
+    }
+
+    /**
+     * Creates a resource representing an AWS S3 cloud storage bucket to which generated content will
+     * be transferred. For alternative output methods see <a
+     * href="https://bitmovin.com/docs/encoding/articles/supported-input-output-storages">list of
+     * supported input and output storages</a>
+     *
+     * <p>The provided credentials need to allow <i>read</i>, <i>write</i> and <i>list</i> operations.
+     * <i>delete</i> should also be granted to allow overwriting of existings files. See <a
+     * href="https://bitmovin.com/docs/encoding/faqs/how-do-i-create-a-aws-s3-bucket-which-can-be-used-as-output-location">creating
+     * an S3 bucket and setting permissions</a> for further information
+     *
+     * <p>For reasons of simplicity, a new output resource is created on each execution of this
+     * example. In production use, this method should be replaced by a <a
+     * href="https://bitmovin.com/docs/encoding/api-reference/sections/outputs#/Encoding/GetEncodingOutputsS3">get
+     * call</a> retrieving an existing resource.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/outputs#/Encoding/PostEncodingOutputsS3
+     *
+     * @param bucketName The name of the S3 bucket
+     * @param accessKey The access key of your S3 account
+     * @param secretKey The secret key of your S3 account
+     */
+    private S3Output createS3Output(String bucketName, String accessKey, String secretKey)
+            throws BitmovinException {
+        S3Output s3Output = new S3Output();
+        s3Output.setBucketName(bucketName);
+        s3Output.setAccessKey(accessKey);
+        s3Output.setSecretKey(secretKey);
+
+        return bitmovinApi.encoding.outputs.s3.create(s3Output);
+    }
+
+    /**
+     * Creates a resource representing an HTTP server providing the input files. For alternative input
+     * methods see <a
+     * href="https://bitmovin.com/docs/encoding/articles/supported-input-output-storages">list of
+     * supported input and output storages</a>
+     *
+     * <p>For reasons of simplicity, a new input resource is created on each execution of this
+     * example. In production use, this method should be replaced by a <a
+     * href="https://bitmovin.com/docs/encoding/api-reference/sections/inputs#/Encoding/GetEncodingInputsHttpByInputId">get
+     * call</a> to retrieve an existing resource.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/inputs#/Encoding/PostEncodingInputsHttp
+     *
+     * @param host The hostname or IP address of the HTTP server e.g.: my-storage.biz
+     */
+    private HttpInput createHttpInput(String host) throws BitmovinException {
+        HttpInput input = new HttpInput();
+        input.setHost(host);
+
+        return bitmovinApi.encoding.inputs.http.create(input);
+    }
+
+    /**
+     * Creates a muxing of the muxing type of the job (fMP4 or CMAF)
+     *
+     * @param job
+     * @param encoding The encoding to which the muxing will be added
+     * @param stream The stream to be muxed
+     * @param frameRate Frames per second of the stream, used to size the CMAF chunks
+     */
+    private Muxing createMuxing(PackagingJob job, Encoding encoding, Stream stream, double frameRate)
+            throws BitmovinException {
+        if (job.getMuxingType() == MuxingType.CMAF) {
+            int framesPerChunk = Math.max(1, (int) Math.round(job.getCmafChunkDuration() * frameRate));
+            return createCmafMuxing(encoding, stream, job.getSegmentLength(), framesPerChunk);
+        }
+        return createFmp4Muxing(encoding, stream, job.getSegmentLength());
+    }
+
+    /**
+     * Creates a CMAF muxing. Like the fMP4 muxing it splits the output into segments of the
+     * configured length, but every segment is additionally split into chunks of the given number of
+     * frames (one moof/mdat pair each), which players can fetch before the segment is complete. As
+     * with the fMP4 muxing, no output is defined here, it is set on the DRM configuration.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/PostEncodingEncodingsMuxingsCmafByEncodingId
+     *
+     * @param encoding The encoding to which the muxing will be added
+     * @param stream The stream to be muxed
+     * @param segmentLength The segment length in seconds
+     * @param framesPerChunk Number of frames per CMAF chunk
+     */
+    private CmafMuxing createCmafMuxing(Encoding encoding, Stream stream, double segmentLength, int framesPerChunk)
+            throws BitmovinException {
+        CmafMuxing muxing = new CmafMuxing();
+        muxing.setSegmentLength(segmentLength);
+        muxing.setFramesPerCmafChunk(framesPerChunk);
+        muxing.setInitSegmentName(LocalManifestWriter.INIT_SEGMENT_NAME);
+        muxing.setSegmentNaming(LocalManifestWriter.SEGMENT_NAMING);
+
+        MuxingStream muxingStream = new MuxingStream();
+        muxingStream.setStreamId(stream.getId());
+        muxing.addStreamsItem(muxingStream);
+
+        return bitmovinApi.encoding.encodings.muxings.cmaf.create(encoding.getId(), muxing);
+    }
+
+    /**
+     * Creates a fragmented MP4 muxing. This will split the output into continuously numbered segments
+     * of a given length for adaptive streaming. However, the unencrypted segments will not be written
+     * to a permanent storage as there's no output defined for the muxing. Instead, an output needs to
+     * be defined for the DRM configuration resource which will later be added to this muxing.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/all#/Encoding/PostEncodingEncodingsMuxingsFmp4ByEncodingId
+     *
+     * @param encoding The encoding to which the muxing will be added
+     * @param stream The stream to be muxed
+     * @param segmentLength The segment length in seconds
+     */
+    private Fmp4Muxing createFmp4Muxing(Encoding encoding, Stream stream, double segmentLength)
+            throws BitmovinException {
+        Fmp4Muxing muxing = new Fmp4Muxing();
+        muxing.setSegmentLength(segmentLength);
+        muxing.setInitSegmentName(LocalManifestWriter.INIT_SEGMENT_NAME);
+        muxing.setSegmentNaming(LocalManifestWriter.SEGMENT_NAMING);
+
+        MuxingStream muxingStream = new MuxingStream();
+        muxingStream.setStreamId(stream.getId());
+        muxing.addStreamsItem(muxingStream);
+
+        return bitmovinApi.encoding.encodings.muxings.fmp4.create(encoding.getId(), muxing);
+    }
+
+    /**
+     * Builds an EncodingOutput object which defines where the output content (e.g. of a muxing) will
+     * be written to. Public read permissions will be set for the files written, so they can be
+     * accessed easily via HTTP.
+     *
+     * @param job The job whose output base path is used
+     * @param output The output resource to be used by the EncodingOutput
+     * @param outputPath The path where the content will be written to
+     */
+    private static EncodingOutput buildEncodingOutput(PackagingJob job, Output output, String outputPath) {
+        AclEntry aclEntry = new AclEntry();
+        aclEntry.setPermission(AclPermission.PUBLIC_READ);
+
+        EncodingOutput encodingOutput = new EncodingOutput();
+        encodingOutput.setOutputPath(buildAbsolutePath(job, outputPath));
+        encodingOutput.setOutputId(output.getId());
+        encodingOutput.addAclItem(aclEntry);
+        return encodingOutput;
+    }
+
+    /**
+     * Builds an absolute path by concatenating the output base path of the job and the given
+     * relative path
+     *
+     * <p>e.g.: /s3/base/path/ClassName/relative/path
+     *
+     * @param job The job whose output base path is used
+     * @param relativePath The relative path that is concatenated
+     * @return The absolute path
+     */
+    public static String buildAbsolutePath(PackagingJob job, String relativePath) {
+        return (Paths.get(job.getOutputBasePath(), relativePath).toString()).replaceAll("\\\\", "/"); // fix window server
+    }
+
+    private H264VideoConfiguration createH264VideoConfig(int height, int width, long bitrate)
+            throws BitmovinException {
+        H264VideoConfiguration config = new H264VideoConfiguration();
+        config.setName(String.format("H.264 %dp vod", height));
+        config.setPresetConfiguration(PresetConfiguration.VOD_STANDARD);
+        config.setBitrate(bitrate);
+        config.setHeight(height);
+        config.setWidth(width);
+
+        return bitmovinApi.encoding.configurations.video.h264.create(config);
+    }
+
+
+    /**
+     * Creates a configuration for the AAC audio codec to be applied to audio streams.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/configurations#/Encoding/PostEncodingConfigurationsAudioAac
+     */
+    private AacAudioConfiguration createAacAudioConfig() throws BitmovinException {
+        AacAudioConfiguration config = new AacAudioConfiguration();
+        config.setName("AAC 128 kbit/s");
+        config.setBitrate(AAC_BITRATE);
+
+        return bitmovinApi.encoding.configurations.audio.aac.create(config);
+    }
+
+    /**
+     * Starts the actual encoding process and waits until it reaches a final state. The status is
+     * polled by the shared {@link EncodingStatusPoller}, which checks all running encodings in bulk.
+     *
+     * <p>API endpoints:
+     * https://bitmovin.com/docs/encoding/api-reference/all#/Encoding/PostEncodingEncodingsStartByEncodingId
+     * https://bitmovin.com/docs/encoding/api-reference/sections/encodings#/Encoding/GetEncodingEncodingsStatusByEncodingId
+     *
+     * <p>Please note that you can also use our webhooks API instead of polling the status. For more
+     * information consult the API spec:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/notifications-webhooks
+     *
+     * <p>With a slot scheduler, the encoding is only started once a slot was assigned to the job
+     * and the slot is held until the encoding finished. With a stall watchdog, the encoding is
+     * watched while it runs.
+     *
+     * @param job The job the encoding belongs to
+     * @param encoding The encoding to be started
+     * @param videoProfile The rungs of the encoding, they set its expected duration for the watchdog
+     * @param checkpoint Records the id of the started encoding
+     * @param start false to only await an encoding which was started by an earlier attempt
+     */
+    private void executeEncoding(
+            PackagingJob job, Encoding encoding, List<VideoConfig> videoProfile, PackagingCheckpoint checkpoint, boolean start
+    ) throws InterruptedException, BitmovinException, IOException {
+        Task task;
+        boolean stalled = false;
+        EncodingSlotScheduler.Slot slot = slotScheduler == null ? null : slotScheduler.acquire(job);
+        try {
+            if (start) {
+                bitmovinApi.encoding.encodings.start(encoding.getId(), new StartEncodingRequest());
+                checkpoint.record(PackagingCheckpoint.ENCODING_ID, encoding.getId());
+            }
+            if (stallWatchdog != null) {
+                stallWatchdog.watch(job, videoProfile, encoding.getId());
+            }
+            task = awaitTask(statusPoller.trackEncoding(encoding.getId()));
+        } finally {
+            if (stallWatchdog != null) {
+                stalled = stallWatchdog.unwatch(encoding.getId());
+            }
+            if (slot != null) {
+                slot.close();
+            }
+        }
+
+        if (stalled) {
+            throw new EncodingStalledException(encoding.getId());
+        }
+
+        if (task.getStatus() == Status.ERROR) {
+            logTaskErrors(task);
+            throw new RuntimeException("Encoding failed");
+        }
+        logger.info("encoding {} finished successfully", encoding.getId());
+    }
+
+    /**
+     * Sets up the encoding of the rungs and runs it. An encoding which the {@link StallWatchdog}
+     * stopped because it stalled is set up again with the same input, output and keys, as often as
+     * the watchdog allows.
+     *
+     * @param resubmits Number of stalled encodings the job already set up again
+     * @return the id of the encoding which finished
+     */
+    private String encodeWithResubmits(
+            PackagingJob job, HttpInput input, Output output, List<VideoConfig> videoProfile, int firstRendition,
+            List<AudioConfig> audioProfile, DrmKeys drmKeys, PackagingCheckpoint checkpoint, int resubmits
+    ) throws Exception {
+        while (true) {
+            Encoding encoding = createEncoding(job.getName(), job.getDescription());
+            createDrmConfig(job, encoding, input, output, videoProfile, firstRendition, audioProfile, drmKeys);
+            try {
+                executeEncoding(job, encoding, videoProfile, checkpoint, true);
+                return encoding.getId();
+            } catch (EncodingStalledException e) {
+                if (stallWatchdog == null || resubmits >= stallWatchdog.getMaxResubmits()) {
+                    throw e;
+                }
+                resubmits++;
+                logger.warn("setting up the stalled encoding {} of {} again ({}/{})",
+                        encoding.getId(), job.getContentId(), resubmits, stallWatchdog.getMaxResubmits());
+            }
+        }
+    }
+
+    /**
+     * Starts the encodings of a split ladder at once and waits until all of them finished. Encodings
+     * which an earlier attempt already started are only awaited. Each encoding takes its own slot.
+     * When one of them fails, the others are stopped, as the job fails without their output.
+     *
+     * @param job The job the encodings belong to
+     * @param encodings The encodings of the parts of the ladder
+     * @param parts The rungs of every encoding, in the same order
+     */
+    private void executeSplitEncodings(PackagingJob job, List<Encoding> encodings, List<List<VideoConfig>> parts)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(encodings.size());
+        try {
+            CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+            Map<Future<Void>, Encoding> unfinished = new HashMap<>();
+            for (int i = 0; i < encodings.size(); i++) {
+                Encoding encoding = encodings.get(i);
+                List<VideoConfig> part = parts.get(i);
+                Status status = bitmovinApi.encoding.encodings.status(encoding.getId()).getStatus();
+                boolean start = status == null || status == Status.CREATED;
+                unfinished.put(completionService.submit(() -> {
+                    executeEncoding(job, encoding, part, PackagingCheckpoint.NONE, start);
+                    return null;
+                }), encoding);
+            }
+            while (!unfinished.isEmpty()) {
+                Future<Void> future = completionService.take();
+                unfinished.remove(future);
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // no sibling may start its encoding after it was stopped
+                    executor.shutdownNow();
+                    stopEncodings(job, unfinished.values());
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Stops the encodings of a failed job; encodings which can't be stopped are left running */
+    private void stopEncodings(PackagingJob job, Collection<Encoding> encodings) {
+        for (Encoding encoding : encodings) {
+            try {
+                bitmovinApi.encoding.encodings.stop(encoding.getId());
+                logger.info("stopped encoding {} of {} after another part of the ladder failed", encoding.getId(), job.getContentId());
+            } catch (BitmovinException e) {
+                logger.warn("stopping encoding {} of {} failed: {}", encoding.getId(), job.getContentId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates an HLS default manifest that automatically includes all representations configured in
+     * the encoding.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/manifests#/Encoding/PostEncodingManifestsHlsDefault
+     *
+     * @param job The job whose output base path is used
+     * @param encodingId The encoding for which the manifest should be generated
+     * @param output The output to which the manifest should be written
+     * @param settings The name, version and path of the manifest
+     * @return The absolute path of the manifest
+     */
+    private String generateHlsManifest(PackagingJob job, String encodingId, Output output, ManifestSettings settings)
+            throws Exception {
+        HlsManifestDefault hlsManifestDefault = new HlsManifestDefault();
+        hlsManifestDefault.setEncodingId(encodingId);
+        hlsManifestDefault.addOutputsItem(buildEncodingOutput(job, output, settings.getOutputPath()));
+        hlsManifestDefault.setName(settings.getHlsManifestName());
+        hlsManifestDefault.setVersion(settings.getHlsManifestVersion());
+
+        hlsManifestDefault = bitmovinApi.encoding.manifests.hls.defaultapi.create(hlsManifestDefault);
+        executeHlsManifestCreation(hlsManifestDefault);
+        return buildAbsolutePath(job, settings.getOutputPath() + "/" + settings.getHlsManifestName());
+    }
+
+    /**
+     * Creates a DASH default manifest that automatically includes all representations configured in
+     * the encoding.
+     *
+     * <p>API endpoint:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/manifests#/Encoding/PostEncodingManifestsDash
+     *
+     * @param job The job whose output base path is used
+     * @param encodingId The encoding for which the manifest should be generated
+     * @param output The output to which the manifest should be written
+     * @param settings The name, version and path of the manifest
+     * @return The absolute path of the manifest
+     */
+    private String generateDashManifest(PackagingJob job, String encodingId, Output output, ManifestSettings settings)
+            throws Exception {
+        DashManifestDefault dashManifestDefault = new DashManifestDefault();
+        dashManifestDefault.setEncodingId(encodingId);
+        dashManifestDefault.setManifestName(settings.getDashManifestName());
+        dashManifestDefault.setVersion(settings.getDashManifestVersion());
+        dashManifestDefault.addOutputsItem(buildEncodingOutput(job, output, settings.getOutputPath()));
+        dashManifestDefault =
+                bitmovinApi.encoding.manifests.dash.defaultapi.create(dashManifestDefault);
+        executeDashManifestCreation(dashManifestDefault);
+        return buildAbsolutePath(job, settings.getOutputPath() + "/" + settings.getDashManifestName());
+    }
+
+    /**
+     * Starts the DASH manifest creation and waits until it reaches a final state
+     *
+     * <p>API endpoints:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/manifests#/Encoding/PostEncodingManifestsDashStartByManifestId
+     * https://bitmovin.com/docs/encoding/api-reference/sections/manifests#/Encoding/GetEncodingManifestsDashStatusByManifestId
+     *
+     * @param dashManifest The DASH manifest to be created
+     */
+    private void executeDashManifestCreation(DashManifest dashManifest)
+            throws BitmovinException, InterruptedException {
+        bitmovinApi.encoding.manifests.dash.start(dashManifest.getId());
+
+        Task task = awaitTask(statusPoller.trackDashManifest(dashManifest.getId()));
+
+        if (task.getStatus() == Status.ERROR) {
+            logTaskErrors(task);
+            throw new RuntimeException("DASH manifest creation failed");
+        }
+        logger.info("DASH manifest creation finished successfully");
+    }
+
+    /**
+     * Starts the HLS manifest creation and waits until it reaches a final state
+     *
+     * <p>API endpoints:
+     * https://bitmovin.com/docs/encoding/api-reference/sections/manifests#/Encoding/PostEncodingManifestsHlsStartByManifestId
+     * https://bitmovin.com/docs/encoding/api-reference/sections/manifests#/Encoding/GetEncodingManifestsHlsStatusByManifestId
+     *
+     * @param hlsManifest The HLS manifest to be created
+     */
+    private void executeHlsManifestCreation(HlsManifest hlsManifest)
+            throws BitmovinException, InterruptedException {
+
+        bitmovinApi.encoding.manifests.hls.start(hlsManifest.getId());
+
+        Task task = awaitTask(statusPoller.trackHlsManifest(hlsManifest.getId()));
+
+        if (task.getStatus() == Status.ERROR) {
+            logTaskErrors(task);
+            throw new RuntimeException("HLS manifest creation failed");
+        }
+        logger.info("HLS manifest creation finished successfully");
+    }
+
+    private static Task awaitTask(CompletableFuture<Task> future)
+            throws BitmovinException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new BitmovinException(e.getCause().getMessage());
+        }
+    }
+
+    private static void logTaskErrors(Task task) {
+        task.getMessages().stream()
+                .filter(msg -> msg.getType() == MessageType.ERROR)
+                .forEach(msg -> logger.error(msg.getText()));
+    }
+
+    /**
+     * The PallyCon key info a job is encrypted with. DASH holds the Widevine and PlayReady data, HLS
+     * the FairPlay data. Either one is null if the DRM type of the job doesn't need it.
+     */
+    public static class DrmKeys {
+        private final CpixDTO dash;
+        private final CpixDTO hls;
+
+        public DrmKeys(CpixDTO dash, CpixDTO hls) {
+            this.dash = dash;
+            this.hls = hls;
+        }
+
+        public CpixDTO getDash() {
+            return dash;
+        }
+
+        public CpixDTO getHls() {
+            return hls;
+        }
+    }
+}
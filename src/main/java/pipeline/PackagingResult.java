@@ -0,0 +1,70 @@
+package pipeline;
+
+/**
+ * Outcome of a {@link PackagingJob}: the Bitmovin resources which were used and the paths of the
+ * manifests which were written. Manifest paths are null if the DRM type of the job doesn't
+ * produce that manifest.
+ *
+ * <p>A reused result was taken from the {@link OutputIndex}: nothing was encoded, the paths point
+ * to the output of an earlier job with the same source and settings.
+ */
+public class PackagingResult {
+
+    private final PackagingJob job;
+    private final String encodingId;
+    private final String outputId;
+    private final String dashManifestPath;
+    private final String hlsManifestPath;
+    private final boolean reused;
+
+    public PackagingResult(
+            PackagingJob job, String encodingId, String outputId, String dashManifestPath, String hlsManifestPath) {
+        this(job, encodingId, outputId, dashManifestPath, hlsManifestPath, false);
+    }
+
+    public PackagingResult(
+            PackagingJob job,
+            String encodingId,
+            String outputId,
+            String dashManifestPath,
+            String hlsManifestPath,
+            boolean reused) {
+        this.job = job;
+        this.encodingId = encodingId;
+        this.outputId = outputId;
+        this.dashManifestPath = dashManifestPath;
+        this.hlsManifestPath = hlsManifestPath;
+        this.reused = reused;
+    }
+
+    public PackagingJob getJob() {
+        return job;
+    }
+
+    public String getEncodingId() {
+        return encodingId;
+    }
+
+    public String getOutputId() {
+        return outputId;
+    }
+
+    public String getDashManifestPath() {
+        return dashManifestPath;
+    }
+
+    public String getHlsManifestPath() {
+        return hlsManifestPath;
+    }
+
+    /** @return true if the output of an earlier job was returned instead of encoding again */
+    public boolean isReused() {
+        return reused;
+    }
+
+    @Override
+    public String toString() {
+        return "PackagingResult{contentId=" + job.getContentId() + ", encodingId=" + encodingId
+                + ", dash=" + dashManifestPath + ", hls=" + hlsManifestPath + ", reused=" + reused + "}";
+    }
+}
@@ -0,0 +1,47 @@
+package pipeline;
+
+import com.bitmovin.api.sdk.common.BitmovinException;
+import com.bitmovin.api.sdk.model.HttpInput;
+import com.bitmovin.api.sdk.model.Output;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps input and output resources which were created once, so that a long running process (see
+ * {@link daemon.PackagingDaemon}) doesn't create a new HTTP input and S3 output resource for every
+ * title. Inputs are keyed by host, outputs by bucket and access key.
+ *
+ * <p>Two threads asking for the same missing resource at the same time may both create it, the
+ * first one stored is used from then on.
+ */
+public class ResourceCache {
+
+    @FunctionalInterface
+    public interface ResourceFactory<T> {
+        T create() throws BitmovinException;
+    }
+
+    private final Map<String, HttpInput> httpInputs = new ConcurrentHashMap<>();
+    private final Map<String, Output> outputs = new ConcurrentHashMap<>();
+
+    public HttpInput getHttpInput(String host, ResourceFactory<HttpInput> factory) throws BitmovinException {
+        return getOrCreate(httpInputs, host, factory);
+    }
+
+    public Output getS3Output(String bucketName, String accessKey, ResourceFactory<Output> factory)
+            throws BitmovinException {
+        return getOrCreate(outputs, bucketName + "/" + accessKey, factory);
+    }
+
+    private static <T> T getOrCreate(Map<String, T> cache, String key, ResourceFactory<T> factory)
+            throws BitmovinException {
+        T resource = cache.get(key);
+        if (resource != null) {
+            return resource;
+        }
+        T created = factory.create();
+        T existing = cache.putIfAbsent(key, created);
+        return existing != null ? existing : created;
+    }
+}
@@ -0,0 +1,160 @@
+package pipeline;
+
+import common.ConfigProvider;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Writes small files (manifests) to the S3 output bucket of a job with a single signed PUT request
+ * (AWS signature version 4), readable by everyone like the files the encoding writes. Without an
+ * endpoint the AWS endpoint of the region is used, an endpoint of an S3 compatible storage is
+ * addressed path style.
+ */
+public class S3ObjectUploader {
+
+    private static final int TIMEOUT_MILLIS = 30_000;
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    private static final String SIGNED_HEADERS = "content-type;host;x-amz-acl;x-amz-content-sha256;x-amz-date";
+
+    private final String region;
+    private final String endpoint;
+
+    /**
+     * @param region The region of the buckets, e.g. us-east-1
+     * @param endpoint The endpoint of an S3 compatible storage (e.g. https://minio.local:9000), or
+     *     null for AWS
+     */
+    public S3ObjectUploader(String region, String endpoint) {
+        this.region = region;
+        this.endpoint = endpoint == null ? null : endpoint.replaceFirst("/+$", "");
+    }
+
+    /** Reads the optional S3_OUTPUT_REGION (default: us-east-1) and S3_OUTPUT_ENDPOINT settings */
+    public static S3ObjectUploader fromConfig(ConfigProvider configProvider) {
+        return new S3ObjectUploader(
+                configProvider.hasParameter("S3_OUTPUT_REGION") ? configProvider.getParameterByKey("S3_OUTPUT_REGION") : "us-east-1",
+                configProvider.hasParameter("S3_OUTPUT_ENDPOINT") ? configProvider.getParameterByKey("S3_OUTPUT_ENDPOINT") : null);
+    }
+
+    /**
+     * @param job The job whose output bucket and credentials are used
+     * @param path The absolute path of the file on the output, see {@link
+     *     PackagingPipeline#buildAbsolutePath(PackagingJob, String)}
+     * @param content The file content
+     * @param contentType The MIME type of the file
+     */
+    public void put(PackagingJob job, String path, byte[] content, String contentType) throws IOException {
+        String bucket = job.getS3OutputBucketName();
+        String canonicalUri = encodePath(path);
+        String host;
+        URL url;
+        if (endpoint == null) {
+            host = bucket + ".s3." + region + ".amazonaws.com";
+            url = new URL("https://" + host + canonicalUri);
+        } else {
+            canonicalUri = "/" + bucket + canonicalUri;
+            url = new URL(endpoint + canonicalUri);
+            host = url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort();
+        }
+
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        String amzDate = AMZ_DATE.format(now);
+        String date = amzDate.substring(0, 8);
+        String payloadHash = SourceFingerprint.toHex(SourceFingerprint.sha256().digest(content));
+        String scope = date + "/" + region + "/s3/aws4_request";
+
+        String canonicalRequest = "PUT\n" + canonicalUri + "\n\n"
+                + "content-type:" + contentType + "\n"
+                + "host:" + host + "\n"
+                + "x-amz-acl:public-read\n"
+                + "x-amz-content-sha256:" + payloadHash + "\n"
+                + "x-amz-date:" + amzDate + "\n"
+                + "\n" + SIGNED_HEADERS + "\n" + payloadHash;
+        String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n"
+                + SourceFingerprint.toHex(SourceFingerprint.sha256().digest(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+        String signature = SourceFingerprint.toHex(
+                hmac(signingKey(job.getS3OutputSecretKey(), date), stringToSign));
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("PUT");
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(content.length);
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setRequestProperty("x-amz-acl", "public-read");
+            connection.setRequestProperty("x-amz-content-sha256", payloadHash);
+            connection.setRequestProperty("x-amz-date", amzDate);
+            connection.setRequestProperty("Authorization", "AWS4-HMAC-SHA256 Credential=" + job.getS3OutputAccessKey() + "/" + scope
+                    + ", SignedHeaders=" + SIGNED_HEADERS + ", Signature=" + signature);
+            try (OutputStream body = connection.getOutputStream()) {
+                body.write(content);
+            }
+            int status = connection.getResponseCode();
+            if (status / 100 != 2) {
+                throw new IOException("PUT " + url + " returned " + status + ": " + readError(connection));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private byte[] signingKey(String secretKey, String date) throws IOException {
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        return hmac(key, "aws4_request");
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("signing the request failed", e);
+        }
+    }
+
+    /** URI encodes every segment of the path as signature version 4 expects it, e.g. /a%20b/c */
+    private static String encodePath(String path) throws IOException {
+        StringBuilder encoded = new StringBuilder();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                encoded.append('/')
+                        .append(URLEncoder.encode(segment, "UTF-8").replace("+", "%20").replace("*", "%2A").replace("%7E", "~"));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static String readError(HttpURLConnection connection) throws IOException {
+        InputStream error = connection.getErrorStream();
+        if (error == null) {
+            return "";
+        }
+        try (InputStream in = error) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
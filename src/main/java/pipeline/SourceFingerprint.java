@@ -0,0 +1,89 @@
+package pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Identifies the content of a job's source file on the HTTP input host, without downloading it:
+ * the ETag and size reported by the server, or the size and last modification time if the server
+ * doesn't send an ETag. Hashing the content is available for servers which report neither, or
+ * when a changed file may keep its size and modification time.
+ */
+public class SourceFingerprint {
+
+    private static final int TIMEOUT_MILLIS = 10_000;
+
+    private SourceFingerprint() {
+    }
+
+    /**
+     * @param job The job whose input file is fingerprinted
+     * @param hashContent true to hash the whole file instead of relying on the response headers
+     * @return The fingerprint, or null if the server provides nothing to identify the content by
+     */
+    public static String of(PackagingJob job, boolean hashContent) throws IOException {
+        URL url = new URL("http://" + job.getHttpInputHost() + "/" + job.getInputPath().replaceFirst("^/", ""));
+        if (hashContent) {
+            return "sha256:" + hash(url);
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HEAD " + url + " returned " + connection.getResponseCode());
+            }
+            long size = connection.getContentLengthLong();
+            String etag = connection.getHeaderField("ETag");
+            long lastModified = connection.getLastModified();
+            if (etag != null) {
+                return "etag:" + etag + ";size:" + size;
+            }
+            if (size >= 0 && lastModified > 0) {
+                return "size:" + size + ";modified:" + lastModified;
+            }
+            return null;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String hash(URL url) throws IOException {
+        MessageDigest digest = sha256();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return toHex(digest.digest());
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
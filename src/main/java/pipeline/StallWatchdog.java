@@ -0,0 +1,261 @@
+package pipeline;
+
+import com.bitmovin.api.sdk.BitmovinApi;
+import com.bitmovin.api.sdk.common.BitmovinException;
+import com.bitmovin.api.sdk.model.Status;
+import com.pallycon.cpix.dto.VideoConfig;
+import common.ConfigProvider;
+import common.EncodingProgressBus;
+import common.EncodingProgressEvent;
+import common.EncodingProgressListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the progress of running encodings on the {@link EncodingProgressBus} and flags the ones
+ * which stalled, so a stuck encoding doesn't hold an encoding slot and a worker thread forever.
+ *
+ * <p>The expected duration of an encoding is derived from the rungs it encodes and the source
+ * duration of its job: every rung counts by its pixels relative to 1080p, and the encoder is
+ * expected to encode {@code expectedSpeed} seconds of 1080p per second. A running encoding has
+ * stalled when
+ *
+ * <ul>
+ *   <li>its progress didn't increase for a quarter of the expected duration, but at least 10
+ *       minutes and at most {@code stallTimeout}, or for {@code stallTimeout} if the source
+ *       duration is unknown
+ *   <li>or it has been running for {@code slowdown} times the expected duration, but at least 10
+ *       minutes, as setting up the encoder instances alone can take minutes
+ * </ul>
+ *
+ * <p>Queued encodings are not checked. Depending on the {@link Policy}, a stalled encoding is only
+ * logged, or it is stopped and the {@link PackagingPipeline} fails it with an {@link
+ * EncodingStalledException} or sets it up again. Stopping the encoding frees its slot.
+ */
+public class StallWatchdog implements EncodingProgressListener {
+    private static final Logger logger = LoggerFactory.getLogger(StallWatchdog.class);
+
+    private static final long CHECK_INTERVAL_MILLIS = 30_000;
+    private static final long MIN_STALL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final double PIXELS_1080P = 1920 * 1080;
+
+    /** What happens to a stalled encoding */
+    public enum Policy {
+        /** Logs the stall and lets the encoding run */
+        FLAG,
+        /** Stops the encoding, the job fails */
+        CANCEL,
+        /** Stops the encoding and sets up a new one with the same input, output and keys */
+        RESUBMIT
+    }
+
+    /** An encoding which is watched, updated from the progress events */
+    private static class WatchedEncoding {
+        private final String contentId;
+        private final long expectedMillis;
+        private final long stallMillis;
+        private volatile long runningSince = -1;
+        private volatile long lastProgressTime;
+        private volatile int lastProgress = -1;
+        private volatile boolean stalled;
+        private volatile boolean stopped;
+
+        private WatchedEncoding(String contentId, long expectedMillis, long stallMillis) {
+            this.contentId = contentId;
+            this.expectedMillis = expectedMillis;
+            this.stallMillis = stallMillis;
+        }
+    }
+
+    private final BitmovinApi bitmovinApi;
+    private final Policy policy;
+    private final long stallTimeoutMillis;
+    private final double expectedSpeed;
+    private final double slowdown;
+    private final int maxResubmits;
+    private final Map<String, WatchedEncoding> encodings = new ConcurrentHashMap<>();
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong stops = new AtomicLong();
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "stall-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * @param bitmovinApi The client to stop stalled encodings with
+     * @param policy What happens to a stalled encoding
+     * @param stallTimeoutMillis The longest time without progress before an encoding has stalled
+     * @param expectedSpeed Seconds of 1080p the encoder is expected to encode per second
+     * @param slowdown Multiple of the expected duration after which an encoding has stalled
+     * @param maxResubmits How often a job sets up a new encoding for a stalled one, with {@link
+     *     Policy#RESUBMIT}
+     */
+    public StallWatchdog(
+            BitmovinApi bitmovinApi, Policy policy, long stallTimeoutMillis, double expectedSpeed, double slowdown, int maxResubmits) {
+        this.bitmovinApi = bitmovinApi;
+        this.policy = policy;
+        this.stallTimeoutMillis = stallTimeoutMillis;
+        this.expectedSpeed = expectedSpeed;
+        this.slowdown = slowdown;
+        this.maxResubmits = policy == Policy.RESUBMIT ? maxResubmits : 0;
+        scheduler.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a watchdog configured by STALL_POLICY, STALL_TIMEOUT_MINUTES (default: 60),
+     * STALL_EXPECTED_SPEED (default: 1), STALL_SLOWDOWN (default: 4) and STALL_MAX_RESUBMITS
+     * (default: 1) and subscribes it to the bus
+     *
+     * @return the watchdog, or null if STALL_POLICY isn't set
+     */
+    public static StallWatchdog fromConfig(ConfigProvider configProvider, BitmovinApi bitmovinApi, EncodingProgressBus progressBus) {
+        if (!configProvider.hasParameter("STALL_POLICY")) {
+            return null;
+        }
+        long stallTimeoutMinutes = configProvider.hasParameter("STALL_TIMEOUT_MINUTES")
+                ? Long.parseLong(configProvider.getParameterByKey("STALL_TIMEOUT_MINUTES"))
+                : 60;
+        double expectedSpeed = configProvider.hasParameter("STALL_EXPECTED_SPEED")
+                ? Double.parseDouble(configProvider.getParameterByKey("STALL_EXPECTED_SPEED"))
+                : 1;
+        double slowdown = configProvider.hasParameter("STALL_SLOWDOWN")
+                ? Double.parseDouble(configProvider.getParameterByKey("STALL_SLOWDOWN"))
+                : 4;
+        int maxResubmits = configProvider.hasParameter("STALL_MAX_RESUBMITS")
+                ? Integer.parseInt(configProvider.getParameterByKey("STALL_MAX_RESUBMITS"))
+                : 1;
+        StallWatchdog watchdog = new StallWatchdog(
+                bitmovinApi,
+                Policy.valueOf(configProvider.getParameterByKey("STALL_POLICY")),
+                TimeUnit.MINUTES.toMillis(stallTimeoutMinutes),
+                expectedSpeed,
+                slowdown,
+                maxResubmits);
+        progressBus.addListener(watchdog);
+        return watchdog;
+    }
+
+    /** @return how often a job sets up a new encoding for a stalled one, 0 unless the policy is RESUBMIT */
+    public int getMaxResubmits() {
+        return maxResubmits;
+    }
+
+    /**
+     * Starts watching an encoding which was started or is about to be started
+     *
+     * @param job The job the encoding belongs to, its source duration sets the expected duration
+     * @param videoProfile The rungs the encoding encodes, e.g. the missing rungs of an extended
+     *     ladder or one part of a split ladder
+     * @param encodingId The encoding
+     */
+    public void watch(PackagingJob job, List<VideoConfig> videoProfile, String encodingId) {
+        long expectedMillis = expectedMillis(job, videoProfile);
+        long stallMillis = expectedMillis > 0
+                ? Math.min(stallTimeoutMillis, Math.max(MIN_STALL_MILLIS, expectedMillis / 4))
+                : stallTimeoutMillis;
+        encodings.put(encodingId, new WatchedEncoding(job.getContentId(), expectedMillis, stallMillis));
+    }
+
+    /**
+     * Stops watching an encoding which reached a final state
+     *
+     * @return true if the watchdog stopped the encoding because it stalled
+     */
+    public boolean unwatch(String encodingId) {
+        WatchedEncoding encoding = encodings.remove(encodingId);
+        return encoding != null && encoding.stopped;
+    }
+
+    /** @return the expected duration of encoding the rungs of the job in milliseconds, 0 if unknown */
+    private long expectedMillis(PackagingJob job, List<VideoConfig> videoProfile) {
+        if (job.getSourceDuration() <= 0) {
+            return 0;
+        }
+        double ladderPixels = 0;
+        for (VideoConfig videoConfig : videoProfile) {
+            ladderPixels += videoConfig.height * (videoConfig.height * 16 / 9.0);
+        }
+        return (long) (1000 * job.getSourceDuration() * (ladderPixels / PIXELS_1080P) / expectedSpeed);
+    }
+
+    @Override
+    public void onProgress(EncodingProgressEvent event) {
+        WatchedEncoding encoding = encodings.get(event.getJobId());
+        if (encoding == null || event.getStatus() != Status.RUNNING) {
+            return;
+        }
+        int progress = event.getProgress() == null ? 0 : event.getProgress();
+        if (encoding.runningSince < 0) {
+            encoding.runningSince = event.getTimestamp();
+        }
+        if (progress > encoding.lastProgress) {
+            encoding.lastProgress = progress;
+            encoding.lastProgressTime = event.getTimestamp();
+        }
+    }
+
+    private void check() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, WatchedEncoding> entry : encodings.entrySet()) {
+            WatchedEncoding encoding = entry.getValue();
+            if (encoding.runningSince < 0 || encoding.stopped || (encoding.stalled && policy == Policy.FLAG)) {
+                continue;
+            }
+            long withoutProgress = now - encoding.lastProgressTime;
+            long running = now - encoding.runningSince;
+            if (withoutProgress > encoding.stallMillis) {
+                stalled(entry.getKey(), encoding, "no progress beyond " + encoding.lastProgress + " % for "
+                        + TimeUnit.MILLISECONDS.toMinutes(withoutProgress) + " minutes");
+            } else if (encoding.expectedMillis > 0 && running > Math.max(MIN_STALL_MILLIS, slowdown * encoding.expectedMillis)) {
+                stalled(entry.getKey(), encoding, "running for " + TimeUnit.MILLISECONDS.toMinutes(running)
+                        + " minutes at " + encoding.lastProgress + " %, expected "
+                        + TimeUnit.MILLISECONDS.toMinutes(encoding.expectedMillis) + " minutes");
+            }
+        }
+    }
+
+    private void stalled(String encodingId, WatchedEncoding encoding, String reason) {
+        if (!encoding.stalled) {
+            encoding.stalled = true;
+            stalls.incrementAndGet();
+            logger.warn("encoding {} of {} stalled: {}", encodingId, encoding.contentId, reason);
+        }
+        if (policy == Policy.FLAG) {
+            return;
+        }
+        try {
+            bitmovinApi.encoding.encodings.stop(encodingId);
+            encoding.stopped = true;
+            stops.incrementAndGet();
+            logger.info("stopped stalled encoding {} of {}", encodingId, encoding.contentId);
+        } catch (BitmovinException e) {
+            // tried again on the next check
+            logger.warn("stopping encoding {} failed: {}", encodingId, e.getMessage());
+        }
+    }
+
+    /** @return the watched encodings, and the stalls and stops since the start */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("policy", policy.toString());
+        metrics.put("watchedEncodings", encodings.size());
+        metrics.put("stalls", stalls.get());
+        metrics.put("stops", stops.get());
+        return metrics;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
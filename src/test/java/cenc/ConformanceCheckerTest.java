@@ -0,0 +1,172 @@
+package cenc;
+
+import cenc.Mp4Boxes.Box;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks renditions encrypted by {@link SegmentEncryptor} from {@link Fmp4Fixture} segments. The
+ * video rendition has 4000 slices whose last byte is encrypted with either scheme, so decryption
+ * with a wrong key is reported with near certainty (each slice ends in a zero byte with a chance
+ * of 1/256).
+ */
+public class ConformanceCheckerTest {
+
+    private static final int SEGMENTS = 10;
+    private static final byte[] KID = range(0x10);
+    private static final byte[] OTHER_KID = range(0x40);
+    private static final byte[] KEY = range(0x20);
+    private static final byte[] OTHER_KEY = range(0x50);
+    private static final byte[] CONSTANT_IV = range(0x30);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void encryptedOutputIsConformant() throws Exception {
+        for (EncryptionScheme scheme : EncryptionScheme.values()) {
+            Path output = encrypt(scheme, key(KID, KEY, scheme));
+
+            ConformanceReport report = check(scheme, output, key(KID, KEY, scheme));
+
+            assertTrue(scheme + " " + report.getFindings(), report.isConformant());
+            assertEquals(scheme.toString(), 2, report.getRenditions());
+            assertEquals(scheme.toString(), 2 * SEGMENTS, report.getSegments());
+            assertEquals(scheme.toString(), 2 * SEGMENTS, report.getDecryptedSegments());
+        }
+    }
+
+    @Test
+    public void wrongKeyIsReported() throws Exception {
+        for (EncryptionScheme scheme : EncryptionScheme.values()) {
+            Path output = encrypt(scheme, key(KID, OTHER_KEY, scheme));
+
+            ConformanceReport report = check(scheme, output, key(KID, KEY, scheme));
+
+            assertFalse(scheme.toString(), report.isConformant());
+            for (ConformanceReport.Finding finding : report.getFindings()) {
+                assertTrue(finding.toString(), finding.getPath().startsWith("video/"));
+                assertTrue(finding.toString(), finding.getMessage().contains("don't decrypt to valid NAL units"));
+            }
+        }
+    }
+
+    @Test
+    public void wrongTencKidIsReported() throws Exception {
+        Path output = encrypt(EncryptionScheme.CENC, key(OTHER_KID, KEY, EncryptionScheme.CENC));
+
+        ConformanceReport report = check(EncryptionScheme.CENC, output, key(KID, KEY, EncryptionScheme.CENC));
+
+        assertTrue(report.getFindings().toString(), hasFinding(report, "video/init.mp4", "tenc KID"));
+        assertTrue(report.getFindings().toString(), hasFinding(report, "audio/init.mp4", "tenc KID"));
+    }
+
+    @Test
+    public void corruptedSencIsReported() throws Exception {
+        Path output = encrypt(EncryptionScheme.CENC, key(KID, KEY, EncryptionScheme.CENC));
+        Path segment = output.resolve("video").resolve("segment_3.m4s");
+        byte[] bytes = Files.readAllBytes(segment);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Box moof = Mp4Boxes.children(buffer, 0, buffer.limit()).stream()
+                .filter(box -> box.type == Mp4Boxes.MOOF)
+                .findFirst()
+                .orElseThrow(IllegalStateException::new);
+        Box senc = Mp4Boxes.require(buffer, Mp4Boxes.require(buffer, moof, Mp4Boxes.TRAF), Mp4Boxes.SENC);
+        // clear bytes of the first subsample of the first sample, behind its 8 byte IV and subsample count
+        int clearBytes = senc.contentOffset() + 8 + 8 + 2;
+        buffer.putShort(clearBytes, (short) (buffer.getShort(clearBytes) + 1));
+        Files.write(segment, bytes);
+
+        ConformanceReport report = check(EncryptionScheme.CENC, output, key(KID, KEY, EncryptionScheme.CENC));
+
+        assertEquals(report.getFindings().toString(), 1, report.getFindings().size());
+        assertTrue(report.getFindings().toString(), hasFinding(report, "video/segment_3.m4s", "subsamples of sample 0"));
+    }
+
+    /** @return the output tree with the encrypted video and audio rendition */
+    private Path encrypt(EncryptionScheme scheme, ContentKey key) throws Exception {
+        Path clear = folder.newFolder().toPath();
+        Path output = folder.newFolder().toPath();
+        Fmp4Fixture video = Fmp4Fixture.video(11);
+        Fmp4Fixture audio = Fmp4Fixture.audio(12);
+        for (int i = 0; i < SEGMENTS; i++) {
+            write(clear.resolve("video"), i, video, video.fragments(2, 20, 10, 208));
+            write(clear.resolve("audio"), i, audio, audio.fragments());
+        }
+
+        SegmentEncryptor encryptor = new SegmentEncryptor(scheme, 2);
+        try {
+            for (String rendition : new String[] {"video", "audio"}) {
+                encryptor.encryptRendition(clear.resolve(rendition), output.resolve(rendition), key);
+            }
+        } finally {
+            encryptor.shutdown();
+        }
+        return output;
+    }
+
+    private ConformanceReport check(EncryptionScheme scheme, Path output, ContentKey key) throws IOException {
+        Map<String, ContentKey> renditionKeys = new HashMap<>();
+        renditionKeys.put("video", key);
+        renditionKeys.put("audio", key);
+        return new ConformanceChecker(scheme, pool, 1).check(output, renditionKeys);
+    }
+
+    private static void write(Path rendition, int segment, Fmp4Fixture fixture, List<List<byte[]>> fragments) throws IOException {
+        Files.createDirectories(rendition);
+        if (segment == 0) {
+            Files.write(rendition.resolve("init.mp4"), fixture.initSegment().array());
+        }
+        Files.write(rendition.resolve("segment_" + segment + ".m4s"), fixture.mediaSegment(fragments).array());
+    }
+
+    private static boolean hasFinding(ConformanceReport report, String path, String message) {
+        for (ConformanceReport.Finding finding : report.getFindings()) {
+            if (finding.getPath().equals(path) && finding.getMessage().contains(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ContentKey key(byte[] kid, byte[] key, EncryptionScheme scheme) {
+        return new ContentKey(kid, key, CONSTANT_IV, Collections.singletonList(PsshBox.widevine(kid, "fixture", scheme)));
+    }
+
+    private static byte[] range(int first) {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (first + i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,206 @@
+package cenc;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Reads small CPIX documents with the {@link CpixDocumentReader}: keys, DRM systems and usage rules
+ * joined by kid, the video and audio filters of the usage rules, the decoded key and IV, and the
+ * rejection of documents with a DOCTYPE or external entities.
+ */
+public class CpixDocumentReaderTest {
+
+    private static final UUID HD_KID = UUID.fromString("5e2f4c1a-9b7d-4e3f-8a6c-1d2e3f4a5b6c");
+    private static final UUID AUDIO_KID = UUID.fromString("0b1c2d3e-4f50-4617-8829-3a4b5c6d7e8f");
+    private static final byte[] KEY = range(0x20);
+    private static final byte[] IV = range(0x30);
+    private static final byte[] WIDEVINE_PSSH = range(0x40);
+    private static final byte[] PLAYREADY_PSSH = range(0x50);
+
+    @Test
+    public void keysDrmSystemsAndUsageRulesAreJoinedByKid() throws Exception {
+        List<KeyMaterial> keys = read(document(
+                contentKey(HD_KID) + contentKey(AUDIO_KID),
+                drmSystem(AUDIO_KID, PsshBox.WIDEVINE_SYSTEM_ID, WIDEVINE_PSSH)
+                        + drmSystem(HD_KID, PsshBox.WIDEVINE_SYSTEM_ID, WIDEVINE_PSSH)
+                        + drmSystem(HD_KID, PsshBox.PLAYREADY_SYSTEM_ID, PLAYREADY_PSSH),
+                "<cpix:ContentKeyUsageRule kid=\"" + AUDIO_KID + "\" intendedTrackType=\"AUDIO\"/>"
+                        + "<cpix:ContentKeyUsageRule kid=\"" + HD_KID + "\" intendedTrackType=\"HD\">"
+                        + "<cpix:KeyPeriodFilter periodId=\"period-1\"/></cpix:ContentKeyUsageRule>"));
+
+        assertEquals(2, keys.size());
+        KeyMaterial hd = keys.get(0);
+        assertEquals(HD_KID, hd.getKid());
+        assertEquals("HD", hd.getIntendedTrackType());
+        assertEquals("period-1", hd.getPeriodId());
+        assertEquals(2, hd.getDrmSystems().size());
+        assertArrayEquals(WIDEVINE_PSSH, hd.getDrmSystem(PsshBox.WIDEVINE_SYSTEM_ID).getPssh());
+        assertArrayEquals(PLAYREADY_PSSH, hd.getDrmSystem(PsshBox.PLAYREADY_SYSTEM_ID).getPssh());
+        KeyMaterial audio = keys.get(1);
+        assertEquals(AUDIO_KID, audio.getKid());
+        assertEquals("AUDIO", audio.getIntendedTrackType());
+        assertEquals(1, audio.getDrmSystems().size());
+        assertNull(audio.getDrmSystem(PsshBox.PLAYREADY_SYSTEM_ID));
+    }
+
+    @Test
+    public void videoFiltersAdmitTheirPixelRange() throws Exception {
+        KeyMaterial key = read(document(contentKey(HD_KID), "",
+                "<cpix:ContentKeyUsageRule kid=\"" + HD_KID + "\">"
+                        + "<cpix:VideoFilter minPixels=\"442369\" maxPixels=\"921600\"/>"
+                        + "<cpix:VideoFilter minPixels=\"921601\" maxPixels=\"2073600\"/>"
+                        + "</cpix:ContentKeyUsageRule>")).get(0);
+
+        assertFalse(key.isAudio());
+        assertFalse(key.matchesVideo(640 * 480));
+        assertTrue(key.matchesVideo(1280 * 720));
+        assertTrue(key.matchesVideo(1920 * 1080));
+        assertFalse(key.matchesVideo(3840 * 2160));
+    }
+
+    @Test
+    public void videoFilterWithoutMaxPixelsHasNoUpperBound() throws Exception {
+        KeyMaterial key = read(document(contentKey(HD_KID), "",
+                "<cpix:ContentKeyUsageRule kid=\"" + HD_KID + "\">"
+                        + "<cpix:VideoFilter minPixels=\"2073601\"/></cpix:ContentKeyUsageRule>")).get(0);
+
+        assertFalse(key.matchesVideo(1920 * 1080));
+        assertTrue(key.matchesVideo(3840 * 2160));
+    }
+
+    @Test
+    public void audioFilterMakesAnAudioKey() throws Exception {
+        KeyMaterial key = read(document(contentKey(AUDIO_KID), "",
+                "<cpix:ContentKeyUsageRule kid=\"" + AUDIO_KID + "\"><cpix:AudioFilter/></cpix:ContentKeyUsageRule>")).get(0);
+
+        assertTrue(key.isAudio());
+        assertNull(key.getIntendedTrackType());
+        assertFalse(key.matchesVideo(1280 * 720));
+    }
+
+    @Test
+    public void keyWithoutUsageRuleMatchesNoTrack() throws Exception {
+        KeyMaterial key = read(document(contentKey(HD_KID), "", "")).get(0);
+
+        assertFalse(key.isAudio());
+        assertFalse(key.matchesVideo(1280 * 720));
+    }
+
+    @Test
+    public void keyAndIvAreDecoded() throws Exception {
+        KeyMaterial key = read(document(contentKey(HD_KID), "", "")).get(0);
+
+        assertArrayEquals(KEY, key.getKey());
+        assertArrayEquals(IV, key.getExplicitIv());
+        assertEquals("cbcs", key.getCommonEncryptionScheme());
+    }
+
+    @Test
+    public void prettyPrintedKeyIsDecoded() throws Exception {
+        String base64 = Base64.getEncoder().encodeToString(KEY);
+        KeyMaterial key = read(document("<cpix:ContentKey kid=\"" + HD_KID + "\"><cpix:Data><pskc:Secret><pskc:PlainValue>\n    "
+                + base64.substring(0, 12) + "\n    " + base64.substring(12) + "\n</pskc:PlainValue></pskc:Secret></cpix:Data></cpix:ContentKey>",
+                "", "")).get(0);
+
+        assertArrayEquals(KEY, key.getKey());
+        assertNull(key.getExplicitIv());
+    }
+
+    @Test
+    public void encryptedKeyHasNoPlainKey() throws Exception {
+        KeyMaterial key = read(document("<cpix:ContentKey kid=\"" + HD_KID + "\"><cpix:Data><pskc:Secret><pskc:EncryptedValue>"
+                + "<xenc:CipherData xmlns:xenc=\"http://www.w3.org/2001/04/xmlenc#\"><xenc:CipherValue>AAAA</xenc:CipherValue></xenc:CipherData>"
+                + "</pskc:EncryptedValue></pskc:Secret></cpix:Data></cpix:ContentKey>", "", "")).get(0);
+
+        assertNull(key.getKey());
+        try {
+            key.toContentKey(EncryptionScheme.CENC);
+            fail("content key without a plain key");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void contentKeyCarriesTheConstantIvForCbcsOnly() throws Exception {
+        KeyMaterial key = read(document(contentKey(HD_KID),
+                drmSystem(HD_KID, PsshBox.WIDEVINE_SYSTEM_ID, WIDEVINE_PSSH), "")).get(0);
+
+        ContentKey cbcs = key.toContentKey(EncryptionScheme.CBCS);
+        assertArrayEquals(KEY, cbcs.getKey());
+        assertArrayEquals(IV, cbcs.getConstantIv());
+        assertEquals(1, cbcs.getPsshBoxes().size());
+        assertNull(key.toContentKey(EncryptionScheme.CENC).getConstantIv());
+    }
+
+    @Test
+    public void doctypeIsRejected() throws Exception {
+        assertRejected("<?xml version=\"1.0\"?>\n<!DOCTYPE cpix:CPIX>\n" + document(contentKey(HD_KID), "", ""));
+    }
+
+    @Test
+    public void externalEntityIsRejected() throws Exception {
+        assertRejected("<?xml version=\"1.0\"?>\n<!DOCTYPE cpix:CPIX [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>\n"
+                + document("<cpix:ContentKey kid=\"" + HD_KID + "\"><cpix:Data><pskc:Secret>"
+                + "<pskc:PlainValue>&xxe;</pskc:PlainValue></pskc:Secret></cpix:Data></cpix:ContentKey>", "", ""));
+    }
+
+    @Test
+    public void drmSystemWithoutKidIsRejected() throws Exception {
+        assertRejected(document(contentKey(HD_KID),
+                "<cpix:DRMSystem systemId=\"" + PsshBox.WIDEVINE_SYSTEM_ID + "\"/>", ""));
+    }
+
+    private static List<KeyMaterial> read(String document) throws IOException {
+        return CpixDocumentReader.read(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertRejected(String document) {
+        try {
+            read(document);
+            fail("accepted " + document);
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("invalid CPIX document"));
+        }
+    }
+
+    private static String document(String contentKeys, String drmSystems, String usageRules) {
+        return "<cpix:CPIX xmlns:cpix=\"urn:dashif:org:cpix\" xmlns:pskc=\"urn:ietf:params:xml:ns:keyprov:pskc\">"
+                + "<cpix:ContentKeyList>" + contentKeys + "</cpix:ContentKeyList>"
+                + "<cpix:DRMSystemList>" + drmSystems + "</cpix:DRMSystemList>"
+                + "<cpix:ContentKeyUsageRuleList>" + usageRules + "</cpix:ContentKeyUsageRuleList>"
+                + "</cpix:CPIX>";
+    }
+
+    private static String contentKey(UUID kid) {
+        Base64.Encoder base64 = Base64.getEncoder();
+        return "<cpix:ContentKey kid=\"" + kid + "\" explicitIV=\"" + base64.encodeToString(IV) + "\" commonEncryptionScheme=\"cbcs\">"
+                + "<cpix:Data><pskc:Secret><pskc:PlainValue>" + base64.encodeToString(KEY) + "</pskc:PlainValue></pskc:Secret></cpix:Data>"
+                + "</cpix:ContentKey>";
+    }
+
+    private static String drmSystem(UUID kid, UUID systemId, byte[] pssh) {
+        return "<cpix:DRMSystem kid=\"" + kid + "\" systemId=\"" + systemId + "\">"
+                + "<cpix:PSSH>" + Base64.getEncoder().encodeToString(pssh) + "</cpix:PSSH></cpix:DRMSystem>";
+    }
+
+    private static byte[] range(int first) {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (first + i);
+        }
+        return bytes;
+    }
+}
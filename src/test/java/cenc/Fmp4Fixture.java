@@ -0,0 +1,196 @@
+package cenc;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A small clear fMP4 rendition built in memory, laid out like the Bitmovin fMP4 muxing writes it:
+ * an init segment with a single avc1 or mp4a track and media segments of styp, sidx and two movie
+ * fragments (default-base-is-moof, one trun with data offset, sample durations and sizes).
+ *
+ * <p>Video samples are length prefixed NAL units: SEI and slices of several sizes, among them a
+ * slice of up to 48 bytes (clear with CBCS), a sample with two slices and a SEI longer than a
+ * subsample's clear bytes can cover. Payload bytes are never zero, so a clear sample is a valid
+ * NAL sequence for {@link ConformanceChecker#isValidNalSequence}. Audio samples are random bytes,
+ * one of them shorter than an AES block.
+ */
+final class Fmp4Fixture {
+
+    static final int TRACK_ID = 1;
+    static final int TIMESCALE = 90_000;
+    static final int SAMPLE_DURATION = 3_000;
+
+    private static final int NAL_LENGTH_SIZE = 4;
+    private static final byte AVC_IDR = 0x65;
+    private static final byte AVC_SLICE = 0x41;
+    private static final byte AVC_SEI = 0x06;
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    private static final int TRUN_FLAGS = 0x000001 | 0x000100 | 0x000200;
+
+    private final boolean video;
+    private final Random random;
+
+    private Fmp4Fixture(boolean video, long seed) {
+        this.video = video;
+        this.random = new Random(seed);
+    }
+
+    static Fmp4Fixture video(long seed) {
+        return new Fmp4Fixture(true, seed);
+    }
+
+    static Fmp4Fixture audio(long seed) {
+        return new Fmp4Fixture(false, seed);
+    }
+
+    boolean isVideo() {
+        return video;
+    }
+
+    /** @return the samples of the movie fragments of one media segment */
+    List<List<byte[]>> fragments() {
+        if (video) {
+            return Arrays.asList(
+                    Arrays.asList(
+                            sample(nal(AVC_SEI, 12), nal(AVC_IDR, 1337)),
+                            sample(nal(AVC_SLICE, 40)),
+                            sample(nal(AVC_SEI, 70_000), nal(AVC_SLICE, 200))),
+                    Arrays.asList(
+                            sample(nal(AVC_SLICE, 513)),
+                            sample(nal(AVC_SLICE, 300), nal(AVC_SLICE, 301)),
+                            sample(nal(AVC_SLICE, 49))));
+        }
+        return Arrays.asList(
+                Arrays.asList(bytes(371), bytes(372), bytes(7), bytes(256)),
+                Arrays.asList(bytes(390), bytes(17), bytes(401)));
+    }
+
+    /**
+     * @return video fragments of samples with slices of one size, for renditions large enough that
+     *     decryption with a wrong key shows
+     */
+    List<List<byte[]>> fragments(int fragmentCount, int samplesPerFragment, int slicesPerSample, int sliceSize) {
+        List<List<byte[]>> fragments = new ArrayList<>();
+        for (int f = 0; f < fragmentCount; f++) {
+            List<byte[]> samples = new ArrayList<>();
+            for (int s = 0; s < samplesPerFragment; s++) {
+                byte[][] slices = new byte[slicesPerSample][];
+                for (int i = 0; i < slicesPerSample; i++) {
+                    slices[i] = nal(i == 0 && s == 0 ? AVC_IDR : AVC_SLICE, sliceSize);
+                }
+                samples.add(sample(slices));
+            }
+            fragments.add(samples);
+        }
+        return fragments;
+    }
+
+    ByteBuffer initSegment() {
+        byte[] sampleEntry = video
+                ? box("avc1", new byte[Mp4Boxes.VISUAL_SAMPLE_ENTRY_FIELDS],
+                        // avcC: version, profile, compatibility, level, lengthSizeMinusOne, no SPS, no PPS
+                        box("avcC", new byte[] {1, 0x64, 0, 0x1F, (byte) (0xFC | (NAL_LENGTH_SIZE - 1)), (byte) 0xE0, 0}))
+                : box("mp4a", new byte[Mp4Boxes.AUDIO_SAMPLE_ENTRY_FIELDS], fullBox("esds", 0, 0, new byte[8]));
+        byte[] stsd = fullBox("stsd", 0, 0, ByteBuffer.allocate(4).putInt(1).array(), sampleEntry);
+        byte[] hdlr = fullBox("hdlr", 0, 0, ByteBuffer.allocate(4 + 4 + 12 + 1).putInt(0).put(ascii(video ? "vide" : "soun")).array());
+        // tkhd version 0: creation and modification time, track id, reserved, duration, the rest zero
+        byte[] tkhd = fullBox("tkhd", 0, 3, ByteBuffer.allocate(80).putInt(0).putInt(0).putInt(TRACK_ID).array());
+        byte[] mdhd = fullBox("mdhd", 0, 0, ByteBuffer.allocate(20).putInt(0).putInt(0).putInt(TIMESCALE).array());
+        byte[] trak = box("trak", tkhd, box("mdia", mdhd, hdlr, box("minf", box("stbl", stsd))));
+        byte[] trex = fullBox("trex", 0, 0, ByteBuffer.allocate(20).putInt(TRACK_ID).putInt(1).array());
+        byte[] moov = box("moov", fullBox("mvhd", 0, 0, new byte[96]), trak, box("mvex", trex));
+        return ByteBuffer.wrap(concat(box("ftyp", ascii("iso6"), new byte[4], ascii("isom"), ascii("dash")), moov));
+    }
+
+    ByteBuffer mediaSegment(List<List<byte[]>> fragments) {
+        List<byte[]> movieFragments = new ArrayList<>();
+        int sequenceNumber = 1;
+        for (List<byte[]> samples : fragments) {
+            movieFragments.add(movieFragment(sequenceNumber++, samples));
+        }
+
+        // sidx version 0: reference id, timescale, earliest presentation time, first offset, reserved, count
+        ByteBuffer sidx = ByteBuffer.allocate(4 + 4 + 4 + 4 + 2 + 2 + 12 * fragments.size())
+                .putInt(TRACK_ID)
+                .putInt(TIMESCALE)
+                .putInt(0)
+                .putInt(0)
+                .putShort((short) 0)
+                .putShort((short) fragments.size());
+        for (int i = 0; i < fragments.size(); i++) {
+            sidx.putInt(movieFragments.get(i).length)
+                    .putInt(fragments.get(i).size() * SAMPLE_DURATION)
+                    .putInt(0x90000000);
+        }
+
+        List<byte[]> boxes = new ArrayList<>();
+        boxes.add(box("styp", ascii("msdh"), new byte[4], ascii("msdh"), ascii("msix")));
+        boxes.add(fullBox("sidx", 0, 0, sidx.array()));
+        boxes.addAll(movieFragments);
+        return ByteBuffer.wrap(concat(boxes.toArray(new byte[0][])));
+    }
+
+    /** @return moof and mdat of the samples */
+    private static byte[] movieFragment(int sequenceNumber, List<byte[]> samples) {
+        byte[] mfhd = fullBox("mfhd", 0, 0, ByteBuffer.allocate(4).putInt(sequenceNumber).array());
+        byte[] tfhd = fullBox("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF, ByteBuffer.allocate(4).putInt(TRACK_ID).array());
+        byte[] tfdt = fullBox("tfdt", 0, 0, ByteBuffer.allocate(4).putInt((sequenceNumber - 1) * SAMPLE_DURATION).array());
+
+        ByteBuffer trun = ByteBuffer.allocate(4 + 4 + 8 * samples.size()).putInt(samples.size()).putInt(0);
+        for (byte[] sample : samples) {
+            trun.putInt(SAMPLE_DURATION).putInt(sample.length);
+        }
+        byte[] trunBox = fullBox("trun", 0, TRUN_FLAGS, trun.array());
+        byte[] moof = box("moof", mfhd, box("traf", tfhd, tfdt, trunBox));
+        // data offset from the moof box to the first sample, behind the mdat header
+        int dataOffsetPosition = moof.length - trunBox.length + 8 + 4 + 4;
+        ByteBuffer.wrap(moof).putInt(dataOffsetPosition, moof.length + 8);
+
+        return concat(moof, box("mdat", concat(samples.toArray(new byte[0][]))));
+    }
+
+    private byte[] sample(byte[]... nalUnits) {
+        return concat(nalUnits);
+    }
+
+    private byte[] nal(byte header, int size) {
+        byte[] nal = new byte[NAL_LENGTH_SIZE + size];
+        ByteBuffer.wrap(nal).putInt(size).put(header);
+        for (int i = NAL_LENGTH_SIZE + 1; i < nal.length; i++) {
+            nal[i] = (byte) (1 + random.nextInt(255));
+        }
+        return nal;
+    }
+
+    private byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    static byte[] box(String type, byte[]... content) {
+        byte[] body = concat(content);
+        return ByteBuffer.allocate(8 + body.length).putInt(8 + body.length).put(ascii(type)).put(body).array();
+    }
+
+    static byte[] fullBox(String type, int version, int flags, byte[]... content) {
+        return box(type, ByteBuffer.allocate(4).putInt(version << 24 | flags).array(), concat(content));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,360 @@
+package cenc;
+
+import cenc.Mp4Boxes.Box;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Encrypts the init and media segments of {@link Fmp4Fixture} renditions and decrypts the samples
+ * again with AES-CTR and the CBCS pattern built on the bare AES block cipher, reading IVs and
+ * subsamples from senc and the protection from tenc. Also checks the sample encryption boxes and
+ * that trun data offsets and sidx reference sizes account for the inserted boxes.
+ */
+public class SegmentEncryptorTest {
+
+    private static final byte[] KID = range(0x10);
+    private static final byte[] KEY = range(0x20);
+    private static final byte[] CONSTANT_IV = range(0x30);
+    private static final int AES_BLOCK = 16;
+
+    @Test
+    public void cencVideoSegmentDecryptsToTheClearSamples() throws Exception {
+        assertRoundTrip(EncryptionScheme.CENC, Fmp4Fixture.video(1));
+    }
+
+    @Test
+    public void cencAudioSegmentDecryptsToTheClearSamples() throws Exception {
+        assertRoundTrip(EncryptionScheme.CENC, Fmp4Fixture.audio(2));
+    }
+
+    @Test
+    public void cbcsVideoSegmentDecryptsToTheClearSamples() throws Exception {
+        assertRoundTrip(EncryptionScheme.CBCS, Fmp4Fixture.video(3));
+    }
+
+    @Test
+    public void cbcsAudioSegmentDecryptsToTheClearSamples() throws Exception {
+        assertRoundTrip(EncryptionScheme.CBCS, Fmp4Fixture.audio(4));
+    }
+
+    @Test
+    public void initSegmentIsProtected() {
+        for (EncryptionScheme scheme : EncryptionScheme.values()) {
+            for (Fmp4Fixture fixture : Arrays.asList(Fmp4Fixture.video(5), Fmp4Fixture.audio(6))) {
+                String message = scheme + (fixture.isVideo() ? " video" : " audio");
+                ContentKey key = key(scheme);
+                ByteBuffer clear = fixture.initSegment();
+                InitSegmentEncryptor.Result result = new InitSegmentEncryptor(scheme).encrypt(clear, key);
+                ByteBuffer init = result.segment;
+
+                InitSegment parsed = InitSegment.parse(init);
+                assertEquals(message, init.limit(), parsed.moov.end());
+                assertEquals(message, fixture.isVideo() ? Mp4Boxes.ENCV : Mp4Boxes.ENCA, parsed.sampleEntry.type);
+                assertEquals(message, fixture.isVideo(), result.trackInfo.isVideo());
+                assertEquals(message, Fmp4Fixture.TRACK_ID, result.trackInfo.getTrackId());
+
+                Box sinf = sinf(init, parsed);
+                Box frma = Mp4Boxes.require(init, sinf, Mp4Boxes.FRMA);
+                assertEquals(message, Mp4Boxes.fourcc(fixture.isVideo() ? "avc1" : "mp4a"), init.getInt(frma.contentOffset()));
+                Box schm = Mp4Boxes.require(init, sinf, Mp4Boxes.SCHM);
+                assertEquals(message, Mp4Boxes.fourcc(scheme.getFourcc()), init.getInt(schm.contentOffset() + 4));
+
+                Tenc tenc = Tenc.read(init);
+                assertArrayEquals(message, KID, tenc.kid);
+                if (scheme == EncryptionScheme.CENC) {
+                    assertEquals(message, 8, tenc.perSampleIvSize);
+                } else {
+                    assertEquals(message, 0, tenc.perSampleIvSize);
+                    assertArrayEquals(message, CONSTANT_IV, tenc.constantIv);
+                    assertEquals(message, fixture.isVideo() ? 1 : 0, tenc.cryptBlocks);
+                    assertEquals(message, fixture.isVideo() ? 9 : 0, tenc.skipBlocks);
+                }
+
+                List<byte[]> psshBoxes = new ArrayList<>();
+                for (Box box : Mp4Boxes.children(init, parsed.moov)) {
+                    if (box.type == Mp4Boxes.PSSH) {
+                        psshBoxes.add(Arrays.copyOfRange(init.array(), box.offset, box.end()));
+                    }
+                }
+                assertEquals(message, 1, psshBoxes.size());
+                assertArrayEquals(message, key.getPsshBoxes().get(0), psshBoxes.get(0));
+            }
+        }
+    }
+
+    @Test
+    public void encryptedSegmentIsNotEncryptedAgain() throws Exception {
+        Fmp4Fixture fixture = Fmp4Fixture.video(7);
+        ContentKey key = key(EncryptionScheme.CENC);
+        MediaSegmentEncryptor encryptor = new MediaSegmentEncryptor(EncryptionScheme.CENC);
+        TrackInfo track = new InitSegmentEncryptor(EncryptionScheme.CENC).encrypt(fixture.initSegment(), key).trackInfo;
+        ByteBuffer encrypted = encryptor.encrypt(fixture.mediaSegment(fixture.fragments()), track, key);
+
+        try {
+            encryptor.encrypt(encrypted, track, key);
+            fail("encrypted twice");
+        } catch (Mp4FormatException expected) {
+            // senc is already there
+        }
+    }
+
+    private static void assertRoundTrip(EncryptionScheme scheme, Fmp4Fixture fixture) throws Exception {
+        ContentKey key = key(scheme);
+        InitSegmentEncryptor.Result init = new InitSegmentEncryptor(scheme).encrypt(fixture.initSegment(), key);
+        Tenc tenc = Tenc.read(init.segment);
+        List<List<byte[]>> fragments = fixture.fragments();
+        ByteBuffer segment = new MediaSegmentEncryptor(scheme).encrypt(fixture.mediaSegment(fragments), init.trackInfo, key);
+        ReferenceDecryptor decryptor = new ReferenceDecryptor(KEY, tenc);
+
+        Box sidx = null;
+        List<Box> moofs = new ArrayList<>();
+        List<Box> mdats = new ArrayList<>();
+        for (Box box : Mp4Boxes.children(segment, 0, segment.limit())) {
+            if (box.type == Mp4Boxes.SIDX) {
+                sidx = box;
+            } else if (box.type == Mp4Boxes.MOOF) {
+                moofs.add(box);
+            } else if (box.type == Mp4Boxes.MDAT) {
+                mdats.add(box);
+            }
+        }
+        assertNotNull(sidx);
+        assertEquals(fragments.size(), moofs.size());
+        assertEquals(fragments.size(), mdats.size());
+
+        // sidx version 0: references behind the full box header and 20 bytes of fields
+        assertEquals(fragments.size(), segment.getShort(sidx.contentOffset() + 22));
+        for (int f = 0; f < fragments.size(); f++) {
+            int reference = segment.getInt(sidx.contentOffset() + 24 + 12 * f);
+            assertEquals("sidx reference " + f, moofs.get(f).size + mdats.get(f).size, reference & 0x7FFFFFFF);
+        }
+
+        Set<String> ivs = new HashSet<>();
+        for (int f = 0; f < fragments.size(); f++) {
+            Box moof = moofs.get(f);
+            Box mdat = mdats.get(f);
+            Box traf = Mp4Boxes.require(segment, moof, Mp4Boxes.TRAF);
+            List<byte[]> clearSamples = fragments.get(f);
+            String message = scheme + " fragment " + f;
+
+            // trun: full box header, sample count, data offset, then duration and size per sample
+            Box trun = Mp4Boxes.require(segment, traf, Mp4Boxes.TRUN);
+            assertEquals(message, clearSamples.size(), segment.getInt(trun.contentOffset() + 4));
+            assertEquals(message, mdat.contentOffset(), moof.offset + segment.getInt(trun.contentOffset() + 8));
+            int[] sampleSizes = new int[clearSamples.size()];
+            for (int i = 0; i < sampleSizes.length; i++) {
+                sampleSizes[i] = segment.getInt(trun.contentOffset() + 12 + 8 * i + 4);
+                assertEquals(message, clearSamples.get(i).length, sampleSizes[i]);
+            }
+
+            Box senc = Mp4Boxes.require(segment, traf, Mp4Boxes.SENC);
+            int sencFlags = segment.getInt(senc.contentOffset()) & 0xFFFFFF;
+            assertEquals(message, fixture.isVideo(), (sencFlags & MediaSegmentEncryptor.SENC_USE_SUBSAMPLE_ENCRYPTION) != 0);
+            assertEquals(message, clearSamples.size(), segment.getInt(senc.contentOffset() + 4));
+
+            Box saio = Mp4Boxes.require(segment, traf, Mp4Boxes.SAIO);
+            assertEquals(message, 1, segment.getInt(saio.contentOffset() + 4));
+            assertEquals(message, senc.contentOffset() + 8, moof.offset + segment.getInt(saio.contentOffset() + 8));
+
+            Box saiz = Mp4Boxes.require(segment, traf, Mp4Boxes.SAIZ);
+            int defaultInfoSize = segment.get(saiz.contentOffset() + 4) & 0xFF;
+            assertEquals(message, clearSamples.size(), segment.getInt(saiz.contentOffset() + 5));
+            assertEquals(message, 8 + 4 + 1 + 4 + (defaultInfoSize == 0 ? clearSamples.size() : 0), saiz.size);
+
+            int position = senc.contentOffset() + 8;
+            int sampleOffset = mdat.contentOffset();
+            for (int i = 0; i < clearSamples.size(); i++) {
+                String sampleMessage = message + " sample " + i;
+                int entryStart = position;
+                byte[] iv = Arrays.copyOfRange(segment.array(), position, position + tenc.perSampleIvSize);
+                position += tenc.perSampleIvSize;
+                if (tenc.perSampleIvSize > 0) {
+                    assertTrue(sampleMessage + " reuses an IV", ivs.add(Arrays.toString(iv)));
+                }
+
+                int[] clearBytes = null;
+                int[] protectedBytes = null;
+                if (fixture.isVideo()) {
+                    int subsamples = segment.getShort(position) & 0xFFFF;
+                    position += 2;
+                    clearBytes = new int[subsamples];
+                    protectedBytes = new int[subsamples];
+                    long total = 0;
+                    for (int j = 0; j < subsamples; j++) {
+                        clearBytes[j] = segment.getShort(position) & 0xFFFF;
+                        protectedBytes[j] = segment.getInt(position + 2);
+                        position += 6;
+                        total += clearBytes[j] + protectedBytes[j];
+                        if (scheme == EncryptionScheme.CENC) {
+                            assertEquals(sampleMessage + " protects a partial block", 0, protectedBytes[j] % AES_BLOCK);
+                        }
+                    }
+                    assertEquals(sampleMessage + " subsamples", sampleSizes[i], total);
+                }
+                int infoSize = defaultInfoSize == 0 ? segment.get(saiz.contentOffset() + 9 + i) & 0xFF : defaultInfoSize;
+                assertEquals(sampleMessage + " saiz", position - entryStart, infoSize);
+
+                byte[] clear = clearSamples.get(i);
+                byte[] encrypted = Arrays.copyOfRange(segment.array(), sampleOffset, sampleOffset + sampleSizes[i]);
+                sampleOffset += sampleSizes[i];
+                if (protectedTotal(clear.length, protectedBytes) >= AES_BLOCK) {
+                    assertFalse(sampleMessage + " is still clear", Arrays.equals(clear, encrypted));
+                }
+                assertArrayEquals(sampleMessage, clear, decryptor.decrypt(encrypted, iv, clearBytes, protectedBytes));
+            }
+            assertEquals(message, senc.end(), position);
+            assertEquals(message, mdat.end(), sampleOffset);
+        }
+    }
+
+    private static int protectedTotal(int sampleSize, int[] protectedBytes) {
+        if (protectedBytes == null) {
+            return sampleSize;
+        }
+        int total = 0;
+        for (int bytes : protectedBytes) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    private static ContentKey key(EncryptionScheme scheme) {
+        return new ContentKey(KID, KEY, CONSTANT_IV, Collections.singletonList(PsshBox.widevine(KID, "fixture", scheme)));
+    }
+
+    private static Box sinf(ByteBuffer init, InitSegment parsed) {
+        for (Box child : Mp4Boxes.children(init, parsed.sampleEntryChildrenOffset(), parsed.sampleEntry.end())) {
+            if (child.type == Mp4Boxes.SINF) {
+                return child;
+            }
+        }
+        throw new AssertionError("no sinf box in the sample entry");
+    }
+
+    private static byte[] range(int first) {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (first + i);
+        }
+        return bytes;
+    }
+
+    /** The fields of the tenc box of a protected init segment */
+    private static final class Tenc {
+        private int cryptBlocks;
+        private int skipBlocks;
+        private int perSampleIvSize;
+        private byte[] kid;
+        private byte[] constantIv;
+
+        private static Tenc read(ByteBuffer init) {
+            InitSegment parsed = InitSegment.parse(init);
+            Box tenc = Mp4Boxes.require(init, Mp4Boxes.require(init, sinf(init, parsed), Mp4Boxes.SCHI), Mp4Boxes.TENC);
+            int position = tenc.contentOffset();
+            int version = init.get(position) & 0xFF;
+            Tenc fields = new Tenc();
+            if (version > 0) {
+                fields.cryptBlocks = (init.get(position + 5) & 0xFF) >> 4;
+                fields.skipBlocks = init.get(position + 5) & 0x0F;
+            }
+            assertEquals("isProtected", 1, init.get(position + 6));
+            fields.perSampleIvSize = init.get(position + 7) & 0xFF;
+            fields.kid = Arrays.copyOfRange(init.array(), position + 8, position + 24);
+            if (fields.perSampleIvSize == 0) {
+                int constantIvSize = init.get(position + 24) & 0xFF;
+                fields.constantIv = Arrays.copyOfRange(init.array(), position + 25, position + 25 + constantIvSize);
+            }
+            return fields;
+        }
+    }
+
+    /**
+     * Decrypts samples with AES-CTR (cenc) or AES-CBC with the tenc pattern (cbcs), both written
+     * out here on top of AES/ECB, so a mistake in the encryptor's use of the JCE modes shows.
+     */
+    private static final class ReferenceDecryptor {
+        private final Cipher encryptBlock;
+        private final Cipher decryptBlock;
+        private final Tenc tenc;
+
+        private ReferenceDecryptor(byte[] key, Tenc tenc) throws GeneralSecurityException {
+            SecretKeySpec secretKey = new SecretKeySpec(key, "AES");
+            this.encryptBlock = Cipher.getInstance("AES/ECB/NoPadding");
+            this.encryptBlock.init(Cipher.ENCRYPT_MODE, secretKey);
+            this.decryptBlock = Cipher.getInstance("AES/ECB/NoPadding");
+            this.decryptBlock.init(Cipher.DECRYPT_MODE, secretKey);
+            this.tenc = tenc;
+        }
+
+        /** @param clearBytes The clear bytes of the subsamples, or null for a sample without subsamples */
+        private byte[] decrypt(byte[] encrypted, byte[] iv, int[] clearBytes, int[] protectedBytes)
+                throws GeneralSecurityException {
+            byte[] sample = encrypted.clone();
+            List<int[]> ranges = new ArrayList<>();
+            if (clearBytes == null) {
+                ranges.add(new int[] {0, sample.length});
+            } else {
+                int position = 0;
+                for (int i = 0; i < clearBytes.length; i++) {
+                    position += clearBytes[i];
+                    ranges.add(new int[] {position, protectedBytes[i]});
+                    position += protectedBytes[i];
+                }
+            }
+
+            if (tenc.perSampleIvSize > 0) {
+                // one key stream over all protected ranges, the counter block starts as IV || 0
+                byte[] counter = Arrays.copyOf(iv, AES_BLOCK);
+                byte[] keyStream = new byte[AES_BLOCK];
+                int used = AES_BLOCK;
+                for (int[] range : ranges) {
+                    for (int i = range[0]; i < range[0] + range[1]; i++) {
+                        if (used == AES_BLOCK) {
+                            keyStream = encryptBlock.doFinal(counter);
+                            ByteBuffer.wrap(counter).putLong(8, ByteBuffer.wrap(counter).getLong(8) + 1);
+                            used = 0;
+                        }
+                        sample[i] ^= keyStream[used++];
+                    }
+                }
+                return sample;
+            }
+
+            // every protected range is a CBC chain from the constant IV over the crypt blocks
+            for (int[] range : ranges) {
+                byte[] previous = tenc.constantIv.clone();
+                int blocks = range[1] / AES_BLOCK;
+                for (int block = 0; block < blocks; block++) {
+                    if (tenc.cryptBlocks > 0 && block % (tenc.cryptBlocks + tenc.skipBlocks) >= tenc.cryptBlocks) {
+                        continue;
+                    }
+                    int offset = range[0] + block * AES_BLOCK;
+                    byte[] cipherText = Arrays.copyOfRange(sample, offset, offset + AES_BLOCK);
+                    byte[] plain = decryptBlock.doFinal(cipherText);
+                    for (int i = 0; i < AES_BLOCK; i++) {
+                        sample[offset + i] = (byte) (plain[i] ^ previous[i]);
+                    }
+                    previous = cipherText;
+                }
+            }
+            return sample;
+        }
+    }
+}
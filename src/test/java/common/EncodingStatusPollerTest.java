@@ -0,0 +1,131 @@
+package common;
+
+import com.bitmovin.api.sdk.encoding.encodings.EncodingListQueryParams;
+import com.bitmovin.api.sdk.model.Encoding;
+import com.bitmovin.api.sdk.model.Status;
+import com.bitmovin.api.sdk.model.Task;
+import common.EncodingProgressEvent.JobType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the poller on its own clock against a simulated fleet of encodings, which are queued for a
+ * minute and then run for 15 to 25 minutes, and counts the API calls it makes.
+ */
+public class EncodingStatusPollerTest {
+
+    private static final long QUEUED_MILLIS = 60_000;
+
+    @Test
+    public void fewEncodingsArePolledWithoutListCalls() throws Exception {
+        Fleet fleet = new Fleet(EncodingStatusPoller.MIN_BULK_ENCODINGS - 1);
+
+        fleet.run();
+
+        assertEquals(0, fleet.poller.getListCalls());
+        assertTrue(fleet.poller.getStatusCalls() > 0);
+    }
+
+    @Test
+    public void manyEncodingsAreListedAndDetectedAsFinishedWithinTheBulkInterval() throws Exception {
+        Fleet fleet = new Fleet(EncodingStatusPoller.MIN_BULK_ENCODINGS * 2);
+
+        fleet.run();
+
+        assertTrue(fleet.poller.getListCalls() > 0);
+        // the list catches an end within one bulk interval and a tick, until too few encodings are left
+        int detectedByList = 0;
+        for (int i = 0; i < fleet.size; i++) {
+            if (fleet.detected[i] - fleet.finishedAt(i) <= 11_000) {
+                detectedByList++;
+            }
+        }
+        assertTrue(detectedByList + " of " + fleet.size, detectedByList >= fleet.size - EncodingStatusPoller.MIN_BULK_ENCODINGS);
+    }
+
+    @Test
+    public void everyEncodingIsCompletedWithItsFinalStatus() throws Exception {
+        Fleet fleet = new Fleet(3);
+
+        fleet.run();
+
+        for (CompletableFuture<Task> future : fleet.futures) {
+            assertEquals(Status.FINISHED, future.get().getStatus());
+        }
+    }
+
+    /** Encodings started at the same time, answered from the clock of the test */
+    private static class Fleet {
+        private final int size;
+        private final long start = System.currentTimeMillis();
+        private final long[] detected;
+        private final List<CompletableFuture<Task>> futures = new ArrayList<>();
+        private long now = start;
+        private final EncodingStatusPoller poller;
+
+        private Fleet(int size) {
+            this.size = size;
+            this.detected = new long[size];
+            poller = new EncodingStatusPoller(null, new EncodingProgressBus(), false) {
+                @Override
+                List<Encoding> listEncodings(EncodingListQueryParams queryParams) {
+                    List<Encoding> active = new ArrayList<>();
+                    for (int i = 0; i < Fleet.this.size; i++) {
+                        if (status(i).toString().equals(queryParams.get("status"))) {
+                            Encoding encoding = new Encoding();
+                            encoding.setId(id(i));
+                            active.add(encoding);
+                        }
+                    }
+                    int offset = (Integer) queryParams.get("offset");
+                    int limit = (Integer) queryParams.get("limit");
+                    return active.subList(Math.min(offset, active.size()), Math.min(offset + limit, active.size()));
+                }
+
+                @Override
+                Task fetchStatus(JobType jobType, String id) {
+                    int i = Integer.parseInt(id.substring("encoding-".length()));
+                    Task task = new Task();
+                    task.setStatus(status(i));
+                    long running = Math.max(0, now - start - QUEUED_MILLIS);
+                    task.setProgress((int) Math.min(100, 100 * running / (finishedAt(i) - start - QUEUED_MILLIS)));
+                    return task;
+                }
+            };
+            for (int i = 0; i < size; i++) {
+                int encoding = i;
+                CompletableFuture<Task> future = poller.track(id(i), JobType.ENCODING, start);
+                future.thenRun(() -> detected[encoding] = now);
+                futures.add(future);
+            }
+        }
+
+        private void run() {
+            while (poller.getTrackedJobCount() > 0) {
+                now += 1_000;
+                poller.tick(now);
+            }
+        }
+
+        private long finishedAt(int i) {
+            return start + QUEUED_MILLIS + 15 * 60_000 + i * 10 * 60_000L / size;
+        }
+
+        private Status status(int i) {
+            if (now < start + QUEUED_MILLIS) {
+                return Status.QUEUED;
+            }
+            return now < finishedAt(i) ? Status.RUNNING : Status.FINISHED;
+        }
+
+        private static String id(int i) {
+            return "encoding-" + i;
+        }
+    }
+}
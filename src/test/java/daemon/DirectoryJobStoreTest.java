@@ -0,0 +1,166 @@
+package daemon;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirectoryJobStoreTest {
+
+    private static final byte[] REQUEST = "{\"contentId\":\"title\"}".getBytes(StandardCharsets.UTF_8);
+    private static final long LONG_LEASE = 60_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private DirectoryJobStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.getRoot().toPath();
+        store = new DirectoryJobStore(root);
+    }
+
+    @Test
+    public void queuedJobIsClaimedOnce() throws Exception {
+        String jobId = store.enqueue(REQUEST);
+
+        JobLease lease = store.claim("a", LONG_LEASE);
+
+        assertNotNull(lease);
+        assertEquals(jobId, lease.getJobId());
+        assertArrayEquals(REQUEST, lease.getRequest());
+        assertFalse(lease.isResumed());
+        assertNull(store.claim("b", LONG_LEASE));
+    }
+
+    @Test
+    public void renewedLeaseIsNotTakenOver() throws Exception {
+        store.enqueue(REQUEST);
+        JobLease lease = store.claim("a", 200);
+
+        assertTrue(store.renew(lease, LONG_LEASE));
+        Thread.sleep(300);
+
+        assertNull(store.claim("b", LONG_LEASE));
+        assertTrue(store.renew(lease, LONG_LEASE));
+    }
+
+    @Test
+    public void expiredLeaseIsTakenOverWithCheckpoint() throws Exception {
+        store.enqueue(REQUEST);
+        JobLease lease = store.claim("a", 1);
+        store.saveCheckpoint(lease, Collections.singletonMap("encodingId", "e1"));
+        Thread.sleep(20);
+
+        JobLease takeover = store.claim("b", LONG_LEASE);
+
+        assertNotNull(takeover);
+        assertTrue(takeover.isResumed());
+        assertEquals("e1", takeover.getCheckpoint().get("encodingId"));
+        assertFalse("the late renewal has to lose", store.renew(lease, LONG_LEASE));
+        try {
+            store.complete(lease, REQUEST);
+            fail("completed with a lost lease");
+        } catch (IllegalStateException expected) {
+            // the lease was taken over
+        }
+        assertTrue(store.renew(takeover, LONG_LEASE));
+    }
+
+    @Test
+    public void createdButUnwrittenLeaseCountsAsTaken() throws Exception {
+        store.enqueue(REQUEST);
+        JobLease lease = store.claim("a", 1);
+        Thread.sleep(20);
+        // a worker which created the next generation and didn't write it yet, or died
+        Path unwritten = root.resolve("running").resolve(lease.getJobId() + ".lease.2");
+        Files.createFile(unwritten);
+
+        assertNull(store.claim("b", LONG_LEASE));
+        assertFalse(store.renew(lease, LONG_LEASE));
+
+        Files.setLastModifiedTime(unwritten, FileTime.fromMillis(System.currentTimeMillis() - 2 * LONG_LEASE));
+        JobLease takeover = store.claim("b", LONG_LEASE);
+        assertNotNull(takeover);
+        assertFalse(Files.exists(unwritten));
+    }
+
+    @Test
+    public void completedJobMovesToDone() throws Exception {
+        store.enqueue(REQUEST);
+        JobLease lease = store.claim("a", LONG_LEASE);
+        store.renew(lease, LONG_LEASE);
+
+        store.complete(lease, "{}".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(Files.exists(root.resolve("done").resolve(lease.getJobId() + ".json")));
+        assertTrue(Files.exists(root.resolve("done").resolve(lease.getJobId() + ".result.json")));
+        try (java.util.stream.Stream<Path> running = Files.list(root.resolve("running"))) {
+            assertEquals(0, running.count());
+        }
+        assertNull(store.claim("b", 1));
+    }
+
+    @Test
+    public void concurrentTakeoverHasOneWinner() throws Exception {
+        int workers = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(workers + 1);
+        try {
+            for (int round = 0; round < 50; round++) {
+                store.enqueue(REQUEST);
+                JobLease expired = store.claim("owner", 1);
+                assertNotNull(expired);
+                Thread.sleep(5);
+
+                CyclicBarrier start = new CyclicBarrier(workers + 1);
+                List<Future<JobLease>> takeovers = new ArrayList<>();
+                for (int i = 0; i < workers; i++) {
+                    String workerId = "worker-" + i;
+                    takeovers.add(executor.submit(() -> {
+                        start.await();
+                        return store.claim(workerId, LONG_LEASE);
+                    }));
+                }
+                // the owner renews its expired lease at the same time
+                Future<Boolean> renewed = executor.submit(() -> {
+                    start.await();
+                    return store.renew(expired, LONG_LEASE);
+                });
+
+                int winners = renewed.get() ? 1 : 0;
+                for (Future<JobLease> takeover : takeovers) {
+                    JobLease lease = takeover.get();
+                    if (lease != null) {
+                        assertEquals(expired.getJobId(), lease.getJobId());
+                        winners++;
+                    }
+                }
+                assertEquals("round " + round, 1, winners);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package daemon;
+
+import com.pallycon.cpix.dto.VideoConfig;
+import org.junit.Test;
+import pipeline.PackagingJob;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Ladders of job requests, valid and invalid ones */
+public class JobRequestParserTest {
+
+    private final JobRequestParser parser = new JobRequestParser(PackagingJob.builder()
+            .outputBasePath("/output/")
+            .videoProfile(Collections.singletonList(new VideoConfig(480))));
+
+    @Test
+    public void ladderOfHeightsAndRungsIsParsed() throws Exception {
+        PackagingJob job = parse("[480, {\"height\": 720}, {\"height\": 1080, \"track\": \"HD\"}]");
+
+        List<VideoConfig> ladder = job.getVideoProfile();
+        assertEquals(3, ladder.size());
+        assertEquals(480, ladder.get(0).height);
+        assertEquals(720, ladder.get(1).height);
+        assertNull(ladder.get(1).track);
+        assertEquals(1080, ladder.get(2).height);
+        assertEquals("HD", ladder.get(2).track);
+    }
+
+    @Test
+    public void rungWithoutHeightIsRejected() throws Exception {
+        assertRejected("[480, {\"track\": \"HD\"}]", "ladder[1]");
+    }
+
+    @Test
+    public void rungWithoutIntegerHeightIsRejected() throws Exception {
+        assertRejected("[{\"height\": \"720p\"}]", "ladder[0]");
+    }
+
+    @Test
+    public void rungWhichIsNoObjectIsRejected() throws Exception {
+        assertRejected("[480, \"720\"]", "ladder[1]");
+        assertRejected("[480, [720]]", "ladder[1]");
+    }
+
+    @Test
+    public void ladderWhichIsNoArrayIsRejected() throws Exception {
+        assertRejected("{\"height\": 720}", "invalid ladder");
+    }
+
+    private PackagingJob parse(String ladder) throws Exception {
+        String request = "{\"contentId\": \"title\", \"inputPath\": \"title.mp4\", \"ladder\": " + ladder + "}";
+        return parser.parse(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void assertRejected(String ladder, String expectedMessage) throws Exception {
+        try {
+            parse(ladder);
+            fail("accepted the ladder " + ladder);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(expectedMessage));
+        }
+    }
+}
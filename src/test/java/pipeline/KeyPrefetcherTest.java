@@ -0,0 +1,134 @@
+package pipeline;
+
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.CpixDTO;
+import com.pallycon.cpix.dto.VideoConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import pipeline.PackagingJob.DrmType;
+import pipeline.PackagingPipeline.DrmKeys;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+/** Requests of {@link KeyPrefetcher#prefetchAll}, counted on a {@link StubKmsClient} */
+public class KeyPrefetcherTest {
+
+    private final AtomicInteger dashRequests = new AtomicInteger();
+    private final AtomicInteger hlsRequests = new AtomicInteger();
+    private StubKmsClient kmsClient;
+    private KeyPrefetcher prefetcher;
+
+    @Before
+    public void setUp() {
+        kmsClient = new StubKmsClient() {
+            @Override
+            public CpixDTO getDashKeyInfo(String token, String contentId, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile)
+                    throws Exception {
+                dashRequests.incrementAndGet();
+                return super.getDashKeyInfo(token, contentId, videoProfile, audioProfile);
+            }
+
+            @Override
+            public CpixDTO getHlsKeyInfo(String token, String contentId, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile)
+                    throws Exception {
+                hlsRequests.incrementAndGet();
+                return super.getHlsKeyInfo(token, contentId, videoProfile, audioProfile);
+            }
+        };
+        prefetcher = new KeyPrefetcher(4, 2, kmsClient);
+    }
+
+    @After
+    public void tearDown() {
+        prefetcher.shutdown();
+        kmsClient.shutdown();
+    }
+
+    @Test
+    public void everyJobIsRequestedOnItsOwn() throws Exception {
+        PackagingJob job = job("title", DrmType.DASH, 360, 1080);
+        PackagingJob reRun = job("title", DrmType.DASH, 360, 1080);
+        PackagingJob variant = job("title", DrmType.DASH, 720, 2160);
+
+        assertEquals(3, prefetcher.prefetchAll(Arrays.asList(job, reRun, variant)));
+        DrmKeys keys = take(job);
+        DrmKeys reRunKeys = take(reRun);
+        List<VideoConfig> variantProfile = PackagingPipeline.copyOf(variant.getVideoProfile());
+        DrmKeys variantKeys = prefetcher.take(variant, variantProfile, new ArrayList<>(variant.getAudioProfile()));
+
+        assertEquals(3, dashRequests.get());
+        assertNotSame(keys, reRunKeys);
+        assertNotNull(variantKeys);
+        assertEquals(StubKmsClient.track(720), variantProfile.get(0).track);
+        assertEquals(StubKmsClient.track(2160), variantProfile.get(1).track);
+    }
+
+    @Test
+    public void dashAndHlsJobsOfATitleAreRequestedSeparately() throws Exception {
+        PackagingJob dash = job("title", DrmType.DASH, 1080);
+        PackagingJob hls = job("title", DrmType.HLS, 1080);
+
+        assertEquals(2, prefetcher.prefetchAll(Arrays.asList(dash, hls)));
+        DrmKeys dashKeys = take(dash);
+        DrmKeys hlsKeys = take(hls);
+
+        assertEquals(1, dashRequests.get());
+        assertEquals(1, hlsRequests.get());
+        assertNotNull(dashKeys);
+        assertNotNull(hlsKeys);
+    }
+
+    @Test
+    public void titlesAreRequestedOneByOne() throws Exception {
+        PackagingJob first = job("first", DrmType.DASH, 1080);
+        PackagingJob second = job("second", DrmType.DASH, 1080);
+
+        assertEquals(2, prefetcher.prefetchAll(Arrays.asList(first, second)));
+        take(first);
+        take(second);
+
+        assertEquals(2, dashRequests.get());
+    }
+
+    @Test
+    public void jobsBeyondTheCapacityAreNotPrefetched() throws Exception {
+        List<PackagingJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            jobs.add(job("title-" + i, DrmType.DASH, 1080));
+        }
+
+        assertEquals(8, prefetcher.prefetchAll(jobs));
+        assertEquals(8, prefetcher.size());
+        assertNull(take(jobs.get(9)));
+    }
+
+    private DrmKeys take(PackagingJob job) throws InterruptedException {
+        return prefetcher.take(job, PackagingPipeline.copyOf(job.getVideoProfile()), new ArrayList<>(job.getAudioProfile()));
+    }
+
+    private static PackagingJob job(String contentId, DrmType drmType, int... heights) {
+        List<VideoConfig> ladder = new ArrayList<>();
+        for (int height : heights) {
+            ladder.add(new VideoConfig(height));
+        }
+        return PackagingJob.builder()
+                .contentId(contentId)
+                .pallyconEncToken("token")
+                .inputPath("input/" + contentId + ".mp4")
+                .outputBasePath("/output/" + contentId + "/")
+                .videoProfile(ladder)
+                .audioProfile(Collections.singletonList(new AudioConfig()))
+                .drmType(drmType)
+                .build();
+    }
+}
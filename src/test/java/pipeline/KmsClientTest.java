@@ -0,0 +1,170 @@
+package pipeline;
+
+import com.pallycon.cpix.CpixModule;
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.CpixDTO;
+import com.pallycon.cpix.dto.PallyConConfig;
+import com.pallycon.cpix.dto.VideoConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Hedging, cancellation and the thread bound of {@link KmsClient}, against a stub CPIX module
+ * which answers after a fixed latency. Slow requests block until they are interrupted, so a hedged
+ * request whose loser isn't interrupted keeps a client thread and shows in {@link #interrupted}.
+ */
+public class KmsClientTest {
+
+    private static final long FAST_MILLIS = 5;
+    private static final long SLOW_MILLIS = 10_000;
+    private static final long MIN_HEDGE_MILLIS = 50;
+
+    private final CpixDTO cpixDTO = mock(CpixDTO.class);
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger interrupted = new AtomicInteger();
+    private KmsClient kmsClient;
+
+    @After
+    public void tearDown() {
+        if (kmsClient != null) {
+            kmsClient.shutdown();
+        }
+    }
+
+    @Test
+    public void slowRequestIsHedgedAndInterrupted() throws Exception {
+        kmsClient = client(call -> call == 0, 5_000, 4);
+
+        long start = System.nanoTime();
+        CpixDTO answer = kmsClient.getDashKeyInfo("token", "title", ladder(), Collections.singletonList(new AudioConfig()));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertSame(cpixDTO, answer);
+        assertTrue(millis + " ms", millis < SLOW_MILLIS / 10);
+        assertEquals(1L, kmsClient.getMetrics().get("hedged"));
+        assertEquals(1L, kmsClient.getMetrics().get("hedgeWins"));
+        awaitInterrupts(1);
+    }
+
+    @Test
+    public void tailLatencyIsBoundedByTheHedge() throws Exception {
+        // every 20th request is slow, the hedges of the slow ones are not
+        kmsClient = client(call -> call % 20 == 0, 5_000, 4);
+
+        long[] latencies = new long[200];
+        for (int i = 0; i < latencies.length; i++) {
+            long start = System.nanoTime();
+            kmsClient.getDashKeyInfo("token", "title", ladder(), Collections.singletonList(new AudioConfig()));
+            latencies[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        Arrays.sort(latencies);
+
+        long hedged = (Long) kmsClient.getMetrics().get("hedged");
+        assertTrue("max " + latencies[latencies.length - 1] + " ms", latencies[latencies.length - 1] < SLOW_MILLIS / 10);
+        assertTrue("hedged " + hedged, hedged >= 10);
+        assertEquals(hedged, (long) (Long) kmsClient.getMetrics().get("hedgeWins"));
+        assertEquals(0L, kmsClient.getMetrics().get("timeouts"));
+        awaitInterrupts(10);
+    }
+
+    @Test
+    public void requestsWithoutAnswerTimeOutAndAreInterrupted() throws Exception {
+        kmsClient = client(call -> true, 300, 4);
+
+        try {
+            kmsClient.getHlsKeyInfo("token", "title", ladder(), Collections.singletonList(new AudioConfig()));
+            fail("no answer expected");
+        } catch (TimeoutException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("HLS"));
+        }
+
+        assertEquals(1L, kmsClient.getMetrics().get("timeouts"));
+        awaitInterrupts(2);
+    }
+
+    @Test
+    public void concurrentRequestsAreBoundedByTheClientThreads() throws Exception {
+        kmsClient = client(call -> false, 5_000, 3);
+        ExecutorService callers = Executors.newFixedThreadPool(12);
+        try {
+            List<Future<CpixDTO>> answers = new ArrayList<>();
+            for (int i = 0; i < 48; i++) {
+                answers.add(callers.submit(
+                        () -> kmsClient.getDashKeyInfo("token", "title", ladder(), Collections.singletonList(new AudioConfig()))));
+            }
+            for (Future<CpixDTO> answer : answers) {
+                assertSame(cpixDTO, answer.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertTrue("max running " + maxRunning.get(), maxRunning.get() <= 3);
+    }
+
+    private interface Slowness {
+        boolean isSlow(int call);
+    }
+
+    /** @return a client whose CPIX module blocks the calls which are slow until they are interrupted */
+    private KmsClient client(Slowness slowness, long timeoutMillis, int maxConcurrency) throws Exception {
+        CpixModule cpixModule = mock(CpixModule.class);
+        when(cpixModule.getDashKeyInfo(anyString(), anyString(), any(PallyConConfig.class))).thenAnswer(invocation -> {
+            answer(slowness);
+            return cpixDTO;
+        });
+        when(cpixModule.getHlsKeyInfo(anyString(), anyString(), any(PallyConConfig.class))).thenAnswer(invocation -> {
+            answer(slowness);
+            return cpixDTO;
+        });
+        return new KmsClient(() -> cpixModule, timeoutMillis, MIN_HEDGE_MILLIS, maxConcurrency);
+    }
+
+    private void answer(Slowness slowness) throws InterruptedException {
+        int now = running.incrementAndGet();
+        maxRunning.accumulateAndGet(now, Math::max);
+        try {
+            Thread.sleep(slowness.isSlow(calls.getAndIncrement()) ? SLOW_MILLIS : FAST_MILLIS);
+        } catch (InterruptedException e) {
+            interrupted.incrementAndGet();
+            throw e;
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    /** Waits for at least the expected number of interrupted requests, a slow one which isn't never ends */
+    private void awaitInterrupts(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (interrupted.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("interrupted " + interrupted.get(), interrupted.get() >= expected);
+    }
+
+    private static List<VideoConfig> ladder() {
+        return Arrays.asList(new VideoConfig(360), new VideoConfig(720), new VideoConfig(1080));
+    }
+}
@@ -0,0 +1,223 @@
+package pipeline;
+
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.CpixDTO;
+import com.pallycon.cpix.dto.VideoConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import pipeline.PackagingJob.DrmType;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares the manifests of a fixed job with the expected manifests in
+ * src/test/resources/manifests/expected. They were written for this test, not saved from a
+ * Bitmovin encoding, so they pin what {@link LocalManifestWriter} writes, including the codecs,
+ * every segment duration and the Representation ids. The MPD is compared element by element, so
+ * only XML namespace prefixes, attribute order and white space may differ. The playlists are
+ * compared line by line.
+ */
+public class LocalManifestWriterTest {
+
+    private static final String CONTENT_ID = "title";
+    private static final String MPD_NAMESPACE = "urn:mpeg:dash:schema:mpd:2011";
+    private static final String CENC_NAMESPACE = "urn:mpeg:cenc:2013";
+
+    private final Map<String, String> uploads = new LinkedHashMap<>();
+    private StubKmsClient kmsClient;
+    private LocalManifestWriter writer;
+
+    @Before
+    public void setUp() {
+        kmsClient = new StubKmsClient();
+        writer = new LocalManifestWriter(new S3ObjectUploader("us-east-1", null) {
+            @Override
+            public void put(PackagingJob job, String path, byte[] content, String contentType) {
+                uploads.put(path, new String(content, StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        kmsClient.shutdown();
+    }
+
+    @Test
+    public void dashManifestMatchesTheExpectedManifest() throws Exception {
+        PackagingJob job = job(DrmType.DASH);
+        CpixDTO dash = kmsClient.getDashKeyInfo("token", CONTENT_ID, job.getVideoProfile(), job.getAudioProfile());
+
+        String path = writer.writeDash(job, renditions(job), dash);
+
+        assertEquals("/output/title/stream.mpd", path);
+        assertEquals(mpd(resource("stream.mpd")), mpd(uploads.get(path)));
+    }
+
+    @Test
+    public void hlsManifestsMatchTheExpectedPlaylists() throws Exception {
+        PackagingJob job = job(DrmType.CBCS);
+        CpixDTO dash = kmsClient.getDashKeyInfo("token", CONTENT_ID, job.getVideoProfile(), job.getAudioProfile());
+        CpixDTO hls = kmsClient.getHlsKeyInfo("token", CONTENT_ID, job.getVideoProfile(), job.getAudioProfile());
+
+        String path = writer.writeHls(job, renditions(job), dash, hls);
+
+        assertEquals("/output/title/master.m3u8", path);
+        assertEquals(5, uploads.size());
+        for (Map.Entry<String, String> upload : uploads.entrySet()) {
+            String relativePath = upload.getKey().substring("/output/title/".length());
+            assertEquals(relativePath, lines(resource(relativePath)), lines(upload.getValue()));
+        }
+    }
+
+    private static PackagingJob job(DrmType drmType) {
+        return PackagingJob.builder()
+                .contentId(CONTENT_ID)
+                .pallyconEncToken("token")
+                .inputPath("input/title.mp4")
+                .outputBasePath("/output/title/")
+                .videoProfile(Arrays.asList(rung(640, 360, 800_000), rung(1280, 720, 2_400_000), rung(1920, 1080, 4_800_000)))
+                .audioProfile(Collections.singletonList(new AudioConfig()))
+                .drmType(drmType)
+                .segmentLength(4)
+                .sourceDuration(10.5)
+                .build();
+    }
+
+    /** @return the renditions as the pipeline lays them out, with the tracks KMS assigned */
+    private static List<LocalManifestWriter.Rendition> renditions(PackagingJob job) {
+        List<LocalManifestWriter.Rendition> renditions = new ArrayList<>();
+        int i = 1;
+        for (VideoConfig videoConfig : job.getVideoProfile()) {
+            renditions.add(new LocalManifestWriter.Rendition(
+                    "video/" + i++, true, videoConfig.bitrate, videoConfig.width, videoConfig.height, videoConfig.track));
+        }
+        renditions.add(new LocalManifestWriter.Rendition("audio", false, 128_000, 0, 0, job.getAudioProfile().get(0).track));
+        return renditions;
+    }
+
+    private static VideoConfig rung(int width, int height, long bitrate) {
+        VideoConfig videoConfig = new VideoConfig(height);
+        videoConfig.width = width;
+        videoConfig.bitrate = bitrate;
+        return videoConfig;
+    }
+
+    /** @return the elements and attributes of the MPD a player uses, one line per element */
+    private static List<String> mpd(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        Element mpd = document.getDocumentElement();
+        double duration = seconds(mpd.getAttribute("mediaPresentationDuration"));
+
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format(Locale.ROOT, "MPD %s %s %s duration=%.3f minBufferTime=%.3f", mpd.getNamespaceURI(),
+                mpd.getAttribute("profiles"), mpd.getAttribute("type"), duration, seconds(mpd.getAttribute("minBufferTime"))));
+        Element period = elements(mpd, "Period").get(0);
+        lines.add(String.format(Locale.ROOT, "Period start=%.3f", seconds(period.getAttribute("start"))));
+        for (Element adaptationSet : elements(period, "AdaptationSet")) {
+            lines.add("AdaptationSet " + attributes(adaptationSet, "mimeType", "segmentAlignment", "startWithSAP"));
+            for (Element representation : elements(adaptationSet, "Representation")) {
+                lines.add("Representation "
+                        + attributes(representation, "id", "bandwidth", "codecs", "width", "height", "audioSamplingRate"));
+                for (Element contentProtection : elements(representation, "ContentProtection")) {
+                    NodeList pssh = contentProtection.getElementsByTagNameNS(CENC_NAMESPACE, "pssh");
+                    lines.add("ContentProtection " + attributes(contentProtection, "schemeIdUri", "value")
+                            + " default_KID=" + contentProtection.getAttributeNS(CENC_NAMESPACE, "default_KID")
+                            + " pssh=" + (pssh.getLength() == 0 ? "" : pssh.item(0).getTextContent().trim()));
+                }
+                for (Element segmentTemplate : elements(representation, "SegmentTemplate")) {
+                    lines.add("SegmentTemplate " + attributes(segmentTemplate, "initialization", "media", "startNumber")
+                            + " " + segments(segmentTemplate, duration));
+                }
+            }
+        }
+        return lines;
+    }
+
+    /** @return the duration of every segment, from a SegmentTimeline or the duration of the template */
+    private static String segments(Element segmentTemplate, double presentationDuration) {
+        double timescale = Double.parseDouble(segmentTemplate.getAttribute("timescale"));
+        List<String> durations = new ArrayList<>();
+        List<Element> timelines = elements(segmentTemplate, "SegmentTimeline");
+        if (timelines.isEmpty()) {
+            double segmentDuration = Double.parseDouble(segmentTemplate.getAttribute("duration")) / timescale;
+            for (double start = 0; start < presentationDuration - 1e-9; start += segmentDuration) {
+                durations.add(String.format(Locale.ROOT, "%.3f", Math.min(segmentDuration, presentationDuration - start)));
+            }
+        } else {
+            for (Element s : elements(timelines.get(0), "S")) {
+                int repeat = s.hasAttribute("r") ? Integer.parseInt(s.getAttribute("r")) : 0;
+                for (int i = 0; i <= repeat; i++) {
+                    durations.add(String.format(Locale.ROOT, "%.3f", Double.parseDouble(s.getAttribute("d")) / timescale));
+                }
+            }
+        }
+        return "segments=" + String.join(",", durations);
+    }
+
+    private static List<String> lines(String playlist) {
+        return Arrays.asList(playlist.split("\r?\n"));
+    }
+
+    private static List<Element> elements(Element parent, String localName) {
+        List<Element> elements = new ArrayList<>();
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && MPD_NAMESPACE.equals(child.getNamespaceURI()) && localName.equals(child.getLocalName())) {
+                elements.add((Element) child);
+            }
+        }
+        return elements;
+    }
+
+    private static String attributes(Element element, String... names) {
+        StringBuilder attributes = new StringBuilder();
+        for (String name : names) {
+            if (element.hasAttribute(name)) {
+                attributes.append(attributes.length() == 0 ? "" : " ").append(name).append('=').append(element.getAttribute(name));
+            }
+        }
+        return attributes.toString();
+    }
+
+    private static double seconds(String isoDuration) throws Exception {
+        return DatatypeFactory.newInstance().newDuration(isoDuration).getTimeInMillis(new Date(0)) / 1000.0;
+    }
+
+    private static String resource(String relativePath) throws IOException {
+        try (InputStream in = LocalManifestWriterTest.class.getResourceAsStream("/manifests/expected/" + relativePath)) {
+            assertNotNull("no expected manifest " + relativePath, in);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package pipeline;
+
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.VideoConfig;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pipeline.PackagingJob.DrmType;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Keys, entries and ladders of the index, against a local HTTP server serving the source */
+public class OutputIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private volatile String etag = "\"v1\"";
+    private volatile byte[] content = "source".getBytes(StandardCharsets.UTF_8);
+    private OutputIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            if (etag != null) {
+                exchange.getResponseHeaders().set("ETag", etag);
+            }
+            boolean head = "HEAD".equals(exchange.getRequestMethod());
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+            exchange.sendResponseHeaders(200, head ? -1 : content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                if (!head) {
+                    out.write(content);
+                }
+            }
+        });
+        server.start();
+        index = new OutputIndex(folder.getRoot().toPath(), false);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void storedResultIsReused() throws Exception {
+        PackagingJob job = job(1080, 720, 360).build();
+        String key = index.key(job);
+        assertNull(index.lookup(key, job));
+
+        index.store(key, new PackagingResult(job, "encoding-1", "output-1", "/title/stream.mpd", null));
+        PackagingResult result = index.lookup(index.key(job(1080, 720, 360).build()), job);
+
+        assertNotNull(result);
+        assertTrue(result.isReused());
+        assertEquals("encoding-1", result.getEncodingId());
+        assertEquals("output-1", result.getOutputId());
+        assertEquals("/title/stream.mpd", result.getDashManifestPath());
+        assertNull(result.getHlsManifestPath());
+    }
+
+    @Test
+    public void orderOfTheLadderDoesNotChangeTheKey() throws Exception {
+        assertEquals(index.key(job(1080, 720, 360).build()), index.key(job(360, 1080, 720).build()));
+    }
+
+    @Test
+    public void changedSourceOrSettingsChangeTheKey() throws Exception {
+        String key = index.key(job(1080, 720).build());
+
+        assertNotEquals(key, index.key(job(1080, 720, 360).build()));
+        assertNotEquals(key, index.key(job(1080, 720).contentId("other").build()));
+        assertNotEquals(key, index.key(job(1080, 720).drmType(DrmType.CBCS).build()));
+        assertNotEquals(key, index.key(job(1080, 720).segmentLength(6).build()));
+        etag = "\"v2\"";
+        assertNotEquals(key, index.key(job(1080, 720).build()));
+    }
+
+    @Test
+    public void sourceWithoutEtagOrModificationTimeIsNotIndexed() throws Exception {
+        etag = null;
+        assertNull(index.key(job(1080).build()));
+    }
+
+    @Test
+    public void hashedSourceIgnoresTheEtag() throws Exception {
+        OutputIndex hashingIndex = new OutputIndex(folder.getRoot().toPath(), true);
+        String key = hashingIndex.key(job(1080).build());
+
+        etag = "\"v2\"";
+        assertEquals(key, hashingIndex.key(job(1080).build()));
+        content = "changed".getBytes(StandardCharsets.UTF_8);
+        assertNotEquals(key, hashingIndex.key(job(1080).build()));
+    }
+
+    @Test
+    public void ladderIsReadInFolderOrder() throws Exception {
+        PackagingJob job = job(1080, 720).build();
+        List<VideoConfig> rungs = Arrays.asList(rung(720, 1_600_000, "HD"), rung(1080, 2_400_000, "HD"), rung(360, 3_200_000, null));
+
+        index.storeLadder(job, rungs, Collections.singletonList(audio("AUDIO")), "encoding-2");
+        OutputIndex.EncodedLadder ladder = index.lookupLadder(job(2160).build());
+
+        assertNotNull(ladder);
+        assertEquals("encoding-2", ladder.getEncodingId());
+        assertEquals(3, ladder.getRungs().size());
+        for (int i = 0; i < rungs.size(); i++) {
+            assertEquals(rungs.get(i).height, ladder.getRungs().get(i).height);
+            assertEquals(rungs.get(i).bitrate, ladder.getRungs().get(i).bitrate);
+            assertEquals(rungs.get(i).track, ladder.getRungs().get(i).track);
+        }
+        assertEquals(1, ladder.getAudio().size());
+        assertEquals("AUDIO", ladder.getAudio().get(0).track);
+    }
+
+    @Test
+    public void audioOfTheLadderIsRecorded() throws Exception {
+        PackagingJob job = job(720).build();
+        index.storeLadder(job, Collections.singletonList(rung(720, 1_600_000, "HD")),
+                Arrays.asList(audio("AUDIO"), audio(null)), "encoding-4");
+
+        OutputIndex.EncodedLadder ladder = index.lookupLadder(job(720, 1080).build());
+
+        assertNotNull(ladder);
+        assertEquals(2, ladder.getAudio().size());
+        assertEquals("AUDIO", ladder.getAudio().get(0).track);
+        assertNull(ladder.getAudio().get(1).track);
+    }
+
+    @Test
+    public void ladderOfOtherSettingsIsNotExtended() throws Exception {
+        index.storeLadder(job(1080).build(), Collections.singletonList(rung(1080, 800_000, "HD")),
+                Collections.singletonList(audio("AUDIO")), "encoding-3");
+
+        assertNull(index.lookupLadder(job(1080).drmType(DrmType.CBCS).build()));
+        assertNull(index.lookupLadder(job(1080).outputBasePath("/other/").build()));
+    }
+
+    private PackagingJob.Builder job(int... heights) {
+        List<VideoConfig> ladder = new ArrayList<>();
+        for (int height : heights) {
+            ladder.add(new VideoConfig(height));
+        }
+        return PackagingJob.builder()
+                .contentId("title")
+                .httpInputHost("127.0.0.1:" + server.getAddress().getPort())
+                .inputPath("sources/title.mp4")
+                .outputBasePath("/output/title/")
+                .videoProfile(ladder)
+                .audioProfile(Collections.singletonList(new AudioConfig()))
+                .drmType(DrmType.DASH);
+    }
+
+    private static AudioConfig audio(String track) {
+        AudioConfig audioConfig = new AudioConfig();
+        audioConfig.track = track;
+        return audioConfig;
+    }
+
+    private static VideoConfig rung(int height, long bitrate, String track) {
+        VideoConfig videoConfig = track == null ? new VideoConfig(height) : new VideoConfig(track, height);
+        videoConfig.bitrate = bitrate;
+        return videoConfig;
+    }
+}
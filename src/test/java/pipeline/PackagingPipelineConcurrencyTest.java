@@ -0,0 +1,195 @@
+package pipeline;
+
+import cenc.EncryptionScheme;
+import cenc.PsshBox;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.VideoConfig;
+import common.EncodingProgressBus;
+import common.EncodingStatusPoller;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import pipeline.PackagingJob.DrmType;
+import pipeline.PackagingJob.MuxingType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs dozens of jobs at the same time through one pipeline against a stubbed Bitmovin API and
+ * KMS, and checks that every encoding got the ladder, the tracks and the DRM configuration of its
+ * own job. Every job has its own content id and thus its own keys; several jobs share one video
+ * profile instance. Takes about 15 s, the status poller checks an encoding 10 s after its start.
+ */
+public class PackagingPipelineConcurrencyTest {
+
+    private static final int JOBS = 48;
+    private static final int[] HEIGHTS = {360, 480, 720, 1080, 1440, 2160};
+
+    private StubBitmovinApi api;
+    private EncodingStatusPoller statusPoller;
+    private StubKmsClient kmsClient;
+    private PackagingPipeline pipeline;
+
+    @Before
+    public void setUp() throws Exception {
+        api = new StubBitmovinApi();
+        statusPoller = new EncodingStatusPoller(api.client(), new EncodingProgressBus());
+        kmsClient = new StubKmsClient();
+        pipeline = PackagingPipeline.builder(api.client(), statusPoller).resourceCache(new ResourceCache()).kmsClient(kmsClient).build();
+    }
+
+    @After
+    public void tearDown() {
+        statusPoller.shutdown();
+        kmsClient.shutdown();
+        api.close();
+    }
+
+    @Test
+    public void concurrentJobsKeepTheirLaddersTracksAndKeys() throws Exception {
+        List<VideoConfig> sharedProfile = ladder(360, 720, 1080);
+        List<PackagingJob> jobs = new ArrayList<>();
+        for (int i = 0; i < JOBS; i++) {
+            jobs.add(PackagingJob.builder()
+                    .contentId(String.format("title-%02d", i))
+                    .pallyconEncToken("token")
+                    .inputPath("input/title.mp4")
+                    .outputBasePath(String.format("/output/title-%02d/", i))
+                    .videoProfile(i % 4 == 0 ? sharedProfile : ladder(i))
+                    .audioProfile(Collections.singletonList(new AudioConfig()))
+                    .drmType(DrmType.values()[i % DrmType.values().length])
+                    .muxingType(i / 3 % 2 == 0 ? MuxingType.FMP4 : MuxingType.CMAF)
+                    .build());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(JOBS);
+        List<Future<PackagingResult>> results = new ArrayList<>();
+        try {
+            for (PackagingJob job : jobs) {
+                results.add(executor.submit(() -> pipeline.run(job)));
+            }
+            Set<String> encodingIds = new HashSet<>();
+            for (int i = 0; i < JOBS; i++) {
+                PackagingResult result = results.get(i).get(60, TimeUnit.SECONDS);
+                assertTrue("encoding shared by two jobs", encodingIds.add(result.getEncodingId()));
+                assertEncoding(jobs.get(i), result.getEncodingId());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (VideoConfig videoConfig : sharedProfile) {
+            assertNull("the shared profile was changed", videoConfig.track);
+        }
+    }
+
+    /** Checks the renditions and DRM configurations of the encoding against the job */
+    private void assertEncoding(PackagingJob job, String encodingId) {
+        String contentId = job.getContentId();
+        List<Integer> expectedHeights = new ArrayList<>();
+        for (VideoConfig videoConfig : job.getVideoProfile()) {
+            expectedHeights.add(videoConfig.height);
+        }
+        Collections.sort(expectedHeights);
+
+        List<StubBitmovinApi.Resource> drmConfigs = new ArrayList<>(api.created(encodingId, "/drm/cenc"));
+        drmConfigs.addAll(api.created(encodingId, "/drm/fairplay"));
+        assertEquals(contentId, expectedHeights.size() + 1, drmConfigs.size());
+
+        List<Integer> heights = new ArrayList<>();
+        for (StubBitmovinApi.Resource drm : drmConfigs) {
+            JsonNode codecConfig = codecConfigOf(drm);
+            String track;
+            if (codecConfig.has("height")) {
+                heights.add(codecConfig.get("height").asInt());
+                track = StubKmsClient.track(codecConfig.get("height").asInt());
+            } else {
+                track = VideoConfig.Track.AUDIO;
+            }
+            assertDrm(job, track, drm);
+        }
+        Collections.sort(heights);
+        assertEquals(contentId, expectedHeights, heights);
+    }
+
+    private void assertDrm(PackagingJob job, String track, StubBitmovinApi.Resource drm) {
+        String contentId = job.getContentId();
+        String message = contentId + " " + track + " " + drm.path;
+        JsonNode body = drm.body;
+
+        assertTrue(message, body.get("outputs").get(0).get("outputPath").asText().startsWith("/output/" + contentId + "/"));
+        assertEquals(message, hex(StubKmsClient.key(contentId, track)), body.get("key").asText().toLowerCase());
+        if (job.getDrmType() == DrmType.HLS && job.getMuxingType() == MuxingType.FMP4) {
+            assertTrue(message, drm.path.endsWith("/drm/fairplay"));
+            assertEquals(message, StubKmsClient.fairPlayUri(contentId, track), body.get("uri").asText());
+            return;
+        }
+
+        assertTrue(message, drm.path.endsWith("/drm/cenc"));
+        assertEquals(message, hex(StubKmsClient.kid(contentId, track)), body.get("kid").asText().toLowerCase());
+        if (job.getDrmType() != DrmType.DASH) {
+            assertEquals(message, "CBC", body.get("encryptionMode").asText());
+            assertEquals(message, StubKmsClient.fairPlayUri(contentId, track), body.get("fairPlay").get("uri").asText());
+        }
+        if (job.getDrmType() != DrmType.HLS) {
+            String widevinePssh = PsshBox.read(PsshBox.widevine(StubKmsClient.kid(contentId, track), contentId, EncryptionScheme.CENC))
+                    .encodeData();
+            assertEquals(message, widevinePssh, body.get("widevine").get("pssh").asText());
+            assertEquals(message, "playready/" + contentId + "/" + track, body.get("playReady").get("pssh").asText());
+        }
+    }
+
+    /** @return the codec configuration of the stream the DRM configuration encrypts */
+    private JsonNode codecConfigOf(StubBitmovinApi.Resource drm) {
+        // /encoding/encodings/<encoding>/muxings/<type>/<muxing>/drm/<drm type>
+        String muxingId = drm.path.split("/")[6];
+        StubBitmovinApi.Resource muxing = api.get(muxingId);
+        assertNotNull(drm.path, muxing);
+        StubBitmovinApi.Resource stream = api.get(muxing.body.get("streams").get(0).get("streamId").asText());
+        return api.get(stream.body.get("codecConfigId").asText()).body;
+    }
+
+    /** @return a ladder of the heights whose bits are set in the job number, at least one rung */
+    private static List<VideoConfig> ladder(int job) {
+        int bits = job % ((1 << HEIGHTS.length) - 1) + 1;
+        List<Integer> heights = new ArrayList<>();
+        for (int i = 0; i < HEIGHTS.length; i++) {
+            if ((bits & 1 << i) != 0) {
+                heights.add(HEIGHTS[i]);
+            }
+        }
+        // the highest rung first, the pipeline sorts its copy
+        Collections.reverse(heights);
+        return ladder(heights.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static List<VideoConfig> ladder(int... heights) {
+        List<VideoConfig> ladder = new ArrayList<>();
+        for (int height : heights) {
+            ladder.add(new VideoConfig(height));
+        }
+        return ladder;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package pipeline;
+
+import com.bitmovin.api.sdk.BitmovinApi;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import feign.Logger.Level;
+import feign.slf4j.Slf4jLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local HTTP server standing in for the Bitmovin API. Every resource which is created is
+ * recorded with its path and body and answered with the body and a new id. Encodings and
+ * manifests are FINISHED as soon as their status is requested, no encoding is listed as queued or
+ * running.
+ */
+class StubBitmovinApi implements AutoCloseable {
+
+    private static final Pattern ENCODING_PATH = Pattern.compile("/encoding/encodings/([^/]+)/.*");
+
+    /** A resource created through the stub */
+    static class Resource {
+        final String path;
+        final String id;
+        final JsonNode body;
+
+        private Resource(String path, String id, JsonNode body) {
+            this.path = path;
+            this.id = id;
+            this.body = body;
+        }
+
+        /** @return the id of the encoding the resource belongs to, or null */
+        String getEncodingId() {
+            Matcher matcher = ENCODING_PATH.matcher(path);
+            return matcher.matches() ? matcher.group(1) : null;
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+
+    StubBitmovinApi() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::respond);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /** @return a client of the stub */
+    BitmovinApi client() {
+        return BitmovinApi.builder()
+                .withApiKey("test")
+                .withBaseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/v1")
+                .withLogger(new Slf4jLogger(), Level.NONE)
+                .build();
+    }
+
+    /** @return the created resource with the id, or null */
+    Resource get(String id) {
+        return resources.get(id);
+    }
+
+    /** @return the resources created below the path of the encoding whose path ends with the suffix */
+    List<Resource> created(String encodingId, String pathSuffix) {
+        List<Resource> created = new ArrayList<>();
+        for (Resource resource : resources.values()) {
+            if (encodingId.equals(resource.getEncodingId()) && resource.path.endsWith(pathSuffix)) {
+                created.add(resource);
+            }
+        }
+        return created;
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        byte[] request;
+        try (InputStream body = exchange.getRequestBody()) {
+            request = readAll(body);
+        }
+        String path = exchange.getRequestURI().getPath().replaceFirst("^/v1", "");
+        String query = exchange.getRequestURI().getQuery();
+
+        JsonNode result;
+        if ("POST".equals(exchange.getRequestMethod())) {
+            ObjectNode resource = request.length == 0
+                    ? objectMapper.createObjectNode()
+                    : (ObjectNode) objectMapper.readTree(request);
+            String id = "id-" + ids.incrementAndGet();
+            resource.put("id", id);
+            resources.put(id, new Resource(path, id, resource));
+            result = resource;
+        } else if (path.endsWith("/status")) {
+            result = objectMapper.createObjectNode().put("status", "FINISHED").put("progress", 100);
+        } else if (path.equals("/encoding/encodings") && query != null) {
+            ObjectNode page = objectMapper.createObjectNode().put("totalCount", 0);
+            page.putArray("items");
+            result = page;
+        } else {
+            result = objectMapper.createObjectNode().put("id", path.substring(path.lastIndexOf('/') + 1));
+        }
+
+        ObjectNode envelope = objectMapper.createObjectNode().put("requestId", "test").put("status", "SUCCESS");
+        envelope.putObject("data").set("result", result);
+        byte[] response = objectMapper.writeValueAsBytes(envelope);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
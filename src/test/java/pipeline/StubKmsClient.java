@@ -0,0 +1,131 @@
+package pipeline;
+
+import cenc.EncryptionScheme;
+import cenc.PsshBox;
+import com.pallycon.cpix.dto.AudioConfig;
+import com.pallycon.cpix.dto.ContentKeyDTO;
+import com.pallycon.cpix.dto.ContentKeyUsageRuleDTO;
+import com.pallycon.cpix.dto.CpixDTO;
+import com.pallycon.cpix.dto.DRMSystemId;
+import com.pallycon.cpix.dto.DrmSystemDTO;
+import com.pallycon.cpix.dto.VideoConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A KMS client which answers without PallyCon KMS, after a random latency of up to 20 ms. Like
+ * KMS it assigns the tracks SD, HD and UHD1 by height and AUDIO to the audio. Key ids, keys, IVs
+ * and DRM data are derived from the content id and the track, see {@link #kid}, {@link #key} and
+ * {@link #fairPlayUri}.
+ */
+class StubKmsClient extends KmsClient {
+
+    @Override
+    public CpixDTO getDashKeyInfo(String token, String contentId, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile)
+            throws Exception {
+        return keyInfo(false, contentId, videoProfile, audioProfile);
+    }
+
+    @Override
+    public CpixDTO getHlsKeyInfo(String token, String contentId, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile)
+            throws Exception {
+        return keyInfo(true, contentId, videoProfile, audioProfile);
+    }
+
+    /** @return the track KMS assigns to a rung of the height */
+    static String track(int height) {
+        return height < 720 ? VideoConfig.Track.SD : height <= 1080 ? VideoConfig.Track.HD : VideoConfig.Track.UHD1;
+    }
+
+    /** @return the key id of the track of the content, 16 bytes */
+    static byte[] kid(String contentId, String track) {
+        return digest("kid/" + contentId + "/" + track);
+    }
+
+    /** @return the key of the track of the content, 16 bytes */
+    static byte[] key(String contentId, String track) {
+        return digest("key/" + contentId + "/" + track);
+    }
+
+    /** @return the FairPlay key URI of the track of the content */
+    static String fairPlayUri(String contentId, String track) {
+        return "skd://" + contentId + "/" + track;
+    }
+
+    private CpixDTO keyInfo(boolean hls, String contentId, List<VideoConfig> videoProfile, List<AudioConfig> audioProfile)
+            throws InterruptedException {
+        Thread.sleep(ThreadLocalRandom.current().nextInt(20));
+        CpixDTO cpixDTO = mock(CpixDTO.class);
+        for (VideoConfig videoConfig : videoProfile) {
+            videoConfig.track = track(videoConfig.height);
+            addKey(cpixDTO, hls, contentId, videoConfig.track);
+        }
+        for (AudioConfig audioConfig : audioProfile) {
+            audioConfig.track = VideoConfig.Track.AUDIO;
+            addKey(cpixDTO, hls, contentId, audioConfig.track);
+        }
+        return cpixDTO;
+    }
+
+    private static void addKey(CpixDTO cpixDTO, boolean hls, String contentId, String track) {
+        byte[] kidBytes = kid(contentId, track);
+        String kid = uuid(kidBytes).toString();
+
+        ContentKeyUsageRuleDTO usageRule = mock(ContentKeyUsageRuleDTO.class);
+        when(usageRule.getKid()).thenReturn(kid);
+        when(cpixDTO.getContentKeyUsageRuleDTO(track)).thenReturn(usageRule);
+
+        ContentKeyDTO contentKey = mock(ContentKeyDTO.class, RETURNS_DEEP_STUBS);
+        when(contentKey.getKid()).thenReturn(kid);
+        when(contentKey.getData().getSecret().getPlainValue())
+                .thenReturn(Base64.getEncoder().encodeToString(key(contentId, track)));
+        when(contentKey.getExplicitIV()).thenReturn(Base64.getEncoder().encodeToString(digest("iv/" + contentId + "/" + track)));
+        when(cpixDTO.getContentKeyDTO(kid)).thenReturn(contentKey);
+
+        if (hls) {
+            DrmSystemDTO fairPlay = mock(DrmSystemDTO.class);
+            when(fairPlay.getHlsSignalingData()).thenReturn("signaling/" + contentId);
+            when(fairPlay.getFairPlayDrmUri(anyString())).thenReturn(fairPlayUri(contentId, track));
+            when(cpixDTO.getDrmSystemDTO(DRMSystemId.FAIRPLAY, kid)).thenReturn(fairPlay);
+            return;
+        }
+        DrmSystemDTO widevine = mock(DrmSystemDTO.class);
+        when(widevine.getPssh()).thenReturn(
+                Base64.getEncoder().encodeToString(PsshBox.widevine(kidBytes, contentId, EncryptionScheme.CENC)));
+        when(cpixDTO.getDrmSystemDTO(DRMSystemId.WIDEVINE, kid)).thenReturn(widevine);
+        DrmSystemDTO playReady = mock(DrmSystemDTO.class);
+        when(playReady.getContentProtectionData()).thenReturn("playready/" + contentId + "/" + track);
+        when(playReady.getPssh()).thenReturn(
+                Base64.getEncoder().encodeToString(PsshBox.playReady(kidBytes, null, EncryptionScheme.CENC)));
+        when(cpixDTO.getDrmSystemDTO(DRMSystemId.PLAYREADY, kid)).thenReturn(playReady);
+    }
+
+    private static UUID uuid(byte[] bytes) {
+        long most = 0;
+        long least = 0;
+        for (int i = 0; i < 8; i++) {
+            most = most << 8 | (bytes[i] & 0xff);
+            least = least << 8 | (bytes[i + 8] & 0xff);
+        }
+        return new UUID(most, least);
+    }
+
+    private static byte[] digest(String value) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}